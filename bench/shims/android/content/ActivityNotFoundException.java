@@ -0,0 +1,8 @@
+package android.content;
+
+/**
+ * Thrown by nothing on the desktop, the client only catches it.
+ */
+public class ActivityNotFoundException
+  extends RuntimeException {
+}
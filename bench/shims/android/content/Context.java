@@ -0,0 +1,25 @@
+package android.content;
+
+import java.io.File;
+
+/**
+ * Declares only what the SDK calls at run time.
+ */
+public abstract class Context {
+
+  public static final int MODE_PRIVATE = 0;
+
+  public abstract Context getApplicationContext();
+
+  public abstract File getFilesDir();
+
+  public abstract File getCacheDir();
+
+  public abstract SharedPreferences getSharedPreferences(String name,
+    int mode);
+
+  public abstract Object getSystemService(String name);
+
+  public abstract int checkCallingOrSelfPermission(String permission);
+
+}
@@ -0,0 +1,47 @@
+package android.content;
+
+import java.io.File;
+
+/**
+ * Delegates to a base context, as on Android.
+ */
+public class ContextWrapper
+  extends Context {
+
+  private Context base;
+
+  public ContextWrapper(Context base) {
+    this.base = base;
+  }
+
+  @Override
+  public Context getApplicationContext() {
+    return base.getApplicationContext();
+  }
+
+  @Override
+  public File getFilesDir() {
+    return base.getFilesDir();
+  }
+
+  @Override
+  public File getCacheDir() {
+    return base.getCacheDir();
+  }
+
+  @Override
+  public SharedPreferences getSharedPreferences(String name, int mode) {
+    return base.getSharedPreferences(name, mode);
+  }
+
+  @Override
+  public Object getSystemService(String name) {
+    return base.getSystemService(name);
+  }
+
+  @Override
+  public int checkCallingOrSelfPermission(String permission) {
+    return base.checkCallingOrSelfPermission(permission);
+  }
+
+}
@@ -0,0 +1,15 @@
+package android.content.pm;
+
+/**
+ * The permission results and the exception the client catches.
+ */
+public abstract class PackageManager {
+
+  public static final int PERMISSION_GRANTED = 0;
+  public static final int PERMISSION_DENIED = -1;
+
+  public static class NameNotFoundException
+    extends Exception {
+  }
+
+}
@@ -0,0 +1,44 @@
+package android.os;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Posts to a single daemon thread that plays the main UI thread.
+ */
+public class Handler {
+
+  private static final ScheduledExecutorService MAIN = Executors
+    .newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "main");
+        thread.setDaemon(true);
+        Looper.mainThread = thread;
+        return thread;
+      }
+    });
+
+  public Handler() {
+  }
+
+  public Handler(Looper looper) {
+  }
+
+  public final boolean post(Runnable r) {
+    MAIN.execute(r);
+    return true;
+  }
+
+  public final boolean postDelayed(Runnable r, long delayMillis) {
+    MAIN.schedule(r, delayMillis, TimeUnit.MILLISECONDS);
+    return true;
+  }
+
+  public final void removeCallbacks(Runnable r) {
+  }
+
+}
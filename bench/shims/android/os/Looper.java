@@ -0,0 +1,24 @@
+package android.os;
+
+/**
+ * The main looper, whose thread is the one {@link Handler} posts to.
+ */
+public class Looper {
+
+  private static final Looper MAIN = new Looper();
+
+  static volatile Thread mainThread;
+
+  public static Looper getMainLooper() {
+    return MAIN;
+  }
+
+  public static Looper myLooper() {
+    return Thread.currentThread() == mainThread ? MAIN : null;
+  }
+
+  public Thread getThread() {
+    return mainThread;
+  }
+
+}
@@ -0,0 +1,27 @@
+package android.os;
+
+/**
+ * Milliseconds since the JVM started.
+ */
+public final class SystemClock {
+
+  private static final long START = System.nanoTime();
+
+  public static long elapsedRealtime() {
+    return (System.nanoTime() - START) / 1000000;
+  }
+
+  public static long uptimeMillis() {
+    return elapsedRealtime();
+  }
+
+  public static void sleep(long ms) {
+    try {
+      Thread.sleep(ms);
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+}
@@ -0,0 +1,64 @@
+package com.singly.android.bench;
+
+import java.io.ByteArrayInputStream;
+
+import org.apache.commons.io.IOUtils;
+
+import com.singly.android.util.JSON;
+
+/**
+ * Compares parsing a response body into a tree by decoding it into a String
+ * first with parsing it straight from its bytes, from a stream or from a
+ * buffer.
+ */
+public class BytesBenchmark {
+
+  public static void main(String[] args)
+    throws Exception {
+
+    for (int rows : new int[] {20, 500}) {
+
+      final byte[] body = Payloads.friendsBlock(rows, true).getBytes("UTF-8");
+      int iterations = rows == 20 ? 20000 : 1000;
+
+      // every path must read the same tree
+      Object tree = JSON.parse(new String(body, "UTF-8"));
+      if (!tree.equals(JSON.parse(new ByteArrayInputStream(body)))
+        || !tree.equals(JSON.parse(body, 0, body.length))) {
+        throw new AssertionError("The parse paths read different trees");
+      }
+
+      Measure string = Measure.run(new Measure.Op() {
+
+        @Override
+        public Object run()
+          throws Exception {
+          return JSON.parse(IOUtils.toString(new ByteArrayInputStream(body),
+            "UTF-8"));
+        }
+      }, iterations);
+      Measure stream = Measure.run(new Measure.Op() {
+
+        @Override
+        public Object run()
+          throws Exception {
+          return JSON.parse(new ByteArrayInputStream(body));
+        }
+      }, iterations);
+      Measure buffer = Measure.run(new Measure.Op() {
+
+        @Override
+        public Object run()
+          throws Exception {
+          return JSON.parse(body, 0, body.length);
+        }
+      }, iterations);
+
+      System.out.println(rows + " rows, " + body.length + " bytes");
+      System.out.println("  toString + parse(String)  " + string);
+      System.out.println("  parse(InputStream)        " + stream);
+      System.out.println("  parse(byte[], off, len)   " + buffer);
+    }
+  }
+
+}
@@ -0,0 +1,29 @@
+package com.singly.android.bench;
+
+/**
+ * Records the results of the checks run against a stub server.
+ */
+public class Checks {
+
+  private static int failures = 0;
+
+  /**
+   * Prints the result of a single check.
+   */
+  public static void check(String name, boolean passed) {
+    System.out.println((passed ? "ok     " : "FAILED ") + name);
+    if (!passed) {
+      failures++;
+    }
+  }
+
+  /**
+   * Exits with a non zero status if any check failed.
+   */
+  public static void finish() {
+    System.out.println(failures == 0 ? "all checks passed" : failures
+      + " checks failed");
+    System.exit(failures == 0 ? 0 : 1);
+  }
+
+}
@@ -0,0 +1,122 @@
+package com.singly.android.bench;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.codehaus.jackson.JsonNode;
+
+import com.singly.android.component.Friend;
+import com.singly.android.component.FriendsDecoder;
+import com.singly.android.util.JSON;
+
+/**
+ * Compares decoding a /friends/all block with its table of contents from a
+ * JsonNode tree, the way FriendsListAdapter did before the FriendsDecoder,
+ * with decoding it token by token with the FriendsDecoder.
+ */
+public class DecoderBenchmark {
+
+  private static FriendsDecoder.Block decodeTree(byte[] body)
+    throws Exception {
+
+    JsonNode root = JSON.createParser(new ByteArrayInputStream(body))
+      .readValueAsTree();
+    FriendsDecoder.Block block = new FriendsDecoder.Block();
+    for (JsonNode node : root) {
+
+      if (block.tableOfContents == null) {
+        block.tableOfContents = new HashMap<String, Integer>();
+        for (Map.Entry<String, JsonNode> letter : JSON.getFields(node)
+          .entrySet()) {
+          if (!"meta".equals(letter.getKey())) {
+            block.tableOfContents.put(letter.getKey().toUpperCase(), JSON
+              .getInt(letter.getValue(), "offset"));
+          }
+        }
+        continue;
+      }
+
+      Friend friend = new Friend();
+      friend.name = JSON.getString(node, "name");
+      friend.imageUrl = JSON.getString(node, "thumbnail_url");
+      friend.handle = JSON.getString(node, "handle");
+      friend.description = JSON.getString(node, "description");
+      friend.email = JSON.getString(node, "email");
+      friend.phone = JSON.getString(node, "phone");
+      friend.services = new LinkedHashMap<String, Friend.Service>();
+      for (Map.Entry<String, JsonNode> entry : JSON.getFields(
+        JSON.getJsonNode(node, "services")).entrySet()) {
+        Friend.Service service = new Friend.Service();
+        service.id = JSON.getString(entry.getValue(), "id");
+        service.entry = JSON.getString(entry.getValue(), "entry");
+        service.url = JSON.getString(entry.getValue(), "url");
+        friend.services.put(entry.getKey(), service);
+      }
+      block.friends.add(friend);
+    }
+    return block;
+  }
+
+  private static FriendsDecoder.Block decodeStream(byte[] body)
+    throws Exception {
+    return FriendsDecoder.decodeBlock(JSON.createParser(
+      new ByteArrayInputStream(body)), true);
+  }
+
+  private static List<String> describe(FriendsDecoder.Block block) {
+    List<String> rows = new ArrayList<String>();
+    rows.add(String.valueOf(new TreeMap<String, Integer>(
+      block.tableOfContents)));
+    for (Friend friend : block.friends) {
+      StringBuilder row = new StringBuilder();
+      row.append(friend.name).append(friend.imageUrl).append(friend.handle)
+        .append(friend.description).append(friend.email).append(friend.phone);
+      for (Map.Entry<String, Friend.Service> service : friend.services
+        .entrySet()) {
+        row.append(service.getKey()).append(service.getValue().id)
+          .append(service.getValue().entry).append(service.getValue().url);
+      }
+      rows.add(row.toString());
+    }
+    return rows;
+  }
+
+  public static void main(String[] args)
+    throws Exception {
+
+    // both decoders must read the same friends
+    byte[] check = Payloads.friendsBlock(20, true).getBytes("UTF-8");
+    if (!describe(decodeTree(check)).equals(describe(decodeStream(check)))) {
+      throw new AssertionError("The decoders read different friends");
+    }
+
+    for (int rows : new int[] {20, 100}) {
+
+      final byte[] body = Payloads.friendsBlock(rows, true).getBytes("UTF-8");
+      Measure tree = Measure.run(new Measure.Op() {
+
+        @Override
+        public Object run()
+          throws Exception {
+          return decodeTree(body);
+        }
+      }, 20000);
+      Measure stream = Measure.run(new Measure.Op() {
+
+        @Override
+        public Object run()
+          throws Exception {
+          return decodeStream(body);
+        }
+      }, 20000);
+      System.out.println(String.format("%3d rows %6d bytes  tree %s  stream %s",
+        rows, body.length, tree, stream));
+    }
+  }
+
+}
@@ -0,0 +1,191 @@
+package com.singly.android.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.codehaus.jackson.JsonParser;
+
+import com.singly.android.client.MetricsListener;
+import com.singly.android.client.RequestMetrics;
+import com.singly.android.client.SinglyClient;
+import com.singly.android.client.StreamParser;
+import com.singly.android.client.TypedResponseHandler;
+import com.singly.android.component.FriendsDecoder;
+import com.singly.android.util.JSON;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+/**
+ * Measures the time from the app starting to the first row of the friends
+ * list, with and without SinglyClient.warmUp, against a stub server with a
+ * fixed latency per request.
+ *
+ * The friends list is played the way FriendsListFragment and
+ * TableOfContentsFragment make their requests, once the activity has been
+ * set up: the friends count and the table of contents, then the first block
+ * of friends once the count is known.  Run it once with cold and once with
+ * warm, each in a new JVM so nothing is loaded ahead of the run.
+ */
+public class FirstRowTiming {
+
+  private static final int BLOCK_SIZE = 20;
+
+  // the latency of every request to the stub server
+  private static final long LATENCY_MILLIS = 100;
+
+  // the time the activity takes to set up before the fragments request
+  private static final long SETUP_MILLIS = 150;
+
+  private static final JSON.Projection FRIENDS_FIELDS = JSON
+    .projection("all");
+
+  private static long start;
+  private static CountDownLatch firstRow = new CountDownLatch(1);
+  private static volatile long firstRowNanos;
+
+  private static Map<String, String> params(int limit) {
+    Map<String, String> params = new HashMap<String, String>();
+    params.put("offset", "0");
+    params.put("limit", String.valueOf(limit));
+    params.put("toc", "true");
+    return params;
+  }
+
+  /**
+   * Requests the first block of friends and notes when it is decoded and
+   * handed to the main thread.
+   */
+  private static void loadFirstBlock(SinglyClient client,
+    StubContext context) {
+
+    client.doGetApiRequest(context, "/friends/all", params(BLOCK_SIZE),
+      new StreamParser<FriendsDecoder.Block>() {
+
+        @Override
+        public FriendsDecoder.Block parse(JsonParser parser)
+          throws IOException {
+          return FriendsDecoder.decodeBlock(parser, true);
+        }
+      }, new TypedResponseHandler<FriendsDecoder.Block>() {
+
+        @Override
+        public void onSuccess(FriendsDecoder.Block block) {
+          if (!block.friends.isEmpty()) {
+            firstRowNanos = System.nanoTime() - start;
+            firstRow.countDown();
+          }
+        }
+
+        @Override
+        public void onFailure(Throwable error, String message) {
+          error.printStackTrace();
+          firstRow.countDown();
+        }
+      });
+  }
+
+  public static void main(String[] args)
+    throws Exception {
+
+    start = System.nanoTime();
+    boolean warm = args.length > 0 && args[0].equals("warm");
+
+    StubServer server = new StubServer();
+    server.route("/friends", new HttpHandler() {
+
+      @Override
+      public void handle(HttpExchange exchange)
+        throws IOException {
+        try {
+          Thread.sleep(LATENCY_MILLIS);
+        }
+        catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        if (exchange.getRequestURI().getPath().equals("/friends")) {
+          StubServer.respond(exchange, 200, "{\"all\":200}");
+        }
+        else {
+          String limit = StubServer.getQuery(exchange).get("limit");
+          StubServer.respond(exchange, 200, Payloads.friendsBlock(Integer
+            .parseInt(limit), true));
+        }
+      }
+    });
+
+    // every completed request, to show where the time went
+    final List<RequestMetrics> completed = new CopyOnWriteArrayList<RequestMetrics>();
+    final SinglyClient client = SinglyClient.getInstance();
+    client.getMetrics().setEnabled(true);
+    client.getMetrics().addListener(new MetricsListener() {
+
+      @Override
+      public void onRequestCompleted(RequestMetrics metrics) {
+        completed.add(metrics);
+      }
+    });
+
+    final StubContext context = new StubContext(new File(
+      "bench/out/timing-first-row"));
+    client.setResponseCacheEnabled(false);
+    client.getAuthenticationState(context).update("account", "token");
+
+    if (warm) {
+      client.warmUp(context, BLOCK_SIZE);
+    }
+    Thread.sleep(SETUP_MILLIS);
+
+    // the table of contents and the count go out together, the first block
+    // once the count is back
+    client.doGetApiRequest(context, "/friends/all", params(1),
+      new StreamParser<Map<String, Integer>>() {
+
+        @Override
+        public Map<String, Integer> parse(JsonParser parser)
+          throws IOException {
+          return FriendsDecoder.decodeTableOfContents(parser);
+        }
+      }, new TypedResponseHandler<Map<String, Integer>>() {
+
+        @Override
+        public void onSuccess(Map<String, Integer> toc) {
+        }
+      });
+    client.doGetApiRequest(context, "/friends", null,
+      new StreamParser<Integer>() {
+
+        @Override
+        public Integer parse(JsonParser parser)
+          throws IOException {
+          return JSON.getInt(JSON.project(parser, FRIENDS_FIELDS), "all");
+        }
+      }, new TypedResponseHandler<Integer>() {
+
+        @Override
+        public void onSuccess(Integer total) {
+          loadFirstBlock(client, context);
+        }
+      });
+
+    if (!firstRow.await(20, TimeUnit.SECONDS)) {
+      throw new AssertionError("The first block never arrived");
+    }
+    Thread.sleep(LATENCY_MILLIS * 2);
+
+    System.out.println((warm ? "warm" : "cold") + " first row "
+      + TimeUnit.NANOSECONDS.toMillis(firstRowNanos) + "ms after start, "
+      + server.getLog().size() + " requests to the server");
+    for (RequestMetrics metrics : completed) {
+      System.out.println("  " + metrics);
+    }
+    server.stop();
+    System.exit(0);
+  }
+
+}
@@ -0,0 +1,108 @@
+package com.singly.android.bench;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.MappingJsonFactory;
+import org.codehaus.jackson.map.ObjectMapper;
+
+import com.singly.android.util.JSON;
+
+/**
+ * Compares the shared ObjectMapper and prebuilt readers of JSON with a new
+ * ObjectMapper per call, the way JSON parsed and serialized before they were
+ * shared.
+ */
+public class MapperBenchmark {
+
+  private static JsonNode perCallParse(String json)
+    throws Exception {
+    return new ObjectMapper().readValue(new StringReader(json), JsonNode.class);
+  }
+
+  private static Map<?, ?> perCallParseToMap(String json)
+    throws Exception {
+    return new ObjectMapper().readValue(new StringReader(json), Map.class);
+  }
+
+  private static String perCallSerialize(Object object)
+    throws Exception {
+    StringWriter sw = new StringWriter();
+    JsonGenerator generator = new MappingJsonFactory().createJsonGenerator(sw);
+    new ObjectMapper().writeValue(generator, object);
+    return sw.toString();
+  }
+
+  private static void report(String name, Measure perCall, Measure shared) {
+    System.out.println(String.format("%-24s per call %s  shared %s  %.2fx",
+      name, perCall, shared, perCall.micros / shared.micros));
+  }
+
+  public static void main(String[] args)
+    throws Exception {
+
+    for (int rows : new int[] {20, 100}) {
+
+      final String json = Payloads.friendsBlock(rows, true);
+      int iterations = rows == 20 ? 20000 : 5000;
+      report("parse " + rows + " rows", Measure.run(new Measure.Op() {
+
+        @Override
+        public Object run()
+          throws Exception {
+          return perCallParse(json);
+        }
+      }, iterations), Measure.run(new Measure.Op() {
+
+        @Override
+        public Object run()
+          throws Exception {
+          return JSON.parse(json);
+        }
+      }, iterations));
+    }
+
+    // a queued post, as the outbox stores its parameters
+    final Map<String, Object> entry = new LinkedHashMap<String, Object>();
+    entry.put("status", "hello world");
+    entry.put("to", "facebook,twitter");
+    entry.put("lat", "37.7");
+    final String entryJson = JSON.serializeToJson(entry);
+
+    report("serializeToJson", Measure.run(new Measure.Op() {
+
+      @Override
+      public Object run()
+        throws Exception {
+        return perCallSerialize(entry);
+      }
+    }, 100000), Measure.run(new Measure.Op() {
+
+      @Override
+      public Object run()
+        throws Exception {
+        return JSON.serializeToJson(entry);
+      }
+    }, 100000));
+    report("parseToMap", Measure.run(new Measure.Op() {
+
+      @Override
+      public Object run()
+        throws Exception {
+        return perCallParseToMap(entryJson);
+      }
+    }, 100000), Measure.run(new Measure.Op() {
+
+      @Override
+      public Object run()
+        throws Exception {
+        return JSON.parseToMap(entryJson);
+      }
+    }, 100000));
+  }
+
+}
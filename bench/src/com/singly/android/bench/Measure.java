@@ -0,0 +1,97 @@
+package com.singly.android.bench;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+
+/**
+ * Measures the time and the bytes allocated per run of an operation, and the
+ * live heap an operation holds at its peak.
+ */
+public class Measure {
+
+  /**
+   * An operation to measure.
+   */
+  public interface Op {
+    Object run()
+      throws Exception;
+  }
+
+  // keeps results reachable so the operations aren't optimized away
+  static volatile Object sink;
+
+  private static final com.sun.management.ThreadMXBean THREADS = (com.sun.management.ThreadMXBean)ManagementFactory
+    .getThreadMXBean();
+  private static final MemoryMXBean MEMORY = ManagementFactory
+    .getMemoryMXBean();
+
+  public double micros;
+  public long bytes;
+
+  /**
+   * Runs the operation a quarter of the iterations to warm up, then measures
+   * the average over the iterations.
+   */
+  public static Measure run(Op op, int iterations)
+    throws Exception {
+
+    for (int i = 0; i < iterations / 4; i++) {
+      sink = op.run();
+    }
+
+    long thread = Thread.currentThread().getId();
+    long allocated = THREADS.getThreadAllocatedBytes(thread);
+    long start = System.nanoTime();
+    for (int i = 0; i < iterations; i++) {
+      sink = op.run();
+    }
+    long elapsed = System.nanoTime() - start;
+
+    Measure measure = new Measure();
+    measure.micros = elapsed / 1000d / iterations;
+    measure.bytes = (THREADS.getThreadAllocatedBytes(thread) - allocated)
+      / iterations;
+    return measure;
+  }
+
+  /**
+   * Returns the live heap an operation holds at its peak.  The operation
+   * returns what it holds at its peak, which is kept for a number of runs at
+   * once so the result is well above the noise of a collection.
+   */
+  public static long peak(Op op, int copies)
+    throws Exception {
+
+    sink = null;
+    long base = liveHeap();
+    Object[] held = new Object[copies];
+    for (int i = 0; i < copies; i++) {
+      held[i] = op.run();
+    }
+    long used = liveHeap();
+    sink = held;
+    return (used - base) / copies;
+  }
+
+  /**
+   * Returns the live heap once full collections stop freeing anything.
+   */
+  private static long liveHeap() {
+    long used = Long.MAX_VALUE;
+    for (int i = 0; i < 10; i++) {
+      System.gc();
+      long after = MEMORY.getHeapMemoryUsage().getUsed();
+      if (after >= used) {
+        return after;
+      }
+      used = after;
+    }
+    return used;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%8.1f us %10d B", micros, bytes);
+  }
+
+}
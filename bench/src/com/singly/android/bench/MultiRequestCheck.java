@@ -0,0 +1,204 @@
+package com.singly.android.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang.StringUtils;
+
+import com.singly.android.client.ApiRequest;
+import com.singly.android.client.ApiResponseException;
+import com.singly.android.client.AsyncApiResponseHandler;
+import com.singly.android.client.SinglyClient;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+/**
+ * Checks doMultiApiRequest against a stub server: requests sent as one
+ * batch, the batched response split back to each handler, status and body
+ * envelopes, a url missing from the batch retried on its own, a failed batch
+ * and the fallback to parallel requests when no multi endpoint is set.
+ */
+public class MultiRequestCheck {
+
+  // the batched response of each relative url, urls not in it are left out
+  private static Map<String, String> batched = new HashMap<String, String>();
+  private static int batchStatus = 200;
+
+  /**
+   * The response handed to a request's handler.
+   */
+  private static class Result
+    extends AsyncApiResponseHandler {
+
+    CountDownLatch done = new CountDownLatch(1);
+    String response;
+    Throwable error;
+    String message;
+
+    @Override
+    public void onSuccess(String response) {
+      this.response = response;
+      done.countDown();
+    }
+
+    @Override
+    public void onFailure(Throwable error, String message) {
+      this.error = error;
+      this.message = message;
+      done.countDown();
+    }
+
+    boolean await()
+      throws InterruptedException {
+      return done.await(10, TimeUnit.SECONDS);
+    }
+
+    int statusCode() {
+      return error instanceof ApiResponseException
+        ? ((ApiResponseException)error).getStatusCode() : -1;
+    }
+  }
+
+  private static Map<String, String> params(String name, String value) {
+    Map<String, String> params = new HashMap<String, String>();
+    params.put(name, value);
+    return params;
+  }
+
+  private static List<Result> run(SinglyClient client, StubContext context,
+    ApiRequest... requests)
+    throws InterruptedException {
+    List<ApiRequest> list = new ArrayList<ApiRequest>();
+    List<Result> results = new ArrayList<Result>();
+    for (ApiRequest request : requests) {
+      list.add(request);
+      results.add((Result)request.responseHandler);
+    }
+    client.doMultiApiRequest(context, list);
+    for (Result result : results) {
+      if (!result.await()) {
+        throw new AssertionError("No response for a request");
+      }
+    }
+    return results;
+  }
+
+  public static void main(String[] args)
+    throws Exception {
+
+    StubServer server = new StubServer();
+
+    // the multi endpoint answers with the configured response of each url
+    server.route("/multi", new HttpHandler() {
+
+      @Override
+      public void handle(HttpExchange exchange)
+        throws IOException {
+        if (batchStatus != 200) {
+          StubServer.respond(exchange, batchStatus, "{\"error\":\"down\"}");
+          return;
+        }
+        String urls = StubServer.getQuery(exchange).get("urls");
+        List<String> fields = new ArrayList<String>();
+        for (String url : StringUtils.split(urls, ',')) {
+          if (batched.containsKey(url)) {
+            fields.add("\"" + url + "\":" + batched.get(url));
+          }
+        }
+        StubServer.respond(exchange, 200, "{" + StringUtils.join(fields, ",")
+          + "}");
+      }
+    });
+
+    // every other endpoint answers on its own with its path
+    HttpHandler direct = new HttpHandler() {
+
+      @Override
+      public void handle(HttpExchange exchange)
+        throws IOException {
+        StubServer.respond(exchange, 200, "{\"direct\":\""
+          + exchange.getRequestURI().getPath() + "\"}");
+      }
+    };
+    server.route("/profiles", direct);
+    server.route("/types", direct);
+    server.route("/friends", direct);
+
+    StubContext context = new StubContext(new File("bench/out/check-multi"));
+    SinglyClient client = SinglyClient.getInstance();
+    client.setResponseCacheEnabled(false);
+    client.getAuthenticationState(context).update("account", "token");
+    client.setMultiApiEndpoint("/multi");
+
+    // one batch, split back to each handler, envelopes unwrapped
+    batched.put("/profiles", "{\"id\":\"profiles\"}");
+    batched.put("/types/statuses?limit=5",
+      "{\"statusCode\":200,\"body\":{\"id\":\"statuses\"}}");
+    batched.put("/friends/all?limit=1",
+      "{\"statusCode\":404,\"body\":\"{\\\"error\\\":\\\"gone\\\"}\"}");
+    List<Result> results = run(client, context, new ApiRequest("/profiles",
+      null, new Result()), new ApiRequest("/profiles", null, new Result()),
+      new ApiRequest("/types/statuses", params("limit", "5"), new Result()),
+      new ApiRequest("/friends/all", params("limit", "1"), new Result()));
+    Checks.check("four requests are sent as one batch", server.getLog()
+      .equals(java.util.Arrays.asList("GET /multi")));
+    Checks.check("each handler of a url gets the url's body",
+      "{\"id\":\"profiles\"}".equals(results.get(0).response)
+        && "{\"id\":\"profiles\"}".equals(results.get(1).response));
+    Checks.check("a 200 envelope passes its body to the handler",
+      "{\"id\":\"statuses\"}".equals(results.get(2).response));
+    Checks.check("a 404 envelope fails the handler with its status and body",
+      results.get(3).statusCode() == 404
+        && "{\"error\":\"gone\"}".equals(results.get(3).message));
+
+    // a url the batch left out is requested again on its own
+    server.clearLog();
+    batched.remove("/types/photos");
+    results = run(client, context, new ApiRequest("/profiles", null,
+      new Result()), new ApiRequest("/types/photos", null, new Result()));
+    Checks.check("a url missing from the batch is retried on its own",
+      server.count("GET", "/multi") == 1
+        && server.count("GET", "/types/photos") == 1
+        && server.count("GET", "/profiles") == 0);
+    Checks.check("the retried request gets its own response",
+      "{\"id\":\"profiles\"}".equals(results.get(0).response)
+        && "{\"direct\":\"/types/photos\"}".equals(results.get(1).response));
+
+    // a failed batch fails every request in it
+    server.clearLog();
+    batchStatus = 503;
+    results = run(client, context, new ApiRequest("/profiles", null,
+      new Result()), new ApiRequest("/types/statuses", params("limit", "5"),
+      new Result()));
+    batchStatus = 200;
+    Checks.check("a failed batch fails every handler", results.get(0)
+      .statusCode() == 503 && results.get(1).statusCode() == 503);
+
+    // without a multi endpoint the requests are made in parallel
+    server.clearLog();
+    client.setMultiApiEndpoint(null);
+    results = run(client, context, new ApiRequest("/profiles", null,
+      new Result()), new ApiRequest("/types/statuses", params("limit", "5"),
+      new Result()), new ApiRequest("/friends/all", params("limit", "1"),
+      new Result()));
+    Checks.check("without a multi endpoint each request is made on its own",
+      server.count("GET", "/multi") == 0
+        && server.count("GET", "/profiles") == 1
+        && server.count("GET", "/types/statuses") == 1
+        && server.count("GET", "/friends/all") == 1);
+    Checks.check("and each handler gets its own response",
+      "{\"direct\":\"/profiles\"}".equals(results.get(0).response)
+        && "{\"direct\":\"/types/statuses\"}".equals(results.get(1).response)
+        && "{\"direct\":\"/friends/all\"}".equals(results.get(2).response));
+
+    server.stop();
+    Checks.finish();
+  }
+
+}
@@ -0,0 +1,50 @@
+package com.singly.android.bench;
+
+/**
+ * Builds sample Singly API responses for the benchmarks.
+ */
+public class Payloads {
+
+  /**
+   * Returns a /friends/all block of friends, starting with the table of
+   * contents if asked for.  Every friend has the fields the SDK reads, a
+   * facebook and twitter service and a few fields the SDK doesn't read.
+   */
+  public static String friendsBlock(int rows, boolean withToc) {
+
+    StringBuilder block = new StringBuilder("[");
+    if (withToc) {
+      block.append("{\"meta\":{\"length\":").append(rows).append("}");
+      for (char letter = 'a'; letter <= 'z'; letter++) {
+        block.append(",\"").append(letter).append("\":{\"offset\":")
+          .append((letter - 'a') * 3).append(",\"length\":3}");
+      }
+      block.append("}");
+    }
+
+    for (int i = 0; i < rows; i++) {
+      if (i > 0 || withToc) {
+        block.append(',');
+      }
+      block.append("{\"id\":\"friend").append(i)
+        .append("\",\"name\":\"Friend Number ").append(i)
+        .append("\",\"thumbnail_url\":\"https://graph.facebook.com/")
+        .append(100000 + i).append("/picture\",\"handle\":\"friend")
+        .append(i).append("\",\"description\":\"Works at Somewhere, lives")
+        .append(" in San Francisco, California\",\"email\":\"friend")
+        .append(i).append("@example.com\",\"phone\":\"+1415555")
+        .append(1000 + i).append("\",\"updated\":1357000000000,")
+        .append("\"interactions\":{\"tweets\":").append(i)
+        .append(",\"likes\":[1,2,3]},\"services\":{\"facebook\":{\"id\":\"")
+        .append(100000 + i).append("\",\"entry\":\"contact:")
+        .append(100000 + i).append("@facebook/friends\",\"url\":")
+        .append("\"https://facebook.com/friend").append(i)
+        .append("\"},\"twitter\":{\"id\":\"").append(200000 + i)
+        .append("\",\"entry\":\"contact:").append(200000 + i)
+        .append("@twitter/friends\",\"url\":\"https://twitter.com/friend")
+        .append(i).append("\"}}}");
+    }
+    return block.append(']').toString();
+  }
+
+}
@@ -0,0 +1,107 @@
+package com.singly.android.bench;
+
+import java.io.ByteArrayInputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+
+import com.singly.android.util.JSON;
+
+/**
+ * Compares reading a /friends/all response the way AsyncApiResponseHandler
+ * does, into a String and then a tree, with reading it from the stream as a
+ * StreamingApiResponseHandler does, either into a tree or token by token.
+ *
+ * The response bytes stand in for the network stream.  Peak heap is the live
+ * heap, over the response bytes, at the point each path holds the most, the
+ * String and its tree, the tree, or the parser half way through.
+ */
+public class StreamingBenchmark {
+
+  private static final int PEAK_COPIES = 20;
+
+  private static Object[] stringToTree(byte[] body)
+    throws Exception {
+    String response = IOUtils.toString(new ByteArrayInputStream(body), "UTF-8");
+    return new Object[] {response, JSON.parse(response)};
+  }
+
+  private static Object streamToTree(byte[] body)
+    throws Exception {
+    return JSON.createParser(new ByteArrayInputStream(body)).readValueAsTree();
+  }
+
+  private static JsonParser streamTokens(byte[] body, int stopAt)
+    throws Exception {
+
+    JsonParser parser = JSON.createParser(new ByteArrayInputStream(body));
+    int friends = 0;
+    JsonToken token;
+    while ((token = parser.nextToken()) != null) {
+      if (token == JsonToken.FIELD_NAME
+        && "name".equals(parser.getCurrentName()) && ++friends == stopAt) {
+        break;
+      }
+    }
+    return parser;
+  }
+
+  private static void report(String name, int rows, Measure measure,
+    long peak) {
+    System.out.println(String.format("%5d rows %-14s %s  peak %9d B", rows,
+      name, measure, peak));
+  }
+
+  public static void main(String[] args)
+    throws Exception {
+
+    for (final int rows : new int[] {100, 2000}) {
+
+      final byte[] body = Payloads.friendsBlock(rows, true).getBytes("UTF-8");
+      int iterations = rows == 100 ? 5000 : 200;
+      System.out.println(rows + " rows, " + body.length + " bytes");
+
+      Measure.Op string = new Measure.Op() {
+
+        @Override
+        public Object run()
+          throws Exception {
+          return stringToTree(body);
+        }
+      };
+      Measure.Op tree = new Measure.Op() {
+
+        @Override
+        public Object run()
+          throws Exception {
+          return streamToTree(body);
+        }
+      };
+      Measure.Op tokens = new Measure.Op() {
+
+        @Override
+        public Object run()
+          throws Exception {
+          return streamTokens(body, -1);
+        }
+      };
+      Measure.Op halfTokens = new Measure.Op() {
+
+        @Override
+        public Object run()
+          throws Exception {
+          return streamTokens(body, rows / 2);
+        }
+      };
+
+      report("String + tree", rows, Measure.run(string, iterations),
+        Measure.peak(string, PEAK_COPIES));
+      report("stream + tree", rows, Measure.run(tree, iterations),
+        Measure.peak(tree, PEAK_COPIES));
+      report("stream tokens", rows, Measure.run(tokens, iterations),
+        Measure.peak(halfTokens, PEAK_COPIES));
+    }
+  }
+
+}
@@ -0,0 +1,229 @@
+package com.singly.android.bench;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.content.SharedPreferences;
+import android.content.pm.PackageManager;
+
+/**
+ * An application context for the checks, with a files directory of its own
+ * and shared preferences held in memory.
+ */
+public class StubContext
+  extends ContextWrapper {
+
+  private File filesDir;
+  private Map<String, Preferences> prefs = new ConcurrentHashMap<String, Preferences>();
+
+  /**
+   * Creates the context with an empty files directory.
+   */
+  public StubContext(File filesDir) {
+    super(null);
+    this.filesDir = filesDir;
+    delete(filesDir);
+    filesDir.mkdirs();
+  }
+
+  private static void delete(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        delete(child);
+      }
+    }
+    file.delete();
+  }
+
+  @Override
+  public Context getApplicationContext() {
+    return this;
+  }
+
+  @Override
+  public File getFilesDir() {
+    return filesDir;
+  }
+
+  @Override
+  public File getCacheDir() {
+    return filesDir;
+  }
+
+  @Override
+  public synchronized SharedPreferences getSharedPreferences(String name,
+    int mode) {
+    Preferences named = prefs.get(name);
+    if (named == null) {
+      named = new Preferences();
+      prefs.put(name, named);
+    }
+    return named;
+  }
+
+  @Override
+  public Object getSystemService(String name) {
+    return null;
+  }
+
+  @Override
+  public int checkCallingOrSelfPermission(String permission) {
+    return PackageManager.PERMISSION_DENIED;
+  }
+
+  /**
+   * Shared preferences held in memory.
+   */
+  private static class Preferences
+    implements SharedPreferences {
+
+    private Map<String, Object> values = new ConcurrentHashMap<String, Object>();
+
+    private class Edit
+      implements SharedPreferences.Editor {
+
+      private Map<String, Object> puts = new HashMap<String, Object>();
+      private Set<String> removes = new HashSet<String>();
+      private boolean clear = false;
+
+      @Override
+      public Editor putString(String key, String value) {
+        return put(key, value);
+      }
+
+      @Override
+      public Editor putStringSet(String key, Set<String> values) {
+        return put(key, values);
+      }
+
+      @Override
+      public Editor putInt(String key, int value) {
+        return put(key, value);
+      }
+
+      @Override
+      public Editor putLong(String key, long value) {
+        return put(key, value);
+      }
+
+      @Override
+      public Editor putFloat(String key, float value) {
+        return put(key, value);
+      }
+
+      @Override
+      public Editor putBoolean(String key, boolean value) {
+        return put(key, value);
+      }
+
+      private Editor put(String key, Object value) {
+        if (value == null) {
+          return remove(key);
+        }
+        puts.put(key, value);
+        return this;
+      }
+
+      @Override
+      public Editor remove(String key) {
+        removes.add(key);
+        return this;
+      }
+
+      @Override
+      public Editor clear() {
+        clear = true;
+        return this;
+      }
+
+      @Override
+      public boolean commit() {
+        synchronized (Preferences.this) {
+          if (clear) {
+            values.clear();
+          }
+          for (String key : removes) {
+            values.remove(key);
+          }
+          values.putAll(puts);
+        }
+        return true;
+      }
+
+      @Override
+      public void apply() {
+        commit();
+      }
+    }
+
+    @Override
+    public Map<String, ?> getAll() {
+      return new HashMap<String, Object>(values);
+    }
+
+    @Override
+    public String getString(String key, String defValue) {
+      Object value = values.get(key);
+      return value != null ? (String)value : defValue;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public Set<String> getStringSet(String key, Set<String> defValues) {
+      Object value = values.get(key);
+      return value != null ? (Set<String>)value : defValues;
+    }
+
+    @Override
+    public int getInt(String key, int defValue) {
+      Object value = values.get(key);
+      return value != null ? ((Integer)value).intValue() : defValue;
+    }
+
+    @Override
+    public long getLong(String key, long defValue) {
+      Object value = values.get(key);
+      return value != null ? ((Long)value).longValue() : defValue;
+    }
+
+    @Override
+    public float getFloat(String key, float defValue) {
+      Object value = values.get(key);
+      return value != null ? ((Float)value).floatValue() : defValue;
+    }
+
+    @Override
+    public boolean getBoolean(String key, boolean defValue) {
+      Object value = values.get(key);
+      return value != null ? ((Boolean)value).booleanValue() : defValue;
+    }
+
+    @Override
+    public boolean contains(String key) {
+      return values.containsKey(key);
+    }
+
+    @Override
+    public Editor edit() {
+      return new Edit();
+    }
+
+    @Override
+    public void registerOnSharedPreferenceChangeListener(
+      OnSharedPreferenceChangeListener listener) {
+    }
+
+    @Override
+    public void unregisterOnSharedPreferenceChangeListener(
+      OnSharedPreferenceChangeListener listener) {
+    }
+  }
+
+}
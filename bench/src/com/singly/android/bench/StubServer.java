@@ -0,0 +1,156 @@
+package com.singly.android.bench;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.commons.io.IOUtils;
+
+import com.singly.android.util.SinglyUtils;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A local HTTP server standing in for the Singly API in the checks.  Paths
+ * are routed to handlers and every request is logged, so a check can assert
+ * which requests the SDK made.
+ */
+public class StubServer {
+
+  private HttpServer server;
+  private List<String> log = Collections
+    .synchronizedList(new ArrayList<String>());
+
+  /**
+   * Starts the server on a free local port and points the SDK at it.
+   */
+  public StubServer()
+    throws IOException {
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.setExecutor(Executors.newCachedThreadPool(new ThreadFactory() {
+
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "stub-server");
+        thread.setDaemon(true);
+        return thread;
+      }
+    }));
+    server.start();
+    SinglyUtils.setSinglyApi("http", "127.0.0.1", server.getAddress()
+      .getPort());
+  }
+
+  /**
+   * Routes requests for a path, and every path under it, to a handler.
+   */
+  public void route(String path, final HttpHandler handler) {
+    server.createContext(path, new HttpHandler() {
+
+      @Override
+      public void handle(HttpExchange exchange)
+        throws IOException {
+        log.add(exchange.getRequestMethod() + " "
+          + exchange.getRequestURI().getPath());
+        try {
+          handler.handle(exchange);
+        }
+        finally {
+          exchange.close();
+        }
+      }
+    });
+  }
+
+  /**
+   * Returns the number of requests made with a method to a path.
+   */
+  public int count(String method, String path) {
+    int count = 0;
+    synchronized (log) {
+      for (String request : log) {
+        if (request.equals(method + " " + path)) {
+          count++;
+        }
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Returns every request made so far, as method and path, in order.
+   */
+  public List<String> getLog() {
+    synchronized (log) {
+      return new ArrayList<String>(log);
+    }
+  }
+
+  public void clearLog() {
+    log.clear();
+  }
+
+  public void stop() {
+    server.stop(0);
+  }
+
+  /**
+   * Returns the decoded query parameters of a request.
+   */
+  public static Map<String, String> getQuery(HttpExchange exchange)
+    throws IOException {
+    Map<String, String> params = new LinkedHashMap<String, String>();
+    String query = exchange.getRequestURI().getRawQuery();
+    if (query == null) {
+      return params;
+    }
+    for (String param : query.split("&")) {
+      int eq = param.indexOf('=');
+      String name = eq < 0 ? param : param.substring(0, eq);
+      String value = eq < 0 ? "" : param.substring(eq + 1);
+      params.put(URLDecoder.decode(name, "UTF-8"),
+        URLDecoder.decode(value, "UTF-8"));
+    }
+    return params;
+  }
+
+  /**
+   * Reads the whole request body.
+   */
+  public static byte[] readBody(HttpExchange exchange)
+    throws IOException {
+    InputStream in = exchange.getRequestBody();
+    try {
+      return IOUtils.toByteArray(in);
+    }
+    finally {
+      IOUtils.closeQuietly(in);
+    }
+  }
+
+  /**
+   * Sends a JSON response.
+   */
+  public static void respond(HttpExchange exchange, int statusCode,
+    String json)
+    throws IOException {
+    byte[] body = json.getBytes("UTF-8");
+    exchange.getResponseHeaders().set("Content-Type",
+      "application/json; charset=utf-8");
+    exchange.sendResponseHeaders(statusCode, body.length);
+    OutputStream out = exchange.getResponseBody();
+    out.write(body);
+    out.close();
+  }
+
+}
@@ -0,0 +1,279 @@
+package com.singly.android.bench;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.singly.android.client.AsyncApiResponseHandler;
+import com.singly.android.client.RequestHandle;
+import com.singly.android.client.ResumableUpload;
+import com.singly.android.client.SinglyClient;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+/**
+ * Checks chunked uploads against a stub upload endpoint: an upload that
+ * completes while the server drops chunk acknowledgements, an interrupted
+ * upload resumed from its last acknowledged chunk, an upload left by another
+ * account refused on resume, and pending uploads discarded by clearAccount.
+ */
+public class UploadCheck {
+
+  private static final int CHUNK_SIZE = 16 * 1024;
+  private static final int FILE_LENGTH = 100000;
+  private static final Pattern RANGE = Pattern
+    .compile("bytes (\\d+)-(\\d+)/(\\d+)");
+
+  // the bytes each session has stored
+  private static Map<String, ByteArrayOutputStream> sessions = new HashMap<String, ByteArrayOutputStream>();
+  private static AtomicInteger puts = new AtomicInteger();
+
+  // every nth chunk is stored but its acknowledgement dropped, 0 for none
+  private static volatile int dropEvery = 0;
+
+  // chunks after this many are refused, -1 for none
+  private static volatile int refuseAfter = -1;
+
+  /**
+   * The response handed to an upload's handler.
+   */
+  private static class Result
+    extends AsyncApiResponseHandler {
+
+    CountDownLatch done = new CountDownLatch(1);
+    String response;
+    String message;
+
+    @Override
+    public void onSuccess(String response) {
+      this.response = response;
+      done.countDown();
+    }
+
+    @Override
+    public void onFailure(Throwable error, String message) {
+      this.message = message;
+      done.countDown();
+    }
+
+    Result await()
+      throws InterruptedException {
+      if (!done.await(20, TimeUnit.SECONDS)) {
+        throw new AssertionError("No response for an upload");
+      }
+      return this;
+    }
+  }
+
+  private static String md5(byte[] bytes)
+    throws Exception {
+    byte[] digest = MessageDigest.getInstance("MD5").digest(bytes);
+    return String.format("%032x", new BigInteger(1, digest));
+  }
+
+  /**
+   * Answers the upload protocol of ResumableUploader.
+   */
+  private static void handle(HttpExchange exchange)
+    throws IOException {
+
+    String method = exchange.getRequestMethod();
+    String[] path = exchange.getRequestURI().getPath().split("/");
+    byte[] body = StubServer.readBody(exchange);
+
+    if (method.equals("POST") && path.length == 2) {
+      String sessionId = UUID.randomUUID().toString().replace("-", "");
+      synchronized (sessions) {
+        sessions.put(sessionId, new ByteArrayOutputStream());
+      }
+      StubServer.respond(exchange, 200, "{\"id\":\"" + sessionId
+        + "\",\"offset\":0}");
+      return;
+    }
+
+    ByteArrayOutputStream stored;
+    synchronized (sessions) {
+      stored = path.length > 2 ? sessions.get(path[2]) : null;
+    }
+    if (stored == null) {
+      StubServer.respond(exchange, 404, "{}");
+      return;
+    }
+
+    if (method.equals("GET")) {
+      StubServer.respond(exchange, 200, "{\"offset\":" + stored.size() + "}");
+    }
+    else if (method.equals("PUT")) {
+      int put = puts.incrementAndGet();
+      if (refuseAfter >= 0 && put > refuseAfter) {
+        StubServer.respond(exchange, 400, "{\"error\":\"refused\"}");
+        return;
+      }
+      Matcher range = RANGE.matcher(exchange.getRequestHeaders().getFirst(
+        "Content-Range"));
+      range.matches();
+      synchronized (stored) {
+        if (Long.parseLong(range.group(1)) == stored.size()) {
+          stored.write(body);
+        }
+      }
+
+      // the chunk is kept but the connection closes before the ack
+      if (dropEvery > 0 && put % dropEvery == 0) {
+        throw new IOException("Acknowledgement dropped");
+      }
+      StubServer.respond(exchange, 200, "{\"offset\":" + stored.size() + "}");
+    }
+    else if (method.equals("POST") && path.length == 4) {
+      byte[] bytes = stored.toByteArray();
+      try {
+        StubServer.respond(exchange, 200, "{\"md5\":\"" + md5(bytes)
+          + "\",\"length\":" + bytes.length + "}");
+      }
+      catch (Exception e) {
+        throw new IOException(e.getMessage());
+      }
+    }
+  }
+
+  private static File[] getStateFiles(File stateDir) {
+    File[] stateFiles = stateDir.listFiles(new FilenameFilter() {
+
+      @Override
+      public boolean accept(File dir, String name) {
+        return name.contains(".upload");
+      }
+    });
+    return stateFiles != null ? stateFiles : new File[0];
+  }
+
+  private static Result upload(SinglyClient client, StubContext context,
+    File file)
+    throws InterruptedException {
+    Result result = new Result();
+    client.doResumableUploadRequest(context, "/types/photos", null, "photo",
+      file, "image/jpeg", null, result);
+    return result.await();
+  }
+
+  public static void main(String[] args)
+    throws Exception {
+
+    StubServer server = new StubServer();
+    server.route("/uploads", new HttpHandler() {
+
+      @Override
+      public void handle(HttpExchange exchange)
+        throws IOException {
+        UploadCheck.handle(exchange);
+      }
+    });
+
+    StubContext context = new StubContext(new File("bench/out/check-upload"));
+    File stateDir = new File(context.getFilesDir(), "uploads");
+    SinglyClient client = SinglyClient.getInstance();
+    client.setResponseCacheEnabled(false);
+    client.getAuthenticationState(context).update("account", "token");
+    client.setUploadEndpoint("/uploads");
+    client.getResumableUploader(context).setChunkSize(CHUNK_SIZE);
+
+    byte[] bytes = new byte[FILE_LENGTH];
+    new Random(12).nextBytes(bytes);
+    File file = new File(context.getFilesDir(), "photo.jpg");
+    OutputStream out = new FileOutputStream(file);
+    out.write(bytes);
+    out.close();
+    String expected = "{\"md5\":\"" + md5(bytes) + "\",\"length\":"
+      + FILE_LENGTH + "}";
+    int chunks = (FILE_LENGTH + CHUNK_SIZE - 1) / CHUNK_SIZE;
+
+    // every third acknowledgement is dropped, the chunk is sent again
+    dropEvery = 3;
+    Result result = upload(client, context, file);
+    dropEvery = 0;
+    Checks.check("an upload completes while acknowledgements are dropped",
+      expected.equals(result.response));
+    Checks.check("a chunk whose acknowledgement was dropped is sent again",
+      puts.get() > chunks);
+    Checks.check("a completed upload leaves no state",
+      getStateFiles(stateDir).length == 0);
+
+    // a run that stops after three chunks is resumed from the fourth
+    puts.set(0);
+    refuseAfter = 3;
+    result = upload(client, context, file);
+    refuseAfter = -1;
+    File[] stateFiles = getStateFiles(stateDir);
+    ResumableUpload pending = stateFiles.length == 1 ? ResumableUpload
+      .load(stateFiles[0]) : null;
+    Checks.check("an interrupted upload fails and keeps its state",
+      result.response == null && pending != null
+        && pending.offset == 3 * CHUNK_SIZE);
+    Checks.check("the state records the account of the upload",
+      pending != null && "account".equals(pending.account));
+    server.clearLog();
+    puts.set(0);
+    List<RequestHandle> handles = client.resumeUploads(context,
+      result = new Result());
+    result.await();
+    Checks.check("the pending upload is resumed and completes",
+      handles.size() == 1 && expected.equals(result.response));
+    Checks.check("resuming asks the server where it is up to",
+      server.count("GET", "/uploads/" + pending.sessionId) == 1);
+    Checks.check("only the chunks after the last acknowledged are sent",
+      puts.get() == chunks - 3);
+
+    // an upload left by another account is never sent with its token
+    puts.set(0);
+    refuseAfter = 1;
+    upload(client, context, file);
+    refuseAfter = -1;
+    client.getAuthenticationState(context).update("other", "other-token");
+    server.clearLog();
+    handles = client.resumeUploads(context, result = new Result());
+    result.await();
+    Checks.check("an upload of another account fails on resume",
+      handles.size() == 1 && result.response == null
+        && result.message.contains("another account"));
+    Checks.check("and nothing of it is sent", server.getLog().isEmpty());
+    Checks.check("and its state is discarded",
+      getStateFiles(stateDir).length == 0);
+
+    // clearing the account discards pending uploads in the background
+    puts.set(0);
+    refuseAfter = 1;
+    upload(client, context, file);
+    refuseAfter = -1;
+    boolean pendingBefore = getStateFiles(stateDir).length == 1;
+    SinglyClient.clearAccount(context);
+    long deadline = System.currentTimeMillis() + 5000;
+    while (getStateFiles(stateDir).length > 0
+      && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    Checks.check("clearAccount discards pending uploads", pendingBefore
+      && getStateFiles(stateDir).length == 0);
+    client.getAuthenticationState(context).update("account", "token");
+    Checks.check("and nothing is left to resume", client.resumeUploads(
+      context, new Result()).isEmpty());
+
+    server.stop();
+    Checks.finish();
+  }
+
+}
@@ -1,12 +1,9 @@
 package com.singly.android.examples;
 
 import java.io.File;
-import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 
-import org.apache.commons.io.FileUtils;
-
 import android.app.Activity;
 import android.content.Context;
 import android.content.Intent;
@@ -24,7 +21,7 @@ import android.widget.Toast;
 
 import com.singly.android.client.AsyncApiResponseHandler;
 import com.singly.android.client.SinglyClient;
-import com.singly.android.client.SinglyClient.Authentication;
+import com.singly.android.client.UploadProgressListener;
 import com.singly.android.component.AuthenticatedServicesActivity;
 import com.singly.android.component.FriendsListActivity;
 
@@ -38,6 +35,10 @@ public class MainActivity
     super.onCreate(savedInstanceState);
     setContentView(R.layout.activity_main);
 
+    // connect to the api and prefetch the first friends so the friends list
+    // example opens without waiting, 20 is the friends list block size
+    SinglyClient.getInstance().warmUp(this, 20);
+
     final Context context = this;
 
     // example showing all authentication services
@@ -158,29 +159,28 @@ public class MainActivity
       final String imagePath = cursor.getString(column_index);
       cursor.close();
 
-      // read the image into a byte array, could also have just passed in the
-      // file handle into the post params
-      byte[] imageBytes = null;
-      try {
-        imageBytes = FileUtils.readFileToByteArray(new File(imagePath));
-      }
-      catch (IOException e) {
+      // the image is uploaded from its file, in chunks that resume after a
+      // network drop when the client has an upload endpoint
+      File imageFile = new File(imagePath);
+      if (!imageFile.isFile()) {
         Toast.makeText(MainActivity.this,
           "Error getting picture to post", Toast.LENGTH_SHORT).show();
         return;
       }
-
-      // add the image as a file to the post request params
       SinglyClient singlyClient = SinglyClient.getInstance();
-      Map<String, Object> postParams = new HashMap<String, Object>();
-      Authentication auth = singlyClient.getAuthentication(this);
-      postParams.put("access_token", auth.accessToken);
-      postParams.put("photo", imageBytes);
+      Map<String, String> postParams = new HashMap<String, String>();
       postParams.put("to", "facebook");
 
-      // do the photo post request to facebook
-      singlyClient.doPostApiRequest(this, "/types/photos", null, postParams,
-        new AsyncApiResponseHandler() {
+      // do the photo post request to facebook, logging upload progress
+      singlyClient.doResumableUploadRequest(this, "/types/photos", postParams,
+        "photo", imageFile, null, new UploadProgressListener() {
+
+          @Override
+          public void onProgress(long bytesWritten, long totalBytes) {
+            Log.d(MainActivity.class.getSimpleName(), "Uploaded "
+              + bytesWritten + " of " + totalBytes + " bytes");
+          }
+        }, new AsyncApiResponseHandler() {
 
           @Override
           public void onSuccess(String response) {
@@ -0,0 +1,63 @@
+package com.singly.android.client;
+
+import com.singly.android.util.URLUtils;
+
+/**
+ * Adds the access token of the current user to every request to the Singly
+ * API that doesn't already have one, so callers never need to read it and
+ * add it themselves.
+ *
+ * The token is url encoded once and reused until it changes.  Requests to the
+ * /oauth and /auth endpoints, which are part of authenticating, are left
+ * alone.
+ */
+public class AccessTokenInterceptor
+  implements RequestInterceptor {
+
+  public static final String ACCESS_TOKEN_PARAM = "access_token";
+
+  private SinglyClient singlyClient;
+
+  // the last token and its encoded query parameter, replaced as a pair
+  private volatile EncodedToken encodedToken;
+
+  private static class EncodedToken {
+
+    final String accessToken;
+    final String queryParam;
+
+    EncodedToken(String accessToken) {
+      this.accessToken = accessToken;
+      this.queryParam = ACCESS_TOKEN_PARAM + "="
+        + URLUtils.encode(accessToken, "UTF-8");
+    }
+  }
+
+  public AccessTokenInterceptor(SinglyClient singlyClient) {
+    this.singlyClient = singlyClient;
+  }
+
+  @Override
+  public void intercept(ApiRequestBuilder request) {
+
+    String apiEndpoint = request.getApiEndpoint();
+    if (apiEndpoint.startsWith("/oauth/") || apiEndpoint.startsWith("/auth/")
+      || request.hasParam(ACCESS_TOKEN_PARAM)) {
+      return;
+    }
+
+    String accessToken = singlyClient.getAuthenticationState(
+      request.getContext()).getAccessToken();
+    if (accessToken == null) {
+      return;
+    }
+
+    EncodedToken current = encodedToken;
+    if (current == null || !current.accessToken.equals(accessToken)) {
+      current = new EncodedToken(accessToken);
+      encodedToken = current;
+    }
+    request.addEncodedQueryParam(current.queryParam);
+  }
+
+}
@@ -0,0 +1,30 @@
+package com.singly.android.client;
+
+import java.util.Map;
+
+/**
+ * A single GET request to the Singly API, an endpoint, its query parameters
+ * and the handler for its response.  Used to make several requests at once
+ * with {@link SinglyClient#doMultiApiRequest(android.content.Context, java.util.List)}.
+ */
+public class ApiRequest {
+
+  public String apiEndpoint;
+  public Map<String, String> queryParams;
+  public AsyncApiResponseHandler responseHandler;
+  public RequestPriority priority = RequestPriority.VISIBLE;
+
+  public ApiRequest(String apiEndpoint, Map<String, String> queryParams,
+    AsyncApiResponseHandler responseHandler) {
+    this.apiEndpoint = apiEndpoint;
+    this.queryParams = queryParams;
+    this.responseHandler = responseHandler;
+  }
+
+  public ApiRequest(String apiEndpoint, Map<String, String> queryParams,
+    RequestPriority priority, AsyncApiResponseHandler responseHandler) {
+    this(apiEndpoint, queryParams, responseHandler);
+    this.priority = priority;
+  }
+
+}
@@ -0,0 +1,218 @@
+package com.singly.android.client;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.http.Header;
+import org.apache.http.HttpRequest;
+
+import android.content.Context;
+
+import com.singly.android.util.SinglyUtils;
+import com.singly.android.util.URLUtils;
+
+/**
+ * A request to the Singly API while it is being built and passed through the
+ * {@link RequestInterceptor} chain of the {@link SinglyClient}.
+ *
+ * The query string is encoded as parameters are added, straight into a
+ * single buffer, and constant parameters can be added already encoded, so
+ * building the url of a request allocates little more than the url itself.
+ */
+public class ApiRequestBuilder {
+
+  private static final String UTF8 = "UTF-8";
+
+  private Context context;
+  private String method;
+  private String apiEndpoint;
+  private Collection<String> bodyParams;
+  private StringBuilder query = new StringBuilder(64);
+  private List<Header> headers;
+  private boolean cacheable = true;
+  private String url;
+
+  ApiRequestBuilder(Context context, String method, String apiEndpoint,
+    Map<String, String> queryParams, Collection<String> bodyParams) {
+    this.context = context;
+    this.method = method;
+    this.apiEndpoint = apiEndpoint;
+    this.bodyParams = bodyParams != null ? bodyParams : Collections
+      .<String> emptySet();
+    if (queryParams != null) {
+      for (Map.Entry<String, String> param : queryParams.entrySet()) {
+        addQueryParam(param.getKey(), param.getValue());
+      }
+    }
+  }
+
+  public Context getContext() {
+    return context;
+  }
+
+  /**
+   * Returns the HTTP method of the request, GET or POST.
+   * 
+   * @return The request method.
+   */
+  public String getMethod() {
+    return method;
+  }
+
+  public String getApiEndpoint() {
+    return apiEndpoint;
+  }
+
+  /**
+   * Returns true if the request has a parameter, in its query string or in
+   * its post body.
+   * 
+   * @param name The parameter name.
+   * 
+   * @return True if the parameter is set.
+   */
+  public boolean hasParam(String name) {
+
+    if (bodyParams.contains(name)) {
+      return true;
+    }
+
+    // look for the name at the start of a name=value pair
+    int length = name.length();
+    int index = -1;
+    while ((index = query.indexOf(name, index + 1)) >= 0) {
+      boolean atStart = index == 0 || query.charAt(index - 1) == '&';
+      boolean atEquals = index + length < query.length()
+        && query.charAt(index + length) == '=';
+      if (atStart && atEquals) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Adds a query parameter, encoding the name and value.
+   * 
+   * @param name The parameter name.
+   * @param value The parameter value, can be null.
+   * 
+   * @return This request.
+   */
+  public ApiRequestBuilder addQueryParam(String name, String value) {
+    separate();
+    query.append(URLUtils.encode(name, UTF8)).append('=');
+    if (value != null) {
+      query.append(URLUtils.encode(value, UTF8));
+    }
+    url = null;
+    return this;
+  }
+
+  /**
+   * Adds a name=value query parameter that is already url encoded, such as a
+   * constant encoded once and reused for every request.
+   * 
+   * @param encodedParam The encoded parameter.
+   * 
+   * @return This request.
+   */
+  public ApiRequestBuilder addEncodedQueryParam(String encodedParam) {
+    separate();
+    query.append(encodedParam);
+    url = null;
+    return this;
+  }
+
+  private void separate() {
+    if (query.length() > 0) {
+      query.append('&');
+    }
+  }
+
+  /**
+   * Adds a header sent with the request.  Headers are immutable so constant
+   * headers can be shared by every request.
+   * 
+   * @param header The header to add.
+   * 
+   * @return This request.
+   */
+  public ApiRequestBuilder addHeader(Header header) {
+    if (headers == null) {
+      headers = new ArrayList<Header>(4);
+    }
+    headers.add(header);
+    return this;
+  }
+
+  /**
+   * Returns true if the response of a GET request may be served from, and
+   * stored in, the response cache.
+   * 
+   * @return True if the response is cacheable.
+   */
+  public boolean isCacheable() {
+    return cacheable;
+  }
+
+  public void setCacheable(boolean cacheable) {
+    this.cacheable = cacheable;
+  }
+
+  /**
+   * Returns the full url of the request.
+   * 
+   * @return The request url.
+   */
+  public String getUrl() {
+
+    if (url == null) {
+
+      // plain paths are appended as is, anything else is escaped
+      String base = isPlainPath(apiEndpoint) ? SinglyUtils.getSinglyBaseURL()
+        + apiEndpoint : SinglyUtils.createSinglyURL(apiEndpoint);
+      if (query.length() == 0) {
+        url = base;
+      }
+      else {
+        url = new StringBuilder(base.length() + query.length() + 1)
+          .append(base).append('?').append(query).toString();
+      }
+    }
+    return url;
+  }
+
+  private static boolean isPlainPath(String path) {
+    if (path == null || !path.startsWith("/")) {
+      return false;
+    }
+    for (int i = 0; i < path.length(); i++) {
+      char c = path.charAt(i);
+      boolean plain = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')
+        || (c >= '0' && c <= '9') || c == '/' || c == '-' || c == '_'
+        || c == '.' || c == '~';
+      if (!plain) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Sets the headers added by interceptors on the HTTP request.
+   * 
+   * @param request The HTTP request.
+   */
+  void applyHeaders(HttpRequest request) {
+    if (headers != null) {
+      for (Header header : headers) {
+        request.addHeader(header);
+      }
+    }
+  }
+
+}
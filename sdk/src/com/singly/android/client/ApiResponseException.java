@@ -0,0 +1,26 @@
+package com.singly.android.client;
+
+import org.apache.http.client.HttpResponseException;
+
+/**
+ * Thrown when the Singly API returns an error status.  Holds the status code
+ * and the body of the error response.
+ */
+public class ApiResponseException
+  extends HttpResponseException {
+
+  private static final long serialVersionUID = 1L;
+
+  private String responseBody;
+
+  public ApiResponseException(int statusCode, String reason,
+    String responseBody) {
+    super(statusCode, reason);
+    this.responseBody = responseBody;
+  }
+
+  public String getResponseBody() {
+    return responseBody;
+  }
+
+}
@@ -0,0 +1,21 @@
+package com.singly.android.client;
+
+import com.singly.android.client.SinglyClient.Authentication;
+
+/**
+ * Receives changes to the Singly authentication, such as a login through an
+ * AuthenticationActivity or a logout through
+ * {@link SinglyClient#clearAccount(android.content.Context)}.  Called in the
+ * main UI thread.
+ */
+public interface AuthenticationListener {
+
+  /**
+   * Called when the account or access token changes.
+   * 
+   * @param authentication The new authentication, whose access token is null
+   * once the account has been cleared.
+   */
+  public void onAuthenticationChanged(Authentication authentication);
+
+}
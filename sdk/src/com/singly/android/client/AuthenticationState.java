@@ -0,0 +1,259 @@
+package com.singly.android.client;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.commons.lang.StringUtils;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.singly.android.client.SinglyClient.Authentication;
+
+/**
+ * Holds the Singly account and access token in memory.
+ *
+ * The authentication is read from the singly shared preferences once, when
+ * the state is created, and kept in memory after that so reading it never
+ * touches storage.  Changes are made in memory straight away and written
+ * through to the shared preferences in a background thread.  The account and
+ * access token are swapped together so a reader on any thread never sees the
+ * account of one login with the token of another.
+ *
+ * Listeners are told about every change in the main UI thread, so components
+ * can react to a login or logout instead of checking on every use.
+ */
+public class AuthenticationState {
+
+  public static final String PREFS_NAME = "singly";
+
+  private SharedPreferences prefs;
+  private Handler mainHandler = new Handler(Looper.getMainLooper());
+  private CopyOnWriteArrayList<AuthenticationListener> listeners = new CopyOnWriteArrayList<AuthenticationListener>();
+
+  // the current account and token, replaced as a whole on every change
+  private volatile Snapshot snapshot;
+
+  // writes to the shared preferences, a write always saves the latest state
+  // so writes queued behind each other are coalesced into one
+  private ExecutorService writer;
+  private AtomicBoolean writePending = new AtomicBoolean();
+
+  /**
+   * An account and access token that never change.
+   */
+  private static class Snapshot {
+
+    final String account;
+    final String accessToken;
+
+    Snapshot(String account, String accessToken) {
+      this.account = account;
+      this.accessToken = accessToken;
+    }
+
+    boolean matches(String account, String accessToken) {
+      return StringUtils.equals(this.account, account)
+        && StringUtils.equals(this.accessToken, accessToken);
+    }
+  }
+
+  /**
+   * Creates the state, reading the authentication from the shared
+   * preferences.
+   * 
+   * @param context The current android context.
+   */
+  public AuthenticationState(Context context) {
+
+    this.prefs = context.getApplicationContext().getSharedPreferences(
+      PREFS_NAME, Context.MODE_PRIVATE);
+    this.snapshot = read();
+
+    this.writer = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS,
+      new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+          Thread thread = new Thread(runnable, "singly-auth-writer");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+  }
+
+  private Snapshot read() {
+    return new Snapshot(prefs.getString(SinglyClient.ACCOUNT, null),
+      prefs.getString(SinglyClient.ACCESS_TOKEN, null));
+  }
+
+  /**
+   * Returns true if there is a Singly access token.
+   * 
+   * @return True if authenticated.
+   */
+  public boolean isAuthenticated() {
+    return snapshot.accessToken != null;
+  }
+
+  /**
+   * Returns the Singly access token.
+   * 
+   * @return The access token or null if not authenticated.
+   */
+  public String getAccessToken() {
+    return snapshot.accessToken;
+  }
+
+  /**
+   * Returns the Singly account.
+   * 
+   * @return The account or null if there is none.
+   */
+  public String getAccount() {
+    return snapshot.account;
+  }
+
+  /**
+   * Returns a copy of the current authentication.
+   * 
+   * @return The account and access token.
+   */
+  public Authentication getAuthentication() {
+    Snapshot current = snapshot;
+    Authentication auth = new Authentication();
+    auth.account = current.account;
+    auth.accessToken = current.accessToken;
+    return auth;
+  }
+
+  /**
+   * Sets the account and access token after an authentication.  A blank
+   * value keeps the current value, as an authentication response doesn't
+   * always include both.
+   * 
+   * @param account The Singly account.
+   * @param accessToken The Singly access token.
+   */
+  public void update(String account, String accessToken) {
+    Snapshot current = snapshot;
+    set(StringUtils.isNotBlank(account) ? account : current.account,
+      StringUtils.isNotBlank(accessToken) ? accessToken : current.accessToken);
+  }
+
+  /**
+   * Removes the account and access token.
+   */
+  public void clear() {
+    set(null, null);
+  }
+
+  /**
+   * Reads the authentication from the shared preferences again.  Only needed
+   * if the shared preferences were changed directly, for example by a custom
+   * authentication activity.
+   */
+  public void reload() {
+    Snapshot stored = read();
+    if (swap(stored.account, stored.accessToken) != null) {
+      notifyListeners();
+    }
+  }
+
+  private void set(String account, String accessToken) {
+    if (swap(account, accessToken) != null) {
+      scheduleWrite();
+      notifyListeners();
+    }
+  }
+
+  /**
+   * Replaces the snapshot if it changes.
+   * 
+   * @return The new snapshot or null if nothing changed.
+   */
+  private synchronized Snapshot swap(String account, String accessToken) {
+    if (snapshot.matches(account, accessToken)) {
+      return null;
+    }
+    snapshot = new Snapshot(account, accessToken);
+    return snapshot;
+  }
+
+  private void scheduleWrite() {
+
+    if (!writePending.compareAndSet(false, true)) {
+      return;
+    }
+
+    writer.execute(new Runnable() {
+
+      @Override
+      public void run() {
+
+        // take the latest state, a change after this schedules another write
+        writePending.set(false);
+        Snapshot current = snapshot;
+
+        SharedPreferences.Editor editor = prefs.edit();
+        if (current.account != null) {
+          editor.putString(SinglyClient.ACCOUNT, current.account);
+        }
+        else {
+          editor.remove(SinglyClient.ACCOUNT);
+        }
+        if (current.accessToken != null) {
+          editor.putString(SinglyClient.ACCESS_TOKEN, current.accessToken);
+        }
+        else {
+          editor.remove(SinglyClient.ACCESS_TOKEN);
+        }
+        editor.commit();
+      }
+    });
+  }
+
+  private void notifyListeners() {
+
+    if (listeners.isEmpty()) {
+      return;
+    }
+
+    mainHandler.post(new Runnable() {
+
+      @Override
+      public void run() {
+        Authentication auth = getAuthentication();
+        for (AuthenticationListener listener : listeners) {
+          listener.onAuthenticationChanged(auth);
+        }
+      }
+    });
+  }
+
+  /**
+   * Adds a listener for authentication changes.
+   * 
+   * @param listener The listener to add.
+   */
+  public void addListener(AuthenticationListener listener) {
+    listeners.addIfAbsent(listener);
+  }
+
+  /**
+   * Removes a listener for authentication changes.
+   * 
+   * @param listener The listener to remove.
+   */
+  public void removeListener(AuthenticationListener listener) {
+    listeners.remove(listener);
+  }
+
+}
@@ -1,17 +1,14 @@
 package com.singly.android.client;
 
-import org.apache.commons.lang.StringUtils;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 import org.codehaus.jackson.JsonNode;
 
 import android.content.Context;
-import android.content.SharedPreferences;
 import android.webkit.WebViewClient;
 
-import com.loopj.android.http.AsyncHttpClient;
-import com.loopj.android.http.AsyncHttpResponseHandler;
-import com.loopj.android.http.RequestParams;
 import com.singly.android.util.JSON;
-import com.singly.android.util.SinglyUtils;
 
 /**
  * An abstract WebViewClient implementation that handles the final part of the
@@ -39,59 +36,43 @@ public abstract class BaseAuthenticationWebViewClient
     final AuthenticationWebViewListener listener) {
 
     // create the post parameters
-    RequestParams qparams = new RequestParams();
-    qparams.put("client_id", clientId);
-    qparams.put("client_secret", clientSecret);
-    qparams.put("code", authCode);
-
-    // create the access token url
-    String accessTokenUrl = SinglyUtils.createSinglyURL("/oauth/access_token",
-      null);
-
-    // make an async http call to get the access token
-    AsyncHttpClient client = SinglyUtils.getHttpClient();
-    client.post(accessTokenUrl, qparams, new AsyncHttpResponseHandler() {
-
-      @Override
-      public void onSuccess(String response) {
-
-        if (response != null) {
-
-          // get the account and access token from JSON
-          JsonNode root = JSON.parse(response);
-          String accessToken = JSON.getString(root, "access_token");
-          String account = JSON.getString(root, "account");
-
-          // get the shared preferences
-          SharedPreferences prefs = context.getSharedPreferences("singly",
-            Context.MODE_PRIVATE);
-          SharedPreferences.Editor editor = prefs.edit();
-
-          // save the account if there is one
-          if (StringUtils.isNotBlank(account)) {
-            editor.putString(SinglyClient.ACCOUNT, account);
-          }
-
-          // save the access token if there is one
-          if (StringUtils.isNotBlank(accessToken)) {
-            editor.putString(SinglyClient.ACCESS_TOKEN, accessToken);
+    Map<String, Object> postParams = new LinkedHashMap<String, Object>();
+    postParams.put("client_id", clientId);
+    postParams.put("client_secret", clientSecret);
+    postParams.put("code", authCode);
+
+    // make an async http call to get the access token over the shared client
+    final SinglyClient singlyClient = SinglyClient.getInstance();
+    singlyClient.doPostApiRequest(context, "/oauth/access_token", null,
+      postParams, new AsyncApiResponseHandler() {
+
+        @Override
+        public void onSuccess(String response) {
+
+          if (response != null) {
+
+            // get the account and access token from JSON
+            JsonNode root = JSON.parse(response);
+            String accessToken = JSON.getString(root, "access_token");
+            String account = JSON.getString(root, "account");
+
+            // save the account and access token if there are any, they are
+            // written to shared preferences in the background
+            singlyClient.getAuthenticationState(context).update(account,
+              accessToken);
           }
 
-          // commit changes to shared preferences
-          editor.commit();
+          // done with the authentication process, perform finish callback
+          listener.onFinish();
         }
 
-        // done with the authentication process, perform finish callback
-        listener.onFinish();
-      }
-
-      @Override
-      public void onFailure(Throwable error, String message) {
+        @Override
+        public void onFailure(Throwable error, String message) {
 
-        // pass through the error and response
-        listener.onError(error, message);
-      }
+          // pass through the error and response
+          listener.onError(error, message);
+        }
 
-    });
+      });
   }
 }
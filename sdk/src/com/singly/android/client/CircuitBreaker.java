@@ -0,0 +1,115 @@
+package com.singly.android.client;
+
+import android.os.SystemClock;
+
+/**
+ * A circuit breaker for a single host.
+ *
+ * The circuit starts closed and requests flow normally.  After a number of
+ * transient failures in a row the circuit opens and requests fail fast with a
+ * {@link CircuitOpenException} instead of waiting on a host that is down.
+ * Once the open time has passed a single trial request is let through, half
+ * open.  If it succeeds the circuit closes, if it fails the circuit opens
+ * again.
+ */
+public class CircuitBreaker {
+
+  public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+  public static final long DEFAULT_OPEN_TIME = 30 * 1000;
+
+  public enum State {
+    CLOSED, OPEN, HALF_OPEN
+  }
+
+  private String host;
+  private int failureThreshold;
+  private long openTime;
+
+  private State state = State.CLOSED;
+  private int failures = 0;
+  private long openedAt = 0;
+  private long trialAt = 0;
+  private long rejected = 0;
+
+  public CircuitBreaker(String host) {
+    this(host, DEFAULT_FAILURE_THRESHOLD, DEFAULT_OPEN_TIME);
+  }
+
+  /**
+   * Creates a circuit breaker.
+   *
+   * @param host The host the breaker guards.
+   * @param failureThreshold The transient failures in a row that open the
+   * circuit.
+   * @param openTime How long the circuit stays open before a trial request,
+   * in milliseconds.
+   */
+  public CircuitBreaker(String host, int failureThreshold, long openTime) {
+    this.host = host;
+    this.failureThreshold = failureThreshold;
+    this.openTime = openTime;
+  }
+
+  /**
+   * Checks that a request can be made.
+   *
+   * @throws CircuitOpenException If the circuit is open.
+   */
+  public synchronized void acquire()
+    throws CircuitOpenException {
+
+    if (state == State.OPEN) {
+      if (SystemClock.elapsedRealtime() - openedAt < openTime) {
+        rejected++;
+        throw new CircuitOpenException(host);
+      }
+
+      // let a single trial request through
+      state = State.HALF_OPEN;
+      trialAt = SystemClock.elapsedRealtime();
+    }
+    else if (state == State.HALF_OPEN) {
+
+      // a trial that never reported back, cancelled for example, doesn't
+      // keep the circuit half open forever
+      if (SystemClock.elapsedRealtime() - trialAt < openTime) {
+        rejected++;
+        throw new CircuitOpenException(host);
+      }
+      trialAt = SystemClock.elapsedRealtime();
+    }
+  }
+
+  /**
+   * Records a request that reached the host, closing the circuit.
+   */
+  public synchronized void recordSuccess() {
+    state = State.CLOSED;
+    failures = 0;
+  }
+
+  /**
+   * Records a transient failure, opening the circuit once the threshold is
+   * reached or if the trial request failed.
+   */
+  public synchronized void recordFailure() {
+    failures++;
+    if (state == State.HALF_OPEN || failures >= failureThreshold) {
+      state = State.OPEN;
+      openedAt = SystemClock.elapsedRealtime();
+    }
+  }
+
+  public synchronized State getState() {
+    return state;
+  }
+
+  public synchronized long getRejected() {
+    return rejected;
+  }
+
+  public String getHost() {
+    return host;
+  }
+
+}
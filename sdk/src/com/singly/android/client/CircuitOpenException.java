@@ -0,0 +1,25 @@
+package com.singly.android.client;
+
+import java.io.IOException;
+
+/**
+ * Thrown instead of making a request while the {@link CircuitBreaker} for its
+ * host is open.
+ */
+public class CircuitOpenException
+  extends IOException {
+
+  private static final long serialVersionUID = 1L;
+
+  private String host;
+
+  public CircuitOpenException(String host) {
+    super("Circuit open for " + host);
+    this.host = host;
+  }
+
+  public String getHost() {
+    return host;
+  }
+
+}
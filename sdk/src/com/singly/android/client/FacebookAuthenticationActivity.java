@@ -9,7 +9,6 @@ import org.codehaus.jackson.JsonNode;
 import android.app.Activity;
 import android.content.Context;
 import android.content.Intent;
-import android.content.SharedPreferences;
 import android.os.Bundle;
 
 import com.facebook.android.DialogError;
@@ -93,23 +92,10 @@ public class FacebookAuthenticationActivity
             String accessToken = JSON.getString(root, "access_token");
             String account = JSON.getString(root, "account");
 
-            // get the shared preferences
-            SharedPreferences prefs = context.getSharedPreferences("singly",
-              Context.MODE_PRIVATE);
-            SharedPreferences.Editor editor = prefs.edit();
-
-            // save the account if there is one
-            if (StringUtils.isNotBlank(account)) {
-              editor.putString(SinglyClient.ACCOUNT, account);
-            }
-
-            // save the access token if there is one
-            if (StringUtils.isNotBlank(accessToken)) {
-              editor.putString(SinglyClient.ACCESS_TOKEN, accessToken);
-            }
-
-            // commit changes to shared preferences
-            editor.commit();
+            // save the account and access token if there are any, they are
+            // written to shared preferences in the background
+            singlyClient.getAuthenticationState(context).update(account,
+              accessToken);
 
             // finish and dismiss the facebook auth activity
             FacebookAuthenticationActivity.this.finish();
@@ -0,0 +1,50 @@
+package com.singly.android.client;
+
+import org.apache.http.Header;
+import org.apache.http.message.BasicHeader;
+
+import com.singly.android.util.SinglyUtils;
+
+/**
+ * Adds constant headers to every request to the Singly API.  The headers are
+ * created once and shared by every request.
+ */
+public class HeaderInterceptor
+  implements RequestInterceptor {
+
+  private Header[] headers;
+
+  public HeaderInterceptor(Header... headers) {
+    this.headers = headers;
+  }
+
+  /**
+   * Creates an interceptor for the headers that identify the Singly SDK and
+   * its version.
+   * 
+   * @return The SDK headers interceptor.
+   */
+  public static HeaderInterceptor createSdkHeaders() {
+    return new HeaderInterceptor(new BasicHeader("X-Singly-SDK",
+      SinglyUtils.SDK), new BasicHeader("X-Singly-SDK-Version",
+      SinglyUtils.SDK_VERSION));
+  }
+
+  /**
+   * Creates an interceptor that asks for gzip compressed responses.  The
+   * {@link HttpEngine} decompresses them as they are read.
+   * 
+   * @return The compression interceptor.
+   */
+  public static HeaderInterceptor createGzip() {
+    return new HeaderInterceptor(new BasicHeader("Accept-Encoding", "gzip"));
+  }
+
+  @Override
+  public void intercept(ApiRequestBuilder request) {
+    for (Header header : headers) {
+      request.addHeader(header);
+    }
+  }
+
+}
@@ -0,0 +1,759 @@
+package com.singly.android.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.http.Header;
+import org.apache.http.HeaderElement;
+import org.apache.http.HeaderElementIterator;
+import org.apache.http.HttpConnection;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpException;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.HttpResponseException;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.methods.HttpHead;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRoute;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.message.BasicHeaderElementIterator;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.params.HttpProtocolParams;
+import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.protocol.ExecutionContext;
+import org.apache.http.protocol.HTTP;
+import org.apache.http.protocol.HttpContext;
+
+import org.apache.commons.io.input.ProxyInputStream;
+import org.apache.commons.io.output.ProxyOutputStream;
+
+import com.singly.android.util.SinglyUtils;
+
+/**
+ * The process wide HTTP transport used by the {@link SinglyClient}.
+ *
+ * The HttpEngine wraps a single Apache HttpClient backed by a bounded, thread
+ * safe connection pool.  Connections are kept alive and reused between
+ * requests to the same host, avoiding a new TCP connection and TLS handshake
+ * for every call to the Singly API.  The number of connections per host can
+ * be limited globally or per host.  Idle connections are reaped in the
+ * background once they have been unused longer than the keep alive time.
+ *
+ * All asynchronous work, API requests and image downloads, is run on the one
+ * shared executor owned by the engine instead of a thread pool per client.
+ *
+ * Failed requests are retried according to a {@link RetryPolicy}, with
+ * exponential backoff and jitter, and each host has a {@link CircuitBreaker}
+ * so that requests fail fast while a host is down instead of piling up.
+ *
+ * Pool statistics, including the connection reuse ratio and the number of
+ * idle and active connections, are available through {@link #getStats()}.
+ */
+public class HttpEngine {
+
+  public static final int DEFAULT_MAX_CONNECTIONS = 16;
+  public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 4;
+  public static final int DEFAULT_THREADS = 6;
+  public static final int DEFAULT_SOCKET_TIMEOUT = 20 * 1000;
+  public static final long DEFAULT_KEEP_ALIVE = 30 * 1000;
+
+  // the context attribute holding the metrics of a measured request
+  private static final String METRICS_ATTRIBUTE = "singly.metrics";
+
+  private final DefaultHttpClient httpClient;
+  private final ThreadSafeClientConnManager connManager;
+  private final ThreadPoolExecutor executor;
+  private final long keepAlive;
+
+  // connection limits, a default and overrides per host
+  private volatile int maxConnectionsPerHost;
+  private final Map<String, Integer> hostLimits = new ConcurrentHashMap<String, Integer>();
+
+  // resilience, the default retry policy and a circuit breaker per host
+  private volatile RetryPolicy retryPolicy = RetryPolicy.DEFAULT;
+  private final ConcurrentMap<String, CircuitBreaker> circuitBreakers = new ConcurrentHashMap<String, CircuitBreaker>();
+  private final AtomicLong retries = new AtomicLong();
+  private final RateLimiter rateLimiter = new RateLimiter();
+
+  // pool statistics
+  private final AtomicLong requests = new AtomicLong();
+  private final AtomicLong reusedConnections = new AtomicLong();
+  private final AtomicInteger activeConnections = new AtomicInteger();
+  private final AtomicBoolean active = new AtomicBoolean(true);
+
+  /**
+   * A snapshot of the connection pool statistics.  The reuse ratio is the
+   * fraction of requests, 0.0 to 1.0, sent over an already open connection.
+   */
+  public static class Stats {
+    public long requests;
+    public long reusedConnections;
+    public double reuseRatio;
+    public int activeConnections;
+    public int idleConnections;
+    public long retries;
+    public long circuitRejections;
+    public int openCircuits;
+
+    @Override
+    public String toString() {
+      return "requests=" + requests + ", reused=" + reusedConnections
+        + ", reuseRatio=" + reuseRatio + ", active=" + activeConnections
+        + ", idle=" + idleConnections + ", retries=" + retries
+        + ", circuitRejections=" + circuitRejections + ", openCircuits="
+        + openCircuits;
+    }
+  }
+
+  /**
+   * Limits connections per host, looks for a host override before falling
+   * back to the default limit.  The connection pool reads the limit once,
+   * when it first connects to a host, so limits must be set before the first
+   * request to a host, later changes don't apply to hosts already connected.
+   */
+  private class HostConnectionLimits
+    implements ConnPerRoute {
+
+    @Override
+    public int getMaxForRoute(HttpRoute route) {
+      Integer max = hostLimits.get(route.getTargetHost().getHostName()
+        .toLowerCase());
+      return max != null ? max.intValue() : maxConnectionsPerHost;
+    }
+  }
+
+  /**
+   * Keeps connections alive for the duration the server asks for with the
+   * Keep-Alive header, otherwise for the engine keep alive time.
+   */
+  private class KeepAliveStrategy
+    implements ConnectionKeepAliveStrategy {
+
+    @Override
+    public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+
+      HeaderElementIterator it = new BasicHeaderElementIterator(
+        response.headerIterator(HTTP.CONN_KEEP_ALIVE));
+      while (it.hasNext()) {
+        HeaderElement element = it.nextElement();
+        if (element.getValue() != null
+          && element.getName().equalsIgnoreCase("timeout")) {
+          try {
+            return Math.min(Long.parseLong(element.getValue()) * 1000,
+              keepAlive);
+          }
+          catch (NumberFormatException e) {
+            // ignore and use the default keep alive
+          }
+        }
+      }
+      return keepAlive;
+    }
+  }
+
+  /**
+   * Daemon thread that closes expired connections and connections that have
+   * been idle longer than the keep alive time.
+   */
+  private class IdleConnectionReaper
+    extends Thread {
+
+    public void run() {
+      while (active.get()) {
+        try {
+          Thread.sleep(Math.max(keepAlive / 2, 1000));
+        }
+        catch (InterruptedException ie) {
+          continue;
+        }
+        connManager.closeExpiredConnections();
+        connManager.closeIdleConnections(keepAlive, TimeUnit.MILLISECONDS);
+      }
+    }
+  }
+
+  /**
+   * A gzip response body that is decompressed as it is read.  The length of
+   * the decompressed body is not known.
+   */
+  private static class GzipDecompressingEntity
+    extends HttpEntityWrapper {
+
+    GzipDecompressingEntity(HttpEntity entity) {
+      super(entity);
+    }
+
+    @Override
+    public InputStream getContent()
+      throws IOException {
+      return new GZIPInputStream(wrappedEntity.getContent());
+    }
+
+    @Override
+    public Header getContentEncoding() {
+      return null;
+    }
+
+    @Override
+    public long getContentLength() {
+      return -1;
+    }
+  }
+
+  /**
+   * Counts the body bytes read from the network, before any decompression.
+   */
+  private static class ReceivedCountingEntity
+    extends HttpEntityWrapper {
+
+    private final RequestMetrics metrics;
+
+    ReceivedCountingEntity(HttpEntity entity, RequestMetrics metrics) {
+      super(entity);
+      this.metrics = metrics;
+    }
+
+    @Override
+    public InputStream getContent()
+      throws IOException {
+      return new ProxyInputStream(wrappedEntity.getContent()) {
+
+        @Override
+        protected void afterRead(int n) {
+          if (n > 0) {
+            metrics.bytesIn += n;
+          }
+        }
+      };
+    }
+  }
+
+  /**
+   * Counts the body bytes written to the network.
+   */
+  private static class SentCountingEntity
+    extends HttpEntityWrapper {
+
+    private final RequestMetrics metrics;
+
+    SentCountingEntity(HttpEntity entity, RequestMetrics metrics) {
+      super(entity);
+      this.metrics = metrics;
+    }
+
+    @Override
+    public void writeTo(OutputStream out)
+      throws IOException {
+      wrappedEntity.writeTo(new ProxyOutputStream(out) {
+
+        @Override
+        protected void afterWrite(int n) {
+          metrics.bytesOut += n;
+        }
+      });
+    }
+  }
+
+  /**
+   * Creates an engine with the default pool, timeout and thread settings.
+   */
+  public HttpEngine() {
+    this(DEFAULT_MAX_CONNECTIONS, DEFAULT_MAX_CONNECTIONS_PER_HOST,
+      DEFAULT_THREADS, DEFAULT_SOCKET_TIMEOUT, DEFAULT_KEEP_ALIVE);
+  }
+
+  /**
+   * Creates an engine.
+   *
+   * @param maxConnections The maximum number of pooled connections in total.
+   * @param maxConnectionsPerHost The default maximum connections to one host.
+   * @param threads The number of threads in the shared executor.
+   * @param socketTimeout The connect and read timeout in milliseconds.
+   * @param keepAlive The maximum time in milliseconds an idle connection is
+   * kept in the pool for reuse.
+   */
+  public HttpEngine(int maxConnections, int maxConnectionsPerHost,
+    int threads, int socketTimeout, long keepAlive) {
+
+    this.maxConnectionsPerHost = maxConnectionsPerHost;
+    this.keepAlive = keepAlive;
+
+    // pool and connection parameters
+    HttpParams params = new BasicHttpParams();
+    ConnManagerParams.setTimeout(params, socketTimeout);
+    ConnManagerParams.setMaxTotalConnections(params, maxConnections);
+    ConnManagerParams.setMaxConnectionsPerRoute(params,
+      new HostConnectionLimits());
+    HttpConnectionParams.setSoTimeout(params, socketTimeout);
+    HttpConnectionParams.setConnectionTimeout(params, socketTimeout);
+    HttpConnectionParams.setTcpNoDelay(params, true);
+    HttpConnectionParams.setSocketBufferSize(params, 8192);
+    HttpConnectionParams.setStaleCheckingEnabled(params, true);
+    HttpProtocolParams.setVersion(params, HttpVersion.HTTP_1_1);
+    HttpProtocolParams.setUserAgent(params, "singly-" + SinglyUtils.SDK + "/"
+      + SinglyUtils.SDK_VERSION);
+
+    SchemeRegistry schemeRegistry = new SchemeRegistry();
+    schemeRegistry.register(new Scheme("http", PlainSocketFactory
+      .getSocketFactory(), 80));
+    schemeRegistry.register(new Scheme("https", SSLSocketFactory
+      .getSocketFactory(), 443));
+
+    // one pooled client, keeps connections alive between requests
+    this.connManager = new ThreadSafeClientConnManager(params, schemeRegistry);
+    this.httpClient = new DefaultHttpClient(connManager, params);
+    httpClient.setKeepAliveStrategy(new KeepAliveStrategy());
+
+    // measured requests count the body bytes they send
+    httpClient.addRequestInterceptor(new HttpRequestInterceptor() {
+
+      @Override
+      public void process(HttpRequest request, HttpContext context)
+        throws HttpException, IOException {
+        RequestMetrics metrics = (RequestMetrics)context
+          .getAttribute(METRICS_ATTRIBUTE);
+        if (metrics != null && request instanceof HttpEntityEnclosingRequest) {
+          HttpEntityEnclosingRequest enclosing =
+            (HttpEntityEnclosingRequest)request;
+          if (enclosing.getEntity() != null) {
+            enclosing.setEntity(new SentCountingEntity(enclosing.getEntity(),
+              metrics));
+          }
+        }
+      }
+    });
+
+    // measured requests count the body bytes they receive, then gzip
+    // responses, asked for by the client's interceptors, are decompressed as
+    // they are read
+    httpClient.addResponseInterceptor(new HttpResponseInterceptor() {
+
+      @Override
+      public void process(HttpResponse response, HttpContext context)
+        throws HttpException, IOException {
+        HttpEntity entity = response.getEntity();
+        RequestMetrics metrics = (RequestMetrics)context
+          .getAttribute(METRICS_ATTRIBUTE);
+        if (metrics != null && entity != null) {
+          entity = new ReceivedCountingEntity(entity, metrics);
+          response.setEntity(entity);
+        }
+        Header encoding = entity != null ? entity.getContentEncoding() : null;
+        if (encoding != null && "gzip".equalsIgnoreCase(encoding.getValue())) {
+          response.setEntity(new GzipDecompressingEntity(entity));
+        }
+      }
+    });
+
+    // the shared executor, daemon threads so it never holds up the process
+    this.executor = new ThreadPoolExecutor(threads, threads, 60,
+      TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+      new ThreadFactory() {
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+          Thread thread = new Thread(runnable, "singly-http-"
+            + count.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+
+    IdleConnectionReaper reaper = new IdleConnectionReaper();
+    reaper.setDaemon(true);
+    reaper.start();
+  }
+
+  /**
+   * Executes the request on the calling thread using a pooled connection,
+   * retrying transient failures with the engine's retry policy.  The
+   * response is passed to the handler and the connection is released back to
+   * the pool once the handler returns.
+   *
+   * @param request The HTTP request to execute.
+   * @param handler Reads the response into a result.
+   *
+   * @return The result of the response handler.
+   *
+   * @throws IOException If the request fails or the handler throws.
+   */
+  public <T> T execute(HttpUriRequest request,
+    ResponseHandler<? extends T> handler)
+    throws IOException {
+    return execute(request, handler, retryPolicy, null);
+  }
+
+  /**
+   * Executes the request on the calling thread, measuring it.  The time to
+   * the first byte of the response, the status code and the body bytes sent
+   * and received are recorded in the metrics.
+   *
+   * @param request The HTTP request to execute.
+   * @param handler Reads the response into a result.
+   * @param metrics The measurements of the request, null to not measure it.
+   *
+   * @return The result of the response handler.
+   *
+   * @throws IOException If the request fails or the handler throws.
+   */
+  public <T> T execute(HttpUriRequest request,
+    ResponseHandler<? extends T> handler, RequestMetrics metrics)
+    throws IOException {
+    return execute(request, handler, retryPolicy, metrics);
+  }
+
+  /**
+   * Executes the request on the calling thread using a pooled connection,
+   * retrying transient failures with the retry policy.
+   *
+   * @param request The HTTP request to execute.
+   * @param handler Reads the response into a result.
+   * @param policy The retry policy for this request.
+   *
+   * @return The result of the response handler.
+   *
+   * @throws IOException If the request fails, after any retries, or the
+   * handler throws.
+   *
+   * @see #execute(HttpUriRequest, ResponseHandler, RetryPolicy, RequestMetrics)
+   */
+  public <T> T execute(HttpUriRequest request,
+    ResponseHandler<? extends T> handler, RetryPolicy policy)
+    throws IOException {
+    return execute(request, handler, policy, null);
+  }
+
+  /**
+   * Executes the request on the calling thread using a pooled connection,
+   * retrying transient failures with the retry policy.
+   *
+   * Only failures before the handler starts reading a response, and error
+   * statuses thrown by the handler as an HttpResponseException, are retried.
+   * A handler that fails part way through reading a body is never called a
+   * second time.  Aborted requests are not retried.
+   *
+   * @param request The HTTP request to execute.
+   * @param handler Reads the response into a result.
+   * @param policy The retry policy for this request.
+   * @param metrics The measurements of the request, null to not measure it.
+   * Bytes are counted over every attempt, the time to first byte and status
+   * code are those of the last attempt.
+   *
+   * @return The result of the response handler.
+   *
+   * @throws IOException If the request fails, after any retries, or the
+   * handler throws.
+   */
+  public <T> T execute(HttpUriRequest request,
+    ResponseHandler<? extends T> handler, RetryPolicy policy,
+    RequestMetrics metrics)
+    throws IOException {
+
+    int attempt = 0;
+    while (true) {
+      try {
+        return executeOnce(request, handler, metrics);
+      }
+      catch (IOException e) {
+
+        if (!policy.shouldRetry(request, e, attempt)) {
+          throw e;
+        }
+
+        // back off before retrying, jittered so clients don't retry together
+        long backoff = policy.getBackoff(attempt);
+        attempt++;
+        retries.incrementAndGet();
+        try {
+          Thread.sleep(backoff);
+        }
+        catch (InterruptedException ie) {
+          Thread.currentThread().interrupt();
+          throw e;
+        }
+      }
+    }
+  }
+
+  /**
+   * Executes the request a single time through the circuit breaker of its
+   * host.
+   */
+  private <T> T executeOnce(HttpUriRequest request,
+    ResponseHandler<? extends T> handler, RequestMetrics metrics)
+    throws IOException {
+
+    // fail fast while the host is down
+    String host = request.getURI().getHost();
+    CircuitBreaker breaker = host != null ? getCircuitBreaker(host) : null;
+    if (breaker != null) {
+      breaker.acquire();
+    }
+
+    HttpContext context = new BasicHttpContext();
+    long sent = 0;
+    if (metrics != null) {
+      context.setAttribute(METRICS_ATTRIBUTE, metrics);
+      sent = System.nanoTime();
+    }
+    activeConnections.incrementAndGet();
+    try {
+
+      // the client releases the connection itself if it fails here
+      HttpResponse response = null;
+      try {
+        response = httpClient.execute(request, context);
+      }
+      catch (IOException e) {
+        if (breaker != null && !request.isAborted()) {
+          breaker.recordFailure();
+        }
+        throw e;
+      }
+      requests.incrementAndGet();
+      if (metrics != null) {
+        metrics.firstByteNanos = System.nanoTime() - sent;
+        metrics.statusCode = response.getStatusLine().getStatusCode();
+      }
+
+      // follow any rate limits the server sends back
+      rateLimiter.onResponse(RateLimiter.getFamily(request.getURI()),
+        response);
+
+      // any response but a server error means the host is up
+      if (breaker != null) {
+        if (response.getStatusLine().getStatusCode() >= 500) {
+          breaker.recordFailure();
+        }
+        else {
+          breaker.recordSuccess();
+        }
+      }
+
+      // a connection that served a request before this one was reused, a
+      // response without a body has already released its connection
+      HttpConnection conn = (HttpConnection)context
+        .getAttribute(ExecutionContext.HTTP_CONNECTION);
+      try {
+        if (conn != null && conn.getMetrics().getRequestCount() > 1) {
+          reusedConnections.incrementAndGet();
+        }
+      }
+      catch (IllegalStateException e) {
+        // released, reuse is not known
+      }
+
+      HttpEntity entity = response.getEntity();
+      boolean consume = true;
+      try {
+        return handler.handleResponse(response);
+      }
+      catch (HttpResponseException e) {
+
+        // an error status, the body is consumed below and the connection
+        // kept, the request can be retried
+        throw e;
+      }
+      catch (IOException e) {
+        consume = false;
+        request.abort();
+        throw e;
+      }
+      catch (RuntimeException e) {
+        consume = false;
+        request.abort();
+        throw e;
+      }
+      finally {
+
+        // fully consume the entity so the connection can be reused
+        if (consume && entity != null) {
+          entity.consumeContent();
+        }
+      }
+    }
+    finally {
+      activeConnections.decrementAndGet();
+    }
+  }
+
+  /**
+   * Opens a connection to the host of the url and returns it to the pool,
+   * so the next request to the host skips the DNS lookup, TCP connect and
+   * TLS handshake.  The connection is kept for the keep alive time.  Runs in
+   * the calling thread.
+   *
+   * @param url Any url on the host, a HEAD request is sent to it.
+   *
+   * @throws IOException If the host could not be reached.
+   */
+  public void preconnect(String url)
+    throws IOException {
+
+    // any response will do, the body is consumed and the connection kept
+    execute(new HttpHead(url), new ResponseHandler<Integer>() {
+
+      @Override
+      public Integer handleResponse(HttpResponse response) {
+        return response.getStatusLine().getStatusCode();
+      }
+    }, RetryPolicy.NONE);
+  }
+
+  /**
+   * Returns the circuit breaker for a host, creating it if needed.
+   *
+   * @param host The hostname, for example api.singly.com.
+   *
+   * @return The circuit breaker for the host.
+   */
+  public CircuitBreaker getCircuitBreaker(String host) {
+
+    String key = host.toLowerCase();
+    CircuitBreaker breaker = circuitBreakers.get(key);
+    if (breaker == null) {
+      CircuitBreaker newBreaker = new CircuitBreaker(key);
+      breaker = circuitBreakers.putIfAbsent(key, newBreaker);
+      if (breaker == null) {
+        breaker = newBreaker;
+      }
+    }
+    return breaker;
+  }
+
+  /**
+   * Returns the rate limiter that requests take tokens from before they go
+   * to the network, and that follows the rate limit headers of every
+   * response.
+   *
+   * @return The rate limiter.
+   */
+  public RateLimiter getRateLimiter() {
+    return rateLimiter;
+  }
+
+  public RetryPolicy getRetryPolicy() {
+    return retryPolicy;
+  }
+
+  /**
+   * Sets the retry policy used by requests that don't pass their own.
+   *
+   * @param retryPolicy The default retry policy, {@link RetryPolicy#NONE} to
+   * never retry.
+   */
+  public void setRetryPolicy(RetryPolicy retryPolicy) {
+    this.retryPolicy = retryPolicy;
+  }
+
+  /**
+   * Runs the task on the shared executor.
+   *
+   * @param task The task to run in the background.
+   */
+  public void submit(Runnable task) {
+    executor.execute(task);
+  }
+
+  /**
+   * Sets the maximum number of connections for a single host.  Overrides the
+   * default per host limit.  Must be set before the first request to the
+   * host, the limit of a host already connected to doesn't change.
+   *
+   * @param host The hostname, for example api.singly.com.
+   * @param max The maximum number of connections.
+   */
+  public void setMaxConnectionsPerHost(String host, int max) {
+    hostLimits.put(host.toLowerCase(), max);
+  }
+
+  /**
+   * Returns the number of threads of the shared executor.
+   *
+   * @return The number of threads.
+   */
+  public int getThreads() {
+    return executor.getMaximumPoolSize();
+  }
+
+  public int getMaxConnectionsPerHost() {
+    return maxConnectionsPerHost;
+  }
+
+  /**
+   * Sets the default maximum number of connections per host.  Must be set
+   * before the first request to a host, the limit of a host already connected
+   * to doesn't change.
+   *
+   * @param maxConnectionsPerHost The maximum number of connections.
+   */
+  public void setMaxConnectionsPerHost(int maxConnectionsPerHost) {
+    this.maxConnectionsPerHost = maxConnectionsPerHost;
+  }
+
+  /**
+   * Returns a snapshot of the connection pool statistics.
+   *
+   * @return The current pool statistics.
+   */
+  public Stats getStats() {
+
+    Stats stats = new Stats();
+    stats.requests = requests.get();
+    stats.reusedConnections = reusedConnections.get();
+    stats.reuseRatio = stats.requests > 0 ? (double)stats.reusedConnections
+      / stats.requests : 0.0d;
+    stats.activeConnections = activeConnections.get();
+    stats.idleConnections = Math.max(connManager.getConnectionsInPool()
+      - stats.activeConnections, 0);
+    stats.retries = retries.get();
+    for (CircuitBreaker breaker : circuitBreakers.values()) {
+      stats.circuitRejections += breaker.getRejected();
+      if (breaker.getState() != CircuitBreaker.State.CLOSED) {
+        stats.openCircuits++;
+      }
+    }
+    return stats;
+  }
+
+  /**
+   * Shuts down the engine, closing all pooled connections.  The engine cannot
+   * be used after it is shutdown.
+   */
+  public void shutdown() {
+    active.set(false);
+    executor.shutdownNow();
+    connManager.shutdown();
+  }
+
+}
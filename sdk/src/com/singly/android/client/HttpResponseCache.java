@@ -0,0 +1,702 @@
+package com.singly.android.client;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.apache.http.Header;
+import org.apache.http.HeaderElement;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.impl.cookie.DateParseException;
+import org.apache.http.impl.cookie.DateUtils;
+import org.apache.http.util.EntityUtils;
+
+/**
+ * A disk backed cache for GET responses from the Singly API.
+ *
+ * Responses are stored in a directory inside the applications data/files
+ * directory, one metadata file and one body file per url.  The cache follows
+ * the Cache-Control and Expires headers of the response to decide how long a
+ * response is fresh.  Responses marked no-store are never cached.  A fresh
+ * response is served straight from disk without touching the network.  A
+ * stale response that has an ETag or Last-Modified validator is revalidated
+ * with a conditional request and, if the server answers 304 Not Modified, the
+ * body is served from disk.
+ *
+ * The freshness of specific endpoints can be overridden with
+ * {@link #setTtl(String, long)}, for example to keep /services fresh for a
+ * day regardless of the response headers.
+ *
+ * The cache is limited in size.  When the limit is passed the least recently
+ * used responses are evicted.  Hit, miss and revalidation counts are
+ * available through {@link #getStats()}.
+ */
+public class HttpResponseCache {
+
+  public static final String DEFAULT_CACHE_DIR = "_http_cache_";
+  public static final long DEFAULT_MAX_SIZE = 4 * 1024 * 1024;
+
+  private static final String META_EXT = ".meta";
+  private static final String BODY_EXT = ".body";
+
+  private File cacheDir;
+  private long maxSize;
+  private long size = 0;
+  private Object commitLock = new Object();
+
+  // access ordered cache key to body size, eldest is least recently used
+  private LinkedHashMap<String, Long> entries = new LinkedHashMap<String, Long>(
+    16, 0.75f, true);
+  private Map<String, Long> ttls = new ConcurrentHashMap<String, Long>();
+
+  // cache statistics
+  private AtomicLong hits = new AtomicLong();
+  private AtomicLong misses = new AtomicLong();
+  private AtomicLong revalidations = new AtomicLong();
+
+  /**
+   * The cached metadata for a single url.
+   */
+  public static class Entry {
+    public String key;
+    public String url;
+    public String account;
+    public String etag;
+    public String lastModified;
+    public String charset;
+    public long storedAt;
+    public long expires;
+
+    // the temporary file of a new entry, each writer has its own
+    File tempBody;
+  }
+
+  /**
+   * A snapshot of the cache statistics.  Hits are served from disk without a
+   * request, revalidations are served from disk after a 304 Not Modified and
+   * misses are fetched in full from the network.
+   */
+  public static class Stats {
+    public long hits;
+    public long misses;
+    public long revalidations;
+    public int entries;
+    public long size;
+    public long maxSize;
+
+    @Override
+    public String toString() {
+      return "hits=" + hits + ", misses=" + misses + ", revalidations="
+        + revalidations + ", entries=" + entries + ", size=" + size + "/"
+        + maxSize;
+    }
+  }
+
+  /**
+   * Creates the cache, loading the index of any responses already on disk.
+   *
+   * @param cacheDir The directory to store cached responses in.
+   * @param maxSize The maximum size in bytes of all cached response bodies.
+   */
+  public HttpResponseCache(File cacheDir, long maxSize) {
+
+    this.cacheDir = cacheDir;
+    this.maxSize = maxSize;
+    cacheDir.mkdirs();
+
+    // rebuild the lru order from the last access time of the body files
+    File[] bodies = cacheDir.listFiles();
+    if (bodies != null) {
+      Arrays.sort(bodies, new Comparator<File>() {
+
+        @Override
+        public int compare(File lhs, File rhs) {
+          long lhsMod = lhs.lastModified();
+          long rhsMod = rhs.lastModified();
+          return lhsMod < rhsMod ? -1 : (lhsMod == rhsMod ? 0 : 1);
+        }
+      });
+      for (File body : bodies) {
+        String name = body.getName();
+        if (name.endsWith(BODY_EXT)) {
+          String key = StringUtils.removeEnd(name, BODY_EXT);
+          entries.put(key, body.length());
+          size += body.length();
+        }
+        else if (name.endsWith(".tmp")) {
+          body.delete();
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the cached entry for the url or null if the url is not cached.
+   *
+   * @param url The full request url.
+   *
+   * @return The cached entry or null.
+   */
+  public Entry get(String url) {
+    return get(url, null);
+  }
+
+  /**
+   * Returns the cached entry for the url of an account or null if the url is
+   * not cached for the account.  The access token of the url is ignored, the
+   * entries of each account are kept apart by the account instead.
+   *
+   * @param url The full request url.
+   * @param account The Singly account the request is made for, can be null.
+   *
+   * @return The cached entry or null.
+   */
+  public Entry get(String url, String account) {
+
+    url = removeAccessToken(url);
+    String key = toKey(account, url);
+    synchronized (this) {
+      if (!entries.containsKey(key)) {
+        return null;
+      }
+    }
+
+    InputStream in = null;
+    try {
+
+      Properties meta = new Properties();
+      in = new FileInputStream(new File(cacheDir, key + META_EXT));
+      meta.load(in);
+
+      // guard against hash collisions
+      if (!StringUtils.equals(url, meta.getProperty("url"))
+        || !StringUtils.equals(account, meta.getProperty("account"))) {
+        return null;
+      }
+
+      Entry entry = new Entry();
+      entry.key = key;
+      entry.url = url;
+      entry.account = account;
+      entry.etag = meta.getProperty("etag");
+      entry.lastModified = meta.getProperty("lastModified");
+      entry.charset = meta.getProperty("charset", "UTF-8");
+      entry.storedAt = Long.parseLong(meta.getProperty("storedAt", "0"));
+      entry.expires = Long.parseLong(meta.getProperty("expires", "0"));
+      return entry;
+    }
+    catch (Exception e) {
+      remove(key);
+      return null;
+    }
+    finally {
+      IOUtils.closeQuietly(in);
+    }
+  }
+
+  /**
+   * Returns true if the entry can be served without asking the server.  A
+   * ttl set for the endpoint takes precedence over the response headers.
+   *
+   * @param entry The cached entry.
+   * @param apiEndpoint The endpoint the url was created from.
+   *
+   * @return True if the entry is fresh.
+   */
+  public boolean isFresh(Entry entry, String apiEndpoint) {
+
+    long now = System.currentTimeMillis();
+    Long ttl = apiEndpoint != null ? ttls.get(apiEndpoint) : null;
+    if (ttl != null) {
+      return entry.storedAt + ttl.longValue() > now;
+    }
+    return entry.expires > now;
+  }
+
+  /**
+   * Adds If-None-Match and If-Modified-Since headers to the request using the
+   * validators of the cached entry.
+   *
+   * @param request The request to revalidate the entry.
+   * @param entry The cached entry.
+   *
+   * @return True if the request was made conditional.
+   */
+  public boolean addConditionalHeaders(HttpRequest request, Entry entry) {
+
+    boolean conditional = false;
+    if (entry.etag != null) {
+      request.addHeader("If-None-Match", entry.etag);
+      conditional = true;
+    }
+    if (entry.lastModified != null) {
+      request.addHeader("If-Modified-Since", entry.lastModified);
+      conditional = true;
+    }
+    return conditional;
+  }
+
+  /**
+   * Opens the cached response body for the entry.  The caller must close the
+   * stream.
+   *
+   * @param entry The cached entry.
+   *
+   * @return The response body stream or null if it could not be opened.
+   */
+  public InputStream getBodyStream(Entry entry) {
+
+    File bodyFile = new File(cacheDir, entry.key + BODY_EXT);
+    try {
+      InputStream body = new FileInputStream(bodyFile);
+      bodyFile.setLastModified(System.currentTimeMillis());
+      synchronized (this) {
+        entries.get(entry.key);
+      }
+      return body;
+    }
+    catch (IOException e) {
+      remove(entry.key);
+      return null;
+    }
+  }
+
+  /**
+   * Creates the cache entry for a response if the response headers allow it
+   * to be cached.  The body is written to {@link #getTempBodyFile(Entry)} and
+   * the entry is stored with {@link #commit(Entry)}.
+   *
+   * @param url The full request url.
+   * @param apiEndpoint The endpoint the url was created from.
+   * @param response The HTTP response.
+   *
+   * @return The new entry or null if the response cannot be cached.
+   */
+  public Entry newEntry(String url, String apiEndpoint, HttpResponse response) {
+    return newEntry(url, null, apiEndpoint, response);
+  }
+
+  /**
+   * Creates a new entry for a response of an account.  The access token is
+   * removed from the url before it is stored.
+   *
+   * @param url The full request url.
+   * @param account The Singly account the request is made for, can be null.
+   * @param apiEndpoint The endpoint the url was created from.
+   * @param response The HTTP response.
+   *
+   * @return The new entry or null if the response cannot be cached.
+   *
+   * @see #newEntry(String, String, HttpResponse)
+   */
+  public Entry newEntry(String url, String account, String apiEndpoint,
+    HttpResponse response) {
+
+    // never store what the server asks us not to
+    CacheControl cacheControl = new CacheControl(response);
+    if (cacheControl.noStore || response.getEntity() == null) {
+      return null;
+    }
+
+    // only worth storing if fresh for a while or can be revalidated
+    url = removeAccessToken(url);
+    Entry entry = new Entry();
+    entry.key = toKey(account, url);
+    entry.url = url;
+    entry.account = account;
+    entry.etag = getHeader(response, "ETag");
+    entry.lastModified = getHeader(response, "Last-Modified");
+    entry.charset = EntityUtils.getContentCharSet(response.getEntity());
+    if (entry.charset == null) {
+      entry.charset = "UTF-8";
+    }
+    entry.storedAt = System.currentTimeMillis();
+    entry.expires = cacheControl.getExpires(entry.storedAt);
+    boolean hasTtl = apiEndpoint != null && ttls.containsKey(apiEndpoint);
+    if (entry.etag == null && entry.lastModified == null
+      && entry.expires <= entry.storedAt && !hasTtl) {
+      return null;
+    }
+    return entry;
+  }
+
+  /**
+   * Returns the temporary file the body of a new entry is written to before
+   * it is committed, creating it on first use.  Every new entry has its own
+   * file, so two responses for the same url written at once never share one.
+   *
+   * @param entry The new entry.
+   *
+   * @return The temporary body file.
+   *
+   * @throws IOException If the file could not be created.
+   */
+  public File getTempBodyFile(Entry entry)
+    throws IOException {
+
+    synchronized (entry) {
+      if (entry.tempBody == null) {
+        cacheDir.mkdirs();
+        entry.tempBody = File.createTempFile(entry.key + BODY_EXT, ".tmp",
+          cacheDir);
+      }
+      return entry.tempBody;
+    }
+  }
+
+  /**
+   * Stores a new entry once its body has been fully written to the temporary
+   * body file.  Renaming the file means readers never see a partial body, and
+   * the body is in place before the metadata that describes it is written.
+   *
+   * @param entry The new entry.
+   */
+  public void commit(Entry entry) {
+
+    File tmpBody = entry.tempBody;
+    if (tmpBody == null) {
+      return;
+    }
+    try {
+
+      // commits of the same url replace the body and metadata together
+      long bodySize = tmpBody.length();
+      synchronized (commitLock) {
+        if (!tmpBody.renameTo(new File(cacheDir, entry.key + BODY_EXT))) {
+          tmpBody.delete();
+          remove(entry.key);
+          return;
+        }
+        writeMeta(entry);
+      }
+
+      synchronized (this) {
+        Long previous = entries.put(entry.key, bodySize);
+        size += bodySize - (previous != null ? previous.longValue() : 0);
+      }
+      trimToSize();
+    }
+    catch (IOException e) {
+      tmpBody.delete();
+      remove(entry.key);
+    }
+  }
+
+  /**
+   * Discards a new entry whose body could not be fully written.
+   *
+   * @param entry The new entry.
+   */
+  public void abort(Entry entry) {
+    if (entry.tempBody != null) {
+      entry.tempBody.delete();
+    }
+  }
+
+  /**
+   * Updates the freshness of a cached entry after the server answered a
+   * conditional request with 304 Not Modified.
+   *
+   * @param entry The cached entry.
+   * @param response The 304 HTTP response.
+   */
+  public void update(Entry entry, HttpResponse response) {
+
+    CacheControl cacheControl = new CacheControl(response);
+    entry.storedAt = System.currentTimeMillis();
+    entry.expires = cacheControl.getExpires(entry.storedAt);
+    String etag = getHeader(response, "ETag");
+    if (etag != null) {
+      entry.etag = etag;
+    }
+    String lastModified = getHeader(response, "Last-Modified");
+    if (lastModified != null) {
+      entry.lastModified = lastModified;
+    }
+
+    try {
+      writeMeta(entry);
+    }
+    catch (IOException e) {
+      remove(entry.key);
+    }
+  }
+
+  /**
+   * Sets how long responses from an endpoint are served without asking the
+   * server, overriding the Cache-Control and Expires headers.
+   *
+   * @param apiEndpoint The endpoint, for example /services.
+   * @param ttl The time in milliseconds responses are fresh.
+   */
+  public void setTtl(String apiEndpoint, long ttl) {
+    ttls.put(apiEndpoint, ttl);
+  }
+
+  public void removeTtl(String apiEndpoint) {
+    ttls.remove(apiEndpoint);
+  }
+
+  /**
+   * Removes all cached responses.
+   */
+  public void clear() {
+
+    synchronized (this) {
+      entries.clear();
+      size = 0;
+    }
+    File[] files = cacheDir.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        file.delete();
+      }
+    }
+  }
+
+  void recordHit() {
+    hits.incrementAndGet();
+  }
+
+  void recordMiss() {
+    misses.incrementAndGet();
+  }
+
+  void recordRevalidation() {
+    revalidations.incrementAndGet();
+  }
+
+  /**
+   * Returns a snapshot of the cache statistics.
+   *
+   * @return The current cache statistics.
+   */
+  public Stats getStats() {
+
+    Stats stats = new Stats();
+    stats.hits = hits.get();
+    stats.misses = misses.get();
+    stats.revalidations = revalidations.get();
+    stats.maxSize = maxSize;
+    synchronized (this) {
+      stats.entries = entries.size();
+      stats.size = size;
+    }
+    return stats;
+  }
+
+  public long getMaxSize() {
+    return maxSize;
+  }
+
+  /**
+   * Evicts least recently used entries until the cache is under its size.
+   */
+  private void trimToSize() {
+
+    while (true) {
+
+      String eldest = null;
+      synchronized (this) {
+        if (size <= maxSize || entries.isEmpty()) {
+          return;
+        }
+        Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+        Map.Entry<String, Long> eldestEntry = it.next();
+        eldest = eldestEntry.getKey();
+        size -= eldestEntry.getValue();
+        it.remove();
+      }
+      deleteFiles(eldest);
+    }
+  }
+
+  private void remove(String key) {
+
+    synchronized (this) {
+      Long removed = entries.remove(key);
+      if (removed != null) {
+        size -= removed.longValue();
+      }
+    }
+    deleteFiles(key);
+  }
+
+  private void deleteFiles(String key) {
+    new File(cacheDir, key + META_EXT).delete();
+    new File(cacheDir, key + BODY_EXT).delete();
+  }
+
+  private void writeMeta(Entry entry)
+    throws IOException {
+
+    Properties meta = new Properties();
+    meta.setProperty("url", entry.url);
+    if (entry.account != null) {
+      meta.setProperty("account", entry.account);
+    }
+    if (entry.etag != null) {
+      meta.setProperty("etag", entry.etag);
+    }
+    if (entry.lastModified != null) {
+      meta.setProperty("lastModified", entry.lastModified);
+    }
+    meta.setProperty("charset", entry.charset);
+    meta.setProperty("storedAt", String.valueOf(entry.storedAt));
+    meta.setProperty("expires", String.valueOf(entry.expires));
+
+    OutputStream out = null;
+    try {
+      out = new FileOutputStream(new File(cacheDir, entry.key + META_EXT));
+      meta.store(out, null);
+    }
+    finally {
+      IOUtils.closeQuietly(out);
+    }
+  }
+
+  private static String getHeader(HttpResponse response, String name) {
+    Header header = response.getFirstHeader(name);
+    return header != null ? header.getValue() : null;
+  }
+
+  /**
+   * Returns the url without its access_token parameter, so the token is never
+   * written to disk and a new token for the same account doesn't miss the
+   * cache.
+   */
+  static String removeAccessToken(String url) {
+
+    int query = url.indexOf('?');
+    if (query < 0 || url.indexOf("access_token", query) < 0) {
+      return url;
+    }
+
+    StringBuilder stripped = new StringBuilder(url.length());
+    stripped.append(url, 0, query);
+    char separator = '?';
+    for (String param : StringUtils.split(url.substring(query + 1), '&')) {
+      if (param.equals("access_token") || param.startsWith("access_token=")) {
+        continue;
+      }
+      stripped.append(separator).append(param);
+      separator = '&';
+    }
+    return stripped.toString();
+  }
+
+  /**
+   * Returns the hex md5 hash of the account and url, used as the cache file
+   * name.
+   */
+  private static String toKey(String account, String url) {
+
+    if (account != null) {
+      url = account + " " + url;
+    }
+
+    try {
+      MessageDigest md5 = MessageDigest.getInstance("MD5");
+      byte[] digest = md5.digest(url.getBytes("UTF-8"));
+      StringBuilder key = new StringBuilder(digest.length * 2);
+      for (byte b : digest) {
+        key.append(Character.forDigit((b >> 4) & 0xf, 16));
+        key.append(Character.forDigit(b & 0xf, 16));
+      }
+      return key.toString();
+    }
+    catch (NoSuchAlgorithmException e) {
+      return String.valueOf(url.hashCode());
+    }
+    catch (IOException e) {
+      return String.valueOf(url.hashCode());
+    }
+  }
+
+  /**
+   * The caching directives of a response from the Cache-Control and Expires
+   * headers.
+   */
+  private static class CacheControl {
+
+    boolean noStore = false;
+    boolean noCache = false;
+    long maxAge = -1;
+    Date expires = null;
+    Date date = null;
+
+    CacheControl(HttpResponse response) {
+
+      for (Header header : response.getHeaders("Cache-Control")) {
+        for (HeaderElement element : header.getElements()) {
+          String name = element.getName().toLowerCase();
+          if (name.equals("no-store")) {
+            noStore = true;
+          }
+          else if (name.equals("no-cache")) {
+            noCache = true;
+          }
+          else if (name.equals("max-age") && element.getValue() != null) {
+            try {
+              maxAge = Long.parseLong(element.getValue());
+            }
+            catch (NumberFormatException e) {
+              noCache = true;
+            }
+          }
+        }
+      }
+
+      expires = parseDate(getHeader(response, "Expires"));
+      date = parseDate(getHeader(response, "Date"));
+    }
+
+    /**
+     * Returns the time the response stops being fresh, max-age takes
+     * precedence over the Expires header.
+     */
+    long getExpires(long now) {
+
+      if (noCache) {
+        return 0;
+      }
+      if (maxAge >= 0) {
+        return now + (maxAge * 1000);
+      }
+      if (expires != null) {
+
+        // expires is relative to the server clock
+        long serverNow = date != null ? date.getTime() : now;
+        return now + (expires.getTime() - serverNow);
+      }
+      return 0;
+    }
+
+    private static Date parseDate(String value) {
+      try {
+        return value != null ? DateUtils.parseDate(value) : null;
+      }
+      catch (DateParseException e) {
+        return null;
+      }
+    }
+  }
+
+}
@@ -0,0 +1,133 @@
+package com.singly.android.client;
+
+/**
+ * A fixed bucket histogram of latencies.
+ *
+ * Latencies are counted into buckets with upper bounds from 1ms to 30s on a
+ * roughly 1-2-5 scale, plus an overflow bucket.  Recording is a few
+ * comparisons and increments with no allocation.  Percentiles are estimated
+ * as the upper bound of the bucket the percentile falls in.
+ *
+ * A histogram is not thread safe, callers synchronize on it or on the object
+ * that owns it.
+ */
+public class LatencyHistogram {
+
+  private static final long[] BOUNDS_MILLIS = {
+    1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000, 30000
+  };
+
+  private long[] buckets = new long[BOUNDS_MILLIS.length + 1];
+  private long count;
+  private long totalNanos;
+  private long maxNanos;
+
+  /**
+   * Records a latency.
+   *
+   * @param nanos The latency in nanoseconds, negative values are ignored.
+   */
+  public void record(long nanos) {
+
+    if (nanos < 0) {
+      return;
+    }
+
+    long millis = nanos / 1000000L;
+    int bucket = 0;
+    while (bucket < BOUNDS_MILLIS.length && millis >= BOUNDS_MILLIS[bucket]) {
+      bucket++;
+    }
+    buckets[bucket]++;
+    count++;
+    totalNanos += nanos;
+    maxNanos = Math.max(maxNanos, nanos);
+  }
+
+  public long getCount() {
+    return count;
+  }
+
+  /**
+   * Returns the average latency in milliseconds.
+   *
+   * @return The average latency, 0 if nothing was recorded.
+   */
+  public double getAverageMillis() {
+    return count > 0 ? (totalNanos / (double)count) / 1000000d : 0d;
+  }
+
+  public double getMaxMillis() {
+    return maxNanos / 1000000d;
+  }
+
+  /**
+   * Returns an estimate of a percentile of the latencies, the upper bound of
+   * the bucket the percentile falls in, never more than the maximum.
+   *
+   * @param percentile The percentile, 0.0 to 1.0, for example 0.95.
+   *
+   * @return The estimated latency in milliseconds, 0 if nothing was recorded.
+   */
+  public double getPercentileMillis(double percentile) {
+
+    if (count == 0) {
+      return 0d;
+    }
+
+    long rank = (long)Math.ceil(percentile * count);
+    long seen = 0;
+    for (int i = 0; i < BOUNDS_MILLIS.length; i++) {
+      seen += buckets[i];
+      if (seen >= rank) {
+        return Math.min(BOUNDS_MILLIS[i], getMaxMillis());
+      }
+    }
+    return getMaxMillis();
+  }
+
+  /**
+   * Returns the counts of each bucket, the last being the overflow bucket.
+   *
+   * @return A copy of the bucket counts.
+   */
+  public long[] getBuckets() {
+    long[] copy = new long[buckets.length];
+    System.arraycopy(buckets, 0, copy, 0, buckets.length);
+    return copy;
+  }
+
+  /**
+   * Returns the upper bounds in milliseconds of every bucket but the overflow
+   * bucket.
+   *
+   * @return A copy of the bucket bounds.
+   */
+  public static long[] getBucketBoundsMillis() {
+    long[] copy = new long[BOUNDS_MILLIS.length];
+    System.arraycopy(BOUNDS_MILLIS, 0, copy, 0, BOUNDS_MILLIS.length);
+    return copy;
+  }
+
+  /**
+   * Returns a copy of the histogram.
+   *
+   * @return The copy.
+   */
+  public LatencyHistogram copy() {
+    LatencyHistogram copy = new LatencyHistogram();
+    System.arraycopy(buckets, 0, copy.buckets, 0, buckets.length);
+    copy.count = count;
+    copy.totalNanos = totalNanos;
+    copy.maxNanos = maxNanos;
+    return copy;
+  }
+
+  @Override
+  public String toString() {
+    return "count=" + count + ", avg=" + getAverageMillis() + "ms, p50="
+      + getPercentileMillis(0.5d) + "ms, p95=" + getPercentileMillis(0.95d)
+      + "ms, max=" + getMaxMillis() + "ms";
+  }
+
+}
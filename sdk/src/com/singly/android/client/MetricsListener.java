@@ -0,0 +1,14 @@
+package com.singly.android.client;
+
+/**
+ * Receives the measurements of every request once it completes, for example
+ * to ship them to a metrics backend.
+ *
+ * Listeners are called in the background thread that ran the request, so
+ * they must be quick and must not block.
+ */
+public interface MetricsListener {
+
+  void onRequestCompleted(RequestMetrics metrics);
+
+}
@@ -0,0 +1,131 @@
+package com.singly.android.client;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+import android.util.Log;
+
+/**
+ * A point in time copy of the request metrics of every endpoint, taken with
+ * {@link SinglyMetrics#getSnapshot()}.
+ */
+public class MetricsSnapshot {
+
+  public long uptimeMillis;
+  public Map<String, Endpoint> endpoints = Collections.emptyMap();
+
+  /**
+   * The metrics of a single endpoint.  Image downloads are recorded under the
+   * {@link SinglyMetrics#IMAGES} endpoint.
+   */
+  public static class Endpoint {
+
+    public long count;
+    public long errors;
+    public long cacheHits;
+    public long bytesIn;
+    public long bytesOut;
+    public Map<String, Long> errorClasses = new TreeMap<String, Long>();
+    public LatencyHistogram queueWait = new LatencyHistogram();
+    public LatencyHistogram firstByte = new LatencyHistogram();
+    public LatencyHistogram total = new LatencyHistogram();
+    public LatencyHistogram parse = new LatencyHistogram();
+
+    /**
+     * Adds a completed request.  Callers synchronize on the endpoint.
+     */
+    void add(RequestMetrics metrics) {
+
+      count++;
+      if (metrics.cached) {
+        cacheHits++;
+      }
+      bytesIn += metrics.bytesIn;
+      bytesOut += metrics.bytesOut;
+      if (metrics.errorClass != null) {
+        errors++;
+        Long classCount = errorClasses.get(metrics.errorClass);
+        errorClasses.put(metrics.errorClass, classCount != null ? classCount
+          .longValue() + 1 : 1L);
+      }
+      queueWait.record(metrics.queueNanos);
+      firstByte.record(metrics.firstByteNanos);
+      total.record(metrics.totalNanos);
+      parse.record(metrics.parseNanos);
+    }
+
+    Endpoint copy() {
+      Endpoint copy = new Endpoint();
+      copy.count = count;
+      copy.errors = errors;
+      copy.cacheHits = cacheHits;
+      copy.bytesIn = bytesIn;
+      copy.bytesOut = bytesOut;
+      copy.errorClasses = new TreeMap<String, Long>(errorClasses);
+      copy.queueWait = queueWait.copy();
+      copy.firstByte = firstByte.copy();
+      copy.total = total.copy();
+      copy.parse = parse.copy();
+      return copy;
+    }
+
+    /**
+     * Returns the fraction of requests, 0.0 to 1.0, that failed.
+     *
+     * @return The error rate.
+     */
+    public double getErrorRate() {
+      return count > 0 ? errors / (double)count : 0d;
+    }
+
+    /**
+     * Returns the requests per second over the life of the metrics.
+     *
+     * @param uptimeMillis The time the metrics have been collected for.
+     *
+     * @return The request throughput.
+     */
+    public double getRequestsPerSecond(long uptimeMillis) {
+      return uptimeMillis > 0 ? count / (uptimeMillis / 1000d) : 0d;
+    }
+
+    @Override
+    public String toString() {
+      return "count=" + count + ", errors=" + errors + " " + errorClasses
+        + ", cacheHits=" + cacheHits + ", in=" + bytesIn + ", out="
+        + bytesOut + ", queue=[" + queueWait + "], ttfb=[" + firstByte
+        + "], total=[" + total + "], parse=[" + parse + "]";
+    }
+  }
+
+  MetricsSnapshot(long uptimeMillis, Map<String, Endpoint> endpoints) {
+    this.uptimeMillis = uptimeMillis;
+    this.endpoints = Collections.unmodifiableMap(new TreeMap<String, Endpoint>(
+      endpoints));
+  }
+
+  /**
+   * Writes the snapshot to logcat, one line per endpoint.
+   *
+   * @param tag The log tag.
+   */
+  public void log(String tag) {
+    Log.i(tag, "Singly metrics over " + uptimeMillis + "ms");
+    for (Map.Entry<String, Endpoint> entry : endpoints.entrySet()) {
+      Log.i(tag, entry.getKey() + " " + entry.getValue());
+    }
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder();
+    builder.append("uptime=").append(uptimeMillis).append("ms");
+    for (Map.Entry<String, Endpoint> entry : endpoints.entrySet()) {
+      builder.append('\n').append(entry.getKey()).append(' ')
+        .append(entry.getValue());
+    }
+    return builder.toString();
+  }
+
+}
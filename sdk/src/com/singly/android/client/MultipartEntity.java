@@ -0,0 +1,176 @@
+package com.singly.android.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.http.entity.AbstractHttpEntity;
+
+/**
+ * A multipart/form-data request body that streams its parts.
+ *
+ * File, InputStream, content Uri and byte array parts are read from their
+ * {@link UploadSource} only as the body is written to the connection, through
+ * a fixed size buffer, so uploading a large photo never holds it in memory.
+ * If the length of every part is known the body is sent with a
+ * Content-Length, otherwise it is sent with chunked transfer encoding.
+ * Progress is reported to an {@link UploadProgressListener} as the body is
+ * written.
+ */
+public class MultipartEntity
+  extends AbstractHttpEntity {
+
+  private static final String CRLF = "\r\n";
+  private static final char[] BOUNDARY_CHARS = "-_1234567890abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ"
+    .toCharArray();
+
+  private String boundary;
+  private List<Part> parts = new ArrayList<Part>();
+  private UploadProgressListener progressListener;
+
+  /**
+   * A single part, its header and either a String value or a source.
+   */
+  private static class Part {
+    byte[] header;
+    byte[] value;
+    UploadSource source;
+  }
+
+  public MultipartEntity() {
+
+    StringBuilder builder = new StringBuilder();
+    Random random = new Random();
+    for (int i = 0; i < 30; i++) {
+      builder.append(BOUNDARY_CHARS[random.nextInt(BOUNDARY_CHARS.length)]);
+    }
+    this.boundary = builder.toString();
+    setContentType("multipart/form-data; boundary=" + boundary);
+  }
+
+  private static byte[] toBytes(String value) {
+    try {
+      return value.getBytes("UTF-8");
+    }
+    catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Adds a text part.
+   *
+   * @param name The part name.
+   * @param value The part value.
+   */
+  public void addPart(String name, String value) {
+    Part part = new Part();
+    part.header = toBytes("--" + boundary + CRLF
+      + "Content-Disposition: form-data; name=\"" + name + "\"" + CRLF
+      + "Content-Type: text/plain; charset=UTF-8" + CRLF + CRLF);
+    part.value = toBytes(value);
+    parts.add(part);
+    updateChunked();
+  }
+
+  /**
+   * Adds a binary part read from the source when the body is written.
+   *
+   * @param name The part name.
+   * @param source The source of the part content.
+   * @param contentType The MIME type of the content, defaults to
+   * application/octet-stream if null.
+   */
+  public void addPart(String name, UploadSource source, String contentType) {
+    String filename = source.getFilename();
+    Part part = new Part();
+    part.header = toBytes("--" + boundary + CRLF
+      + "Content-Disposition: form-data; name=\"" + name + "\"; filename=\""
+      + (filename != null ? filename : name) + "\"" + CRLF + "Content-Type: "
+      + (contentType != null ? contentType : "application/octet-stream")
+      + CRLF + "Content-Transfer-Encoding: binary" + CRLF + CRLF);
+    part.source = source;
+    parts.add(part);
+    updateChunked();
+  }
+
+  public void setProgressListener(UploadProgressListener progressListener) {
+    this.progressListener = progressListener;
+  }
+
+  private byte[] getTrailer() {
+    return toBytes("--" + boundary + "--" + CRLF);
+  }
+
+  private void updateChunked() {
+    setChunked(getContentLength() < 0);
+  }
+
+  @Override
+  public long getContentLength() {
+
+    long length = 0;
+    for (Part part : parts) {
+      length += part.header.length + CRLF.length();
+      if (part.source != null) {
+        long sourceLength = part.source.getLength();
+        if (sourceLength < 0) {
+          return -1;
+        }
+        length += sourceLength;
+      }
+      else {
+        length += part.value.length;
+      }
+    }
+    return length + getTrailer().length;
+  }
+
+  @Override
+  public boolean isRepeatable() {
+    for (Part part : parts) {
+      if (part.source != null && !part.source.isRepeatable()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public boolean isStreaming() {
+    return !isRepeatable();
+  }
+
+  @Override
+  public InputStream getContent() {
+    throw new UnsupportedOperationException(
+      "Multipart entities can only be written");
+  }
+
+  @Override
+  public void writeTo(OutputStream out)
+    throws IOException {
+
+    UploadProgress progress = new UploadProgress(progressListener,
+      getContentLength());
+    byte[] crlf = toBytes(CRLF);
+    for (Part part : parts) {
+      progress.write(part.header, out);
+      if (part.source != null) {
+        progress.copy(part.source.open(), out);
+      }
+      else {
+        progress.write(part.value, out);
+      }
+      progress.write(crlf, out);
+    }
+    progress.write(getTrailer(), out);
+    out.flush();
+    progress.finish();
+  }
+
+}
@@ -0,0 +1,221 @@
+package com.singly.android.client;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A lazy iterator over the items of a Singly API collection endpoint that
+ * pages with offset and limit parameters, such as /friends/all or
+ * /types/photos.
+ *
+ * Pages are fetched in the background through the {@link RequestScheduler} at
+ * {@link RequestPriority#BACKGROUND}, so paging waits behind visible and
+ * prefetch requests.  Up to a read ahead number of pages are fetched in
+ * parallel, in front of the page being consumed.  The pages are held to a
+ * bound of their own, the read ahead, instead of the bound of the background
+ * class, and still count towards the total bound of the scheduler.  A new
+ * page is only fetched once the consumer moves onto the next page, so a slow
+ * consumer holds back fetching and no more than the read ahead pages plus
+ * the current page are ever held in memory, however large the collection
+ * is.
+ *
+ * The collection ends at the first page with fewer items than the page size.
+ *
+ * {@link #hasNext()} and {@link #next()} block while the page they need is
+ * being fetched, so the iterator must be used from a background thread,
+ * never the main UI thread.  It is not thread safe, a single thread consumes
+ * it.  A failed page fetch is thrown from hasNext or next as a
+ * {@link PagingException} and ends the iteration.  Call {@link #close()} to
+ * stop early, which cancels any pages still being fetched.
+ */
+public class PagedIterator<T>
+  implements Iterator<T> {
+
+  /**
+   * Loads a single page of items.  Runs in a background thread.
+   */
+  interface PageLoader<T> {
+
+    List<T> load(int offset, int limit, RequestHandle handle)
+      throws IOException;
+  }
+
+  /**
+   * A page being fetched, completed in the background thread.
+   */
+  private static class Page<T> {
+    final CountDownLatch done = new CountDownLatch(1);
+    RequestHandle handle;
+    volatile List<T> items;
+    volatile IOException error;
+  }
+
+  private RequestScheduler requestScheduler;
+  private RequestRegistry requestRegistry;
+  private PageLoader<T> loader;
+  private int pageSize;
+  private int readAhead;
+  private RequestScheduler.Bound bound;
+
+  private LinkedList<Page<T>> window = new LinkedList<Page<T>>();
+  private int nextOffset;
+  private Iterator<T> current;
+  private boolean lastPage = false;
+  private volatile boolean closed = false;
+  private AtomicLong pagesFetched = new AtomicLong();
+
+  PagedIterator(RequestScheduler requestScheduler,
+    RequestRegistry requestRegistry, PageLoader<T> loader, int offset,
+    int pageSize, int readAhead) {
+    this.requestScheduler = requestScheduler;
+    this.requestRegistry = requestRegistry;
+    this.loader = loader;
+    this.nextOffset = offset;
+    this.pageSize = Math.max(1, pageSize);
+    this.readAhead = Math.max(1, readAhead);
+    this.bound = new RequestScheduler.Bound(this.readAhead);
+  }
+
+  /**
+   * Starts fetching pages until the read ahead window is full.
+   */
+  private void fill() {
+    while (!lastPage && window.size() < readAhead) {
+      window.add(fetch(nextOffset));
+      nextOffset += pageSize;
+    }
+  }
+
+  private Page<T> fetch(final int offset) {
+
+    final Page<T> page = new Page<T>();
+    page.handle = new RequestHandle(requestRegistry);
+
+    final Runnable request = new Runnable() {
+
+      @Override
+      public void run() {
+        try {
+          if (closed || page.handle.isCancelled()) {
+            page.items = Collections.emptyList();
+            return;
+          }
+          page.items = loader.load(offset, pageSize, page.handle);
+          pagesFetched.incrementAndGet();
+        }
+        catch (IOException e) {
+          page.error = e;
+        }
+        catch (RuntimeException e) {
+          page.error = new IOException("Error parsing page: " + e);
+        }
+        finally {
+          page.handle.finish();
+          page.done.countDown();
+        }
+      }
+    };
+
+    // a page cancelled before it starts leaves the queue
+    requestScheduler.submit(RequestPriority.BACKGROUND, null, bound, request);
+    page.handle.addCancelAction(new Runnable() {
+
+      @Override
+      public void run() {
+        requestScheduler.remove(request);
+      }
+    });
+    return page;
+  }
+
+  @Override
+  public boolean hasNext() {
+
+    while (current == null || !current.hasNext()) {
+
+      if (closed || lastPage) {
+        return false;
+      }
+
+      // keep the window full, then wait for the oldest page
+      fill();
+      Page<T> page = window.removeFirst();
+      try {
+        page.done.await();
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        close();
+        throw new PagingException(new IOException("Interrupted"));
+      }
+
+      if (page.error != null) {
+        close();
+        throw new PagingException(page.error);
+      }
+
+      // a short page is the end, drop the pages fetched past it
+      List<T> items = page.items;
+      if (items.size() < pageSize) {
+        lastPage = true;
+        cancelWindow();
+      }
+      current = items.iterator();
+    }
+    return true;
+  }
+
+  @Override
+  public T next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    return current.next();
+  }
+
+  @Override
+  public void remove() {
+    throw new UnsupportedOperationException();
+  }
+
+  private void cancelWindow() {
+    for (Page<T> page : window) {
+      page.handle.cancel();
+    }
+    window.clear();
+  }
+
+  /**
+   * Stops the iteration and cancels any pages still being fetched.
+   */
+  public void close() {
+    closed = true;
+    current = null;
+    cancelWindow();
+  }
+
+  /**
+   * Returns the number of pages fetched so far, including read ahead pages
+   * not yet consumed.
+   *
+   * @return The number of pages fetched.
+   */
+  public long getPagesFetched() {
+    return pagesFetched.get();
+  }
+
+  public int getPageSize() {
+    return pageSize;
+  }
+
+  public int getReadAhead() {
+    return readAhead;
+  }
+
+}
@@ -0,0 +1,24 @@
+package com.singly.android.client;
+
+import java.io.IOException;
+
+/**
+ * Thrown from a {@link PagedIterator} when a page could not be fetched.  The
+ * cause is the IOException the fetch failed with, an
+ * {@link ApiResponseException} for an error status.
+ */
+public class PagingException
+  extends RuntimeException {
+
+  private static final long serialVersionUID = 1L;
+
+  public PagingException(IOException cause) {
+    super(cause.getMessage(), cause);
+  }
+
+  @Override
+  public IOException getCause() {
+    return (IOException)super.getCause();
+  }
+
+}
@@ -0,0 +1,96 @@
+package com.singly.android.client;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Records how long responses take to parse, per Singly API endpoint.
+ *
+ * The time recorded for a response covers decoding the JSON from the body
+ * stream and building the model object with the {@link ResponseParser}.
+ */
+public class ParseTimings {
+
+  private ConcurrentMap<String, Timing> timings = new ConcurrentHashMap<String, Timing>();
+
+  /**
+   * Parse times for a single endpoint.
+   */
+  public static class Timing {
+
+    public long count;
+    public long totalNanos;
+    public long maxNanos;
+
+    /**
+     * Returns the average parse time in milliseconds.
+     *
+     * @return The average parse time in milliseconds.
+     */
+    public double getAverageMillis() {
+      return count > 0 ? (totalNanos / (double)count) / 1000000d : 0d;
+    }
+
+    @Override
+    public String toString() {
+      return "count=" + count + ", avg=" + getAverageMillis() + "ms, max="
+        + (maxNanos / 1000000d) + "ms";
+    }
+  }
+
+  /**
+   * Records a parse of a response from the endpoint.
+   *
+   * @param apiEndpoint The Singly API endpoint.
+   * @param nanos The parse time in nanoseconds.
+   */
+  public void record(String apiEndpoint, long nanos) {
+
+    Timing timing = timings.get(apiEndpoint);
+    if (timing == null) {
+      Timing newTiming = new Timing();
+      timing = timings.putIfAbsent(apiEndpoint, newTiming);
+      if (timing == null) {
+        timing = newTiming;
+      }
+    }
+
+    synchronized (timing) {
+      timing.count++;
+      timing.totalNanos += nanos;
+      timing.maxNanos = Math.max(timing.maxNanos, nanos);
+    }
+  }
+
+  /**
+   * Returns a copy of the parse times for every endpoint, sorted by endpoint.
+   *
+   * @return The endpoint to parse time mapping.
+   */
+  public Map<String, Timing> getTimings() {
+
+    Map<String, Timing> copy = new TreeMap<String, Timing>();
+    for (Map.Entry<String, Timing> entry : timings.entrySet()) {
+      Timing timing = entry.getValue();
+      Timing snapshot = new Timing();
+      synchronized (timing) {
+        snapshot.count = timing.count;
+        snapshot.totalNanos = timing.totalNanos;
+        snapshot.maxNanos = timing.maxNanos;
+      }
+      copy.put(entry.getKey(), snapshot);
+    }
+    return Collections.unmodifiableMap(copy);
+  }
+
+  /**
+   * Clears all recorded parse times.
+   */
+  public void clear() {
+    timings.clear();
+  }
+
+}
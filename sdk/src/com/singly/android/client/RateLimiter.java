@@ -0,0 +1,337 @@
+package com.singly.android.client;
+
+import java.net.URI;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.math.NumberUtils;
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.impl.cookie.DateParseException;
+import org.apache.http.impl.cookie.DateUtils;
+
+import android.os.SystemClock;
+
+import com.singly.android.util.SinglyUtils;
+
+/**
+ * A client side rate limiter for outbound requests, a token bucket for each
+ * family of endpoints.
+ *
+ * Every request that goes to the network takes a token from the bucket of its
+ * family, responses served from the cache or a prefetch don't.  Buckets
+ * refill at a steady rate up to their capacity, which allows short bursts but
+ * caps the sustained request rate.  Requests that find their bucket empty wait
+ * for a token in the thread about to make them rather than being dropped.
+ *
+ * The limiter also follows the server.  A 429 Too Many Requests response
+ * pauses the family until its Retry-After time.  X-RateLimit-Remaining and
+ * X-RateLimit-Reset headers cap the tokens in the bucket and pause the family
+ * until the reset once the server says no requests remain.
+ */
+public class RateLimiter {
+
+  public static final String FRIENDS = "friends";
+  public static final String PROFILES = "profiles";
+  public static final String TYPES = "types";
+  public static final String IMAGES = "images";
+  public static final String DEFAULT = "default";
+
+  // pause after a 429 without a Retry-After header
+  public static final long DEFAULT_RETRY_AFTER = 10 * 1000;
+
+  private ConcurrentMap<String, Bucket> buckets = new ConcurrentHashMap<String, Bucket>();
+
+  /**
+   * A token bucket for a single family.
+   */
+  private static class Bucket {
+
+    int capacity;
+    double tokensPerSecond;
+    double tokens;
+    long lastRefill = SystemClock.elapsedRealtime();
+    long pausedUntil = 0;
+    long acquired = 0;
+    long throttled = 0;
+
+    Bucket(int capacity, double tokensPerSecond) {
+      this.capacity = capacity;
+      this.tokensPerSecond = tokensPerSecond;
+      this.tokens = capacity;
+    }
+
+    void refill(long now) {
+      if (now <= lastRefill) {
+        return;
+      }
+      tokens = Math.min(capacity, tokens + ((now - lastRefill) / 1000d)
+        * tokensPerSecond);
+      lastRefill = now;
+    }
+
+    /**
+     * Takes a token if one is available.  Returns 0 if a token was taken,
+     * otherwise the milliseconds until one will be.
+     */
+    long tryAcquire() {
+
+      long now = SystemClock.elapsedRealtime();
+      if (now < pausedUntil) {
+        return pausedUntil - now;
+      }
+
+      refill(now);
+      if (tokens >= 1d) {
+        tokens -= 1d;
+        acquired++;
+        return 0;
+      }
+      return Math.max(1, (long)Math.ceil(((1d - tokens) / tokensPerSecond)
+        * 1000d));
+    }
+  }
+
+  /**
+   * The state of a single family's bucket.
+   */
+  public static class Stats {
+
+    public int capacity;
+    public double tokensPerSecond;
+    public double tokens;
+    public long acquired;
+    public long throttled;
+    public long pausedMillis;
+
+    @Override
+    public String toString() {
+      return "tokens=" + tokens + "/" + capacity + ", rate=" + tokensPerSecond
+        + "/s, acquired=" + acquired + ", throttled=" + throttled
+        + ", paused=" + pausedMillis + "ms";
+    }
+  }
+
+  /**
+   * Creates a rate limiter with the default buckets.
+   */
+  public RateLimiter() {
+    setLimit(FRIENDS, 10, 5);
+    setLimit(PROFILES, 5, 1);
+    setLimit(TYPES, 5, 2);
+    setLimit(IMAGES, 20, 10);
+    setLimit(DEFAULT, 10, 5);
+  }
+
+  /**
+   * Returns the family of a request url.  Singly API urls are grouped by the
+   * first part of their path, any other host is taken to be an image host.
+   *
+   * @param uri The request url.
+   *
+   * @return The family of the request.
+   */
+  public static String getFamily(URI uri) {
+
+    String host = uri.getHost();
+    if (host != null && !host.equalsIgnoreCase(SinglyUtils.getSinglyHost())) {
+      return IMAGES;
+    }
+    return getEndpointFamily(uri.getPath());
+  }
+
+  /**
+   * Returns the family of a Singly API endpoint.
+   *
+   * @param apiEndpoint The Singly API endpoint, for example /friends/all.
+   *
+   * @return The family of the endpoint.
+   */
+  public static String getEndpointFamily(String apiEndpoint) {
+
+    String path = StringUtils.removeStart(StringUtils.trimToEmpty(apiEndpoint),
+      "/");
+    String first = StringUtils.substringBefore(path, "/");
+    if (FRIENDS.equals(first) || PROFILES.equals(first)
+      || TYPES.equals(first)) {
+      return first;
+    }
+    return DEFAULT;
+  }
+
+  /**
+   * Sets the bucket for a family.
+   *
+   * @param family The family, for example {@link #FRIENDS}.
+   * @param capacity The largest burst of requests.
+   * @param tokensPerSecond The sustained requests per second.
+   */
+  public void setLimit(String family, int capacity, double tokensPerSecond) {
+    buckets.put(family, new Bucket(Math.max(1, capacity), Math.max(0.01d,
+      tokensPerSecond)));
+  }
+
+  private Bucket getBucket(String family) {
+    Bucket bucket = family != null ? buckets.get(family) : null;
+    return bucket != null ? bucket : buckets.get(DEFAULT);
+  }
+
+  /**
+   * Takes a token for the family without waiting.
+   *
+   * @param family The request family.
+   *
+   * @return 0 if a token was taken, otherwise the milliseconds until one is
+   * available.
+   */
+  public long tryAcquire(String family) {
+    Bucket bucket = getBucket(family);
+    synchronized (bucket) {
+      return bucket.tryAcquire();
+    }
+  }
+
+  /**
+   * Takes a token for the family, waiting until one is available.
+   *
+   * @param family The request family.
+   *
+   * @throws InterruptedException If interrupted while waiting.
+   */
+  public void acquire(String family)
+    throws InterruptedException {
+
+    boolean waited = false;
+    while (true) {
+      long wait = tryAcquire(family);
+      if (wait == 0) {
+        return;
+      }
+      if (!waited) {
+        recordThrottled(family);
+        waited = true;
+      }
+      Thread.sleep(wait);
+    }
+  }
+
+  /**
+   * Counts a request that had to wait for a token.
+   *
+   * @param family The request family.
+   */
+  public void recordThrottled(String family) {
+    Bucket bucket = getBucket(family);
+    synchronized (bucket) {
+      bucket.throttled++;
+    }
+  }
+
+  /**
+   * Adjusts the family's bucket to the rate limit headers of a response.
+   *
+   * @param family The request family.
+   * @param response The response.
+   */
+  public void onResponse(String family, HttpResponse response) {
+
+    long now = SystemClock.elapsedRealtime();
+    Bucket bucket = getBucket(family);
+
+    // too many requests, wait as long as the server says
+    if (response.getStatusLine().getStatusCode() == 429) {
+      long retryAfter = getDelay(response.getFirstHeader("Retry-After"));
+      pause(bucket, now + (retryAfter >= 0 ? retryAfter : DEFAULT_RETRY_AFTER));
+      return;
+    }
+
+    // never hold more tokens than the server has left for us
+    Header remainingHeader = response.getFirstHeader("X-RateLimit-Remaining");
+    if (remainingHeader != null) {
+      int remaining = NumberUtils.toInt(remainingHeader.getValue(), -1);
+      if (remaining == 0) {
+        long reset = getDelay(response.getFirstHeader("X-RateLimit-Reset"));
+        pause(bucket, now + (reset >= 0 ? reset : DEFAULT_RETRY_AFTER));
+      }
+      else if (remaining > 0) {
+        synchronized (bucket) {
+          bucket.refill(now);
+          bucket.tokens = Math.min(bucket.tokens, remaining);
+        }
+      }
+    }
+  }
+
+  private void pause(Bucket bucket, long until) {
+    synchronized (bucket) {
+      bucket.pausedUntil = Math.max(bucket.pausedUntil, until);
+      bucket.tokens = 0;
+      bucket.lastRefill = Math.max(bucket.lastRefill, until);
+    }
+  }
+
+  /**
+   * Returns the delay in milliseconds of a header holding seconds to wait, an
+   * epoch time in seconds, or an HTTP date.  Returns -1 if the header is
+   * missing or can't be read.
+   */
+  private static long getDelay(Header header) {
+
+    if (header == null || StringUtils.isBlank(header.getValue())) {
+      return -1;
+    }
+
+    String value = header.getValue().trim();
+    long seconds = NumberUtils.toLong(value, -1);
+    if (seconds >= 0) {
+
+      // large values are epoch times, small ones are seconds to wait
+      if (seconds > 1000000000L) {
+        return Math.max(0, seconds * 1000 - System.currentTimeMillis());
+      }
+      return seconds * 1000;
+    }
+
+    try {
+      Date date = DateUtils.parseDate(value);
+      return Math.max(0, date.getTime() - System.currentTimeMillis());
+    }
+    catch (DateParseException e) {
+      return -1;
+    }
+  }
+
+  /**
+   * Returns the state of every family's bucket.
+   *
+   * @return The family to bucket state mapping.
+   */
+  public Map<String, Stats> getStats() {
+
+    long now = SystemClock.elapsedRealtime();
+    Map<String, Stats> stats = new TreeMap<String, Stats>();
+    for (Map.Entry<String, Bucket> entry : buckets.entrySet()) {
+      Bucket bucket = entry.getValue();
+      Stats bucketStats = new Stats();
+      synchronized (bucket) {
+        if (now >= bucket.pausedUntil) {
+          bucket.refill(now);
+        }
+        bucketStats.capacity = bucket.capacity;
+        bucketStats.tokensPerSecond = bucket.tokensPerSecond;
+        bucketStats.tokens = bucket.tokens;
+        bucketStats.acquired = bucket.acquired;
+        bucketStats.throttled = bucket.throttled;
+        bucketStats.pausedMillis = Math.max(0, bucket.pausedUntil - now);
+      }
+      stats.put(entry.getKey(), bucketStats);
+    }
+    return Collections.unmodifiableMap(stats);
+  }
+
+}
@@ -0,0 +1,227 @@
+package com.singly.android.client;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang.StringUtils;
+
+import android.util.Log;
+
+import com.singly.android.util.URLUtils;
+
+/**
+ * Coalesces identical GET requests that are in flight at the same time.
+ *
+ * Requests are keyed by their normalized endpoint and sorted parameters.  The
+ * first caller for a key performs the request.  Any caller asking for the same
+ * key while that request is in flight is attached to it instead of making a
+ * request of its own, and the single response is given to every attached
+ * response handler.  The number of requests saved is counted.
+ *
+ * Callers that parse the response attach handlers that parse the shared
+ * response themselves.  The caller performing the request can complete it
+ * early when no other caller is attached, and parse the response from the
+ * stream without sharing it.
+ *
+ * A caller can leave a request before it completes.  The request itself is
+ * only cancelled once every caller attached to it has left.
+ */
+public class RequestCoalescer {
+
+  private static final String TAG = RequestCoalescer.class.getSimpleName();
+
+  private Map<String, Flight> inFlight = new HashMap<String, Flight>();
+  private AtomicLong requestsSaved = new AtomicLong();
+
+  /**
+   * A request in flight, its handle and the handlers attached to it.
+   */
+  private static class Flight {
+    RequestHandle handle;
+    List<AsyncApiResponseHandler> handlers = new ArrayList<AsyncApiResponseHandler>(
+      2);
+  }
+
+  /**
+   * Creates the coalescing key for an endpoint and its parameters.  The
+   * endpoint has any trailing slash removed and the parameters are sorted by
+   * name so parameter order does not matter.  Names and values are url
+   * encoded, so a value holding an & or = can't be mistaken for more
+   * parameters.
+   *
+   * @param apiEndpoint The Singly API endpoint.
+   * @param params The query parameters, can be null.
+   *
+   * @return The key for the request.
+   */
+  public static String toKey(String apiEndpoint, Map<String, String> params) {
+
+    StringBuilder key = new StringBuilder();
+    String endpoint = StringUtils.trimToEmpty(apiEndpoint);
+    if (!endpoint.startsWith("/")) {
+      key.append('/');
+    }
+    key.append(endpoint.length() > 1 ? StringUtils.removeEnd(endpoint, "/")
+      : endpoint);
+
+    if (params != null && !params.isEmpty()) {
+      char separator = '?';
+      for (Map.Entry<String, String> param : new TreeMap<String, String>(
+        params).entrySet()) {
+        key.append(separator).append(URLUtils.encode(param.getKey(), "UTF-8"));
+        if (param.getValue() != null) {
+          key.append('=').append(URLUtils.encode(param.getValue(), "UTF-8"));
+        }
+        separator = '&';
+      }
+    }
+    return key.toString();
+  }
+
+  /**
+   * Attaches the response handler to the request for the key.
+   *
+   * @param key The request key.
+   * @param responseHandler The response handler of the caller.
+   * @param handle The handle of the request the caller would perform, kept
+   * only if the caller is the first for the key.
+   *
+   * @return True if the caller is the first for the key and must perform the
+   * request, false if the caller was attached to a request in flight.
+   */
+  public synchronized boolean join(String key,
+    AsyncApiResponseHandler responseHandler, RequestHandle handle) {
+
+    Flight flight = inFlight.get(key);
+    if (flight != null) {
+      flight.handlers.add(responseHandler);
+      requestsSaved.incrementAndGet();
+      return false;
+    }
+
+    flight = new Flight();
+    flight.handle = handle;
+    flight.handlers.add(responseHandler);
+    inFlight.put(key, flight);
+    return true;
+  }
+
+  /**
+   * Detaches the response handler from the request for the key.  If it was
+   * the last handler attached the request is removed and its handle returned
+   * so it can be cancelled.
+   *
+   * @param key The request key.
+   * @param responseHandler The response handler of the caller.
+   *
+   * @return The handle of the request if no handlers are left, else null.
+   */
+  public synchronized RequestHandle leave(String key,
+    AsyncApiResponseHandler responseHandler) {
+
+    Flight flight = inFlight.get(key);
+    if (flight == null || !flight.handlers.remove(responseHandler)
+      || !flight.handlers.isEmpty()) {
+      return null;
+    }
+    inFlight.remove(key);
+    return flight.handle;
+  }
+
+  /**
+   * Completes the request for the key.  Callers asking for the key after this
+   * point start a new request.
+   *
+   * @param key The request key.
+   *
+   * @return All response handlers attached to the request.
+   */
+  public synchronized List<AsyncApiResponseHandler> complete(String key) {
+    Flight flight = inFlight.remove(key);
+    if (flight == null) {
+      return Collections.emptyList();
+    }
+    return flight.handlers;
+  }
+
+  /**
+   * Completes the request for the key if the response handler is the only
+   * one attached, so a caller that parses the response itself can parse it
+   * straight from the stream instead of sharing it as a String.  Callers
+   * asking for the key after this point start a new request.
+   *
+   * @param key The request key.
+   * @param responseHandler The response handler of the caller.
+   *
+   * @return True if no other handler is attached to the request, false if
+   * the response must be shared with the attached handlers.
+   */
+  public synchronized boolean completeIfOnly(String key,
+    AsyncApiResponseHandler responseHandler) {
+
+    Flight flight = inFlight.get(key);
+    if (flight != null && (flight.handlers.size() != 1
+      || flight.handlers.get(0) != responseHandler)) {
+      return false;
+    }
+    inFlight.remove(key);
+    return true;
+  }
+
+  /**
+   * Returns a response handler that completes the request for the key and
+   * passes the response on to every attached handler.
+   *
+   * @param key The request key.
+   *
+   * @return A response handler for the one request made for the key.
+   */
+  public AsyncApiResponseHandler fanOut(final String key) {
+
+    return new AsyncApiResponseHandler() {
+
+      // a handler that throws is logged and doesn't keep the others from
+      // getting the response
+
+      @Override
+      public void onSuccess(String response) {
+        for (AsyncApiResponseHandler handler : complete(key)) {
+          try {
+            handler.onSuccess(response);
+          }
+          catch (RuntimeException e) {
+            Log.e(TAG, "Error in response handler", e);
+          }
+        }
+      }
+
+      @Override
+      public void onFailure(Throwable error, String message) {
+        for (AsyncApiResponseHandler handler : complete(key)) {
+          try {
+            handler.onFailure(error, message);
+          }
+          catch (RuntimeException e) {
+            Log.e(TAG, "Error in response handler", e);
+          }
+        }
+      }
+    };
+  }
+
+  /**
+   * Returns the number of requests that were not made because an identical
+   * request was already in flight.
+   *
+   * @return The number of requests saved.
+   */
+  public long getRequestsSaved() {
+    return requestsSaved.get();
+  }
+
+}
@@ -0,0 +1,147 @@
+package com.singly.android.client;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.http.client.methods.HttpUriRequest;
+
+/**
+ * A handle to a request made through the {@link SinglyClient}, used to cancel
+ * it.
+ *
+ * A request cancelled while it is queued never goes to the network.  A
+ * request cancelled while it is running has its connection aborted.  Either
+ * way the response handler of a cancelled request is never called.
+ *
+ * Handles can be tagged, usually with the fragment or adapter that made the
+ * request, and every running request with a tag cancelled at once through
+ * {@link SinglyClient#cancelRequests(Object)}.
+ */
+public class RequestHandle {
+
+  private RequestRegistry registry;
+  private List<Runnable> cancelActions = new ArrayList<Runnable>(1);
+  private volatile HttpUriRequest request;
+  private volatile boolean cancelled = false;
+  private volatile boolean done = false;
+  private Object tag;
+
+  RequestHandle(RequestRegistry registry) {
+    this.registry = registry;
+  }
+
+  RequestHandle(RequestRegistry registry, Runnable cancelAction) {
+    this.registry = registry;
+    this.cancelActions.add(cancelAction);
+  }
+
+  /**
+   * Cancels the request if it hasn't finished.
+   *
+   * @return True if the request was cancelled, false if it had already
+   * finished or been cancelled.
+   */
+  public boolean cancel() {
+
+    synchronized (this) {
+      if (cancelled || done) {
+        return false;
+      }
+      cancelled = true;
+    }
+
+    // abort the connection if the request is running
+    HttpUriRequest running = request;
+    if (running != null) {
+      running.abort();
+    }
+    for (Runnable cancelAction : cancelActions) {
+      cancelAction.run();
+    }
+    finish();
+    return true;
+  }
+
+  public boolean isCancelled() {
+    return cancelled;
+  }
+
+  /**
+   * Returns true once the request has finished, successfully or not, or has
+   * been cancelled.
+   *
+   * @return True if the request is done.
+   */
+  public boolean isDone() {
+    return done || cancelled;
+  }
+
+  /**
+   * Tags the request so it can be cancelled along with every other request
+   * with the same tag.  Tagging a request that is already done has no effect.
+   *
+   * @param tag The tag, usually the fragment or adapter making the request.
+   *
+   * @return This handle.
+   */
+  public RequestHandle setTag(Object tag) {
+
+    synchronized (this) {
+      if (this.tag != null) {
+        registry.remove(this.tag, this);
+      }
+      this.tag = tag;
+      if (tag == null || done || cancelled) {
+        return this;
+      }
+    }
+    registry.add(tag, this);
+    return this;
+  }
+
+  public synchronized Object getTag() {
+    return tag;
+  }
+
+  /**
+   * Adds an action that runs when the handle is cancelled, right away if it
+   * has already been cancelled.
+   */
+  void addCancelAction(Runnable cancelAction) {
+    synchronized (this) {
+      if (!cancelled) {
+        cancelActions.add(cancelAction);
+        return;
+      }
+    }
+    cancelAction.run();
+  }
+
+  /**
+   * Sets the HTTP request currently running for this handle.  The request is
+   * aborted right away if the handle has already been cancelled.
+   */
+  void setRequest(HttpUriRequest request) {
+    this.request = request;
+    if (cancelled) {
+      request.abort();
+    }
+  }
+
+  /**
+   * Marks the request as done and removes it from its tag.
+   */
+  void finish() {
+
+    Object curTag;
+    synchronized (this) {
+      done = true;
+      request = null;
+      curTag = tag;
+    }
+    if (curTag != null) {
+      registry.remove(curTag, this);
+    }
+  }
+
+}
@@ -0,0 +1,22 @@
+package com.singly.android.client;
+
+/**
+ * Adds to every request made to the Singly API through the
+ * {@link SinglyClient} before it is sent, for example parameters such as the
+ * access token, headers, or whether the response may be cached.
+ *
+ * Interceptors are run in the order they were added, in the thread making
+ * the request, which is usually the main UI thread, so they must be cheap.
+ *
+ * @see SinglyClient#addInterceptor(RequestInterceptor)
+ */
+public interface RequestInterceptor {
+
+  /**
+   * Called before the url of a request is built.
+   * 
+   * @param request The request being built.
+   */
+  public void intercept(ApiRequestBuilder request);
+
+}
@@ -0,0 +1,66 @@
+package com.singly.android.client;
+
+/**
+ * The measurements of a single request, passed to every
+ * {@link MetricsListener} once the request completes.
+ *
+ * Times are in nanoseconds, -1 if they don't apply, for example there is no
+ * time to first byte for a response served from the cache and no parse time
+ * for a request that isn't parsed.  The total time runs from when the request
+ * was made, including any time spent queued, until it completed.
+ */
+public class RequestMetrics {
+
+  public String endpoint;
+  public String method;
+  public int statusCode;
+  public boolean cached;
+  public long queueNanos = -1;
+  public long firstByteNanos = -1;
+  public long parseNanos = -1;
+  public long totalNanos = -1;
+  public long bytesIn;
+  public long bytesOut;
+  public String errorClass;
+
+  // when the request was made and when it left the queue
+  final long created = System.nanoTime();
+  long started = -1;
+
+  RequestMetrics(String endpoint, String method) {
+    this.endpoint = endpoint;
+    this.method = method;
+  }
+
+  /**
+   * Marks the request as leaving the queue and starting to run, in the thread
+   * that runs it.
+   */
+  public void markStarted() {
+    started = System.nanoTime();
+    queueNanos = started - created;
+  }
+
+  /**
+   * Returns true if the request failed.
+   *
+   * @return True if an error class was recorded.
+   */
+  public boolean isError() {
+    return errorClass != null;
+  }
+
+  private static String millis(long nanos) {
+    return nanos < 0 ? "-" : (nanos / 1000000d) + "ms";
+  }
+
+  @Override
+  public String toString() {
+    return method + " " + endpoint + " status=" + statusCode + ", cached="
+      + cached + ", queue=" + millis(queueNanos) + ", ttfb="
+      + millis(firstByteNanos) + ", parse=" + millis(parseNanos) + ", total="
+      + millis(totalNanos) + ", in=" + bytesIn + ", out=" + bytesOut
+      + (errorClass != null ? ", error=" + errorClass : "");
+  }
+
+}
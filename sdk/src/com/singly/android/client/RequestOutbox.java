@@ -0,0 +1,770 @@
+package com.singly.android.client;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang.StringUtils;
+
+import android.content.BroadcastReceiver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.net.ConnectivityManager;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.singly.android.util.JSON;
+import com.singly.android.util.SinglyUtils;
+import com.singly.android.util.URLUtils;
+
+/**
+ * A durable queue of POST requests made while the device is offline.
+ *
+ * Queued requests are stored in a SQLite database in the app data directory
+ * so they survive the process being killed.  When the network comes back the
+ * outbox replays them in the order they were queued, a batch at a time.
+ * Requests to the same endpoint are always sent one after another, requests
+ * to different endpoints are sent in parallel up to a concurrency limit.
+ * Requests are written to the database by a single background thread, in the
+ * order they were queued, so queueing never touches the disk on the caller's
+ * thread.
+ *
+ * Every request has a dedup key built from its method, endpoint, parameters,
+ * files and body.  Queueing a request whose key is already queued attaches the
+ * caller to the queued request instead of adding it twice, and the key is
+ * sent in an Idempotency-Key header so a request replayed a second time,
+ * because the process died before its row was removed, can be recognized by
+ * the server.
+ *
+ * A replay stops at the first transient failure, leaving the failed request
+ * and everything after it queued for the next time the network comes back.
+ * Requests that fail permanently, or keep failing, are removed and their
+ * failure passed to the response handlers.
+ *
+ * Every request is stored with the account it was queued for and is only
+ * sent for that account.  A request whose account has been removed or
+ * replaced by the time it is replayed is failed instead of being sent with
+ * the access token of another account.
+ */
+public class RequestOutbox {
+
+  public static final String DATABASE_NAME = "singly_outbox.db";
+  public static final int DEFAULT_BATCH_SIZE = 10;
+  public static final int DEFAULT_MAX_CONCURRENT = 2;
+  public static final int DEFAULT_MAX_ATTEMPTS = 5;
+
+  private static final String TABLE = "outbox";
+  private static final int DATABASE_VERSION = 2;
+
+  private SQLiteOpenHelper openHelper;
+  private HttpEngine httpEngine;
+  private Sender sender;
+  private Context context;
+  private Handler mainHandler = new Handler(Looper.getMainLooper());
+
+  private int batchSize = DEFAULT_BATCH_SIZE;
+  private int maxConcurrent = DEFAULT_MAX_CONCURRENT;
+  private int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+
+  // callers waiting on queued requests in this process, by row id
+  private Map<Long, List<Pending>> pending = new HashMap<Long, List<Pending>>();
+
+  // writes queued requests and clears the outbox, one at a time in order
+  private ExecutorService writer;
+
+  // one replay at a time, a replay asked for while one runs runs after it
+  private AtomicBoolean replaying = new AtomicBoolean();
+  private AtomicBoolean replayRequested = new AtomicBoolean();
+
+  private AtomicLong enqueued = new AtomicLong();
+  private AtomicLong deduplicated = new AtomicLong();
+  private AtomicLong replayed = new AtomicLong();
+  private AtomicLong failed = new AtomicLong();
+  private AtomicLong totalLatency = new AtomicLong();
+  private AtomicLong maxLatency = new AtomicLong();
+
+  /**
+   * Sends a queued request.
+   */
+  public interface Sender {
+
+    /**
+     * Returns the account requests are sent for, the account signed in now.
+     *
+     * @return The account, null if there is none.
+     */
+    String getAccount();
+
+    /**
+     * Sends the request on the calling thread.
+     *
+     * @param entry The queued request.
+     *
+     * @return The response body.
+     *
+     * @throws IOException If the request fails or the API returns an error.
+     */
+    String send(Entry entry)
+      throws IOException;
+  }
+
+  /**
+   * A queued request.  A request has either a raw body or post parameters,
+   * with files posted as multipart parts from their path.
+   */
+  public static class Entry {
+    public long id;
+    public String dedupKey;
+    public String account;
+    public String apiEndpoint;
+    public Map<String, String> queryParams = new LinkedHashMap<String, String>();
+    public Map<String, String> postParams = new LinkedHashMap<String, String>();
+    public Map<String, String> files = new LinkedHashMap<String, String>();
+    public byte[] body;
+    public String contentType;
+    public long created;
+    public int attempts;
+  }
+
+  /**
+   * The outbox depth and replay statistics.
+   */
+  public static class Stats {
+    public long depth;
+    public long enqueued;
+    public long deduplicated;
+    public long replayed;
+    public long failed;
+    public long averageReplayLatencyMillis;
+    public long maxReplayLatencyMillis;
+    public boolean replaying;
+
+    @Override
+    public String toString() {
+      return "depth=" + depth + ", enqueued=" + enqueued + ", deduplicated="
+        + deduplicated + ", replayed=" + replayed + ", failed=" + failed
+        + ", averageReplayLatency=" + averageReplayLatencyMillis
+        + "ms, maxReplayLatency=" + maxReplayLatencyMillis + "ms, replaying="
+        + replaying;
+    }
+  }
+
+  /**
+   * A caller waiting on a queued request.
+   */
+  private static class Pending {
+    long id = -1; // the row, -1 until written
+    RequestHandle handle;
+    AsyncApiResponseHandler responseHandler;
+  }
+
+  private static class OutboxOpenHelper
+    extends SQLiteOpenHelper {
+
+    OutboxOpenHelper(Context context) {
+      super(context, DATABASE_NAME, null, DATABASE_VERSION);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+      db.execSQL("CREATE TABLE " + TABLE
+        + " (id INTEGER PRIMARY KEY AUTOINCREMENT,"
+        + " dedup_key TEXT NOT NULL UNIQUE, account TEXT,"
+        + " endpoint TEXT NOT NULL,"
+        + " query_params TEXT, post_params TEXT, files TEXT, body BLOB,"
+        + " content_type TEXT, created INTEGER NOT NULL,"
+        + " attempts INTEGER NOT NULL DEFAULT 0)");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+      db.execSQL("DROP TABLE IF EXISTS " + TABLE);
+      onCreate(db);
+    }
+  }
+
+  /**
+   * Creates the outbox and starts listening for the network coming back.
+   * Requests left queued by an earlier process are replayed straight away if
+   * the device is online.
+   *
+   * @param context The current android context.
+   * @param httpEngine The engine whose threads replay requests.
+   * @param sender Sends queued requests.
+   */
+  public RequestOutbox(Context context, HttpEngine httpEngine, Sender sender) {
+
+    this.context = context.getApplicationContext();
+    this.openHelper = new OutboxOpenHelper(this.context);
+    this.httpEngine = httpEngine;
+    this.sender = sender;
+    this.writer = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS,
+      new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+          Thread thread = new Thread(runnable, "singly-outbox-writer");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+
+    // replay whenever a network connection comes up
+    this.context.registerReceiver(new BroadcastReceiver() {
+
+      @Override
+      public void onReceive(Context context, Intent intent) {
+        if (!intent.getBooleanExtra(ConnectivityManager.EXTRA_NO_CONNECTIVITY,
+          false)) {
+          replay();
+        }
+      }
+    }, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+    replay();
+  }
+
+  /**
+   * Creates the dedup key of a request from its account, endpoint,
+   * parameters and body.  Parameter order does not matter, names and values
+   * are url encoded so a value holding a separator can't be mistaken for
+   * more parameters.  Files are posted from their path when the request is
+   * replayed, so the length and modification time of each file are part of
+   * the key and a file rewritten at the same path is a new request.
+   *
+   * @param entry The request.
+   *
+   * @return The dedup key.
+   */
+  public static String createDedupKey(Entry entry) {
+
+    try {
+      MessageDigest digest = MessageDigest.getInstance("MD5");
+      StringBuilder key = new StringBuilder("POST ");
+      key.append(StringUtils.defaultString(entry.account)).append(' ');
+      key.append(RequestCoalescer.toKey(entry.apiEndpoint, entry.queryParams));
+      appendSorted(key, entry.postParams);
+      appendSorted(key, entry.files);
+      for (String path : new TreeMap<String, String>(entry.files).values()) {
+        File file = new File(path);
+        key.append('\n').append(file.length()).append(' ').append(
+          file.lastModified());
+      }
+      digest.update(key.toString().getBytes("UTF-8"));
+      if (entry.body != null) {
+        digest.update(entry.body);
+      }
+      return String.format("%032x", new BigInteger(1, digest.digest()));
+    }
+    catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+    catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static void appendSorted(StringBuilder key,
+    Map<String, String> params) {
+    for (Map.Entry<String, String> param : new TreeMap<String, String>(params)
+      .entrySet()) {
+      key.append('\n').append(URLUtils.encode(param.getKey(), "UTF-8"));
+      if (param.getValue() != null) {
+        key.append('=').append(URLUtils.encode(param.getValue(), "UTF-8"));
+      }
+    }
+  }
+
+  /**
+   * Queues a request for the account signed in now.  If a request with the
+   * same dedup key is already queued the caller is attached to it instead.
+   * The request is written in the background, a handle cancelled before then
+   * never queues it.
+   *
+   * @param entry The request to queue.
+   * @param registry The registry of handles of the client.
+   * @param responseHandler Receives the response once the request is
+   * replayed, in the main UI thread, if this process is still running.
+   *
+   * @return A handle that removes the request from the outbox if cancelled.
+   */
+  RequestHandle enqueue(final Entry entry, RequestRegistry registry,
+    AsyncApiResponseHandler responseHandler) {
+
+    entry.account = sender.getAccount();
+    entry.created = System.currentTimeMillis();
+
+    final Pending caller = new Pending();
+    caller.responseHandler = responseHandler;
+    caller.handle = new RequestHandle(registry, new Runnable() {
+
+      @Override
+      public void run() {
+        detach(caller);
+      }
+    });
+    writer.execute(new Runnable() {
+
+      @Override
+      public void run() {
+        if (!caller.handle.isCancelled()) {
+          insert(entry, caller);
+        }
+      }
+    });
+    return caller.handle;
+  }
+
+  /**
+   * Writes a queued request and attaches its caller, in the writer thread.
+   */
+  private void insert(Entry entry, Pending caller) {
+
+    if (entry.dedupKey == null) {
+      entry.dedupKey = createDedupKey(entry);
+    }
+
+    ContentValues values = new ContentValues();
+    values.put("dedup_key", entry.dedupKey);
+    values.put("account", entry.account);
+    values.put("endpoint", entry.apiEndpoint);
+    values.put("query_params", JSON.serializeToJson(entry.queryParams));
+    values.put("post_params", JSON.serializeToJson(entry.postParams));
+    values.put("files", JSON.serializeToJson(entry.files));
+    if (entry.body != null) {
+      values.put("body", entry.body);
+    }
+    values.put("content_type", entry.contentType);
+    values.put("created", entry.created);
+
+    SQLiteDatabase db = openHelper.getWritableDatabase();
+    long id = db.insertWithOnConflict(TABLE, null, values,
+      SQLiteDatabase.CONFLICT_IGNORE);
+    if (id == -1) {
+      id = findId(db, entry.dedupKey);
+      deduplicated.incrementAndGet();
+    }
+    else {
+      enqueued.incrementAndGet();
+    }
+
+    synchronized (pending) {
+      caller.id = id;
+      List<Pending> callers = pending.get(id);
+      if (callers == null) {
+        callers = new ArrayList<Pending>(1);
+        pending.put(id, callers);
+      }
+      callers.add(caller);
+    }
+
+    // a cancel that raced the write found no row to detach from
+    if (caller.handle.isCancelled()) {
+      detach(caller);
+      return;
+    }
+
+    // the network may have come back while the request was written
+    replay();
+  }
+
+  /**
+   * Replays the queued requests in the background if the device is online.
+   */
+  public void replay() {
+
+    if (!SinglyUtils.isConnectedToInternet(context)) {
+      return;
+    }
+
+    replayRequested.set(true);
+    if (!replaying.compareAndSet(false, true)) {
+      return;
+    }
+
+    httpEngine.submit(new Runnable() {
+
+      @Override
+      public void run() {
+        try {
+          while (replayRequested.getAndSet(false)) {
+            while (replayBatch()) {
+              // keep going until the outbox is empty or a request fails
+            }
+          }
+        }
+        finally {
+          replaying.set(false);
+        }
+      }
+    });
+  }
+
+  /**
+   * Replays the oldest batch of requests.
+   *
+   * @return True if every request in the batch was replayed and there may be
+   * more, false if the outbox is empty or a request must be retried later.
+   */
+  private boolean replayBatch() {
+
+    List<Entry> batch = load(batchSize);
+    if (batch.isEmpty()) {
+      return false;
+    }
+
+    // requests to the same endpoint keep their order in one lane
+    Map<String, List<Entry>> lanes = new LinkedHashMap<String, List<Entry>>();
+    for (Entry entry : batch) {
+      List<Entry> lane = lanes.get(entry.apiEndpoint);
+      if (lane == null) {
+        lane = new ArrayList<Entry>();
+        lanes.put(entry.apiEndpoint, lane);
+      }
+      lane.add(entry);
+    }
+
+    // this thread works one lane and engine threads the rest
+    final ConcurrentLinkedQueue<List<Entry>> queue = new ConcurrentLinkedQueue<List<Entry>>(
+      lanes.values());
+    final AtomicBoolean stalled = new AtomicBoolean();
+    int workers = Math.min(maxConcurrent, lanes.size());
+    final CountDownLatch done = new CountDownLatch(workers - 1);
+    Runnable worker = new Runnable() {
+
+      @Override
+      public void run() {
+        List<Entry> lane;
+        while ((lane = queue.poll()) != null) {
+          for (Entry entry : lane) {
+            if (!replayEntry(entry)) {
+              stalled.set(true);
+              break;
+            }
+          }
+        }
+      }
+    };
+    for (int i = 1; i < workers; i++) {
+      httpEngine.submit(new CountingRunnable(worker, done));
+    }
+    worker.run();
+
+    try {
+      done.await();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+    return !stalled.get() && batch.size() == batchSize;
+  }
+
+  /**
+   * Counts down a latch once a runnable finishes.
+   */
+  private static class CountingRunnable
+    implements Runnable {
+
+    private Runnable runnable;
+    private CountDownLatch latch;
+
+    CountingRunnable(Runnable runnable, CountDownLatch latch) {
+      this.runnable = runnable;
+      this.latch = latch;
+    }
+
+    @Override
+    public void run() {
+      try {
+        runnable.run();
+      }
+      finally {
+        latch.countDown();
+      }
+    }
+  }
+
+  /**
+   * Sends one queued request and removes it unless it must be retried.
+   *
+   * @return False if the request failed and must be retried later.
+   */
+  private boolean replayEntry(Entry entry) {
+
+    // never send a request with the access token of another account
+    if (!StringUtils.equals(entry.account, sender.getAccount())) {
+      remove(entry.id);
+      failed.incrementAndGet();
+      IllegalStateException error = new IllegalStateException(
+        "Request was queued for another account");
+      deliver(entry.id, null, error, error.getMessage());
+      return true;
+    }
+
+    try {
+      String response = sender.send(entry);
+      remove(entry.id);
+      replayed.incrementAndGet();
+      long latency = Math.max(System.currentTimeMillis() - entry.created, 0);
+      totalLatency.addAndGet(latency);
+      long max = maxLatency.get();
+      while (latency > max && !maxLatency.compareAndSet(max, latency)) {
+        max = maxLatency.get();
+      }
+      deliver(entry.id, response, null, null);
+      return true;
+    }
+    catch (IOException e) {
+
+      // keep transient failures for the next replay
+      if (RetryPolicy.isTransient(e) && entry.attempts + 1 < maxAttempts) {
+        ContentValues values = new ContentValues();
+        values.put("attempts", entry.attempts + 1);
+        openHelper.getWritableDatabase().update(TABLE, values, "id = ?",
+          new String[] {
+            String.valueOf(entry.id)
+          });
+        return false;
+      }
+
+      remove(entry.id);
+      failed.incrementAndGet();
+      String message = e.getMessage();
+      if (e instanceof ApiResponseException) {
+        message = ((ApiResponseException)e).getResponseBody();
+      }
+      deliver(entry.id, null, e, message);
+      return true;
+    }
+  }
+
+  /**
+   * Passes the result of a replayed request to every caller waiting on it in
+   * the main UI thread.
+   */
+  private void deliver(long id, final String response, final Throwable error,
+    final String message) {
+
+    final List<Pending> callers;
+    synchronized (pending) {
+      callers = pending.remove(id);
+    }
+    if (callers == null) {
+      return;
+    }
+
+    mainHandler.post(new Runnable() {
+
+      @Override
+      public void run() {
+        for (Pending caller : callers) {
+          if (caller.handle.isCancelled()) {
+            continue;
+          }
+          caller.handle.finish();
+          if (caller.responseHandler == null) {
+            continue;
+          }
+          if (error == null) {
+            caller.responseHandler.onSuccess(response);
+          }
+          else {
+            caller.responseHandler.onFailure(error, message);
+          }
+        }
+      }
+    });
+  }
+
+  /**
+   * Detaches a cancelled caller, removing the request in the writer thread
+   * once no caller in this process is waiting on it.
+   */
+  private void detach(Pending caller) {
+    final long id;
+    synchronized (pending) {
+      id = caller.id;
+      List<Pending> callers = pending.get(id);
+      if (callers == null || !callers.remove(caller) || !callers.isEmpty()) {
+        return;
+      }
+      pending.remove(id);
+    }
+    writer.execute(new Runnable() {
+
+      @Override
+      public void run() {
+        remove(id);
+      }
+    });
+  }
+
+  private long findId(SQLiteDatabase db, String dedupKey) {
+    Cursor cursor = db.query(TABLE, new String[] {
+      "id"
+    }, "dedup_key = ?", new String[] {
+      dedupKey
+    }, null, null, null);
+    try {
+      return cursor.moveToFirst() ? cursor.getLong(0) : -1;
+    }
+    finally {
+      cursor.close();
+    }
+  }
+
+  /**
+   * Loads the oldest queued requests.
+   */
+  private List<Entry> load(int limit) {
+
+    List<Entry> entries = new ArrayList<Entry>();
+    Cursor cursor = openHelper.getReadableDatabase().query(TABLE, new String[] {
+      "id", "dedup_key", "endpoint", "query_params", "post_params", "files",
+      "body", "content_type", "created", "attempts", "account"
+    }, null, null, null, null, "id", String.valueOf(limit));
+    try {
+      while (cursor.moveToNext()) {
+        Entry entry = new Entry();
+        entry.id = cursor.getLong(0);
+        entry.dedupKey = cursor.getString(1);
+        entry.apiEndpoint = cursor.getString(2);
+        toStrings(cursor.getString(3), entry.queryParams);
+        toStrings(cursor.getString(4), entry.postParams);
+        toStrings(cursor.getString(5), entry.files);
+        entry.body = cursor.isNull(6) ? null : cursor.getBlob(6);
+        entry.contentType = cursor.getString(7);
+        entry.created = cursor.getLong(8);
+        entry.attempts = cursor.getInt(9);
+        entry.account = cursor.getString(10);
+        entries.add(entry);
+      }
+    }
+    finally {
+      cursor.close();
+    }
+    return entries;
+  }
+
+  private static void toStrings(String json, Map<String, String> values) {
+    if (json == null) {
+      return;
+    }
+    Map<String, Object> parsed = JSON.parseToMap(json);
+    if (parsed != null) {
+      for (Map.Entry<String, Object> value : parsed.entrySet()) {
+        values.put(value.getKey(), value.getValue() != null ? value
+          .getValue().toString() : null);
+      }
+    }
+  }
+
+  private void remove(long id) {
+    openHelper.getWritableDatabase().delete(TABLE, "id = ?", new String[] {
+      String.valueOf(id)
+    });
+  }
+
+  /**
+   * Returns the number of queued requests.
+   *
+   * @return The outbox depth.
+   */
+  public long getDepth() {
+    Cursor cursor = openHelper.getReadableDatabase().rawQuery(
+      "SELECT COUNT(*) FROM " + TABLE, null);
+    try {
+      return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+    }
+    finally {
+      cursor.close();
+    }
+  }
+
+  /**
+   * Returns a snapshot of the outbox statistics.
+   *
+   * @return The current outbox statistics.
+   */
+  public Stats getStats() {
+    Stats stats = new Stats();
+    stats.depth = getDepth();
+    stats.enqueued = enqueued.get();
+    stats.deduplicated = deduplicated.get();
+    stats.replayed = replayed.get();
+    stats.failed = failed.get();
+    stats.averageReplayLatencyMillis = stats.replayed > 0 ? totalLatency.get()
+      / stats.replayed : 0;
+    stats.maxReplayLatencyMillis = maxLatency.get();
+    stats.replaying = replaying.get();
+    return stats;
+  }
+
+  /**
+   * Removes every queued request without sending it, in the background after
+   * any request still being written.
+   */
+  public void clear() {
+    writer.execute(new Runnable() {
+
+      @Override
+      public void run() {
+        synchronized (pending) {
+          pending.clear();
+        }
+        openHelper.getWritableDatabase().delete(TABLE, null, null);
+      }
+    });
+  }
+
+  public int getBatchSize() {
+    return batchSize;
+  }
+
+  public void setBatchSize(int batchSize) {
+    this.batchSize = Math.max(batchSize, 1);
+  }
+
+  public int getMaxConcurrent() {
+    return maxConcurrent;
+  }
+
+  public void setMaxConcurrent(int maxConcurrent) {
+    this.maxConcurrent = Math.max(maxConcurrent, 1);
+  }
+
+  public int getMaxAttempts() {
+    return maxAttempts;
+  }
+
+  /**
+   * Sets the number of times a request that fails transiently is sent before
+   * it is removed and its failure passed on.
+   */
+  public void setMaxAttempts(int maxAttempts) {
+    this.maxAttempts = Math.max(maxAttempts, 1);
+  }
+
+}
@@ -0,0 +1,27 @@
+package com.singly.android.client;
+
+/**
+ * The priority classes of requests made through the {@link RequestScheduler}.
+ * Queued requests of a higher priority class always run before those of a
+ * lower one.
+ */
+public enum RequestPriority {
+
+  /**
+   * Requests for what the user is looking at right now, such as the block of
+   * rows on screen.
+   */
+  VISIBLE,
+
+  /**
+   * Requests for what the user will probably look at next, such as the
+   * blocks preloaded on either side of the visible one.
+   */
+  PREFETCH,
+
+  /**
+   * Background work the user isn't waiting on, such as syncing.
+   */
+  BACKGROUND
+
+}
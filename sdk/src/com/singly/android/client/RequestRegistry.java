@@ -0,0 +1,63 @@
+package com.singly.android.client;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps track of the running requests of each tag so they can be cancelled
+ * together.
+ */
+class RequestRegistry {
+
+  private Map<Object, Set<RequestHandle>> tagged = new HashMap<Object, Set<RequestHandle>>();
+
+  synchronized void add(Object tag, RequestHandle handle) {
+    Set<RequestHandle> handles = tagged.get(tag);
+    if (handles == null) {
+      handles = new HashSet<RequestHandle>();
+      tagged.put(tag, handles);
+    }
+    handles.add(handle);
+  }
+
+  synchronized void remove(Object tag, RequestHandle handle) {
+    Set<RequestHandle> handles = tagged.get(tag);
+    if (handles != null) {
+      handles.remove(handle);
+      if (handles.isEmpty()) {
+        tagged.remove(tag);
+      }
+    }
+  }
+
+  /**
+   * Cancels every running request with the tag.
+   *
+   * @return The number of requests cancelled.
+   */
+  int cancel(Object tag) {
+
+    // cancel outside the lock, cancelling removes the handle from the tag
+    List<RequestHandle> handles;
+    synchronized (this) {
+      Set<RequestHandle> tagHandles = tagged.remove(tag);
+      if (tagHandles == null) {
+        return 0;
+      }
+      handles = new ArrayList<RequestHandle>(tagHandles);
+    }
+
+    int cancelled = 0;
+    for (RequestHandle handle : handles) {
+      if (handle.cancel()) {
+        cancelled++;
+      }
+    }
+    return cancelled;
+  }
+
+}
@@ -0,0 +1,386 @@
+package com.singly.android.client;
+
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+
+/**
+ * Schedules requests onto the {@link HttpEngine} executor by priority.
+ *
+ * Each {@link RequestPriority} class has its own queue and a bound on how many
+ * of its requests can run at once.  Whenever a request finishes, queued
+ * requests are started highest priority first, so requests for visible rows
+ * always jump ahead of preloads and background work.  A queued request can be
+ * promoted to a higher class by its key, for example when the block it loads
+ * scrolls into view.
+ *
+ * A queued request that is cancelled is removed from its queue with
+ * {@link #remove(Runnable)}, so it never takes a running slot.  Rate limiting
+ * is left to the requests themselves, a request takes a {@link RateLimiter}
+ * token only once it knows it has to go to the network, so responses served
+ * from the cache never wait on the limiter.
+ *
+ * The classes share the connections to the Singly API host, so the number of
+ * requests running across all classes is bounded by the per host connection
+ * limit of the engine.  A class at its bound with requests queued holds back
+ * every lower class, so a preload can't take the connection a visible row is
+ * waiting for.
+ *
+ * Requests can also be submitted with a {@link Bound} of their own, which
+ * takes the place of the class bound for them.  The pages a
+ * {@link PagedIterator} reads ahead are bounded this way, so they are fetched
+ * in parallel without raising the bound of the whole background class.
+ * Bounded requests still count towards the total.
+ *
+ * Queue depth and the time requests wait in the queue are recorded per class.
+ */
+public class RequestScheduler {
+
+  public static final int DEFAULT_MAX_VISIBLE = 3;
+  public static final int DEFAULT_MAX_PREFETCH = 2;
+  public static final int DEFAULT_MAX_BACKGROUND = 1;
+
+  private HttpEngine httpEngine;
+  private int maxTotalRunning;
+  private int totalRunning;
+  private Map<RequestPriority, ClassState> classes = new EnumMap<RequestPriority, ClassState>(
+    RequestPriority.class);
+
+  /**
+   * A bound on how many of a set of requests can run at once, used instead of
+   * the bound of their priority class.
+   */
+  public static class Bound {
+
+    // guarded by the scheduler
+    private int maxRunning;
+    private int running;
+
+    /**
+     * Creates a bound.
+     *
+     * @param maxRunning The number of requests, at least 1.
+     */
+    public Bound(int maxRunning) {
+      this.maxRunning = Math.max(1, maxRunning);
+    }
+  }
+
+  /**
+   * A queued request.
+   */
+  private static class Task {
+    Object key;
+    Bound bound;
+    Runnable runnable;
+    long queuedAt;
+  }
+
+  /**
+   * The queue, bound and metrics of a single priority class.
+   */
+  private static class ClassState {
+    LinkedList<Task> queue = new LinkedList<Task>();
+    int maxRunning;
+    int running;
+    int boundRunning; // requests with a bound of their own
+    int maxQueued;
+    long dispatched;
+    long totalWaitNanos;
+    long maxWaitNanos;
+  }
+
+  /**
+   * Queue metrics for a single priority class.
+   */
+  public static class Stats {
+
+    public int queued;
+    public int maxQueued;
+    public int running;
+    public int maxRunning;
+    public long dispatched;
+    public double averageWaitMillis;
+    public double maxWaitMillis;
+
+    @Override
+    public String toString() {
+      return "queued=" + queued + ", maxQueued=" + maxQueued + ", running="
+        + running + "/" + maxRunning + ", dispatched=" + dispatched
+        + ", avgWait=" + averageWaitMillis + "ms, maxWait=" + maxWaitMillis
+        + "ms";
+    }
+  }
+
+  /**
+   * Creates a scheduler with the default per class bounds, and a total bound
+   * of the per host connection limit of the engine.
+   *
+   * @param httpEngine The engine whose executor runs the requests.
+   */
+  public RequestScheduler(HttpEngine httpEngine) {
+    this.httpEngine = httpEngine;
+    for (RequestPriority priority : RequestPriority.values()) {
+      classes.put(priority, new ClassState());
+    }
+    setMaxRunning(RequestPriority.VISIBLE, DEFAULT_MAX_VISIBLE);
+    setMaxRunning(RequestPriority.PREFETCH, DEFAULT_MAX_PREFETCH);
+    setMaxRunning(RequestPriority.BACKGROUND, DEFAULT_MAX_BACKGROUND);
+    setMaxTotalRunning(httpEngine.getMaxConnectionsPerHost());
+  }
+
+  /**
+   * Queues a request and starts it as soon as its priority class allows.
+   *
+   * @param priority The priority class of the request.
+   * @param key The key used to promote the request, can be null.
+   * @param runnable The request.
+   */
+  public void submit(RequestPriority priority, Object key, Runnable runnable) {
+    submit(priority, key, null, runnable);
+  }
+
+  /**
+   * Queues a request that is held to a bound of its own instead of the bound
+   * of its priority class, and starts it as soon as the bound and the total
+   * allow.
+   *
+   * @param priority The priority class of the request.
+   * @param key The key used to promote the request, can be null.
+   * @param bound The bound of the request, null for the class bound.
+   * @param runnable The request.
+   */
+  public void submit(RequestPriority priority, Object key, Bound bound,
+    Runnable runnable) {
+
+    Task task = new Task();
+    task.key = key;
+    task.bound = bound;
+    task.runnable = runnable;
+    task.queuedAt = System.nanoTime();
+
+    synchronized (this) {
+      ClassState state = classes.get(priority);
+      state.queue.add(task);
+      state.maxQueued = Math.max(state.maxQueued, state.queue.size());
+    }
+    dispatch();
+  }
+
+  /**
+   * Removes a request that hasn't started yet from its queue, for example
+   * because it was cancelled.  A request that has started is left alone.
+   *
+   * @param runnable The request, as it was submitted.
+   *
+   * @return True if the request was still queued and has been removed.
+   */
+  public synchronized boolean remove(Runnable runnable) {
+
+    for (ClassState state : classes.values()) {
+      Iterator<Task> tasks = state.queue.iterator();
+      while (tasks.hasNext()) {
+        if (tasks.next().runnable == runnable) {
+          tasks.remove();
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Moves every queued request with the key into a higher priority class.
+   * Requests already running or already at that priority or higher are left
+   * alone.
+   *
+   * @param key The request key.
+   * @param priority The priority class to promote to.
+   *
+   * @return True if any request was promoted.
+   */
+  public boolean promote(Object key, RequestPriority priority) {
+
+    boolean promoted = false;
+    synchronized (this) {
+      ClassState target = classes.get(priority);
+      for (RequestPriority lower : RequestPriority.values()) {
+        if (lower.compareTo(priority) <= 0) {
+          continue;
+        }
+        Iterator<Task> tasks = classes.get(lower).queue.iterator();
+        while (tasks.hasNext()) {
+          Task task = tasks.next();
+          if (key != null && key.equals(task.key)) {
+            tasks.remove();
+            target.queue.add(task);
+            target.maxQueued = Math.max(target.maxQueued, target.queue.size());
+            promoted = true;
+          }
+        }
+      }
+    }
+
+    if (promoted) {
+      dispatch();
+    }
+    return promoted;
+  }
+
+  /**
+   * Starts queued requests, highest priority first, while there is room in
+   * total and in their class.
+   */
+  private void dispatch() {
+
+    while (true) {
+
+      Task next = null;
+      ClassState nextState = null;
+      synchronized (this) {
+
+        for (RequestPriority priority : RequestPriority.values()) {
+          ClassState state = classes.get(priority);
+          if (totalRunning >= maxTotalRunning) {
+            break;
+          }
+
+          // the first request with room under its bound, a request waiting
+          // on the class bound holds back the lower classes
+          boolean classFull = state.running >= state.maxRunning;
+          boolean waiting = false;
+          Iterator<Task> tasks = state.queue.iterator();
+          while (tasks.hasNext()) {
+            Task task = tasks.next();
+            if (task.bound == null ? !classFull
+              : task.bound.running < task.bound.maxRunning) {
+              tasks.remove();
+              next = task;
+              nextState = state;
+              break;
+            }
+            waiting |= task.bound == null;
+          }
+          if (next != null || waiting) {
+            break;
+          }
+        }
+        if (next == null) {
+          return;
+        }
+
+        // the request leaves the queue now, record how long it waited
+        long waited = System.nanoTime() - next.queuedAt;
+        if (next.bound != null) {
+          next.bound.running++;
+          nextState.boundRunning++;
+        }
+        else {
+          nextState.running++;
+        }
+        totalRunning++;
+        nextState.dispatched++;
+        nextState.totalWaitNanos += waited;
+        nextState.maxWaitNanos = Math.max(nextState.maxWaitNanos, waited);
+      }
+
+      final Task task = next;
+      final ClassState taskState = nextState;
+      httpEngine.submit(new Runnable() {
+
+        @Override
+        public void run() {
+          try {
+            task.runnable.run();
+          }
+          finally {
+            synchronized (RequestScheduler.this) {
+              if (task.bound != null) {
+                task.bound.running--;
+                taskState.boundRunning--;
+              }
+              else {
+                taskState.running--;
+              }
+              totalRunning--;
+            }
+            dispatch();
+          }
+        }
+      });
+    }
+  }
+
+  /**
+   * Sets how many requests of a priority class can run at once.
+   *
+   * @param priority The priority class.
+   * @param maxRunning The number of requests, at least 1.
+   */
+  public void setMaxRunning(RequestPriority priority, int maxRunning) {
+    synchronized (this) {
+      classes.get(priority).maxRunning = Math.max(1, maxRunning);
+    }
+    dispatch();
+  }
+
+  public synchronized int getMaxRunning(RequestPriority priority) {
+    return classes.get(priority).maxRunning;
+  }
+
+  /**
+   * Sets how many requests of all priority classes can run at once, by
+   * default the per host connection limit of the engine when the scheduler
+   * was created.
+   *
+   * @param maxTotalRunning The number of requests, at least 1.
+   */
+  public void setMaxTotalRunning(int maxTotalRunning) {
+    synchronized (this) {
+      this.maxTotalRunning = Math.max(1, maxTotalRunning);
+    }
+    dispatch();
+  }
+
+  public synchronized int getMaxTotalRunning() {
+    return maxTotalRunning;
+  }
+
+  /**
+   * Returns the number of requests queued in a priority class.
+   *
+   * @param priority The priority class.
+   *
+   * @return The queue depth.
+   */
+  public synchronized int getQueueDepth(RequestPriority priority) {
+    return classes.get(priority).queue.size();
+  }
+
+  /**
+   * Returns the queue metrics of every priority class.
+   *
+   * @return The priority class to metrics mapping.
+   */
+  public synchronized Map<RequestPriority, Stats> getStats() {
+
+    Map<RequestPriority, Stats> stats = new EnumMap<RequestPriority, Stats>(
+      RequestPriority.class);
+    for (Map.Entry<RequestPriority, ClassState> entry : classes.entrySet()) {
+      ClassState state = entry.getValue();
+      Stats classStats = new Stats();
+      classStats.queued = state.queue.size();
+      classStats.maxQueued = state.maxQueued;
+      classStats.running = state.running + state.boundRunning;
+      classStats.maxRunning = state.maxRunning;
+      classStats.dispatched = state.dispatched;
+      classStats.averageWaitMillis = state.dispatched > 0
+        ? (state.totalWaitNanos / (double)state.dispatched) / 1000000d : 0d;
+      classStats.maxWaitMillis = state.maxWaitNanos / 1000000d;
+      stats.put(entry.getKey(), classStats);
+    }
+    return stats;
+  }
+
+}
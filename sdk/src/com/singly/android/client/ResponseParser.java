@@ -0,0 +1,23 @@
+package com.singly.android.client;
+
+import org.codehaus.jackson.JsonNode;
+
+/**
+ * Parses the JSON response of a Singly API call into a model object.
+ *
+ * Parsers are called in a background thread, never in the main UI thread, so
+ * they must not touch any views.  The finished object is passed to the
+ * {@link TypedResponseHandler} in the main UI thread.
+ */
+public interface ResponseParser<T> {
+
+  /**
+   * Parses the response.
+   *
+   * @param root The root node of the JSON response.
+   *
+   * @return The parsed model object.
+   */
+  public T parse(JsonNode root);
+
+}
@@ -0,0 +1,185 @@
+package com.singly.android.client;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.math.NumberUtils;
+
+/**
+ * The persisted state of a resumable upload, the account it belongs to, the
+ * file being uploaded, the Singly API endpoint and parameters it is posted
+ * to, the upload session on the server, the offset the server has
+ * acknowledged and the checksum of every acknowledged chunk.
+ *
+ * State is saved to a properties file after every acknowledged chunk so an
+ * upload can be resumed from the last acknowledged chunk after a network drop
+ * or after the process is killed.
+ */
+public class ResumableUpload {
+
+  private static final String PARAM_PREFIX = "param.";
+
+  public String id;
+  public String account;
+  public String sessionId;
+  public String path;
+  public long length;
+  public long lastModified;
+  public String filename;
+  public String contentType;
+  public String apiEndpoint;
+  public Map<String, String> params = new LinkedHashMap<String, String>();
+  public int chunkSize;
+  public long offset;
+  public List<String> checksums = new ArrayList<String>();
+
+  /**
+   * Returns the file being uploaded.
+   *
+   * @return The upload file.
+   */
+  public File getFile() {
+    return new File(path);
+  }
+
+  /**
+   * Returns true if the file has changed since the upload was started, in
+   * which case the acknowledged chunks no longer match it.
+   *
+   * @return True if the file has changed.
+   */
+  public boolean isFileChanged() {
+    File file = getFile();
+    return !file.isFile() || file.length() != length
+      || file.lastModified() != lastModified;
+  }
+
+  /**
+   * Returns true if every byte of the file has been acknowledged.
+   *
+   * @return True if all chunks are uploaded.
+   */
+  public boolean isComplete() {
+    return offset >= length;
+  }
+
+  /**
+   * Writes the state to a file, replacing it atomically so a process killed
+   * part way through a save never leaves a corrupt state behind.
+   *
+   * @param stateFile The file to save to.
+   *
+   * @throws IOException If the state could not be written.
+   */
+  public void save(File stateFile)
+    throws IOException {
+
+    Properties props = new Properties();
+    props.setProperty("id", id);
+    if (account != null) {
+      props.setProperty("account", account);
+    }
+    if (sessionId != null) {
+      props.setProperty("sessionId", sessionId);
+    }
+    props.setProperty("path", path);
+    props.setProperty("length", String.valueOf(length));
+    props.setProperty("lastModified", String.valueOf(lastModified));
+    if (filename != null) {
+      props.setProperty("filename", filename);
+    }
+    if (contentType != null) {
+      props.setProperty("contentType", contentType);
+    }
+    props.setProperty("apiEndpoint", apiEndpoint);
+    props.setProperty("chunkSize", String.valueOf(chunkSize));
+    props.setProperty("offset", String.valueOf(offset));
+    props.setProperty("checksums", StringUtils.join(checksums, ','));
+    for (Map.Entry<String, String> param : params.entrySet()) {
+      if (param.getValue() != null) {
+        props.setProperty(PARAM_PREFIX + param.getKey(), param.getValue());
+      }
+    }
+
+    File tmpFile = new File(stateFile.getPath() + ".tmp");
+    OutputStream out = new FileOutputStream(tmpFile);
+    try {
+      props.store(out, null);
+    }
+    finally {
+      IOUtils.closeQuietly(out);
+    }
+    if (!tmpFile.renameTo(stateFile)) {
+      tmpFile.delete();
+      throw new IOException("Could not save upload state " + stateFile);
+    }
+  }
+
+  /**
+   * Reads upload state from a file.
+   *
+   * @param stateFile The file to read.
+   *
+   * @return The upload state.
+   *
+   * @throws IOException If the state could not be read or is incomplete.
+   */
+  public static ResumableUpload load(File stateFile)
+    throws IOException {
+
+    Properties props = new Properties();
+    InputStream in = new FileInputStream(stateFile);
+    try {
+      props.load(in);
+    }
+    finally {
+      IOUtils.closeQuietly(in);
+    }
+
+    ResumableUpload upload = new ResumableUpload();
+    upload.id = props.getProperty("id");
+    upload.account = props.getProperty("account");
+    upload.sessionId = props.getProperty("sessionId");
+    upload.path = props.getProperty("path");
+    upload.length = NumberUtils.toLong(props.getProperty("length"), -1);
+    upload.lastModified = NumberUtils.toLong(props.getProperty("lastModified"));
+    upload.filename = props.getProperty("filename");
+    upload.contentType = props.getProperty("contentType");
+    upload.apiEndpoint = props.getProperty("apiEndpoint");
+    upload.chunkSize = NumberUtils.toInt(props.getProperty("chunkSize"));
+    upload.offset = NumberUtils.toLong(props.getProperty("offset"));
+    String checksums = props.getProperty("checksums");
+    if (StringUtils.isNotEmpty(checksums)) {
+      for (String checksum : StringUtils.split(checksums, ',')) {
+        upload.checksums.add(checksum);
+      }
+    }
+    Enumeration<?> names = props.propertyNames();
+    while (names.hasMoreElements()) {
+      String name = (String)names.nextElement();
+      if (name.startsWith(PARAM_PREFIX)) {
+        upload.params.put(name.substring(PARAM_PREFIX.length()),
+          props.getProperty(name));
+      }
+    }
+
+    if (upload.id == null || upload.path == null || upload.apiEndpoint == null
+      || upload.length < 0 || upload.chunkSize <= 0) {
+      throw new IOException("Incomplete upload state " + stateFile);
+    }
+    return upload;
+  }
+
+}
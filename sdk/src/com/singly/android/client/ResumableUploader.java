@@ -0,0 +1,532 @@
+package com.singly.android.client;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.ByteArrayEntity;
+import org.codehaus.jackson.JsonNode;
+
+import com.loopj.android.http.RequestParams;
+import com.singly.android.util.JSON;
+import com.singly.android.util.SinglyUtils;
+
+/**
+ * Uploads files in chunks so an upload interrupted by a network drop, or by
+ * the process being killed, resumes from the last acknowledged chunk instead
+ * of starting over.
+ *
+ * The state of every upload, including the offset acknowledged by the server
+ * and the MD5 checksum of each acknowledged chunk, is saved to a state
+ * directory after each chunk.  Uploads left in the directory are returned by
+ * {@link #getPendingUploads()} and can be resumed with
+ * {@link #upload(ResumableUpload, UploadProgressListener, RequestHandle)}.
+ *
+ * Chunks are sent to an upload endpoint using the following protocol, where
+ * the access_token parameter of the upload is sent in the url of every
+ * request and every response body is JSON.
+ *
+ * <pre>
+ * POST {endpoint}              form params endpoint, length, filename,
+ *                              content_type and the upload params,
+ *                              returns {"id": session, "offset": 0}
+ * GET  {endpoint}/{session}    returns {"offset": acknowledged}
+ * PUT  {endpoint}/{session}    one chunk, Content-Range: bytes s-e/length
+ *                              and X-Chunk-MD5,
+ *                              returns {"offset": acknowledged}
+ * POST {endpoint}/{session}/complete
+ *                              posts the assembled file to the endpoint and
+ *                              returns that response
+ * </pre>
+ *
+ * A 404 or 410 for a session means it has expired and the upload is started
+ * again from the beginning.  Chunks are sent with PUT so transient failures
+ * are retried by the {@link HttpEngine} retry policy.
+ */
+public class ResumableUploader {
+
+  public static final int DEFAULT_CHUNK_SIZE = 256 * 1024;
+  public static final int MIN_CHUNK_SIZE = 16 * 1024;
+
+  // chunks in a row the server may refuse before the upload fails
+  private static final int MAX_STALLS = 3;
+
+  private static final String STATE_SUFFIX = ".upload";
+  private static final String ACCESS_TOKEN_PARAM = "access_token";
+
+  private HttpEngine httpEngine;
+  private File stateDir;
+  private String uploadEndpoint;
+  private int chunkSize = DEFAULT_CHUNK_SIZE;
+
+  // uploads currently running, an upload is never run twice at once
+  private Set<String> running = new HashSet<String>();
+
+  // running uploads whose state was discarded, never saved again
+  private Set<String> discarded = new HashSet<String>();
+
+  /**
+   * Creates an uploader.
+   *
+   * @param httpEngine The engine used to send chunks.
+   * @param stateDir The directory upload state is saved to.
+   * @param uploadEndpoint The Singly API path of the upload endpoint.
+   */
+  public ResumableUploader(HttpEngine httpEngine, File stateDir,
+    String uploadEndpoint) {
+    this.httpEngine = httpEngine;
+    this.stateDir = stateDir;
+    this.uploadEndpoint = uploadEndpoint;
+  }
+
+  /**
+   * Creates and saves the state of a new upload of a file.  Nothing is sent
+   * until the upload is run.
+   *
+   * @param account The account the upload belongs to, can be null.
+   * @param apiEndpoint The Singly API endpoint the file is posted to.
+   * @param params The parameters posted with the file, including the
+   * access_token.
+   * @param file The file to upload.
+   * @param contentType The MIME content type of the file, can be null.
+   *
+   * @return The upload state.
+   *
+   * @throws IOException If the file can't be read or the state can't be saved.
+   */
+  public ResumableUpload create(String account, String apiEndpoint,
+    Map<String, String> params, File file, String contentType)
+    throws IOException {
+
+    if (!file.isFile()) {
+      throw new IOException("Not a file " + file);
+    }
+
+    ResumableUpload upload = new ResumableUpload();
+    upload.id = UUID.randomUUID().toString();
+    upload.account = account;
+    upload.path = file.getAbsolutePath();
+    upload.length = file.length();
+    upload.lastModified = file.lastModified();
+    upload.filename = file.getName();
+    upload.contentType = contentType;
+    upload.apiEndpoint = apiEndpoint;
+    upload.chunkSize = chunkSize;
+    if (params != null) {
+      upload.params.putAll(params);
+    }
+    save(upload);
+    return upload;
+  }
+
+  /**
+   * Returns the saved uploads that have not completed.  State that can't be
+   * read is removed.
+   *
+   * @return The pending uploads.
+   */
+  public List<ResumableUpload> getPendingUploads() {
+
+    List<ResumableUpload> uploads = new ArrayList<ResumableUpload>();
+    File[] stateFiles = stateDir.listFiles(new FilenameFilter() {
+
+      @Override
+      public boolean accept(File dir, String name) {
+        return name.endsWith(STATE_SUFFIX);
+      }
+    });
+    if (stateFiles == null) {
+      return uploads;
+    }
+
+    for (File stateFile : stateFiles) {
+      try {
+        uploads.add(ResumableUpload.load(stateFile));
+      }
+      catch (IOException e) {
+        stateFile.delete();
+      }
+    }
+    return uploads;
+  }
+
+  /**
+   * Runs an upload on the calling thread, from the last acknowledged chunk,
+   * until the file is uploaded and the upload completed.  If the upload
+   * fails its state is kept so it can be run again later.
+   *
+   * @param upload The upload to run.
+   * @param progressListener Receives the number of acknowledged bytes after
+   * each chunk, can be null.
+   * @param requestHandle Cancels the upload between or during chunks, the
+   * saved state is kept, can be null.
+   *
+   * @return The response of the API endpoint the file was posted to.
+   *
+   * @throws IOException If the upload fails or is cancelled.
+   */
+  public String upload(ResumableUpload upload,
+    UploadProgressListener progressListener, RequestHandle requestHandle)
+    throws IOException {
+
+    synchronized (running) {
+      if (!running.add(upload.id)) {
+        throw new IOException("Upload already running " + upload.id);
+      }
+    }
+
+    RandomAccessFile file = null;
+    try {
+
+      // a file that is gone can never be uploaded
+      if (!upload.getFile().isFile()) {
+        discardState(upload);
+        throw new FileNotFoundException(upload.path);
+      }
+
+      // a changed file can't be resumed, start it again
+      if (upload.isFileChanged() || !isLastChunkValid(upload)) {
+        restart(upload);
+      }
+
+      // start a session or find where the server is up to
+      if (upload.sessionId == null) {
+        startSession(upload, requestHandle);
+      }
+      else {
+        long acknowledged = getSessionOffset(upload, requestHandle);
+        if (acknowledged < 0) {
+          restart(upload);
+          startSession(upload, requestHandle);
+        }
+        else if (acknowledged < upload.offset) {
+          rewind(upload, acknowledged);
+        }
+      }
+
+      // send chunks from the acknowledged offset, saving after each
+      file = new RandomAccessFile(upload.getFile(), "r");
+      byte[] buffer = new byte[upload.chunkSize];
+      int stalls = 0;
+      while (!upload.isComplete()) {
+
+        checkCancelled(requestHandle);
+
+        int length = (int)Math.min(upload.chunkSize, upload.length
+          - upload.offset);
+        file.seek(upload.offset);
+        file.readFully(buffer, 0, length);
+        byte[] chunk = buffer;
+        if (length < buffer.length) {
+          chunk = new byte[length];
+          System.arraycopy(buffer, 0, chunk, 0, length);
+        }
+        String checksum = md5(chunk);
+
+        long acknowledged = putChunk(upload, chunk, checksum, requestHandle);
+        if (acknowledged == upload.offset + length) {
+          upload.checksums.add(checksum);
+          upload.offset = acknowledged;
+          stalls = 0;
+        }
+        else if (acknowledged <= upload.offset && ++stalls <= MAX_STALLS) {
+
+          // the server lost or rejected the chunk, send again from where it
+          // is up to
+          rewind(upload, acknowledged);
+        }
+        else {
+          throw new IOException("Unexpected upload offset " + acknowledged);
+        }
+        save(upload);
+
+        if (progressListener != null) {
+          progressListener.onProgress(upload.offset, upload.length);
+        }
+      }
+
+      // every chunk is acknowledged, post the assembled file
+      checkCancelled(requestHandle);
+      HttpPost complete = new HttpPost(createSessionURL(upload, "/complete"));
+      String response = execute(complete, requestHandle,
+        SinglyClient.API_RESPONSE_READER);
+      discardState(upload);
+      return response;
+    }
+    finally {
+      if (file != null) {
+        file.close();
+      }
+      synchronized (running) {
+        running.remove(upload.id);
+        discarded.remove(upload.id);
+      }
+    }
+  }
+
+  /**
+   * Removes the saved state of an upload so it is never resumed.
+   *
+   * @param upload The upload to discard.
+   */
+  public void discard(ResumableUpload upload) {
+    discardState(upload);
+  }
+
+  /**
+   * Removes the saved state of every upload, for example when the account
+   * the uploads belong to is removed.  Uploads running at the time fail at
+   * their next chunk without saving their state again.
+   */
+  public void discardAll() {
+
+    synchronized (running) {
+      discarded.addAll(running);
+    }
+
+    // partly written state files go too
+    File[] stateFiles = stateDir.listFiles(new FilenameFilter() {
+
+      @Override
+      public boolean accept(File dir, String name) {
+        return name.contains(STATE_SUFFIX);
+      }
+    });
+    if (stateFiles != null) {
+      for (File stateFile : stateFiles) {
+        stateFile.delete();
+      }
+    }
+  }
+
+  /**
+   * Starts a new upload session on the server.
+   */
+  private void startSession(ResumableUpload upload,
+    RequestHandle requestHandle)
+    throws IOException {
+
+    RequestParams params = new RequestParams();
+    for (Map.Entry<String, String> param : upload.params.entrySet()) {
+      if (param.getValue() != null) {
+        params.put(param.getKey(), param.getValue());
+      }
+    }
+    params.put("endpoint", upload.apiEndpoint);
+    params.put("length", String.valueOf(upload.length));
+    if (upload.filename != null) {
+      params.put("filename", upload.filename);
+    }
+    if (upload.contentType != null) {
+      params.put("content_type", upload.contentType);
+    }
+
+    HttpPost post = new HttpPost(SinglyUtils.createSinglyURL(uploadEndpoint,
+      getTokenParams(upload)));
+    post.setEntity(params.getEntity());
+    JsonNode root = execute(post, requestHandle,
+      SinglyClient.API_JSON_READER);
+    String sessionId = JSON.getString(root, "id");
+    if (sessionId == null) {
+      throw new IOException("No upload session returned");
+    }
+    upload.sessionId = sessionId;
+    save(upload);
+  }
+
+  /**
+   * Returns the offset the server has acknowledged for the session of the
+   * upload, or -1 if the session has expired.
+   */
+  private long getSessionOffset(ResumableUpload upload,
+    RequestHandle requestHandle)
+    throws IOException {
+
+    HttpGet get = new HttpGet(createSessionURL(upload, ""));
+    try {
+      return JSON.getLong(execute(get, requestHandle,
+        SinglyClient.API_JSON_READER), "offset");
+    }
+    catch (ApiResponseException e) {
+      if (isSessionExpired(e)) {
+        return -1;
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Sends one chunk and returns the offset acknowledged by the server.
+   */
+  private long putChunk(ResumableUpload upload, byte[] chunk, String checksum,
+    RequestHandle requestHandle)
+    throws IOException {
+
+    HttpPut put = new HttpPut(createSessionURL(upload, ""));
+    put.setHeader("Content-Range", "bytes " + upload.offset + "-"
+      + (upload.offset + chunk.length - 1) + "/" + upload.length);
+    put.setHeader("X-Chunk-MD5", checksum);
+    ByteArrayEntity entity = new ByteArrayEntity(chunk);
+    entity.setContentType("application/octet-stream");
+    put.setEntity(entity);
+    return JSON.getLong(execute(put, requestHandle,
+      SinglyClient.API_JSON_READER), "offset");
+  }
+
+  /**
+   * Executes a request of the protocol, letting the handle abort it.  The
+   * protocol responses are parsed straight from their bytes.
+   */
+  private <T> T execute(HttpUriRequest request, RequestHandle requestHandle,
+    ResponseHandler<T> reader)
+    throws IOException {
+    if (requestHandle != null) {
+      requestHandle.setRequest(request);
+    }
+    return httpEngine.execute(request, reader);
+  }
+
+  /**
+   * Returns true if the last acknowledged chunk still matches its checksum,
+   * catching a file rewritten in place with the same size and time.
+   */
+  private boolean isLastChunkValid(ResumableUpload upload)
+    throws IOException {
+
+    int chunks = upload.checksums.size();
+    if (chunks == 0) {
+      return true;
+    }
+
+    long start = (long)(chunks - 1) * upload.chunkSize;
+    int length = (int)Math.min(upload.chunkSize, upload.length - start);
+    byte[] chunk = new byte[length];
+    RandomAccessFile file = new RandomAccessFile(upload.getFile(), "r");
+    try {
+      file.seek(start);
+      file.readFully(chunk);
+    }
+    finally {
+      file.close();
+    }
+    return md5(chunk).equals(upload.checksums.get(chunks - 1));
+  }
+
+  /**
+   * Moves the upload back to a chunk boundary at or before an offset.
+   */
+  private void rewind(ResumableUpload upload, long offset) {
+    int chunks = (int)(offset / upload.chunkSize);
+    while (upload.checksums.size() > chunks) {
+      upload.checksums.remove(upload.checksums.size() - 1);
+    }
+    upload.offset = (long)chunks * upload.chunkSize;
+  }
+
+  /**
+   * Forgets the session and all acknowledged chunks.
+   */
+  private void restart(ResumableUpload upload) {
+    File file = upload.getFile();
+    upload.sessionId = null;
+    upload.offset = 0;
+    upload.checksums.clear();
+    upload.length = file.length();
+    upload.lastModified = file.lastModified();
+  }
+
+  private static boolean isSessionExpired(ApiResponseException e) {
+    return e.getStatusCode() == 404 || e.getStatusCode() == 410;
+  }
+
+  private static void checkCancelled(RequestHandle requestHandle)
+    throws IOException {
+    if (requestHandle != null && requestHandle.isCancelled()) {
+      throw new InterruptedIOException("Upload cancelled");
+    }
+  }
+
+  private String createSessionURL(ResumableUpload upload, String suffix) {
+    return SinglyUtils.createSinglyURL(uploadEndpoint + "/" + upload.sessionId
+      + suffix, getTokenParams(upload));
+  }
+
+  private static Map<String, String> getTokenParams(ResumableUpload upload) {
+    Map<String, String> params = new HashMap<String, String>();
+    String accessToken = upload.params.get(ACCESS_TOKEN_PARAM);
+    if (accessToken != null) {
+      params.put(ACCESS_TOKEN_PARAM, accessToken);
+    }
+    return params;
+  }
+
+  private static String md5(byte[] chunk) {
+    try {
+      byte[] digest = MessageDigest.getInstance("MD5").digest(chunk);
+      return String.format("%032x", new BigInteger(1, digest));
+    }
+    catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private File getStateFile(ResumableUpload upload) {
+    return new File(stateDir, upload.id + STATE_SUFFIX);
+  }
+
+  private void save(ResumableUpload upload)
+    throws IOException {
+    if (!stateDir.isDirectory() && !stateDir.mkdirs()) {
+      throw new IOException("Could not create upload directory " + stateDir);
+    }
+    upload.save(getStateFile(upload));
+
+    // checked after the write, a discard that raced the save removes it here
+    synchronized (running) {
+      if (!discarded.contains(upload.id)) {
+        return;
+      }
+    }
+    discardState(upload);
+    throw new InterruptedIOException("Upload discarded " + upload.id);
+  }
+
+  private void discardState(ResumableUpload upload) {
+    getStateFile(upload).delete();
+  }
+
+  public String getUploadEndpoint() {
+    return uploadEndpoint;
+  }
+
+  public int getChunkSize() {
+    return chunkSize;
+  }
+
+  /**
+   * Sets the chunk size of new uploads.  Each chunk is held in memory while it
+   * is sent.  Uploads already started keep their chunk size.
+   */
+  public void setChunkSize(int chunkSize) {
+    this.chunkSize = Math.max(chunkSize, MIN_CHUNK_SIZE);
+  }
+
+}
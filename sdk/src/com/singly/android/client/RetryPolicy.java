@@ -0,0 +1,144 @@
+package com.singly.android.client;
+
+import java.io.IOException;
+import java.util.Random;
+
+import org.apache.http.client.HttpResponseException;
+import org.apache.http.client.methods.HttpUriRequest;
+
+/**
+ * Decides which failed requests the {@link HttpEngine} retries and how long it
+ * waits before each retry.
+ *
+ * Only transient failures are retried: requests that could not connect or
+ * timed out before a response arrived, and responses with a 5xx status.
+ * Client errors, 4xx, are never retried.  By default only idempotent requests,
+ * GET, HEAD, PUT, DELETE and OPTIONS, are retried so a POST is never sent
+ * twice.
+ *
+ * The wait before a retry grows exponentially with each attempt, up to a
+ * maximum, and is jittered to a random value between half and all of that
+ * wait so that clients failing at the same moment don't all retry at the same
+ * moment.
+ */
+public class RetryPolicy {
+
+  /**
+   * Never retries.
+   */
+  public static final RetryPolicy NONE = new RetryPolicy(0, 0, 0, false);
+
+  /**
+   * Retries idempotent requests twice, waiting about 0.5 then 1 second.
+   */
+  public static final RetryPolicy DEFAULT = new RetryPolicy(2, 500, 8000,
+    false);
+
+  private static final Random JITTER = new Random();
+
+  private int maxRetries;
+  private long initialBackoff;
+  private long maxBackoff;
+  private boolean retryNonIdempotent;
+
+  /**
+   * Creates a retry policy.
+   *
+   * @param maxRetries The maximum number of retries after the first attempt.
+   * @param initialBackoff The wait before the first retry, in milliseconds.
+   * Each following retry waits twice as long as the one before.
+   * @param maxBackoff The longest wait before a retry, in milliseconds.
+   * @param retryNonIdempotent True to retry requests, such as POST, that are
+   * not safe to send twice.
+   */
+  public RetryPolicy(int maxRetries, long initialBackoff, long maxBackoff,
+    boolean retryNonIdempotent) {
+    this.maxRetries = maxRetries;
+    this.initialBackoff = initialBackoff;
+    this.maxBackoff = maxBackoff;
+    this.retryNonIdempotent = retryNonIdempotent;
+  }
+
+  /**
+   * Returns true if the request method is safe to send more than once.
+   *
+   * @param request The request.
+   *
+   * @return True if the request is idempotent.
+   */
+  public static boolean isIdempotent(HttpUriRequest request) {
+    String method = request.getMethod();
+    return "GET".equals(method) || "HEAD".equals(method)
+      || "PUT".equals(method) || "DELETE".equals(method)
+      || "OPTIONS".equals(method);
+  }
+
+  /**
+   * Returns true if the error is a transient failure worth retrying, a
+   * connection failure or timeout, or a 5xx status.
+   *
+   * @param error The failure.
+   *
+   * @return True if the failure is transient.
+   */
+  public static boolean isTransient(Throwable error) {
+    if (error instanceof CircuitOpenException) {
+      return false;
+    }
+    if (error instanceof HttpResponseException) {
+      return ((HttpResponseException)error).getStatusCode() >= 500;
+    }
+    return error instanceof IOException;
+  }
+
+  /**
+   * Returns true if the request should be retried.
+   *
+   * @param request The failed request.
+   * @param error The failure.
+   * @param retries The number of retries already made.
+   *
+   * @return True to retry the request.
+   */
+  public boolean shouldRetry(HttpUriRequest request, Throwable error,
+    int retries) {
+    return retries < maxRetries && !request.isAborted()
+      && (retryNonIdempotent || isIdempotent(request)) && isTransient(error);
+  }
+
+  /**
+   * Returns the jittered wait before a retry.
+   *
+   * @param retries The number of retries already made.
+   *
+   * @return The wait in milliseconds.
+   */
+  public long getBackoff(int retries) {
+    long backoff = initialBackoff;
+    for (int i = 0; i < retries && backoff < maxBackoff; i++) {
+      backoff *= 2;
+    }
+    backoff = Math.min(backoff, maxBackoff);
+    long half = backoff / 2;
+    synchronized (JITTER) {
+      return half + (long)(JITTER.nextDouble() * (backoff - half));
+    }
+  }
+
+  public int getMaxRetries() {
+    return maxRetries;
+  }
+
+  public long getInitialBackoff() {
+    return initialBackoff;
+  }
+
+  public long getMaxBackoff() {
+    return maxBackoff;
+  }
+
+  public boolean isRetryNonIdempotent() {
+    return retryNonIdempotent;
+  }
+
+}
@@ -2,25 +2,61 @@ package com.singly.android.client;
 
 import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.CloseShieldInputStream;
+import org.apache.commons.io.input.TeeInputStream;
 import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.math.NumberUtils;
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.JsonParser;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.StatusLine;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.util.EntityUtils;
 
 import android.content.ActivityNotFoundException;
 import android.content.Context;
 import android.content.Intent;
-import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
+import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 
-import com.loopj.android.http.AsyncHttpClient;
-import com.loopj.android.http.AsyncHttpResponseHandler;
 import com.loopj.android.http.RequestParams;
+import com.singly.android.util.JSON;
 import com.singly.android.util.SinglyUtils;
+import com.singly.android.util.URLUtils;
 
 /**
  * A client that handles authentication and requests to the Singly API.
@@ -57,6 +93,56 @@ public class SinglyClient {
   private String clientSecret;
   private Class authenticationActivity = AuthenticationActivity.class;
 
+  // the shared http transport and the handler used to run callbacks on the
+  // main UI thread
+  private HttpEngine httpEngine = new HttpEngine();
+  private RequestScheduler requestScheduler = new RequestScheduler(httpEngine);
+  private RequestRegistry requestRegistry = new RequestRegistry();
+  private Handler mainHandler = new Handler(Looper.getMainLooper());
+  private Executor mainExecutor = new Executor() {
+
+    @Override
+    public void execute(Runnable task) {
+      mainHandler.post(task);
+    }
+  };
+
+  // disk cache for GET responses, created on first use
+  private HttpResponseCache responseCache;
+  private boolean responseCacheEnabled = true;
+  private long responseCacheSize = HttpResponseCache.DEFAULT_MAX_SIZE;
+
+  // identical GET requests in flight share one request
+  private RequestCoalescer requestCoalescer = new RequestCoalescer();
+
+  // per endpoint parse times of typed requests
+  private ParseTimings parseTimings = new ParseTimings();
+
+  // latency, throughput and error metrics, disabled by default
+  private SinglyMetrics metrics = new SinglyMetrics();
+
+  // durable queue of posts made while offline, created on first use
+  private RequestOutbox outbox;
+  private boolean outboxEnabled = true;
+
+  // chunked upload endpoint and uploader, null to post uploads in one request
+  private String uploadEndpoint = null;
+  private ResumableUploader resumableUploader;
+
+  // endpoint that accepts many requests in one, null to not batch
+  private String multiApiEndpoint = null;
+
+  // the account and access token, read from storage once
+  private AuthenticationState authenticationState;
+
+  // run on every request before it is sent
+  private List<RequestInterceptor> interceptors =
+    new CopyOnWriteArrayList<RequestInterceptor>();
+
+  // responses prefetched by warmUp, handed to the first matching GET
+  private ConcurrentMap<String, Prefetch> prefetches = new ConcurrentHashMap<String, Prefetch>();
+  public static final long PREFETCH_TTL = 60 * 1000;
+
   // authentication information
   public static final String ACCESS_TOKEN = "accessToken";
   public static final String ACCOUNT = "account";
@@ -74,16 +160,264 @@ public class SinglyClient {
     public String accessToken;
   }
 
+  /**
+   * A GET response fetched ahead of the request for it.  The request waits
+   * for the prefetch if it is in flight and drops it if it hasn't started.
+   */
+  private static class Prefetch {
+    final AtomicBoolean started = new AtomicBoolean();
+    final CountDownLatch done = new CountDownLatch(1);
+    final long created = System.currentTimeMillis();
+    volatile byte[] body;
+    volatile String charset;
+  }
+
+  /**
+   * Reads a response body from a stream into a result.  Runs in the thread
+   * executing the request.
+   */
+  private interface BodyReader<T> {
+    T read(InputStream body, String charset)
+      throws IOException;
+  }
+
+  /**
+   * Reads the whole response body into a String.
+   */
+  private static final BodyReader<String> STRING_READER = new BodyReader<String>() {
+
+    @Override
+    public String read(InputStream body, String charset)
+      throws IOException {
+      return IOUtils.toString(body, charset);
+    }
+  };
+
+  /**
+   * Reads the body of an API response with a BodyReader.  Responses with an
+   * error status are thrown as an {@link ApiResponseException} that contains
+   * the response body.
+   */
+  static class ApiResponseReader<T>
+    implements ResponseHandler<T> {
+
+    private BodyReader<T> reader;
+
+    ApiResponseReader(BodyReader<T> reader) {
+      this.reader = reader;
+    }
+
+    @Override
+    public T handleResponse(HttpResponse response)
+      throws IOException {
+
+      StatusLine status = response.getStatusLine();
+      HttpEntity entity = response.getEntity();
+      if (status.getStatusCode() >= 300) {
+        String body = entity != null ? EntityUtils.toString(entity, "UTF-8")
+          : null;
+        throw new ApiResponseException(status.getStatusCode(),
+          status.getReasonPhrase(), body);
+      }
+
+      if (entity == null) {
+        return reader.read(new ByteArrayInputStream(new byte[0]), "UTF-8");
+      }
+      String charset = EntityUtils.getContentCharSet(entity);
+      InputStream body = entity.getContent();
+      try {
+        return reader.read(body, charset != null ? charset : "UTF-8");
+      }
+      finally {
+        IOUtils.closeQuietly(body);
+      }
+    }
+  }
+
+  static final ApiResponseReader<String> API_RESPONSE_READER = new ApiResponseReader<String>(
+    STRING_READER);
+
+  /**
+   * Parses the response body into a tree straight from its bytes, without
+   * decoding them into a String first.  The parser only detects the unicode
+   * encodings, a body in any other charset is decoded to a String.
+   */
+  private static final BodyReader<JsonNode> JSON_READER = new BodyReader<JsonNode>() {
+
+    @Override
+    public JsonNode read(InputStream body, String charset)
+      throws IOException {
+      if (StringUtils.startsWithIgnoreCase(charset, "UTF-")) {
+        return JSON.parse(body);
+      }
+      return JSON.parse(IOUtils.toString(body, charset));
+    }
+  };
+
+  static final ApiResponseReader<JsonNode> API_JSON_READER = new ApiResponseReader<JsonNode>(
+    JSON_READER);
+
+  /**
+   * Thrown when a cached body is gone by the time a 304 Not Modified arrives.
+   */
+  private static class CachedBodyMissingException
+    extends IOException {
+    private static final long serialVersionUID = 1L;
+  }
+
+  /**
+   * The handler of one caller of a coalesced request.  Passes the response on
+   * with the caller's executor, finishing the caller's handle, unless the
+   * caller cancelled.
+   */
+  private static class CoalescedResponseHandler
+    extends AsyncApiResponseHandler {
+
+    private AsyncApiResponseHandler responseHandler;
+    private Executor executor;
+    private RequestHandle handle;
+
+    CoalescedResponseHandler(AsyncApiResponseHandler responseHandler,
+      Executor executor) {
+      this.responseHandler = responseHandler;
+      this.executor = executor;
+    }
+
+    @Override
+    public void onSuccess(final String response) {
+      executor.execute(new Runnable() {
+
+        @Override
+        public void run() {
+          if (!handle.isCancelled()) {
+            handle.finish();
+            responseHandler.onSuccess(response);
+          }
+        }
+      });
+    }
+
+    @Override
+    public void onFailure(final Throwable error, final String message) {
+      executor.execute(new Runnable() {
+
+        @Override
+        public void run() {
+          if (!handle.isCancelled()) {
+            handle.finish();
+            responseHandler.onFailure(error, message);
+          }
+        }
+      });
+    }
+  }
+
+  /**
+   * The handler of one caller of a coalesced request whose response is
+   * parsed.  A response shared with other callers is parsed with the caller's
+   * own reader in the thread that read it, the result is passed on with the
+   * caller's executor unless the caller cancelled.
+   */
+  private static class CoalescedParseHandler<T>
+    extends AsyncApiResponseHandler {
+
+    private BodyReader<T> reader;
+    private Executor executor;
+    private ResultCallback<T> callback;
+    private RequestHandle handle;
+
+    // set when the caller was alone and parsed the body from the stream
+    private boolean parsedAlone;
+    private T result;
+
+    CoalescedParseHandler(BodyReader<T> reader, Executor executor,
+      ResultCallback<T> callback) {
+      this.reader = reader;
+      this.executor = executor;
+      this.callback = callback;
+    }
+
+    @Override
+    public void onSuccess(String response) {
+
+      T parsed = null;
+      try {
+        parsed = reader.read(new ByteArrayInputStream(response
+          .getBytes("UTF-8")), "UTF-8");
+      }
+      catch (Exception e) {
+        onFailure(e, e.getMessage());
+        return;
+      }
+      deliver(parsed);
+    }
+
+    void deliver(final T parsed) {
+      executor.execute(new Runnable() {
+
+        @Override
+        public void run() {
+          if (!handle.isCancelled()) {
+            handle.finish();
+            callback.onSuccess(parsed);
+          }
+        }
+      });
+    }
+
+    @Override
+    public void onFailure(final Throwable error, final String message) {
+      executor.execute(new Runnable() {
+
+        @Override
+        public void run() {
+          if (!handle.isCancelled()) {
+            handle.finish();
+            callback.onFailure(error, message);
+          }
+        }
+      });
+    }
+  }
+
+  /**
+   * Completes a future with the response of a request.
+   */
+  private static class FutureResponseHandler
+    extends AsyncApiResponseHandler {
+
+    private SinglyFuture<String> future;
+
+    FutureResponseHandler(SinglyFuture<String> future) {
+      this.future = future;
+    }
+
+    @Override
+    public void onSuccess(String response) {
+      future.succeed(response);
+    }
+
+    @Override
+    public void onFailure(Throwable error, String message) {
+      future.fail(error);
+    }
+  }
+
   private SinglyClient() {
     this.clientId = "your_client_id";
     this.clientSecret = "you_client_secret";
+
+    // the access token, sdk headers and gzip are added to every request
+    interceptors.add(new AccessTokenInterceptor(this));
+    interceptors.add(HeaderInterceptor.createSdkHeaders());
+    interceptors.add(HeaderInterceptor.createGzip());
   }
 
   /**
    * Returns an instance of the SinglyClient singleton.  It creates an instance
    * of the SinglyClient if one did not previously exist.
    */
-  public static SinglyClient getInstance() {
+  public static synchronized SinglyClient getInstance() {
     if (instance == null) {
       instance = new SinglyClient();
     }
@@ -99,10 +433,7 @@ public class SinglyClient {
    * @return True if the app has a Singly access token.  False otherwise.
    */
   public boolean isAuthenticated(Context context) {
-    SharedPreferences prefs = context.getSharedPreferences("singly",
-      Context.MODE_PRIVATE);
-    String accessToken = prefs.getString("accessToken", null);
-    return accessToken != null;
+    return getAuthenticationState(context).isAuthenticated();
   }
 
   /**
@@ -120,8 +451,9 @@ public class SinglyClient {
    * Expert: The Activity class that handles the authentication process can be
    * changed by calling the {@link #setAuthenticationActivity(Class)} method. 
    * The assumption is that the new Activity will store the Singly access token 
-   * by using {@link SinglyUtils#saveAccessToken(Context, String)} method upon a
-   * successful authentication with the service.
+   * by using the {@link AuthenticationState#update(String, String)} method of
+   * {@link #getAuthenticationState(Context)} upon a successful authentication
+   * with the service.
    * 
    * @param context The context from which authenticate is called.
    * @param service The service to authenticate the user against.
@@ -184,57 +516,188 @@ public class SinglyClient {
   }
 
   /**
-   * Performs a GET request to the Singly API.
+   * Warms up the client so the first request after the app launches doesn't
+   * pay for setting everything up.  Can be called from
+   * Application.onCreate.
    * 
-   * All network communication is performed in a separate thread.  As such it 
-   * is fine to call this method from the main UI thread.  
+   * In a background thread the stored account and access token are read,
+   * the Singly API host is resolved and a TLS connection to it is opened and
+   * kept in the pool, and the Jackson classes used to parse responses are
+   * loaded.  Nothing is prefetched.
    * 
-   * The AsyncApiResponseHandler parameter is an asynchronous callback handler
-   * that is used to retrieve the result of the network request to the API.  On
-   * success the response from the API is returned.  On failure a Throwable 
-   * error object will be returned.
+   * @param context The current android context.
+   */
+  public void warmUp(Context context) {
+    warmUp(context, 0);
+  }
+
+  /**
+   * Warms up the client and, if the user is authenticated, prefetches the
+   * friends count, the first block of friends and the friends table of
+   * contents requested by the FriendsListFragment, so its first rows render
+   * without waiting on the network.
    * 
-   * If an API call requires an access token it must be added to the queryParams
-   * passed into the method.
+   * Prefetched responses are kept in memory for {@link #PREFETCH_TTL} and
+   * handed to the first GET request with the same endpoint and parameters.
+   * A request made while its prefetch is still in flight waits for it
+   * instead of making a second request.
    * 
    * @param context The current android context.
-   * @param apiEndpoint The Singly API endpoint to call.
-   * @param queryParams Any query parameters to send along with the request.
-   * @param responseHandler An asynchronous callback handler for the request.
-   * 
-   * @see https://singly.com/docs/api For documentation on Singly api calls.
-   * @see SinglyUtils#getAccessToken(Context)
+   * @param friendsBlockSize The block size of the friends list, 0 to not
+   * prefetch.
    */
-  public void doGetApiRequest(Context context, String apiEndpoint,
-    Map<String, String> queryParams,
-    final AsyncApiResponseHandler responseHandler) {
+  public void warmUp(Context context, final int friendsBlockSize) {
 
-    // get the http client and add api url
-    AsyncHttpClient client = SinglyUtils.getHttpClient();
-    Map<String, String> params = new LinkedHashMap<String, String>();
-    if (queryParams != null) {
-      params.putAll(queryParams);
+    final Context appContext = context.getApplicationContext();
+    httpEngine.submit(new Runnable() {
+
+      @Override
+      public void run() {
+
+        // load the parser classes first, the first response needs them
+        // even if the host can't be resolved now
+        JSON.warmUp();
+
+        // read the stored account and token off the main thread
+        boolean authenticated = getAuthenticationState(appContext)
+          .isAuthenticated();
+
+        // resolve the host once for the prefetches and the connection
+        String baseURL = SinglyUtils.getSinglyBaseURL();
+        try {
+          InetAddress.getAllByName(URI.create(baseURL).getHost());
+        }
+        catch (Exception e) {
+          // offline or no such host, requests will fail on their own
+          return;
+        }
+
+        // the requests the friends list makes first, the same parameters
+        // as the FriendsListFragment and TableOfContentsFragment
+        if (authenticated && friendsBlockSize > 0) {
+          prefetch(appContext, "/friends", null);
+          Map<String, String> blockParams = new HashMap<String, String>();
+          blockParams.put("offset", "0");
+          blockParams.put("limit", String.valueOf(friendsBlockSize));
+          blockParams.put("toc", "true");
+          prefetch(appContext, "/friends/all", blockParams);
+          Map<String, String> tocParams = new HashMap<String, String>();
+          tocParams.put("offset", "0");
+          tocParams.put("limit", "1");
+          tocParams.put("toc", "true");
+          prefetch(appContext, "/friends/all", tocParams);
+        }
+
+        // open a pooled connection for the next request
+        try {
+          httpEngine.preconnect(baseURL + "/");
+        }
+        catch (IOException e) {
+          // warming up is best effort
+        }
+      }
+    });
+  }
+
+  /**
+   * Fetches a GET response ahead of the request for it, through the response
+   * cache if it is enabled.  Does nothing if the response is already being
+   * prefetched.
+   */
+  private void prefetch(Context context, String apiEndpoint,
+    Map<String, String> queryParams) {
+
+    // a prefetch too old to be used is replaced
+    final String key = RequestCoalescer.toKey(apiEndpoint, queryParams);
+    Prefetch existing = prefetches.get(key);
+    if (existing != null
+      && System.currentTimeMillis() - existing.created <= PREFETCH_TTL) {
+      return;
     }
-    String getApiCallUrl = SinglyUtils.createSinglyURL(apiEndpoint);
-    RequestParams rparms = params.isEmpty() ? null : new RequestParams(params);
+    final Prefetch prefetch = new Prefetch();
+    prefetches.put(key, prefetch);
 
-    // do an async get request
-    client.get(getApiCallUrl, rparms, new AsyncHttpResponseHandler() {
+    final ApiRequestBuilder request = prepare(context, "GET", apiEndpoint,
+      queryParams, null);
+    final BodyReader<Void> prefetchReader = new BodyReader<Void>() {
 
       @Override
-      public void onSuccess(String response) {
-        responseHandler.onSuccess(response);
+      public Void read(InputStream body, String charset)
+        throws IOException {
+        prefetch.body = IOUtils.toByteArray(body);
+        prefetch.charset = charset;
+        return null;
       }
+    };
+
+    // queued as a prefetch under the request key, prioritizing the request
+    // promotes it too, and the request drops it if it hasn't started yet
+    final RequestHandle requestHandle = new RequestHandle(requestRegistry);
+    schedule(RequestPriority.PREFETCH, key, requestHandle, new Runnable() {
 
       @Override
-      public void onFailure(Throwable error, String message) {
-        responseHandler.onFailure(error, message);
+      public void run() {
+
+        // the request for it was made first and ran itself
+        if (!prefetch.started.compareAndSet(false, true)) {
+          return;
+        }
+
+        try {
+          HttpResponseCache cache = request.isCacheable()
+            ? getResponseCache(request.getContext()) : null;
+          if (cache != null) {
+            getWithCache(cache, request, prefetchReader, requestHandle, null);
+          }
+          else {
+            acquireToken(RateLimiter.getEndpointFamily(request
+              .getApiEndpoint()));
+            httpEngine.execute(newGet(request),
+              new ApiResponseReader<Void>(prefetchReader));
+          }
+        }
+        catch (Exception e) {
+
+          // the request will be made again when it is needed
+          prefetches.remove(key, prefetch);
+        }
+        finally {
+          prefetch.done.countDown();
+        }
       }
     });
   }
 
   /**
-   * Performs a POST request to the Singly API.
+   * Removes and returns the prefetched response for the request key, waiting
+   * for it if it is still in flight.  Returns null if there is none, it
+   * failed or it is too old.
+   */
+  private Prefetch takePrefetch(String key) {
+
+    Prefetch prefetch = prefetches.remove(key);
+    if (prefetch == null || prefetch.started.compareAndSet(false, true)) {
+      return null;
+    }
+    try {
+      if (!prefetch.done.await(HttpEngine.DEFAULT_SOCKET_TIMEOUT,
+        TimeUnit.MILLISECONDS)) {
+        return null;
+      }
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return null;
+    }
+    if (prefetch.body == null
+      || System.currentTimeMillis() - prefetch.created > PREFETCH_TTL) {
+      return null;
+    }
+    return prefetch;
+  }
+
+  /**
+   * Performs a GET request to the Singly API.
    * 
    * All network communication is performed in a separate thread.  As such it 
    * is fine to call this method from the main UI thread.  
@@ -244,137 +707,2116 @@ public class SinglyClient {
    * success the response from the API is returned.  On failure a Throwable 
    * error object will be returned.
    * 
-   * If an API call requires an access token it must be added to the queryParams
-   * passed into the method.
+   * The access token of the current user is added to the request by the
+   * {@link AccessTokenInterceptor} unless the queryParams already contain one.
    * 
-   * The postParams can contain String, InputStream, byte[] and File values.
-   * Any request with InputStream, byte[] or File values will be posted as a
-   * multipart request.  Post params are sent in the body of the post request.
-   * If you wish to send parameters in the url of the request, instead of or
-   * along with the post body, they will need to be passed in queryParams.
+   * GET responses are cached on disk by the {@link HttpResponseCache}.  Fresh
+   * responses are returned without a network request and stale responses are
+   * revalidated with a conditional request.
+   * 
+   * Identical GET requests, same endpoint and same parameters, that are made
+   * while one is already in flight are coalesced into the one request and all
+   * response handlers receive its response.
    * 
    * @param context The current android context.
    * @param apiEndpoint The Singly API endpoint to call.
-   * @param queryParams Any parameters to send in the url of the request.
-   * @param postParams Any parameters to send in the post body of the request.
+   * @param queryParams Any query parameters to send along with the request.
    * @param responseHandler An asynchronous callback handler for the request.
    * 
+   * @return A handle to cancel the request.
+   * 
    * @see https://singly.com/docs/api For documentation on Singly api calls.
-   * @see SinglyUtils#getAccessToken(Context)
+   * @see #addInterceptor(RequestInterceptor)
    */
-  public void doPostApiRequest(Context context, String apiEndpoint,
-    Map<String, String> queryParams, Map<String, Object> postParams,
+  public RequestHandle doGetApiRequest(Context context, String apiEndpoint,
+    Map<String, String> queryParams,
     final AsyncApiResponseHandler responseHandler) {
+    return doGetApiRequest(context, apiEndpoint, queryParams,
+      RequestPriority.VISIBLE, responseHandler);
+  }
 
-    // get the http client and add api url
-    AsyncHttpClient client = SinglyUtils.getHttpClient();
+  /**
+   * Performs a GET request to the Singly API with a priority.
+   * 
+   * The request is queued in the {@link RequestScheduler} under the priority
+   * class and run ahead of any queued requests of a lower priority class.
+   * Otherwise this is the same as
+   * {@link #doGetApiRequest(Context, String, Map, AsyncApiResponseHandler)}.
+   * 
+   * @param context The current android context.
+   * @param apiEndpoint The Singly API endpoint to call.
+   * @param queryParams Any query parameters to send along with the request.
+   * @param priority The priority class of the request.
+   * @param responseHandler An asynchronous callback handler for the request.
+   * 
+   * @return A handle to cancel the request.
+   * 
+   * @see https://singly.com/docs/api For documentation on Singly api calls.
+   */
+  public RequestHandle doGetApiRequest(Context context, String apiEndpoint,
+    Map<String, String> queryParams, RequestPriority priority,
+    AsyncApiResponseHandler responseHandler) {
+    return doGetRequest(context, apiEndpoint, queryParams, priority,
+      mainExecutor, responseHandler);
+  }
 
-    // convert request parameters if needed
-    boolean hasPostParams = false;
-    RequestParams rparams = new RequestParams();
-    if (postParams != null && !postParams.isEmpty()) {
-      for (Map.Entry<String, Object> postParam : postParams.entrySet()) {
-        String key = postParam.getKey();
-        Object objValue = postParam.getValue();
-        if (objValue instanceof String) {
-          rparams.put(key, (String)objValue);
-          hasPostParams = true;
-        }
-        else if (objValue instanceof InputStream) {
-          rparams.put(key, (InputStream)objValue);
-          hasPostParams = true;
-        }
-        else if (objValue instanceof byte[]) {
-          rparams.put(key, new ByteArrayInputStream((byte[])objValue));
-          hasPostParams = true;
-        }
-        else if (objValue instanceof File) {
-          try {
-            rparams.put(key, (File)objValue);
-            hasPostParams = true;
-          }
-          catch (FileNotFoundException e) {
-            // do nothing, ignore and continue
-          }
+  /**
+   * Performs a GET request to the Singly API and returns a future for the
+   * response.
+   * 
+   * The future completes in a background thread, so continuations can parse
+   * the response or start dependent requests without a hop to the main UI
+   * thread.  Otherwise this is the same as
+   * {@link #doGetApiRequest(Context, String, Map, AsyncApiResponseHandler)},
+   * including response caching and coalescing.
+   * 
+   * @param context The current android context.
+   * @param apiEndpoint The Singly API endpoint to call.
+   * @param queryParams Any query parameters to send along with the request.
+   * 
+   * @return A future for the response.
+   * 
+   * @see https://singly.com/docs/api For documentation on Singly api calls.
+   */
+  public SinglyFuture<String> doGetApiRequest(Context context,
+    String apiEndpoint, Map<String, String> queryParams) {
+    return doGetApiRequest(context, apiEndpoint, queryParams,
+      RequestPriority.VISIBLE);
+  }
+
+  /**
+   * Performs a GET request to the Singly API with a priority and returns a
+   * future for the response.
+   * 
+   * @param context The current android context.
+   * @param apiEndpoint The Singly API endpoint to call.
+   * @param queryParams Any query parameters to send along with the request.
+   * @param priority The priority class of the request.
+   * 
+   * @return A future for the response.
+   * 
+   * @see #doGetApiRequest(Context, String, Map)
+   */
+  public SinglyFuture<String> doGetApiRequest(Context context,
+    String apiEndpoint, Map<String, String> queryParams,
+    RequestPriority priority) {
+
+    SinglyFuture<String> future = new SinglyFuture<String>();
+    future.attach(doGetRequest(context, apiEndpoint, queryParams, priority,
+      SinglyFuture.DIRECT, new FutureResponseHandler(future)));
+    return future;
+  }
+
+  /**
+   * Performs a coalesced GET request, running the response handler with the
+   * executor.
+   */
+  private RequestHandle doGetRequest(Context context, String apiEndpoint,
+    Map<String, String> queryParams, RequestPriority priority,
+    Executor executor, AsyncApiResponseHandler responseHandler) {
+
+    // create the api request with any query parameters
+    ApiRequestBuilder request = prepare(context, "GET", apiEndpoint,
+      queryParams, null);
+
+    // the caller leaves the coalesced request when cancelled, the request
+    // itself is only cancelled once every caller has left
+    final String key = RequestCoalescer.toKey(apiEndpoint, queryParams);
+    final CoalescedResponseHandler callerHandler = new CoalescedResponseHandler(
+      responseHandler, executor);
+    callerHandler.handle = new RequestHandle(requestRegistry, new Runnable() {
+
+      @Override
+      public void run() {
+        RequestHandle orphaned = requestCoalescer.leave(key, callerHandler);
+        if (orphaned != null) {
+          orphaned.cancel();
         }
       }
+    });
+
+    // attach to an identical request already in flight if there is one
+    RequestHandle requestHandle = new RequestHandle(requestRegistry);
+    if (!requestCoalescer.join(key, callerHandler, requestHandle)) {
+      return callerHandler.handle;
     }
+    final AsyncApiResponseHandler fanOutHandler = requestCoalescer
+      .fanOut(key);
 
-    // do an async post request
-    boolean hasQueryParams = queryParams != null && !queryParams.isEmpty();
-    String postApiCallUrl = SinglyUtils.createSinglyURL(apiEndpoint,
-      hasQueryParams ? queryParams : null);
-    client.post(postApiCallUrl, hasPostParams ? rparams : null,
-      new AsyncHttpResponseHandler() {
+    // do an async get request, through the response cache if enabled, the
+    // response is passed to each caller with the caller's executor
+    executeGetRequest(context, request, key, priority, requestHandle,
+      metrics.begin(apiEndpoint, "GET"), STRING_READER, SinglyFuture.DIRECT,
+      new ResultCallback<String>() {
 
         @Override
         public void onSuccess(String response) {
-          responseHandler.onSuccess(response);
+          fanOutHandler.onSuccess(response);
         }
 
         @Override
         public void onFailure(Throwable error, String message) {
-          responseHandler.onFailure(error, message);
+          fanOutHandler.onFailure(error, message);
         }
       });
+    return callerHandler.handle;
   }
 
   /**
-   * Performs a POST request to the Singly API that allows specifying the body
-   * content of the request.  This is used when you need to POST raw content,
-   * such as text or images, to the API.
+   * Performs a GET request to the Singly API and streams the response body to
+   * the handler.
    * 
-   * Any query parameters passed are appended to the URL versus being passed
-   * in the body of the POST request.
+   * The response body is passed to the
+   * {@link StreamingApiResponseHandler#onStream(InputStream, String)} method
+   * in a background thread as it is read from the network, or from the
+   * response cache, so large responses are never held in memory as a single
+   * String.  Streamed responses are still written to the response cache but
+   * are not coalesced with identical requests.
    * 
-   * All network communication is performed in a separate thread.  As such it 
-   * is fine to call this method from the main UI thread.  
+   * @param context The current android context.
+   * @param apiEndpoint The Singly API endpoint to call.
+   * @param queryParams Any query parameters to send along with the request.
+   * @param responseHandler A streaming callback handler for the request.
+   * 
+   * @return A handle to cancel the request.
+   * 
+   * @see https://singly.com/docs/api For documentation on Singly api calls.
+   */
+  public RequestHandle doGetApiRequest(Context context, String apiEndpoint,
+    Map<String, String> queryParams,
+    final StreamingApiResponseHandler responseHandler) {
+
+    ApiRequestBuilder request = prepare(context, "GET", apiEndpoint,
+      queryParams, null);
+
+    // the handler reads the body in the background thread
+    BodyReader<Void> streamReader = new BodyReader<Void>() {
+
+      @Override
+      public Void read(InputStream body, String charset)
+        throws IOException {
+        responseHandler.onStream(body, charset);
+        return null;
+      }
+    };
+
+    RequestHandle requestHandle = new RequestHandle(requestRegistry);
+    executeGetRequest(context, request, RequestCoalescer.toKey(apiEndpoint,
+      queryParams), RequestPriority.VISIBLE, requestHandle, metrics.begin(
+      apiEndpoint, "GET"), streamReader, mainExecutor,
+      new ResultCallback<Void>() {
+
+        @Override
+        public void onSuccess(Void result) {
+          responseHandler.onSuccess();
+        }
+
+        @Override
+        public void onFailure(Throwable error, String message) {
+          responseHandler.onFailure(error, message);
+        }
+      });
+    return requestHandle;
+  }
+
+  /**
+   * Performs a GET request to the Singly API and parses the response into a
+   * model object in a background thread.
+   * 
+   * The JSON response is decoded straight from the body stream and passed to
+   * the parser in a background thread.  Only the finished object is passed to
+   * the {@link TypedResponseHandler} in the main UI thread, so parsing large
+   * responses doesn't stall the UI.  Parse times are recorded per endpoint,
+   * see {@link #getParseTimings()}.
+   * 
+   * Identical GET requests made while one is in flight are coalesced, as
+   * with {@link #doGetApiRequest(Context, String, Map, AsyncApiResponseHandler)},
+   * and each caller's parser parses the one response.  A response with more
+   * than one caller is read into a String once and parsed from it, only a
+   * response with a single caller is parsed straight from the stream.
+   * 
+   * @param context The current android context.
+   * @param apiEndpoint The Singly API endpoint to call.
+   * @param queryParams Any query parameters to send along with the request.
+   * @param parser Parses the response into a model object.
+   * @param responseHandler A callback handler for the parsed response.
+   * 
+   * @return A handle to cancel the request.
+   * 
+   * @see https://singly.com/docs/api For documentation on Singly api calls.
+   */
+  public <T> RequestHandle doGetApiRequest(Context context, String apiEndpoint,
+    Map<String, String> queryParams, ResponseParser<T> parser,
+    TypedResponseHandler<T> responseHandler) {
+    return doGetApiRequest(context, apiEndpoint, queryParams,
+      RequestPriority.VISIBLE, parser, responseHandler);
+  }
+
+  /**
+   * Performs a GET request to the Singly API with a priority and parses the
+   * response into a model object in a background thread.
+   * 
+   * The request is queued in the {@link RequestScheduler} under the priority
+   * class and run ahead of any queued requests of a lower priority class.
+   * Otherwise this is the same as
+   * {@link #doGetApiRequest(Context, String, Map, ResponseParser, TypedResponseHandler)}.
+   * 
+   * @param context The current android context.
+   * @param apiEndpoint The Singly API endpoint to call.
+   * @param queryParams Any query parameters to send along with the request.
+   * @param priority The priority class of the request.
+   * @param parser Parses the response into a model object.
+   * @param responseHandler A callback handler for the parsed response.
+   * 
+   * @return A handle to cancel the request.
+   * 
+   * @see https://singly.com/docs/api For documentation on Singly api calls.
+   */
+  public <T> RequestHandle doGetApiRequest(Context context, String apiEndpoint,
+    Map<String, String> queryParams, RequestPriority priority,
+    ResponseParser<T> parser, TypedResponseHandler<T> responseHandler) {
+    return doGetApiRequest(context, apiEndpoint, queryParams, priority,
+      treeParser(parser), responseHandler);
+  }
+
+  /**
+   * Performs a GET request to the Singly API and returns a future for the
+   * response parsed into a model object.
+   * 
+   * The response is parsed in a background thread and the future completes
+   * in that thread.  Otherwise this is the same as
+   * {@link #doGetApiRequest(Context, String, Map, ResponseParser, TypedResponseHandler)}.
+   * 
+   * @param context The current android context.
+   * @param apiEndpoint The Singly API endpoint to call.
+   * @param queryParams Any query parameters to send along with the request.
+   * @param parser Parses the response into a model object.
+   * 
+   * @return A future for the parsed response.
+   * 
+   * @see https://singly.com/docs/api For documentation on Singly api calls.
+   */
+  public <T> SinglyFuture<T> doGetApiRequest(Context context,
+    String apiEndpoint, Map<String, String> queryParams,
+    ResponseParser<T> parser) {
+    return doGetApiRequest(context, apiEndpoint, queryParams,
+      RequestPriority.VISIBLE, parser);
+  }
+
+  /**
+   * Performs a GET request to the Singly API with a priority and returns a
+   * future for the response parsed into a model object.
+   * 
+   * @param context The current android context.
+   * @param apiEndpoint The Singly API endpoint to call.
+   * @param queryParams Any query parameters to send along with the request.
+   * @param priority The priority class of the request.
+   * @param parser Parses the response into a model object.
+   * 
+   * @return A future for the parsed response.
+   * 
+   * @see #doGetApiRequest(Context, String, Map, ResponseParser)
+   */
+  public <T> SinglyFuture<T> doGetApiRequest(Context context,
+    String apiEndpoint, Map<String, String> queryParams,
+    RequestPriority priority, ResponseParser<T> parser) {
+    return doGetApiRequest(context, apiEndpoint, queryParams, priority,
+      treeParser(parser));
+  }
+
+  /**
+   * Performs a GET request to the Singly API and parses the response into a
+   * model object straight from the response stream, in a background thread.
+   * 
+   * No tree of JsonNode objects is built for the response, the parser reads
+   * the tokens it needs and skips the rest.  Prefer this to a
+   * {@link ResponseParser} for large responses, such as blocks of
+   * /friends/all.  Otherwise this is the same as
+   * {@link #doGetApiRequest(Context, String, Map, ResponseParser, TypedResponseHandler)}.
+   * 
+   * @param context The current android context.
+   * @param apiEndpoint The Singly API endpoint to call.
+   * @param queryParams Any query parameters to send along with the request.
+   * @param parser Parses the response stream into a model object.
+   * @param responseHandler A callback handler for the parsed response.
+   * 
+   * @return A handle to cancel the request.
+   * 
+   * @see https://singly.com/docs/api For documentation on Singly api calls.
+   */
+  public <T> RequestHandle doGetApiRequest(Context context, String apiEndpoint,
+    Map<String, String> queryParams, StreamParser<T> parser,
+    TypedResponseHandler<T> responseHandler) {
+    return doGetApiRequest(context, apiEndpoint, queryParams,
+      RequestPriority.VISIBLE, parser, responseHandler);
+  }
+
+  /**
+   * Performs a GET request to the Singly API with a priority and parses the
+   * response into a model object straight from the response stream, in a
+   * background thread.
+   * 
+   * @param context The current android context.
+   * @param apiEndpoint The Singly API endpoint to call.
+   * @param queryParams Any query parameters to send along with the request.
+   * @param priority The priority class of the request.
+   * @param parser Parses the response stream into a model object.
+   * @param responseHandler A callback handler for the parsed response.
+   * 
+   * @return A handle to cancel the request.
+   * 
+   * @see #doGetApiRequest(Context, String, Map, StreamParser, TypedResponseHandler)
+   */
+  public <T> RequestHandle doGetApiRequest(Context context, String apiEndpoint,
+    Map<String, String> queryParams, RequestPriority priority,
+    StreamParser<T> parser, final TypedResponseHandler<T> responseHandler) {
+
+    return doGetRequest(context, apiEndpoint, queryParams, priority,
+      parser, mainExecutor, new ResultCallback<T>() {
+
+        @Override
+        public void onSuccess(T result) {
+          responseHandler.onSuccess(result);
+        }
+
+        @Override
+        public void onFailure(Throwable error, String message) {
+          responseHandler.onFailure(error, message);
+        }
+      });
+  }
+
+  /**
+   * Performs a GET request to the Singly API and returns a future for the
+   * response parsed straight from the response stream.
+   * 
+   * @param context The current android context.
+   * @param apiEndpoint The Singly API endpoint to call.
+   * @param queryParams Any query parameters to send along with the request.
+   * @param parser Parses the response stream into a model object.
+   * 
+   * @return A future for the parsed response.
+   * 
+   * @see #doGetApiRequest(Context, String, Map, StreamParser, TypedResponseHandler)
+   */
+  public <T> SinglyFuture<T> doGetApiRequest(Context context,
+    String apiEndpoint, Map<String, String> queryParams,
+    StreamParser<T> parser) {
+    return doGetApiRequest(context, apiEndpoint, queryParams,
+      RequestPriority.VISIBLE, parser);
+  }
+
+  /**
+   * Performs a GET request to the Singly API with a priority and returns a
+   * future for the response parsed straight from the response stream.
+   * 
+   * @param context The current android context.
+   * @param apiEndpoint The Singly API endpoint to call.
+   * @param queryParams Any query parameters to send along with the request.
+   * @param priority The priority class of the request.
+   * @param parser Parses the response stream into a model object.
+   * 
+   * @return A future for the parsed response.
+   * 
+   * @see #doGetApiRequest(Context, String, Map, StreamParser, TypedResponseHandler)
+   */
+  public <T> SinglyFuture<T> doGetApiRequest(Context context,
+    String apiEndpoint, Map<String, String> queryParams,
+    RequestPriority priority, StreamParser<T> parser) {
+
+    final SinglyFuture<T> future = new SinglyFuture<T>();
+    future.attach(doGetRequest(context, apiEndpoint, queryParams, priority,
+      parser, SinglyFuture.DIRECT, new ResultCallback<T>() {
+
+        @Override
+        public void onSuccess(T result) {
+          future.succeed(result);
+        }
+
+        @Override
+        public void onFailure(Throwable error, String message) {
+          future.fail(error);
+        }
+      }));
+    return future;
+  }
+
+  /**
+   * Performs a coalesced GET request whose response is parsed in the
+   * background thread, running the callback with the executor.
+   */
+  private <T> RequestHandle doGetRequest(Context context,
+    String apiEndpoint, Map<String, String> queryParams,
+    RequestPriority priority, StreamParser<T> parser,
+    Executor executor, ResultCallback<T> callback) {
+
+    ApiRequestBuilder request = prepare(context, "GET", apiEndpoint,
+      queryParams, null);
+
+    // the caller leaves the coalesced request when cancelled, the request
+    // itself is only cancelled once every caller has left
+    final String key = RequestCoalescer.toKey(apiEndpoint, queryParams);
+    final CoalescedParseHandler<T> callerHandler = new CoalescedParseHandler<T>(
+      createParseReader(apiEndpoint, parser, null), executor, callback);
+    callerHandler.handle = new RequestHandle(requestRegistry, new Runnable() {
+
+      @Override
+      public void run() {
+        RequestHandle orphaned = requestCoalescer.leave(key, callerHandler);
+        if (orphaned != null) {
+          orphaned.cancel();
+        }
+      }
+    });
+
+    // attach to an identical request already in flight if there is one, its
+    // response is parsed with this caller's parser
+    RequestHandle requestHandle = new RequestHandle(requestRegistry);
+    if (!requestCoalescer.join(key, callerHandler, requestHandle)) {
+      return callerHandler.handle;
+    }
+    final AsyncApiResponseHandler fanOutHandler = requestCoalescer
+      .fanOut(key);
+
+    // decode and parse the body in the background thread, timing both,
+    // straight from the stream if no other caller joined by the time the body
+    // is read, otherwise the body is read once into a String that every
+    // caller parses
+    RequestMetrics requestMetrics = metrics.begin(apiEndpoint, "GET");
+    final BodyReader<T> parseReader = createParseReader(apiEndpoint, parser,
+      requestMetrics);
+    BodyReader<String> sharedReader = new BodyReader<String>() {
+
+      @Override
+      public String read(InputStream body, String charset)
+        throws IOException {
+
+        if (requestCoalescer.completeIfOnly(key, callerHandler)) {
+          callerHandler.parsedAlone = true;
+          callerHandler.result = parseReader.read(body, charset);
+          return null;
+        }
+        return STRING_READER.read(body, charset);
+      }
+    };
+
+    executeGetRequest(context, request, key, priority, requestHandle,
+      requestMetrics, sharedReader, SinglyFuture.DIRECT,
+      new ResultCallback<String>() {
+
+        @Override
+        public void onSuccess(String response) {
+          if (callerHandler.parsedAlone) {
+            callerHandler.deliver(callerHandler.result);
+          }
+          else {
+            fanOutHandler.onSuccess(response);
+          }
+        }
+
+        @Override
+        public void onFailure(Throwable error, String message) {
+          if (callerHandler.parsedAlone) {
+            callerHandler.onFailure(error, message);
+          }
+          else {
+            fanOutHandler.onFailure(error, message);
+          }
+        }
+      });
+    return callerHandler.handle;
+  }
+
+  /**
+   * Adapts a parser of the JSON tree to the token stream, the tree is built
+   * from the stream first.
+   */
+  private static <T> StreamParser<T> treeParser(
+    final ResponseParser<T> parser) {
+
+    return new StreamParser<T>() {
+
+      @Override
+      public T parse(JsonParser jsonParser)
+        throws IOException {
+        JsonNode root = jsonParser.readValueAsTree();
+        return parser.parse(root);
+      }
+    };
+  }
+
+  /**
+   * Creates a reader that decodes the body straight from the stream and
+   * parses it, recording the parse time.
+   */
+  private <T> BodyReader<T> createParseReader(final String apiEndpoint,
+    final StreamParser<T> parser, final RequestMetrics requestMetrics) {
+
+    return new BodyReader<T>() {
+
+      @Override
+      public T read(InputStream body, String charset)
+        throws IOException {
+
+        long start = System.nanoTime();
+        T result = parser.parse(JSON.createParser(body));
+        long parseNanos = System.nanoTime() - start;
+        parseTimings.record(apiEndpoint, parseNanos);
+        if (requestMetrics != null) {
+          requestMetrics.parseNanos = parseNanos;
+        }
+        return result;
+      }
+    };
+  }
+
+  /**
+   * Raises the priority of a GET request that is still queued, for example
+   * when the rows it loads scroll into view.  The endpoint and parameters must
+   * be the same as those the request was made with.  Requests that are
+   * already running are not affected.
+   * 
+   * @param apiEndpoint The Singly API endpoint of the request.
+   * @param queryParams The query parameters of the request.
+   * @param priority The priority class to raise the request to.
+   * 
+   * @return True if a queued request was found and promoted.
+   */
+  public boolean prioritizeGetApiRequest(String apiEndpoint,
+    Map<String, String> queryParams, RequestPriority priority) {
+
+    return requestScheduler.promote(RequestCoalescer.toKey(apiEndpoint,
+      queryParams), priority);
+  }
+
+  /**
+   * Returns a lazy iterator over every item of a Singly API collection
+   * endpoint that pages with offset and limit parameters, such as
+   * /friends/all or /types/photos, reading 2 pages of 100 items ahead.
+   * 
+   * @param context The current android context.
+   * @param apiEndpoint The Singly API collection endpoint.
+   * @param queryParams Any query parameters to send along with every page
+   * request, can be null.
+   * @param itemParser Parses a single item of a page.
+   * 
+   * @return The iterator, to be consumed in a background thread.
+   * 
+   * @see #iterate(Context, String, Map, ResponseParser, int, int)
+   */
+  public <T> PagedIterator<T> iterate(Context context, String apiEndpoint,
+    Map<String, String> queryParams, ResponseParser<T> itemParser) {
+    return iterate(context, apiEndpoint, queryParams, itemParser, 100, 2);
+  }
+
+  /**
+   * Returns a lazy iterator over every item of a Singly API collection
+   * endpoint that pages with offset and limit parameters.
+   * 
+   * Pages are requested with the offset and limit parameters added to the
+   * query parameters, starting at the offset in the query parameters if there
+   * is one.  Each page must be a JSON array whose elements are passed to the
+   * item parser.  Up to readAhead pages are fetched concurrently in front of
+   * the page being consumed and fetching waits on a slow consumer, so memory
+   * stays bounded to a few pages however large the collection is.  See
+   * {@link PagedIterator}.
+   * 
+   * Pages are not cached or coalesced.  They are queued in the
+   * {@link RequestScheduler} at {@link RequestPriority#BACKGROUND}, behind
+   * visible and prefetch requests, and take a token from the rate limiter of
+   * the endpoint family before they are requested.  The read ahead pages
+   * have a bound of their own in the scheduler, so they are fetched in
+   * parallel whatever the bound of the background class.
+   * 
+   * @param context The current android context.
+   * @param apiEndpoint The Singly API collection endpoint.
+   * @param queryParams Any query parameters to send along with every page
+   * request, can be null.
+   * @param itemParser Parses a single item of a page.
+   * @param pageSize The number of items requested per page.
+   * @param readAhead The number of pages fetched in parallel ahead of the
+   * consumer.  It is capped at one less than the threads of the
+   * {@link HttpEngine}, and the pages share the total bound of the
+   * scheduler with other requests.
+   * 
+   * @return The iterator, to be consumed in a background thread.
+   */
+  public <T> PagedIterator<T> iterate(final Context context,
+    final String apiEndpoint, Map<String, String> queryParams,
+    final ResponseParser<T> itemParser, int pageSize, int readAhead) {
+
+    final Map<String, String> baseParams = new LinkedHashMap<String, String>();
+    if (queryParams != null) {
+      baseParams.putAll(queryParams);
+    }
+    int startOffset = NumberUtils.toInt(baseParams.remove("offset"), 0);
+    baseParams.remove("limit");
+
+    PagedIterator.PageLoader<T> loader = new PagedIterator.PageLoader<T>() {
+
+      @Override
+      public List<T> load(int offset, int limit, RequestHandle handle)
+        throws IOException {
+
+        Map<String, String> params = new LinkedHashMap<String, String>(
+          baseParams);
+        params.put("offset", String.valueOf(offset));
+        params.put("limit", String.valueOf(limit));
+        HttpGet get = newGet(prepare(context, "GET", apiEndpoint, params,
+          null));
+
+        // the page is a JSON array of items, parsed as it is read
+        final RequestMetrics requestMetrics = metrics.begin(apiEndpoint,
+          "GET");
+        BodyReader<List<T>> pageReader = new BodyReader<List<T>>() {
+
+          @Override
+          public List<T> read(InputStream body, String charset)
+            throws IOException {
+
+            long start = System.nanoTime();
+            JsonNode root = JSON.createParser(body).readValueAsTree();
+            List<T> items = new ArrayList<T>(root != null ? root.size() : 0);
+            if (root != null) {
+              for (JsonNode node : root) {
+                items.add(itemParser.parse(node));
+              }
+            }
+            if (requestMetrics != null) {
+              requestMetrics.parseNanos = System.nanoTime() - start;
+            }
+            return items;
+          }
+        };
+
+        acquireToken(RateLimiter.getEndpointFamily(apiEndpoint));
+        if (requestMetrics != null) {
+          requestMetrics.markStarted();
+        }
+        handle.setRequest(get);
+        try {
+          List<T> items = httpEngine.execute(get,
+            new ApiResponseReader<List<T>>(pageReader), requestMetrics);
+          metrics.finish(requestMetrics, null);
+          return items;
+        }
+        catch (IOException e) {
+          metrics.finish(requestMetrics, e);
+          throw e;
+        }
+      }
+    };
+
+    // a thread is always left for requests other than pages
+    return new PagedIterator<T>(requestScheduler, requestRegistry, loader,
+      startOffset, pageSize, Math.min(readAhead, httpEngine.getThreads() - 1));
+  }
+
+  /**
+   * Performs many GET requests to the Singly API at once.
+   * 
+   * If a multi endpoint has been set with {@link #setMultiApiEndpoint(String)}
+   * the requests are sent as one batched request to that endpoint, which turns
+   * N round-trips into one.  The endpoint is passed the relative url of every
+   * request, comma separated, in the urls query parameter and must respond
+   * with a JSON object keyed by those urls.  Each value is either the body of
+   * that response or an object with statusCode and body fields.  The batched
+   * response is split up and each request's response is passed to its own
+   * response handler.  A request missing from the batched response is retried
+   * on its own.
+   * 
+   * If no multi endpoint is set, the requests are made in parallel over the
+   * shared pool of kept alive connections.
+   * 
+   * All network communication is performed in a separate thread and response
+   * handlers are called in the main UI thread.
+   * 
+   * @param context The current android context.
+   * @param requests The requests to perform.
+   * 
+   * @return A handle to cancel all of the requests.
+   */
+  public RequestHandle doMultiApiRequest(final Context context,
+    List<ApiRequest> requests) {
+
+    if (requests == null || requests.isEmpty()) {
+      return new RequestHandle(requestRegistry);
+    }
+
+    // nothing to batch, make the requests in parallel
+    if (multiApiEndpoint == null || requests.size() == 1) {
+      final List<RequestHandle> handles = new ArrayList<RequestHandle>();
+      for (ApiRequest request : requests) {
+        handles.add(doGetApiRequest(context, request.apiEndpoint,
+          request.queryParams, request.priority, request.responseHandler));
+      }
+      return new RequestHandle(requestRegistry, new Runnable() {
+
+        @Override
+        public void run() {
+          for (RequestHandle handle : handles) {
+            handle.cancel();
+          }
+        }
+      });
+    }
+
+    // group the requests by relative url, the key of each batched response
+    final Map<String, List<ApiRequest>> requestsByUrl = new LinkedHashMap<String, List<ApiRequest>>();
+    RequestPriority batchPriority = RequestPriority.BACKGROUND;
+    for (ApiRequest request : requests) {
+
+      // the batch runs at the highest priority of its requests
+      if (request.priority.compareTo(batchPriority) < 0) {
+        batchPriority = request.priority;
+      }
+
+      String relativeUrl = request.apiEndpoint;
+      if (request.queryParams != null && !request.queryParams.isEmpty()) {
+        relativeUrl += "?"
+          + URLUtils.toQueryString(request.queryParams, "UTF-8");
+      }
+
+      List<ApiRequest> urlRequests = requestsByUrl.get(relativeUrl);
+      if (urlRequests == null) {
+        urlRequests = new ArrayList<ApiRequest>(1);
+        requestsByUrl.put(relativeUrl, urlRequests);
+      }
+      urlRequests.add(request);
+    }
+
+    // the batch carries the relative urls, the interceptors add the token
+    Map<String, String> batchParams = new LinkedHashMap<String, String>();
+    batchParams.put("urls", StringUtils.join(requestsByUrl.keySet(), ","));
+    final HttpGet batchRequest = newGet(prepare(context, "GET",
+      multiApiEndpoint, batchParams, null));
+
+    final RequestHandle batchHandle = new RequestHandle(requestRegistry);
+    final RequestMetrics requestMetrics = metrics.begin(multiApiEndpoint,
+      "GET");
+    schedule(batchPriority, null, batchHandle, new Runnable() {
+
+      @Override
+      public void run() {
+
+        if (batchHandle.isCancelled()) {
+          return;
+        }
+
+        JsonNode root = null;
+        try {
+          acquireToken(RateLimiter.getEndpointFamily(multiApiEndpoint));
+          if (requestMetrics != null) {
+            requestMetrics.markStarted();
+          }
+          batchHandle.setRequest(batchRequest);
+          root = httpEngine.execute(batchRequest, API_JSON_READER,
+            requestMetrics);
+          metrics.finish(requestMetrics, null);
+        }
+        catch (Exception e) {
+          metrics.finish(requestMetrics, e);
+          String message = e instanceof ApiResponseException
+            ? ((ApiResponseException)e).getResponseBody() : e.getMessage();
+          for (List<ApiRequest> urlRequests : requestsByUrl.values()) {
+            for (ApiRequest request : urlRequests) {
+              postFailure(mainExecutor, batchHandle, request.responseHandler,
+                e, message);
+            }
+          }
+          return;
+        }
+
+        // demultiplex the batched response to each request's handler
+        for (Map.Entry<String, List<ApiRequest>> entry : requestsByUrl
+          .entrySet()) {
+
+          JsonNode urlNode = JSON.getJsonNode(root, entry.getKey());
+          for (ApiRequest request : entry.getValue()) {
+
+            if (urlNode == null) {
+              if (batchHandle.isCancelled()) {
+                continue;
+              }
+              doGetApiRequest(context, request.apiEndpoint,
+                request.queryParams, request.priority, request.responseHandler);
+              continue;
+            }
+
+            // either a response envelope or the response body itself
+            JsonNode bodyNode = urlNode;
+            int statusCode = HttpStatus.SC_OK;
+            if (urlNode.isObject() && urlNode.has("statusCode")
+              && urlNode.has("body")) {
+              statusCode = JSON.getInt(urlNode, "statusCode");
+              bodyNode = urlNode.get("body");
+            }
+            String body = bodyNode.isTextual() ? bodyNode.asText()
+              : bodyNode.toString();
+
+            if (statusCode >= 300) {
+              postFailure(mainExecutor, batchHandle, request.responseHandler,
+                new ApiResponseException(statusCode, null, body), body);
+            }
+            else {
+              postSuccess(mainExecutor, batchHandle, request.responseHandler,
+                body);
+            }
+          }
+        }
+      }
+    });
+    return batchHandle;
+  }
+
+  /**
+   * Performs a POST request to the Singly API.
+   * 
+   * All network communication is performed in a separate thread.  As such it 
+   * is fine to call this method from the main UI thread.  
+   * 
+   * The AsyncApiResponseHandler parameter is an asynchronous callback handler
+   * that is used to retrieve the result of the network request to the API.  On
+   * success the response from the API is returned.  On failure a Throwable 
+   * error object will be returned.
+   * 
+   * The access token of the current user is added to the request by the
+   * {@link AccessTokenInterceptor} unless the queryParams already contain one.
+   * 
+   * The postParams can contain String, InputStream, byte[] and File values.
+   * Any request with InputStream, byte[] or File values will be posted as a
+   * multipart request.  Post params are sent in the body of the post request.
+   * If you wish to send parameters in the url of the request, instead of or
+   * along with the post body, they will need to be passed in queryParams.
+   * 
+   * @param context The current android context.
+   * @param apiEndpoint The Singly API endpoint to call.
+   * @param queryParams Any parameters to send in the url of the request.
+   * @param postParams Any parameters to send in the post body of the request.
+   * @param responseHandler An asynchronous callback handler for the request.
+   * 
+   * @return A handle to cancel the request.
+   * 
+   * @see https://singly.com/docs/api For documentation on Singly api calls.
+   * @see #addInterceptor(RequestInterceptor)
+   */
+  public RequestHandle doPostApiRequest(Context context, String apiEndpoint,
+    Map<String, String> queryParams, Map<String, Object> postParams,
+    final AsyncApiResponseHandler responseHandler) {
+    return doPostApiRequest(context, apiEndpoint, queryParams, postParams,
+      null, responseHandler);
+  }
+
+  /**
+   * Performs a POST request to the Singly API, reporting upload progress.
+   * 
+   * The postParams can contain String, File, InputStream, byte[],
+   * {@link UploadSource} and content Uri values.  Any request with values
+   * that aren't Strings is posted as a multipart request whose parts are
+   * streamed from their source as the request is written, through a small
+   * fixed buffer, so large files are never loaded into memory.  The body is
+   * sent with a Content-Length if the size of every part is known, otherwise
+   * with chunked transfer encoding.  Otherwise this is the same as
+   * {@link #doPostApiRequest(Context, String, Map, Map, AsyncApiResponseHandler)}.
+   * 
+   * If the device is offline a request whose post params are all Strings and
+   * Files is queued in the {@link RequestOutbox} and sent once the network
+   * comes back, in which case no upload progress is reported.
+   * 
+   * @param context The current android context.
+   * @param apiEndpoint The Singly API endpoint to call.
+   * @param queryParams Any parameters to send in the url of the request.
+   * @param postParams Any parameters to send in the post body of the request.
+   * @param progressListener Receives upload progress in the main UI thread,
+   * can be null.
+   * @param responseHandler An asynchronous callback handler for the request.
+   * 
+   * @return A handle to cancel the request.
+   * 
+   * @see https://singly.com/docs/api For documentation on Singly api calls.
+   */
+  public RequestHandle doPostApiRequest(Context context, String apiEndpoint,
+    Map<String, String> queryParams, Map<String, Object> postParams,
+    UploadProgressListener progressListener,
+    AsyncApiResponseHandler responseHandler) {
+    return doPostRequest(context, apiEndpoint, queryParams, postParams,
+      progressListener, mainExecutor, responseHandler);
+  }
+
+  /**
+   * Performs a POST request to the Singly API and returns a future for the
+   * response.
+   * 
+   * The future completes in a background thread.  A post queued in the
+   * {@link RequestOutbox} while the device is offline completes once it has
+   * been sent.  Otherwise this is the same as
+   * {@link #doPostApiRequest(Context, String, Map, Map, AsyncApiResponseHandler)}.
+   * 
+   * @param context The current android context.
+   * @param apiEndpoint The Singly API endpoint to call.
+   * @param queryParams Any parameters to send in the url of the request.
+   * @param postParams Any parameters to send in the post body of the request.
+   * 
+   * @return A future for the response.
+   * 
+   * @see https://singly.com/docs/api For documentation on Singly api calls.
+   */
+  public SinglyFuture<String> doPostApiRequest(Context context,
+    String apiEndpoint, Map<String, String> queryParams,
+    Map<String, Object> postParams) {
+
+    SinglyFuture<String> future = new SinglyFuture<String>();
+    future.attach(doPostRequest(context, apiEndpoint, queryParams, postParams,
+      null, SinglyFuture.DIRECT, new FutureResponseHandler(future)));
+    return future;
+  }
+
+  /**
+   * Performs a POST request, running the response handler with the executor.
+   */
+  private RequestHandle doPostRequest(Context context, String apiEndpoint,
+    Map<String, String> queryParams, Map<String, Object> postParams,
+    UploadProgressListener progressListener, Executor executor,
+    AsyncApiResponseHandler responseHandler) {
+
+    // queue the post until the network comes back
+    if (isQueuedOffline(context)) {
+      RequestOutbox.Entry entry = createOutboxEntry(apiEndpoint, queryParams,
+        postParams);
+      if (entry != null) {
+        return getOutbox(context).enqueue(entry, requestRegistry,
+          responseHandler);
+      }
+    }
+
+    // do an async post request
+    HttpPost post = createPost(context, apiEndpoint, queryParams, postParams,
+      progressListener);
+    return executeApiRequest(post, metrics.begin(apiEndpoint, "POST"),
+      executor, responseHandler);
+  }
+
+  /**
+   * Creates a POST request with the post params as a form or multipart body.
+   */
+  private HttpPost createPost(Context context, String apiEndpoint,
+    Map<String, String> queryParams, Map<String, Object> postParams,
+    UploadProgressListener progressListener) {
+
+    // any value that isn't a String makes this a multipart request
+    boolean multipart = false;
+    if (postParams != null) {
+      for (Object objValue : postParams.values()) {
+        if (objValue != null && !(objValue instanceof String)) {
+          multipart = true;
+          break;
+        }
+      }
+    }
+
+    ApiRequestBuilder request = prepare(context, "POST", apiEndpoint,
+      queryParams, postParams != null ? postParams.keySet() : null);
+    HttpPost post = new HttpPost(request.getUrl());
+    request.applyHeaders(post);
+    if (multipart) {
+      MultipartEntity entity = createMultipartEntity(context, postParams);
+      entity.setProgressListener(onMainThread(progressListener));
+      post.setEntity(entity);
+    }
+    else if (postParams != null && !postParams.isEmpty()) {
+      RequestParams rparams = new RequestParams();
+      for (Map.Entry<String, Object> postParam : postParams.entrySet()) {
+        if (postParam.getValue() != null) {
+          rparams.put(postParam.getKey(), (String)postParam.getValue());
+        }
+      }
+      post.setEntity(rparams.getEntity());
+    }
+    return post;
+  }
+
+  /**
+   * Returns true if posts should be queued in the outbox because the device
+   * is offline.
+   */
+  private boolean isQueuedOffline(Context context) {
+    return outboxEnabled && !SinglyUtils.isConnectedToInternet(context);
+  }
+
+  /**
+   * Creates an outbox entry for a post, or returns null if a post param can't
+   * be stored, such as a stream.
+   */
+  private RequestOutbox.Entry createOutboxEntry(String apiEndpoint,
+    Map<String, String> queryParams, Map<String, Object> postParams) {
+
+    RequestOutbox.Entry entry = new RequestOutbox.Entry();
+    entry.apiEndpoint = apiEndpoint;
+    if (queryParams != null) {
+      entry.queryParams.putAll(queryParams);
+    }
+    if (postParams != null) {
+      for (Map.Entry<String, Object> postParam : postParams.entrySet()) {
+        Object objValue = postParam.getValue();
+        if (objValue instanceof String) {
+          entry.postParams.put(postParam.getKey(), (String)objValue);
+        }
+        else if (objValue instanceof File) {
+          entry.files.put(postParam.getKey(), ((File)objValue)
+            .getAbsolutePath());
+        }
+        else if (objValue != null) {
+          return null;
+        }
+      }
+    }
+    return entry;
+  }
+
+  /**
+   * Creates the request to replay a queued post.  The outbox only replays
+   * posts queued for the current account, so the current access token is the
+   * one the post was made with.
+   */
+  private HttpPost createOutboxRequest(Context context,
+    RequestOutbox.Entry entry) {
+
+    Set<String> bodyParams = new HashSet<String>(entry.postParams.keySet());
+    bodyParams.addAll(entry.files.keySet());
+    ApiRequestBuilder request = prepare(context, "POST", entry.apiEndpoint,
+      entry.queryParams, bodyParams);
+    HttpPost post = new HttpPost(request.getUrl());
+    request.applyHeaders(post);
+    post.setHeader("Idempotency-Key", entry.dedupKey);
+    if (entry.body != null) {
+      ByteArrayEntity entity = new ByteArrayEntity(entry.body);
+      entity.setContentType(entry.contentType);
+      post.setEntity(entity);
+    }
+    else if (!entry.files.isEmpty()) {
+      MultipartEntity entity = new MultipartEntity();
+      for (Map.Entry<String, String> postParam : entry.postParams.entrySet()) {
+        entity.addPart(postParam.getKey(), postParam.getValue());
+      }
+      for (Map.Entry<String, String> file : entry.files.entrySet()) {
+        entity.addPart(file.getKey(), UploadSource.fromFile(new File(file
+          .getValue())), null);
+      }
+      post.setEntity(entity);
+    }
+    else if (!entry.postParams.isEmpty()) {
+      RequestParams rparams = new RequestParams();
+      for (Map.Entry<String, String> postParam : entry.postParams.entrySet()) {
+        rparams.put(postParam.getKey(), postParam.getValue());
+      }
+      post.setEntity(rparams.getEntity());
+    }
+    return post;
+  }
+
+  /**
+   * Creates a streaming multipart body from the post parameters.  Files that
+   * don't exist are skipped.
+   */
+  private MultipartEntity createMultipartEntity(Context context,
+    Map<String, Object> postParams) {
+
+    MultipartEntity entity = new MultipartEntity();
+    for (Map.Entry<String, Object> postParam : postParams.entrySet()) {
+      String key = postParam.getKey();
+      Object objValue = postParam.getValue();
+      if (objValue instanceof String) {
+        entity.addPart(key, (String)objValue);
+      }
+      else if (objValue instanceof UploadSource) {
+        entity.addPart(key, (UploadSource)objValue, null);
+      }
+      else if (objValue instanceof InputStream) {
+        entity.addPart(key, UploadSource.fromStream((InputStream)objValue, -1,
+          key), null);
+      }
+      else if (objValue instanceof byte[]) {
+        entity.addPart(key, UploadSource.fromBytes((byte[])objValue, key),
+          null);
+      }
+      else if (objValue instanceof File) {
+        File file = (File)objValue;
+        if (file.isFile()) {
+          entity.addPart(key, UploadSource.fromFile(file), null);
+        }
+      }
+      else if (objValue instanceof Uri) {
+        Uri uri = (Uri)objValue;
+        entity.addPart(key, UploadSource.fromUri(context, uri), context
+          .getContentResolver().getType(uri));
+      }
+    }
+    return entity;
+  }
+
+  /**
+   * Wraps a progress listener so it is called in the main UI thread.
+   */
+  private UploadProgressListener onMainThread(
+    final UploadProgressListener progressListener) {
+
+    if (progressListener == null) {
+      return null;
+    }
+
+    return new UploadProgressListener() {
+
+      @Override
+      public void onProgress(final long bytesWritten, final long totalBytes) {
+        mainHandler.post(new Runnable() {
+
+          @Override
+          public void run() {
+            progressListener.onProgress(bytesWritten, totalBytes);
+          }
+        });
+      }
+    };
+  }
+
+  /**
+   * Performs a POST request to the Singly API that allows specifying the body
+   * content of the request.  This is used when you need to POST raw content,
+   * such as text or images, to the API.
+   * 
+   * Any query parameters passed are appended to the URL versus being passed
+   * in the body of the POST request.
+   * 
+   * All network communication is performed in a separate thread.  As such it 
+   * is fine to call this method from the main UI thread.  
    * 
    * The AsyncApiResponseHandler parameter is an asynchronous callback handler
    * that is used to retrieve the result of the network request to the API.  On
    * success the response from the API is returned.  On failure a Throwable 
    * error object will be returned.
    * 
-   * If an API call requires an access token it must be added to the queryParams
-   * passed into the method.
+   * The access token of the current user is added to the request by the
+   * {@link AccessTokenInterceptor} unless the queryParams already contain one.
+   * 
+   * If the device is offline the request is queued in the
+   * {@link RequestOutbox} and sent once the network comes back.
+   * 
+   * @param context The current android context.
+   * @param apiEndpoint The Singly API endpoint to call.
+   * @param queryParams Any query parameters to send along with the request.
+   * @param body The content to use as the body of the request.
+   * @param contentType The MIME content type being sent.
+   * @param responseHandler An asynchronous callback handler for the request.
+   * 
+   * @return A handle to cancel the request.
+   * 
+   * @see https://singly.com/docs/api For documentation on Singly api calls.
+   * @see #addInterceptor(RequestInterceptor)
+   */
+  public RequestHandle doBodyApiRequest(Context context, String apiEndpoint,
+    Map<String, String> queryParams, byte[] body, String contentType,
+    AsyncApiResponseHandler responseHandler) {
+    return doBodyRequest(context, apiEndpoint, queryParams, body, contentType,
+      mainExecutor, responseHandler);
+  }
+
+  /**
+   * Performs a POST request to the Singly API with the body content of the
+   * request and returns a future for the response.
+   * 
+   * The future completes in a background thread.  A request queued in the
+   * {@link RequestOutbox} while the device is offline completes once it has
+   * been sent.  Otherwise this is the same as
+   * {@link #doBodyApiRequest(Context, String, Map, byte[], String, AsyncApiResponseHandler)}.
+   * 
+   * @param context The current android context.
+   * @param apiEndpoint The Singly API endpoint to call.
+   * @param queryParams Any query parameters to send along with the request.
+   * @param body The content to use as the body of the request.
+   * @param contentType The MIME content type being sent.
+   * 
+   * @return A future for the response.
+   * 
+   * @see https://singly.com/docs/api For documentation on Singly api calls.
+   */
+  public SinglyFuture<String> doBodyApiRequest(Context context,
+    String apiEndpoint, Map<String, String> queryParams, byte[] body,
+    String contentType) {
+
+    SinglyFuture<String> future = new SinglyFuture<String>();
+    future.attach(doBodyRequest(context, apiEndpoint, queryParams, body,
+      contentType, SinglyFuture.DIRECT, new FutureResponseHandler(future)));
+    return future;
+  }
+
+  /**
+   * Performs a POST request with the body content, running the response
+   * handler with the executor.
+   */
+  private RequestHandle doBodyRequest(Context context, String apiEndpoint,
+    Map<String, String> queryParams, byte[] body, String contentType,
+    Executor executor, AsyncApiResponseHandler responseHandler) {
+
+    // queue the post until the network comes back
+    if (isQueuedOffline(context)) {
+      RequestOutbox.Entry entry = new RequestOutbox.Entry();
+      entry.apiEndpoint = apiEndpoint;
+      if (queryParams != null) {
+        entry.queryParams.putAll(queryParams);
+      }
+      entry.body = body;
+      entry.contentType = contentType;
+      return getOutbox(context).enqueue(entry, requestRegistry,
+        responseHandler);
+    }
+
+    // do an async post request with the raw body content
+    HttpPost post = createBodyPost(context, apiEndpoint, queryParams, body,
+      contentType);
+    return executeApiRequest(post, metrics.begin(apiEndpoint, "POST"),
+      executor, responseHandler);
+  }
+
+  /**
+   * Creates a POST request with any query parameters and the raw body
+   * content.
+   */
+  private HttpPost createBodyPost(Context context, String apiEndpoint,
+    Map<String, String> queryParams, byte[] body, String contentType) {
+
+    ApiRequestBuilder request = prepare(context, "POST", apiEndpoint,
+      queryParams, null);
+    HttpPost post = new HttpPost(request.getUrl());
+    request.applyHeaders(post);
+    ByteArrayEntity entity = new ByteArrayEntity(body);
+    entity.setContentType(contentType);
+    post.setEntity(entity);
+    return post;
+  }
+
+  /**
+   * Performs a POST request to the Singly API with a body streamed from a
+   * source, such as a File or content Uri, reporting upload progress.
+   * 
+   * The body is read from the source as the request is written, through a
+   * small fixed buffer, so large bodies are never loaded into memory.  It is
+   * sent with a Content-Length if the size of the source is known, otherwise
+   * with chunked transfer encoding.  Otherwise this is the same as
+   * {@link #doBodyApiRequest(Context, String, Map, byte[], String, AsyncApiResponseHandler)}.
+   * 
+   * @param context The current android context.
+   * @param apiEndpoint The Singly API endpoint to call.
+   * @param queryParams Any query parameters to send along with the request.
+   * @param body The source of the body of the request.
+   * @param contentType The MIME content type being sent.
+   * @param progressListener Receives upload progress in the main UI thread,
+   * can be null.
+   * @param responseHandler An asynchronous callback handler for the request.
+   * 
+   * @return A handle to cancel the request.
+   * 
+   * @see https://singly.com/docs/api For documentation on Singly api calls.
+   */
+  public RequestHandle doBodyApiRequest(Context context, String apiEndpoint,
+    Map<String, String> queryParams, UploadSource body, String contentType,
+    UploadProgressListener progressListener,
+    final AsyncApiResponseHandler responseHandler) {
+
+    // create the api request with any query parameters
+    ApiRequestBuilder request = prepare(context, "POST", apiEndpoint,
+      queryParams, null);
+
+    // do an async post request streaming the body from its source
+    HttpPost post = new HttpPost(request.getUrl());
+    request.applyHeaders(post);
+    UploadEntity entity = new UploadEntity(body, contentType);
+    entity.setProgressListener(onMainThread(progressListener));
+    post.setEntity(entity);
+    return executeApiRequest(post, metrics.begin(apiEndpoint, "POST"),
+      mainExecutor, responseHandler);
+  }
+
+  /**
+   * Performs a GET request to the Singly API in the calling thread and
+   * returns the response.
+   * 
+   * This is for background workers, such as sync services, that make many
+   * requests in a row.  The request runs in the calling thread over the
+   * shared pool of kept alive connections, so there is no thread handoff and
+   * no main UI thread callback.  It goes through the interceptors, the
+   * response cache and the rate limiter like any other GET, but is not
+   * coalesced.  It must not be called from the main UI thread.
+   * 
+   * @param context The current android context.
+   * @param apiEndpoint The Singly API endpoint to call.
+   * @param queryParams Any query parameters to send along with the request.
+   * 
+   * @return The response body.
+   * 
+   * @throws ApiResponseException If the API returns an error status, holds
+   * the status code and error response body.
+   * @throws CircuitOpenException If the API host is failing and requests to
+   * it are being short circuited.
+   * @throws IOException If the request fails, for example a
+   * SocketTimeoutException, or an InterruptedIOException if the thread is
+   * interrupted waiting for the rate limiter.
+   * 
+   * @see https://singly.com/docs/api For documentation on Singly api calls.
+   */
+  public String executeGet(Context context, String apiEndpoint,
+    Map<String, String> queryParams)
+    throws IOException {
+
+    checkNotMainThread();
+    return executeGet(context, apiEndpoint, queryParams, STRING_READER,
+      metrics.begin(apiEndpoint, "GET"));
+  }
+
+  /**
+   * Performs a GET request to the Singly API in the calling thread and
+   * returns the response parsed into a model object.  Otherwise this is the
+   * same as {@link #executeGet(Context, String, Map)}.
+   * 
+   * @param context The current android context.
+   * @param apiEndpoint The Singly API endpoint to call.
+   * @param queryParams Any query parameters to send along with the request.
+   * @param parser Parses the response into a model object.
+   * 
+   * @return The parsed response.
+   * 
+   * @throws ApiResponseException If the API returns an error status.
+   * @throws IOException If the request fails, or a JsonProcessingException
+   * if the response is not valid JSON.
+   * 
+   * @see https://singly.com/docs/api For documentation on Singly api calls.
+   */
+  public <T> T executeGet(Context context, String apiEndpoint,
+    Map<String, String> queryParams, ResponseParser<T> parser)
+    throws IOException {
+
+    checkNotMainThread();
+    RequestMetrics requestMetrics = metrics.begin(apiEndpoint, "GET");
+    return executeGet(context, apiEndpoint, queryParams, createParseReader(
+      apiEndpoint, treeParser(parser), requestMetrics), requestMetrics);
+  }
+
+  /**
+   * Performs a POST request to the Singly API in the calling thread and
+   * returns the response.
+   * 
+   * The post params are sent as described in
+   * {@link #doPostApiRequest(Context, String, Map, Map, AsyncApiResponseHandler)}.
+   * Posts are never queued in the {@link RequestOutbox}, a post made while
+   * offline fails and the caller decides whether to retry it.  It must not be
+   * called from the main UI thread.
+   * 
+   * @param context The current android context.
+   * @param apiEndpoint The Singly API endpoint to call.
+   * @param queryParams Any parameters to send in the url of the request.
+   * @param postParams Any parameters to send in the post body of the request.
+   * 
+   * @return The response body.
+   * 
+   * @throws ApiResponseException If the API returns an error status.
+   * @throws IOException If the request fails.
+   * 
+   * @see https://singly.com/docs/api For documentation on Singly api calls.
+   */
+  public String executePost(Context context, String apiEndpoint,
+    Map<String, String> queryParams, Map<String, Object> postParams)
+    throws IOException {
+
+    checkNotMainThread();
+    HttpPost post = createPost(context, apiEndpoint, queryParams, postParams,
+      null);
+    return execute(post, API_RESPONSE_READER, metrics.begin(apiEndpoint,
+      "POST"));
+  }
+
+  /**
+   * Performs a POST request to the Singly API with the body content of the
+   * request in the calling thread and returns the response.  Otherwise this
+   * is the same as {@link #executePost(Context, String, Map, Map)}.
+   * 
+   * @param context The current android context.
+   * @param apiEndpoint The Singly API endpoint to call.
+   * @param queryParams Any query parameters to send along with the request.
+   * @param body The content to use as the body of the request.
+   * @param contentType The MIME content type being sent.
+   * 
+   * @return The response body.
+   * 
+   * @throws ApiResponseException If the API returns an error status.
+   * @throws IOException If the request fails.
+   * 
+   * @see https://singly.com/docs/api For documentation on Singly api calls.
+   */
+  public String executeBody(Context context, String apiEndpoint,
+    Map<String, String> queryParams, byte[] body, String contentType)
+    throws IOException {
+
+    checkNotMainThread();
+    HttpPost post = createBodyPost(context, apiEndpoint, queryParams, body,
+      contentType);
+    return execute(post, API_RESPONSE_READER, metrics.begin(apiEndpoint,
+      "POST"));
+  }
+
+  /**
+   * Performs a GET request in the calling thread, through the response cache
+   * if it is enabled, taking a token from the rate limiter if it goes to the
+   * network.  The caller has already checked it isn't the main UI thread.
+   */
+  private <T> T executeGet(Context context, String apiEndpoint,
+    Map<String, String> queryParams, BodyReader<T> reader,
+    RequestMetrics requestMetrics)
+    throws IOException {
+
+    ApiRequestBuilder request = prepare(context, "GET", apiEndpoint,
+      queryParams, null);
+    HttpResponseCache cache = request.isCacheable() ? getResponseCache(context)
+      : null;
+    if (cache == null) {
+      acquireToken(RateLimiter.getEndpointFamily(apiEndpoint));
+      return execute(newGet(request), new ApiResponseReader<T>(reader),
+        requestMetrics);
+    }
+    try {
+      if (requestMetrics != null) {
+        requestMetrics.markStarted();
+      }
+      T result = getWithCache(cache, request, reader, new RequestHandle(
+        requestRegistry), requestMetrics);
+      metrics.finish(requestMetrics, null);
+      return result;
+    }
+    catch (IOException e) {
+      metrics.finish(requestMetrics, e);
+      throw e;
+    }
+  }
+
+  /**
+   * Executes a request on the shared {@link HttpEngine} in the calling
+   * thread, recording its metrics.
+   */
+  private <T> T execute(HttpUriRequest request, ResponseHandler<T> handler,
+    RequestMetrics requestMetrics)
+    throws IOException {
+
+    if (requestMetrics != null) {
+      requestMetrics.markStarted();
+    }
+    try {
+      T result = httpEngine.execute(request, handler, requestMetrics);
+      metrics.finish(requestMetrics, null);
+      return result;
+    }
+    catch (IOException e) {
+      metrics.finish(requestMetrics, e);
+      throw e;
+    }
+  }
+
+  /**
+   * Blocking requests would freeze the UI, they are only allowed in
+   * background threads.
+   */
+  private static void checkNotMainThread() {
+    if (Looper.myLooper() == Looper.getMainLooper()) {
+      throw new IllegalStateException(
+        "Blocking requests can't be made from the main UI thread");
+    }
+  }
+
+  /**
+   * Uploads a file to the Singly API in chunks so that an upload interrupted
+   * by a network drop, or by the process being killed, resumes from the last
+   * acknowledged chunk instead of starting over.
+   * 
+   * The upload state is saved in the app data/files directory after every
+   * chunk.  Failed uploads are retried by calling
+   * {@link #resumeUploads(Context, AsyncApiResponseHandler)}, for example
+   * when the app starts or the network comes back.  Cancelling the returned
+   * handle stops the upload but keeps its state so it can be resumed.  The
+   * state records the current account, pending uploads are discarded by
+   * {@link #clearAccount(Context)} and never resumed for another account.
+   * 
+   * Chunked uploads need an upload endpoint, see
+   * {@link #setUploadEndpoint(String)} and {@link ResumableUploader} for the
+   * protocol.  If none is set the file is streamed in a single multipart
+   * request through
+   * {@link #doPostApiRequest(Context, String, Map, Map, UploadProgressListener, AsyncApiResponseHandler)}
+   * instead, with the file as the part with the given name.
+   * 
+   * @param context The current android context.
+   * @param apiEndpoint The Singly API endpoint the file is posted to, for
+   * example /types/photos.
+   * @param postParams The parameters posted with the file, including the
+   * access_token.
+   * @param partName The name of the file part of the post, for example photo.
+   * @param file The file to upload.
+   * @param contentType The MIME content type of the file, can be null.
+   * @param progressListener Receives upload progress in the main UI thread,
+   * can be null.
+   * @param responseHandler An asynchronous callback handler for the request.
+   * 
+   * @return A handle to cancel the upload.
+   */
+  public RequestHandle doResumableUploadRequest(Context context,
+    String apiEndpoint, Map<String, String> postParams, String partName,
+    File file, String contentType, UploadProgressListener progressListener,
+    AsyncApiResponseHandler responseHandler) {
+
+    ResumableUploader uploader = getResumableUploader(context);
+    if (uploader == null) {
+      Map<String, Object> params = new LinkedHashMap<String, Object>();
+      if (postParams != null) {
+        params.putAll(postParams);
+      }
+      params.put(partName, file);
+      return doPostApiRequest(context, apiEndpoint, null, params,
+        progressListener, responseHandler);
+    }
+
+    // the chunk protocol sends the token of the upload with every chunk
+    Map<String, String> params = new LinkedHashMap<String, String>();
+    if (postParams != null) {
+      params.putAll(postParams);
+    }
+    AuthenticationState authenticationState = getAuthenticationState(context);
+    String accessToken = authenticationState.getAccessToken();
+    if (!params.containsKey(AccessTokenInterceptor.ACCESS_TOKEN_PARAM)
+      && accessToken != null) {
+      params.put(AccessTokenInterceptor.ACCESS_TOKEN_PARAM, accessToken);
+    }
+
+    try {
+      ResumableUpload upload = uploader.create(
+        authenticationState.getAccount(), apiEndpoint, params, file,
+        contentType);
+      return runUpload(context, uploader, upload, RequestPriority.VISIBLE,
+        progressListener, responseHandler);
+    }
+    catch (IOException e) {
+      RequestHandle requestHandle = new RequestHandle(requestRegistry);
+      postFailure(mainExecutor, requestHandle, responseHandler, e,
+        e.getMessage());
+      return requestHandle;
+    }
+  }
+
+  /**
+   * Resumes every chunked upload that has not completed, in the background.
+   * The response handler is called once for each upload.  An upload started
+   * by another account fails and is discarded instead of being sent with
+   * that account's access token.
+   * 
+   * @param context The current android context.
+   * @param responseHandler An asynchronous callback handler for each upload.
+   * 
+   * @return The handles of the resumed uploads.
+   */
+  public List<RequestHandle> resumeUploads(Context context,
+    AsyncApiResponseHandler responseHandler) {
+
+    List<RequestHandle> handles = new ArrayList<RequestHandle>();
+    ResumableUploader uploader = getResumableUploader(context);
+    if (uploader != null) {
+      for (ResumableUpload upload : uploader.getPendingUploads()) {
+        handles.add(runUpload(context, uploader, upload,
+          RequestPriority.BACKGROUND, null, responseHandler));
+      }
+    }
+    return handles;
+  }
+
+  /**
+   * Runs a chunked upload in a background thread and runs the response
+   * handler callback in the main UI thread.
+   */
+  private RequestHandle runUpload(final Context context,
+    final ResumableUploader uploader, final ResumableUpload upload,
+    RequestPriority priority,
+    UploadProgressListener progressListener,
+    final AsyncApiResponseHandler responseHandler) {
+
+    final UploadProgressListener listener = onMainThread(progressListener);
+    final RequestHandle requestHandle = new RequestHandle(requestRegistry);
+
+    // the upload is measured as one request, bytes out are the bytes of the
+    // file acknowledged by this run
+    final RequestMetrics requestMetrics = metrics.begin(upload.apiEndpoint,
+      "POST");
+    schedule(priority, null, requestHandle, new Runnable() {
+
+      @Override
+      public void run() {
+
+        if (requestHandle.isCancelled()) {
+          return;
+        }
+
+        long startOffset = upload.offset;
+        if (requestMetrics != null) {
+          requestMetrics.markStarted();
+        }
+
+        String response = null;
+        Exception error = null;
+        try {
+
+          // checked when the upload runs, the account can change while it
+          // is queued
+          String account = getAuthenticationState(context).getAccount();
+          if (!StringUtils.equals(upload.account, account)) {
+            uploader.discard(upload);
+            throw new IOException("Upload of another account " + upload.id);
+          }
+          acquireToken(RateLimiter.getEndpointFamily(upload.apiEndpoint));
+          response = uploader.upload(upload, listener, requestHandle);
+        }
+        catch (Exception e) {
+          error = e;
+        }
+
+        if (requestMetrics != null) {
+          requestMetrics.bytesOut = Math.max(upload.offset - startOffset, 0);
+        }
+        metrics.finish(requestMetrics, error);
+        if (error == null) {
+          postSuccess(mainExecutor, requestHandle, responseHandler, response);
+        }
+        else if (error instanceof ApiResponseException) {
+          postFailure(mainExecutor, requestHandle, responseHandler, error,
+            ((ApiResponseException)error).getResponseBody());
+        }
+        else {
+          postFailure(mainExecutor, requestHandle, responseHandler, error,
+            error.getMessage());
+        }
+      }
+    });
+    return requestHandle;
+  }
+
+  /**
+   * Executes an API request on the shared {@link HttpEngine} in a background
+   * thread and runs the response handler callback with the executor.
+   * 
+   * @param request The HTTP request to execute.
+   * @param requestMetrics The measurements of the request, can be null.
+   * @param executor Runs the response handler, the main UI thread executor or
+   * {@link SinglyFuture#DIRECT}.
+   * @param responseHandler An asynchronous callback handler for the request.
+   * 
+   * @return A handle to cancel the request.
+   */
+  private RequestHandle executeApiRequest(final HttpUriRequest request,
+    final RequestMetrics requestMetrics, final Executor executor,
+    final AsyncApiResponseHandler responseHandler) {
+
+    final RequestHandle requestHandle = new RequestHandle(requestRegistry);
+    schedule(RequestPriority.VISIBLE, null, requestHandle, new Runnable() {
+
+      @Override
+      public void run() {
+
+        if (requestHandle.isCancelled()) {
+          return;
+        }
+
+        try {
+          acquireToken(RateLimiter.getFamily(request.getURI()));
+          if (requestMetrics != null) {
+            requestMetrics.markStarted();
+          }
+          requestHandle.setRequest(request);
+          String response = httpEngine.execute(request, API_RESPONSE_READER,
+            requestMetrics);
+          metrics.finish(requestMetrics, null);
+          postSuccess(executor, requestHandle, responseHandler, response);
+        }
+        catch (ApiResponseException e) {
+          metrics.finish(requestMetrics, e);
+          postFailure(executor, requestHandle, responseHandler, e,
+            e.getResponseBody());
+        }
+        catch (Exception e) {
+          metrics.finish(requestMetrics, e);
+          postFailure(executor, requestHandle, responseHandler, e,
+            e.getMessage());
+        }
+      }
+    });
+    return requestHandle;
+  }
+
+  /**
+   * Creates a request to the Singly API and passes it through the
+   * interceptors.
    * 
    * @param context The current android context.
+   * @param method The HTTP method.
    * @param apiEndpoint The Singly API endpoint to call.
-   * @param queryParams Any query parameters to send along with the request.
-   * @param body The content to use as the body of the request.
-   * @param contentType The MIME content type being sent.
-   * @param responseHandler An asynchronous callback handler for the request.
+   * @param queryParams Any query parameters of the request, can be null.
+   * @param bodyParams The names of any parameters posted in the body.
    * 
-   * @see https://singly.com/docs/api For documentation on Singly api calls.
-   * @see SinglyUtils#getAccessToken(Context)
+   * @return The intercepted request.
    */
-  public void doBodyApiRequest(Context context, String apiEndpoint,
-    Map<String, String> queryParams, byte[] body, String contentType,
-    final AsyncApiResponseHandler responseHandler) {
+  private ApiRequestBuilder prepare(Context context, String method,
+    String apiEndpoint, Map<String, String> queryParams,
+    Collection<String> bodyParams) {
 
-    // get the http client and add api url
-    AsyncHttpClient client = SinglyUtils.getHttpClient();
-    Map<String, String> params = new LinkedHashMap<String, String>();
-    if (queryParams != null) {
-      params.putAll(queryParams);
+    ApiRequestBuilder request = new ApiRequestBuilder(context, method,
+      apiEndpoint, queryParams, bodyParams);
+    for (RequestInterceptor interceptor : interceptors) {
+      interceptor.intercept(request);
     }
-    String postApiCallUrl = SinglyUtils.createSinglyURL(apiEndpoint, params);
+    return request;
+  }
 
-    // do an async post request with the raw body content
-    client.post(context, postApiCallUrl, new ByteArrayEntity(body),
-      contentType, new AsyncHttpResponseHandler() {
+  private static HttpGet newGet(ApiRequestBuilder request) {
+    HttpGet get = new HttpGet(request.getUrl());
+    request.applyHeaders(get);
+    return get;
+  }
+
+  /**
+   * Callback for the result of a request, run with the executor the request
+   * was made with.
+   */
+  private interface ResultCallback<T> {
+
+    void onSuccess(T result);
+
+    void onFailure(Throwable error, String message);
+  }
+
+  /**
+   * Executes a GET request, through the response cache if it is enabled, in a
+   * background thread and runs the callback with the executor.
+   * 
+   * @param context The current android context.
+   * @param request The intercepted request.
+   * @param key The scheduler key of the request, used to promote it.
+   * @param priority The priority class of the request.
+   * @param requestHandle The handle of the request.
+   * @param requestMetrics The measurements of the request, can be null.
+   * @param reader Reads the response body, in the background thread.
+   * @param executor Runs the callback, the main UI thread executor or
+   * {@link SinglyFuture#DIRECT}.
+   * @param callback The callback for the result.
+   */
+  private <T> void executeGetRequest(Context context,
+    final ApiRequestBuilder request, final String key,
+    RequestPriority priority,
+    final RequestHandle requestHandle, final RequestMetrics requestMetrics,
+    final BodyReader<T> reader, final Executor executor,
+    final ResultCallback<T> callback) {
+
+    // queued by priority, keyed by endpoint and params so the request can be
+    // promoted, and dropped from the queue if it is cancelled first
+    schedule(priority, key, requestHandle, new Runnable() {
+
+      @Override
+      public void run() {
+
+        // cancelled while queued, never goes to the network
+        if (requestHandle.isCancelled()) {
+          return;
+        }
+
+        try {
+          if (requestMetrics != null) {
+            requestMetrics.markStarted();
+          }
+          T result = null;
+
+          // the cache is created on first use, which reads its directory, so
+          // never in the thread the request was made from
+          HttpResponseCache cache = request.isCacheable()
+            ? getResponseCache(request.getContext()) : null;
+          Prefetch prefetch = takePrefetch(key);
+          if (prefetch != null) {
+            if (requestMetrics != null) {
+              requestMetrics.cached = true;
+            }
+            result = reader.read(new ByteArrayInputStream(prefetch.body),
+              prefetch.charset);
+          }
+          else if (cache != null) {
+            result = getWithCache(cache, request, reader, requestHandle,
+              requestMetrics);
+          }
+          else {
+            acquireToken(RateLimiter.getEndpointFamily(request
+              .getApiEndpoint()));
+            HttpGet get = newGet(request);
+            requestHandle.setRequest(get);
+            result = httpEngine.execute(get, new ApiResponseReader<T>(reader),
+              requestMetrics);
+          }
+          metrics.finish(requestMetrics, null);
+          postResult(executor, requestHandle, callback, result);
+        }
+        catch (ApiResponseException e) {
+          metrics.finish(requestMetrics, e);
+          postError(executor, requestHandle, callback, e, e.getResponseBody());
+        }
+        catch (Exception e) {
+          metrics.finish(requestMetrics, e);
+          postError(executor, requestHandle, callback, e, e.getMessage());
+        }
+      }
+    });
+  }
+
+  /**
+   * Queues a request with the scheduler, removing it from the queue if its
+   * handle is cancelled before it starts so it never takes a running slot.
+   */
+  private void schedule(RequestPriority priority, Object key,
+    RequestHandle requestHandle, final Runnable request) {
+
+    requestScheduler.submit(priority, key, request);
+    requestHandle.addCancelAction(new Runnable() {
+
+      @Override
+      public void run() {
+        requestScheduler.remove(request);
+      }
+    });
+  }
+
+  /**
+   * Takes a token from the rate limiter of the family, waiting for one if its
+   * bucket is empty.  Called once a request is known to go to the network,
+   * responses from the cache or a prefetch never wait on the limiter.
+   */
+  private void acquireToken(String family)
+    throws InterruptedIOException {
+
+    try {
+      httpEngine.getRateLimiter().acquire(family);
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted waiting for rate limit");
+    }
+  }
+
+  /**
+   * Reads the response body for the url, from the cache when it is fresh,
+   * revalidating it when it is stale, and from the network otherwise.  Bodies
+   * read from the network are written to the cache as they are read.  Runs in
+   * the calling thread.
+   */
+  private <T> T getWithCache(final HttpResponseCache cache,
+    final ApiRequestBuilder request, final BodyReader<T> reader,
+    RequestHandle requestHandle, final RequestMetrics requestMetrics)
+    throws IOException {
+
+    final String url = request.getUrl();
+    final String apiEndpoint = request.getApiEndpoint();
+    final String account = getAuthenticationState(request.getContext())
+      .getAccount();
+
+    // fresh responses don't need the network
+    final HttpResponseCache.Entry entry = cache.get(url, account);
+    if (entry != null && cache.isFresh(entry, apiEndpoint)) {
+      InputStream body = cache.getBodyStream(entry);
+      if (body != null) {
+        cache.recordHit();
+        if (requestMetrics != null) {
+          requestMetrics.cached = true;
+          requestMetrics.statusCode = HttpStatus.SC_OK;
+        }
+        try {
+          return reader.read(body, entry.charset);
+        }
+        finally {
+          IOUtils.closeQuietly(body);
+        }
+      }
+    }
+
+    // stale responses are revalidated with a conditional request, either way
+    // the request goes to the network and takes a rate limiter token
+    acquireToken(RateLimiter.getEndpointFamily(apiEndpoint));
+    HttpGet get = newGet(request);
+    final boolean conditional = entry != null
+      && cache.addConditionalHeaders(get, entry);
+    try {
+      requestHandle.setRequest(get);
+      return httpEngine.execute(get, new ResponseHandler<T>() {
 
         @Override
-        public void onSuccess(String response) {
+        public T handleResponse(HttpResponse response)
+          throws IOException {
+
+          // not modified, serve the body from disk
+          int statusCode = response.getStatusLine().getStatusCode();
+          if (conditional && statusCode == HttpStatus.SC_NOT_MODIFIED) {
+            InputStream body = cache.getBodyStream(entry);
+            if (body == null) {
+              throw new CachedBodyMissingException();
+            }
+            cache.update(entry, response);
+            cache.recordRevalidation();
+            if (requestMetrics != null) {
+              requestMetrics.cached = true;
+            }
+            try {
+              return reader.read(body, entry.charset);
+            }
+            finally {
+              IOUtils.closeQuietly(body);
+            }
+          }
+
+          // errors and responses that can't be cached are just read
+          cache.recordMiss();
+          HttpResponseCache.Entry newEntry = statusCode < 300 ? cache
+            .newEntry(url, account, apiEndpoint, response) : null;
+          if (newEntry == null) {
+            return new ApiResponseReader<T>(reader).handleResponse(response);
+          }
+
+          // write the body to the cache while the reader reads it, the
+          // reader, or a parser at the end of input, may close its stream so
+          // it gets a shield and the rest of the body can still be drained
+          InputStream content = response.getEntity().getContent();
+          OutputStream cached;
+          try {
+            cached = new FileOutputStream(cache.getTempBodyFile(newEntry));
+          }
+          catch (IOException e) {
+            IOUtils.closeQuietly(content);
+            cache.abort(newEntry);
+            throw e;
+          }
+          boolean complete = false;
+          try {
+            InputStream body = new TeeInputStream(content, cached);
+            T result = reader.read(new CloseShieldInputStream(body),
+              newEntry.charset);
+
+            // drain anything the reader left so the cached body is whole
+            byte[] buffer = new byte[4096];
+            while (body.read(buffer) != -1) {
+              // keep reading
+            }
+            complete = true;
+            return result;
+          }
+          finally {
+            IOUtils.closeQuietly(cached);
+            IOUtils.closeQuietly(content);
+            if (complete) {
+              cache.commit(newEntry);
+            }
+            else {
+              cache.abort(newEntry);
+            }
+          }
+        }
+      }, requestMetrics);
+    }
+    catch (CachedBodyMissingException e) {
+
+      // the cached body disappeared during revalidation, fetch it in full
+      acquireToken(RateLimiter.getEndpointFamily(apiEndpoint));
+      HttpGet refetch = newGet(request);
+      requestHandle.setRequest(refetch);
+      if (requestMetrics != null) {
+        requestMetrics.cached = false;
+      }
+      return httpEngine.execute(refetch, new ApiResponseReader<T>(reader),
+        requestMetrics);
+    }
+  }
+
+  /**
+   * Runs the callback with the executor unless the request has been
+   * cancelled by then.
+   */
+  private <T> void postResult(Executor executor,
+    final RequestHandle requestHandle, final ResultCallback<T> callback,
+    final T result) {
+
+    executor.execute(new Runnable() {
+
+      @Override
+      public void run() {
+        if (!requestHandle.isCancelled()) {
+          requestHandle.finish();
+          callback.onSuccess(result);
+        }
+      }
+    });
+  }
+
+  private <T> void postError(Executor executor,
+    final RequestHandle requestHandle, final ResultCallback<T> callback,
+    final Throwable error, final String message) {
+
+    executor.execute(new Runnable() {
+
+      @Override
+      public void run() {
+        if (!requestHandle.isCancelled()) {
+          requestHandle.finish();
+          callback.onFailure(error, message);
+        }
+      }
+    });
+  }
+
+  private void postSuccess(Executor executor,
+    final RequestHandle requestHandle,
+    final AsyncApiResponseHandler responseHandler, final String response) {
+
+    executor.execute(new Runnable() {
+
+      @Override
+      public void run() {
+        if (!requestHandle.isCancelled()) {
+          requestHandle.finish();
           responseHandler.onSuccess(response);
         }
+      }
+    });
+  }
 
-        @Override
-        public void onFailure(Throwable error, String message) {
+  private void postFailure(Executor executor,
+    final RequestHandle requestHandle,
+    final AsyncApiResponseHandler responseHandler, final Throwable error,
+    final String message) {
+
+    executor.execute(new Runnable() {
+
+      @Override
+      public void run() {
+        if (!requestHandle.isCancelled()) {
+          requestHandle.finish();
           responseHandler.onFailure(error, message);
         }
+      }
+    });
+  }
 
-      });
+  /**
+   * Cancels every request tagged with the tag that hasn't finished.
+   * 
+   * @param tag The tag set on the request handles.
+   * 
+   * @return The number of requests cancelled.
+   * 
+   * @see RequestHandle#setTag(Object)
+   */
+  public int cancelRequests(Object tag) {
+    return requestRegistry.cancel(tag);
   }
 
   /**
@@ -386,33 +2828,298 @@ public class SinglyClient {
    * access token.
    */
   public Authentication getAuthentication(Context context) {
+    return getAuthenticationState(context).getAuthentication();
+  }
+
+  /**
+   * Returns the in memory authentication state, reading it from the shared
+   * preferences on first use.  Reads after that never touch storage.
+   * 
+   * @param context The current Android context.
+   * 
+   * @return The authentication state.
+   */
+  public synchronized AuthenticationState getAuthenticationState(
+    Context context) {
+    if (authenticationState == null) {
+      authenticationState = new AuthenticationState(context);
+    }
+    return authenticationState;
+  }
+
+  /**
+   * Removes the Authentication for the current user.
+   * 
+   * @param context The current Android context.
+   */
+  public static void clearAccount(Context context) {
 
-    SharedPreferences prefs = context.getSharedPreferences("singly",
-      Context.MODE_PRIVATE);
+    getInstance().getAuthenticationState(context).clear();
+    getInstance().prefetches.clear();
 
-    String account = prefs.getString(ACCOUNT, null);
-    String accessToken = prefs.getString(ACCESS_TOKEN, null);
+    // cached responses, pending uploads and queued posts belong to the
+    // removed account, a cache or outbox that was never created isn't
+    // created just to be cleared, uploads left by an earlier run are found
+    // through the uploader
+    final HttpResponseCache cache;
+    RequestOutbox outbox;
+    synchronized (getInstance()) {
+      cache = getInstance().responseCache;
+      outbox = getInstance().outbox;
+    }
+    final ResumableUploader uploader = getInstance().getResumableUploader(
+      context);
+    if (cache != null || uploader != null) {
 
-    Authentication auth = new Authentication();
-    auth.account = account;
-    auth.accessToken = accessToken;
+      // deleting the files is disk work, kept off the main thread
+      getInstance().httpEngine.submit(new Runnable() {
 
-    return auth;
+        @Override
+        public void run() {
+          if (cache != null) {
+            cache.clear();
+          }
+          if (uploader != null) {
+            uploader.discardAll();
+          }
+        }
+      });
+    }
+    if (outbox != null) {
+      outbox.clear();
+    }
   }
 
   /**
-   * Removes the Authentication for the current user.
+   * Returns the shared HTTP transport used for all Singly API requests.  The
+   * engine can be used to tune connection limits and to read pool statistics.
+   * 
+   * @return The shared HttpEngine.
+   */
+  public HttpEngine getHttpEngine() {
+    return httpEngine;
+  }
+
+  /**
+   * Returns the disk cache for GET responses, creating it inside the app
+   * data/files directory on first use.  Returns null if the response cache
+   * has been disabled.
+   * 
+   * Creating the cache reads the cache directory, so the first call should
+   * be made from a background thread.  Requests only create it in the
+   * background.
    * 
    * @param context The current Android context.
+   * 
+   * @return The response cache or null if disabled.
    */
-  public static void clearAccount(Context context) {
+  public synchronized HttpResponseCache getResponseCache(Context context) {
+
+    if (!responseCacheEnabled) {
+      return null;
+    }
+    if (responseCache == null) {
+      File filesDir = context.getApplicationContext().getFilesDir();
+      responseCache = new HttpResponseCache(new File(filesDir,
+        HttpResponseCache.DEFAULT_CACHE_DIR), responseCacheSize);
+    }
+    return responseCache;
+  }
+
+  /**
+   * Returns the scheduler that queues requests by priority class, used to
+   * change the bounds of the classes and to read their queue metrics.
+   * 
+   * @return The request scheduler.
+   */
+  public RequestScheduler getRequestScheduler() {
+    return requestScheduler;
+  }
+
+  /**
+   * Returns the time taken to parse responses into model objects, per
+   * endpoint, for requests made with a {@link ResponseParser} or
+   * {@link StreamParser}.
+   * 
+   * @return The parse timings.
+   */
+  public ParseTimings getParseTimings() {
+    return parseTimings;
+  }
+
+  /**
+   * Returns the latency, throughput and error metrics of requests made by the
+   * client and the RemoteImageCache.  Metrics are disabled until
+   * {@link SinglyMetrics#setEnabled(boolean)} is called.
+   * 
+   * @return The request metrics.
+   */
+  public SinglyMetrics getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * Returns the coalescer of identical in flight GET requests, used to read
+   * the number of requests saved.
+   * 
+   * @return The request coalescer.
+   */
+  public RequestCoalescer getRequestCoalescer() {
+    return requestCoalescer;
+  }
+
+  /**
+   * Adds an interceptor run on every request to the Singly API, after those
+   * already added.  By default the access token of the current user, the
+   * Singly SDK headers and a request for gzip responses are added.
+   * 
+   * @param interceptor The interceptor to add.
+   */
+  public void addInterceptor(RequestInterceptor interceptor) {
+    interceptors.add(interceptor);
+  }
+
+  /**
+   * Removes an interceptor, for example one of the default interceptors.
+   * 
+   * @param interceptor The interceptor to remove.
+   */
+  public void removeInterceptor(RequestInterceptor interceptor) {
+    interceptors.remove(interceptor);
+  }
+
+  /**
+   * Returns the interceptors run on every request, in order.
+   * 
+   * @return The interceptors.
+   */
+  public List<RequestInterceptor> getInterceptors() {
+    return Collections.unmodifiableList(interceptors);
+  }
+
+  /**
+   * Returns the outbox of posts made while offline, creating it on first use.
+   * Creating the outbox replays anything left queued by an earlier process.
+   * Creating it doesn't open its database, posts are written to it by the
+   * outbox's own background thread.
+   * 
+   * @param context The current Android context.
+   * 
+   * @return The request outbox.
+   */
+  public synchronized RequestOutbox getOutbox(Context context) {
+
+    if (outbox == null) {
+      final Context appContext = context.getApplicationContext();
+      outbox = new RequestOutbox(context, httpEngine,
+        new RequestOutbox.Sender() {
+
+          @Override
+          public String getAccount() {
+            return getAuthenticationState(appContext).getAccount();
+          }
+
+          @Override
+          public String send(RequestOutbox.Entry entry)
+            throws IOException {
+
+            RequestMetrics requestMetrics = metrics.begin(entry.apiEndpoint,
+              "POST");
+            try {
+              String response = httpEngine.execute(createOutboxRequest(
+                appContext, entry), API_RESPONSE_READER, requestMetrics);
+              metrics.finish(requestMetrics, null);
+              return response;
+            }
+            catch (IOException e) {
+              metrics.finish(requestMetrics, e);
+              throw e;
+            }
+          }
+        });
+    }
+    return outbox;
+  }
+
+  public boolean isOutboxEnabled() {
+    return outboxEnabled;
+  }
+
+  /**
+   * Sets whether posts made while offline are queued in the outbox.  When
+   * false they fail straight away instead.
+   */
+  public void setOutboxEnabled(boolean outboxEnabled) {
+    this.outboxEnabled = outboxEnabled;
+  }
+
+  /**
+   * Returns the uploader of chunked uploads, creating it inside the app
+   * data/files directory on first use.  Returns null if no upload endpoint is
+   * set.
+   * 
+   * @param context The current Android context.
+   * 
+   * @return The resumable uploader or null.
+   */
+  public synchronized ResumableUploader getResumableUploader(Context context) {
+
+    if (uploadEndpoint == null) {
+      return null;
+    }
+    if (resumableUploader == null) {
+      File filesDir = context.getApplicationContext().getFilesDir();
+      resumableUploader = new ResumableUploader(httpEngine, new File(filesDir,
+        "uploads"), uploadEndpoint);
+    }
+    return resumableUploader;
+  }
+
+  public String getUploadEndpoint() {
+    return uploadEndpoint;
+  }
+
+  /**
+   * Sets the endpoint that accepts chunked uploads, used by
+   * {@link #doResumableUploadRequest(Context, String, Map, String, File, String, UploadProgressListener, AsyncApiResponseHandler)}.
+   * When null files are posted in a single request instead.  Must be called
+   * before the uploader is first used.
+   */
+  public synchronized void setUploadEndpoint(String uploadEndpoint) {
+    this.uploadEndpoint = uploadEndpoint;
+  }
+
+  public String getMultiApiEndpoint() {
+    return multiApiEndpoint;
+  }
+
+  /**
+   * Sets the endpoint used to batch many requests into one by
+   * {@link #doMultiApiRequest(Context, List)}, for example /multi.  When null
+   * the requests are made in parallel instead.
+   */
+  public void setMultiApiEndpoint(String multiApiEndpoint) {
+    this.multiApiEndpoint = multiApiEndpoint;
+  }
 
-    SharedPreferences prefs = context.getSharedPreferences("singly",
-      Context.MODE_PRIVATE);
-    SharedPreferences.Editor editor = prefs.edit();
-    editor.remove(ACCESS_TOKEN);
-    editor.remove(ACCOUNT);
-    editor.commit();
+  public boolean isResponseCacheEnabled() {
+    return responseCacheEnabled;
+  }
+
+  public void setResponseCacheEnabled(boolean responseCacheEnabled) {
+    this.responseCacheEnabled = responseCacheEnabled;
+  }
+
+  public long getResponseCacheSize() {
+    return responseCacheSize;
+  }
+
+  /**
+   * Sets the maximum size in bytes of the response cache.  Must be called
+   * before the cache is first used.
+   */
+  public void setResponseCacheSize(long responseCacheSize) {
+    this.responseCacheSize = responseCacheSize;
   }
 
   public String getClientId() {
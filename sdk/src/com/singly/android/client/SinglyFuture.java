@@ -0,0 +1,685 @@
+package com.singly.android.client;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+/**
+ * The result of a request made through the {@link SinglyClient}, which can be
+ * composed with the results of other requests.
+ *
+ * A future completes in the background thread that finished its request,
+ * without a hop to the main UI thread.  Continuations added with
+ * {@link #then(Function)}, {@link #thenAsync(AsyncFunction)},
+ * {@link #combine(SinglyFuture, Combiner)} and {@link #allOf(List)} run in
+ * that thread too unless they are given an Executor, so a chain of background
+ * work costs no main thread dispatches.  Only handlers added with
+ * {@link #addHandler(TypedResponseHandler)} run in the main UI thread.
+ *
+ * Every request starts as soon as its future is made, so independent
+ * requests run concurrently and are joined with combine or allOf.  A future
+ * made from others fails as soon as any of them fails.
+ *
+ * Cancelling a future cancels its request, and cancelling a future made from
+ * others cancels them as well.  A request cancelled through its tag, see
+ * {@link SinglyClient#cancelRequests(Object)}, cancels its future.  Handlers
+ * and continuations of a cancelled future are never called.
+ */
+public class SinglyFuture<T>
+  implements Future<T> {
+
+  /**
+   * Transforms the result of a future.
+   */
+  public interface Function<T, R> {
+
+    R apply(T input)
+      throws Exception;
+  }
+
+  /**
+   * Starts the next request from the result of a future.
+   */
+  public interface AsyncFunction<T, R> {
+
+    SinglyFuture<R> apply(T input)
+      throws Exception;
+  }
+
+  /**
+   * Combines the results of two futures.
+   */
+  public interface Combiner<A, B, R> {
+
+    R combine(A first, B second)
+      throws Exception;
+  }
+
+  /**
+   * Runs tasks in the thread that completes the future.
+   */
+  public static final Executor DIRECT = new Executor() {
+
+    @Override
+    public void execute(Runnable task) {
+      task.run();
+    }
+  };
+
+  private static final int PENDING = 0;
+  private static final int SUCCEEDED = 1;
+  private static final int FAILED = 2;
+  private static final int CANCELLED = 3;
+
+  private static Executor mainThread;
+  private static Timer timeoutTimer;
+
+  private final CountDownLatch done = new CountDownLatch(1);
+  private int state = PENDING;
+  private T result;
+  private Throwable error;
+  private List<Runnable> listeners = new ArrayList<Runnable>(2);
+
+  // the request of the future and the futures it was made from
+  private RequestHandle handle;
+  private List<SinglyFuture<?>> sources = new ArrayList<SinglyFuture<?>>(2);
+  private Object tag;
+
+  SinglyFuture() {
+  }
+
+  SinglyFuture(Collection<? extends SinglyFuture<?>> sources) {
+    this.sources.addAll(sources);
+  }
+
+  /**
+   * Returns a future that has already succeeded, for example to start a
+   * chain or to return from an {@link AsyncFunction} without a request.
+   *
+   * @param result The result.
+   *
+   * @return The completed future.
+   */
+  public static <T> SinglyFuture<T> completed(T result) {
+    SinglyFuture<T> future = new SinglyFuture<T>();
+    future.succeed(result);
+    return future;
+  }
+
+  /**
+   * Returns a future that has already failed.
+   *
+   * @param error The failure.
+   *
+   * @return The failed future.
+   */
+  public static <T> SinglyFuture<T> failed(Throwable error) {
+    SinglyFuture<T> future = new SinglyFuture<T>();
+    future.fail(error);
+    return future;
+  }
+
+  /**
+   * Returns an Executor that runs tasks in the main UI thread.
+   *
+   * @return The main thread executor.
+   */
+  public static synchronized Executor mainThread() {
+
+    if (mainThread == null) {
+      final Handler mainHandler = new Handler(Looper.getMainLooper());
+      mainThread = new Executor() {
+
+        @Override
+        public void execute(Runnable task) {
+          mainHandler.post(task);
+        }
+      };
+    }
+    return mainThread;
+  }
+
+  private static synchronized Timer getTimeoutTimer() {
+    if (timeoutTimer == null) {
+      timeoutTimer = new Timer("singly-future-timeout", true);
+    }
+    return timeoutTimer;
+  }
+
+  boolean succeed(T result) {
+    return complete(SUCCEEDED, result, null);
+  }
+
+  boolean fail(Throwable error) {
+    return complete(FAILED, null, error);
+  }
+
+  private boolean complete(int newState, T newResult, Throwable newError) {
+
+    List<Runnable> completed;
+    synchronized (this) {
+      if (state != PENDING) {
+        return false;
+      }
+      state = newState;
+      result = newResult;
+      error = newError;
+      completed = listeners;
+      listeners = null;
+    }
+
+    // listeners run in the completing thread, outside the lock, one that
+    // throws is logged and doesn't keep the others from running
+    done.countDown();
+    for (Runnable listener : completed) {
+      try {
+        listener.run();
+      }
+      catch (RuntimeException e) {
+        Log.e(SinglyFuture.class.getSimpleName(), "Error in listener", e);
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Ties the future to the handle of its request, cancelling one cancels the
+   * other.
+   */
+  void attach(RequestHandle handle) {
+
+    Object curTag;
+    synchronized (this) {
+      this.handle = handle;
+      curTag = tag;
+    }
+    if (curTag != null) {
+      handle.setTag(curTag);
+    }
+    handle.addCancelAction(new Runnable() {
+
+      @Override
+      public void run() {
+        cancel(false);
+      }
+    });
+  }
+
+  /**
+   * Adds a future this future follows, cancelled along with this future.
+   */
+  private void addSource(SinglyFuture<?> source) {
+
+    boolean cancelled;
+    Object curTag;
+    synchronized (this) {
+      cancelled = state == CANCELLED;
+      if (!cancelled) {
+        sources.add(source);
+      }
+      curTag = tag;
+    }
+    if (cancelled) {
+      source.cancel(false);
+    }
+    else if (curTag != null) {
+      source.setTag(curTag);
+    }
+  }
+
+  /**
+   * Runs the listener once the future completes, right away in the calling
+   * thread if it already has.
+   */
+  private void addListener(Runnable listener) {
+    synchronized (this) {
+      if (listeners != null) {
+        listeners.add(listener);
+        return;
+      }
+    }
+    listener.run();
+  }
+
+  /**
+   * Passes a failure or cancellation of this future on to the target.
+   *
+   * @return True if this future failed or was cancelled.
+   */
+  private boolean propagateFailure(SinglyFuture<?> target) {
+
+    int curState;
+    Throwable curError;
+    synchronized (this) {
+      curState = state;
+      curError = error;
+    }
+    if (curState == CANCELLED) {
+      target.complete(CANCELLED, null, null);
+      return true;
+    }
+    else if (curState == FAILED) {
+      target.fail(curError);
+      return true;
+    }
+    return false;
+  }
+
+  private synchronized T getNow() {
+    return result;
+  }
+
+  private static void execute(Executor executor, SinglyFuture<?> future,
+    Runnable task) {
+    try {
+      executor.execute(task);
+    }
+    catch (RejectedExecutionException e) {
+      future.fail(e);
+    }
+  }
+
+  /**
+   * Returns a future for the result of the function applied to the result of
+   * this future.  The function runs in the thread that completes this future.
+   *
+   * @param function Transforms the result.
+   *
+   * @return The future of the transformed result.
+   */
+  public <R> SinglyFuture<R> then(Function<? super T, ? extends R> function) {
+    return then(function, DIRECT);
+  }
+
+  /**
+   * Returns a future for the result of the function applied to the result of
+   * this future, run with the executor.
+   *
+   * @param function Transforms the result.
+   * @param executor Runs the function.
+   *
+   * @return The future of the transformed result.
+   */
+  public <R> SinglyFuture<R> then(
+    final Function<? super T, ? extends R> function, final Executor executor) {
+
+    final SinglyFuture<R> future = new SinglyFuture<R>(
+      Collections.<SinglyFuture<?>> singletonList(this));
+    addListener(new Runnable() {
+
+      @Override
+      public void run() {
+
+        if (propagateFailure(future)) {
+          return;
+        }
+        execute(executor, future, new Runnable() {
+
+          @Override
+          public void run() {
+            try {
+              future.succeed(function.apply(getNow()));
+            }
+            catch (Exception e) {
+              future.fail(e);
+            }
+          }
+        });
+      }
+    });
+    return future;
+  }
+
+  /**
+   * Returns a future for the request the function starts from the result of
+   * this future, for requests that depend on an earlier response.  The
+   * function runs in the thread that completes this future.
+   *
+   * @param function Starts the next request.
+   *
+   * @return The future of the next request.
+   */
+  public <R> SinglyFuture<R> thenAsync(
+    AsyncFunction<? super T, R> function) {
+    return thenAsync(function, DIRECT);
+  }
+
+  /**
+   * Returns a future for the request the function starts from the result of
+   * this future, run with the executor.
+   *
+   * @param function Starts the next request.
+   * @param executor Runs the function.
+   *
+   * @return The future of the next request.
+   */
+  public <R> SinglyFuture<R> thenAsync(
+    final AsyncFunction<? super T, R> function, final Executor executor) {
+
+    final SinglyFuture<R> future = new SinglyFuture<R>(
+      Collections.<SinglyFuture<?>> singletonList(this));
+    addListener(new Runnable() {
+
+      @Override
+      public void run() {
+
+        if (propagateFailure(future)) {
+          return;
+        }
+        execute(executor, future, new Runnable() {
+
+          @Override
+          public void run() {
+            try {
+              final SinglyFuture<R> next = function.apply(getNow());
+              if (next == null) {
+                throw new NullPointerException("No future returned");
+              }
+              future.addSource(next);
+              next.addListener(new Runnable() {
+
+                @Override
+                public void run() {
+                  if (!next.propagateFailure(future)) {
+                    future.succeed(next.getNow());
+                  }
+                }
+              });
+            }
+            catch (Exception e) {
+              future.fail(e);
+            }
+          }
+        });
+      }
+    });
+    return future;
+  }
+
+  /**
+   * Returns a future for the combined results of this future and another,
+   * once both have succeeded.  The combiner runs in the thread that completes
+   * the last of the two.
+   *
+   * @param other The other future.
+   * @param combiner Combines the two results.
+   *
+   * @return The future of the combined result.
+   */
+  public <U, R> SinglyFuture<R> combine(final SinglyFuture<U> other,
+    final Combiner<? super T, ? super U, ? extends R> combiner) {
+
+    final SinglyFuture<R> future = new SinglyFuture<R>(Arrays
+      .<SinglyFuture<?>> asList(this, other));
+    final AtomicInteger remaining = new AtomicInteger(2);
+    Runnable join = new Runnable() {
+
+      @Override
+      public void run() {
+
+        // fail as soon as either fails, combine once both are done
+        if (propagateFailure(future) || other.propagateFailure(future)) {
+          return;
+        }
+        if (remaining.decrementAndGet() == 0) {
+          try {
+            future.succeed(combiner.combine(getNow(), other.getNow()));
+          }
+          catch (Exception e) {
+            future.fail(e);
+          }
+        }
+      }
+    };
+    addListener(join);
+    other.addListener(join);
+    return future;
+  }
+
+  /**
+   * Returns a future for the results of all of the futures, in the same
+   * order, once every one has succeeded.
+   *
+   * @param futures The futures to join.
+   *
+   * @return The future of all the results.
+   */
+  public static <T> SinglyFuture<List<T>> allOf(
+    final List<? extends SinglyFuture<? extends T>> futures) {
+
+    final SinglyFuture<List<T>> future = new SinglyFuture<List<T>>(futures);
+    if (futures.isEmpty()) {
+      future.succeed(new ArrayList<T>());
+      return future;
+    }
+
+    final AtomicInteger remaining = new AtomicInteger(futures.size());
+    for (final SinglyFuture<? extends T> input : futures) {
+      input.addListener(new Runnable() {
+
+        @Override
+        public void run() {
+
+          if (input.propagateFailure(future)) {
+            return;
+          }
+          if (remaining.decrementAndGet() == 0) {
+            List<T> results = new ArrayList<T>(futures.size());
+            for (SinglyFuture<? extends T> each : futures) {
+              results.add(each.getNow());
+            }
+            future.succeed(results);
+          }
+        }
+      });
+    }
+    return future;
+  }
+
+  /**
+   * Returns a future that fails with a TimeoutException if this future hasn't
+   * completed within the timeout, in which case this future is cancelled.
+   *
+   * @param timeout The time to wait.
+   * @param unit The unit of the timeout.
+   *
+   * @return The future limited to the timeout.
+   */
+  public SinglyFuture<T> withTimeout(long timeout, TimeUnit unit) {
+
+    final SinglyFuture<T> future = new SinglyFuture<T>(
+      Collections.<SinglyFuture<?>> singletonList(this));
+    final TimerTask timeoutTask = new TimerTask() {
+
+      @Override
+      public void run() {
+        if (future.fail(new TimeoutException("Timed out"))) {
+          SinglyFuture.this.cancel(false);
+        }
+      }
+    };
+    getTimeoutTimer().schedule(timeoutTask, unit.toMillis(timeout));
+
+    addListener(new Runnable() {
+
+      @Override
+      public void run() {
+        timeoutTask.cancel();
+        if (!propagateFailure(future)) {
+          future.succeed(getNow());
+        }
+      }
+    });
+    return future;
+  }
+
+  /**
+   * Calls the handler in the main UI thread once the future completes.
+   *
+   * @param handler The handler for the result.
+   *
+   * @return This future.
+   */
+  public SinglyFuture<T> addHandler(TypedResponseHandler<? super T> handler) {
+    return addHandler(handler, mainThread());
+  }
+
+  /**
+   * Calls the handler with the executor once the future completes.  The
+   * failure message is the response body of an {@link ApiResponseException}
+   * and the message of any other error.
+   *
+   * @param handler The handler for the result.
+   * @param executor Runs the handler.
+   *
+   * @return This future.
+   */
+  public SinglyFuture<T> addHandler(
+    final TypedResponseHandler<? super T> handler, final Executor executor) {
+
+    addListener(new Runnable() {
+
+      @Override
+      public void run() {
+
+        final int curState;
+        final T curResult;
+        final Throwable curError;
+        synchronized (SinglyFuture.this) {
+          curState = state;
+          curResult = result;
+          curError = error;
+        }
+        if (curState == CANCELLED) {
+          return;
+        }
+
+        executor.execute(new Runnable() {
+
+          @Override
+          public void run() {
+            if (curState == SUCCEEDED) {
+              handler.onSuccess(curResult);
+            }
+            else {
+              handler.onFailure(curError,
+                curError instanceof ApiResponseException
+                  ? ((ApiResponseException)curError).getResponseBody()
+                  : curError.getMessage());
+            }
+          }
+        });
+      }
+    });
+    return this;
+  }
+
+  /**
+   * Tags the request of the future, and of every future it was made from, so
+   * it is cancelled along with every other request with the same tag.
+   *
+   * @param tag The tag, usually the fragment or adapter making the request.
+   *
+   * @return This future.
+   *
+   * @see RequestHandle#setTag(Object)
+   */
+  public SinglyFuture<T> setTag(Object tag) {
+
+    RequestHandle curHandle;
+    List<SinglyFuture<?>> curSources;
+    synchronized (this) {
+      this.tag = tag;
+      curHandle = handle;
+      curSources = new ArrayList<SinglyFuture<?>>(sources);
+    }
+    if (curHandle != null) {
+      curHandle.setTag(tag);
+    }
+    for (SinglyFuture<?> source : curSources) {
+      source.setTag(tag);
+    }
+    return this;
+  }
+
+  @Override
+  public boolean cancel(boolean mayInterruptIfRunning) {
+
+    if (!complete(CANCELLED, null, null)) {
+      return false;
+    }
+
+    // cancel the request and everything this future was made from
+    RequestHandle curHandle;
+    List<SinglyFuture<?>> curSources;
+    synchronized (this) {
+      curHandle = handle;
+      curSources = new ArrayList<SinglyFuture<?>>(sources);
+    }
+    if (curHandle != null) {
+      curHandle.cancel();
+    }
+    for (SinglyFuture<?> source : curSources) {
+      source.cancel(mayInterruptIfRunning);
+    }
+    return true;
+  }
+
+  @Override
+  public synchronized boolean isCancelled() {
+    return state == CANCELLED;
+  }
+
+  @Override
+  public synchronized boolean isDone() {
+    return state != PENDING;
+  }
+
+  /**
+   * Waits for the result.  Must not be called from the main UI thread.
+   */
+  @Override
+  public T get()
+    throws InterruptedException, ExecutionException {
+    done.await();
+    return getResult();
+  }
+
+  @Override
+  public T get(long timeout, TimeUnit unit)
+    throws InterruptedException, ExecutionException, TimeoutException {
+    if (!done.await(timeout, unit)) {
+      throw new TimeoutException("Timed out");
+    }
+    return getResult();
+  }
+
+  private synchronized T getResult()
+    throws ExecutionException {
+    if (state == CANCELLED) {
+      throw new CancellationException();
+    }
+    else if (state == FAILED) {
+      throw new ExecutionException(error);
+    }
+    return result;
+  }
+
+}
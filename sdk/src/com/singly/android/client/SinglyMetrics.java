@@ -0,0 +1,205 @@
+package com.singly.android.client;
+
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.http.client.HttpResponseException;
+import org.codehaus.jackson.JsonProcessingException;
+
+import android.util.Log;
+
+/**
+ * Collects latency, throughput and error metrics for every request made by
+ * the {@link SinglyClient} and the RemoteImageCache.
+ *
+ * Each request is measured with a {@link RequestMetrics}: the time it waited
+ * in the queue, the time to the first byte of the response, the total time,
+ * the time to parse the response, the bytes sent and received, and the class
+ * of any error.  Completed requests are passed to every
+ * {@link MetricsListener} and added to per endpoint totals and latency
+ * histograms, read with {@link #getSnapshot()}.
+ *
+ * Metrics are disabled by default.  While disabled {@link #begin} returns
+ * null and requests skip all measurement, so the only cost is reading one
+ * volatile flag per request.
+ */
+public class SinglyMetrics {
+
+  private static final String TAG = SinglyMetrics.class.getSimpleName();
+
+  public static final String IMAGES = "images";
+  public static final String OTHER = "other";
+
+  // endpoints beyond this are counted under OTHER, bounds memory when
+  // endpoints contain ids
+  public static final int MAX_ENDPOINTS = 100;
+
+  private volatile boolean enabled = false;
+  private volatile long startNanos = System.nanoTime();
+  private List<MetricsListener> listeners = new CopyOnWriteArrayList<MetricsListener>();
+  private ConcurrentMap<String, MetricsSnapshot.Endpoint> endpoints = new ConcurrentHashMap<String, MetricsSnapshot.Endpoint>();
+
+  /**
+   * Starts measuring a request.
+   *
+   * @param endpoint The Singly API endpoint, or {@link #IMAGES}.
+   * @param method The HTTP method.
+   *
+   * @return The measurements of the request, null if metrics are disabled.
+   */
+  public RequestMetrics begin(String endpoint, String method) {
+    if (!enabled) {
+      return null;
+    }
+    return new RequestMetrics(IMAGES.equals(endpoint) ? endpoint
+      : RequestCoalescer.toKey(endpoint, null), method);
+  }
+
+  /**
+   * Completes the measurement of a request, adds it to the endpoint totals and
+   * passes it to the listeners.
+   *
+   * @param metrics The measurements of the request, can be null.
+   * @param error The error the request failed with, null on success.
+   */
+  public void finish(RequestMetrics metrics, Throwable error) {
+
+    if (metrics == null) {
+      return;
+    }
+
+    metrics.totalNanos = System.nanoTime() - metrics.created;
+    if (error != null) {
+      metrics.errorClass = classify(error);
+      if (error instanceof HttpResponseException) {
+        metrics.statusCode = ((HttpResponseException)error).getStatusCode();
+      }
+    }
+
+    MetricsSnapshot.Endpoint endpoint = getEndpoint(metrics.endpoint);
+    synchronized (endpoint) {
+      endpoint.add(metrics);
+    }
+
+    // a listener that throws never fails the request it measured, or
+    // keeps the other listeners from hearing about it
+    for (MetricsListener listener : listeners) {
+      try {
+        listener.onRequestCompleted(metrics);
+      }
+      catch (RuntimeException e) {
+        Log.e(TAG, "Error in metrics listener", e);
+      }
+    }
+  }
+
+  private MetricsSnapshot.Endpoint getEndpoint(String name) {
+
+    MetricsSnapshot.Endpoint endpoint = endpoints.get(name);
+    if (endpoint == null) {
+      String key = endpoints.size() < MAX_ENDPOINTS ? name : OTHER;
+      MetricsSnapshot.Endpoint newEndpoint = new MetricsSnapshot.Endpoint();
+      endpoint = endpoints.putIfAbsent(key, newEndpoint);
+      if (endpoint == null) {
+        endpoint = newEndpoint;
+      }
+    }
+    return endpoint;
+  }
+
+  /**
+   * Returns the error class a failure is counted under.  Error statuses are
+   * counted by status class, for example http_5xx, and other failures by
+   * kind, for example timeout, dns or parse.
+   *
+   * @param error The failure.
+   *
+   * @return The error class.
+   */
+  public static String classify(Throwable error) {
+
+    if (error instanceof HttpResponseException) {
+      return "http_"
+        + (((HttpResponseException)error).getStatusCode() / 100) + "xx";
+    }
+    else if (error instanceof SocketTimeoutException) {
+      return "timeout";
+    }
+    else if (error instanceof UnknownHostException) {
+      return "dns";
+    }
+    else if (error instanceof CircuitOpenException) {
+      return "circuit_open";
+    }
+    else if (error instanceof JsonProcessingException) {
+      return "parse";
+    }
+    return error.getClass().getSimpleName();
+  }
+
+  /**
+   * Returns a copy of the metrics of every endpoint, sorted by endpoint.
+   *
+   * @return The metrics snapshot.
+   */
+  public MetricsSnapshot getSnapshot() {
+
+    Map<String, MetricsSnapshot.Endpoint> copy = new HashMap<String, MetricsSnapshot.Endpoint>();
+    for (Map.Entry<String, MetricsSnapshot.Endpoint> entry : endpoints
+      .entrySet()) {
+      MetricsSnapshot.Endpoint endpoint = entry.getValue();
+      synchronized (endpoint) {
+        copy.put(entry.getKey(), endpoint.copy());
+      }
+    }
+    long uptimeMillis = (System.nanoTime() - startNanos) / 1000000L;
+    return new MetricsSnapshot(uptimeMillis, copy);
+  }
+
+  /**
+   * Clears all collected metrics.
+   */
+  public void reset() {
+    endpoints.clear();
+    startNanos = System.nanoTime();
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Enables or disables collecting metrics.  Enabling metrics starts a fresh
+   * collection.  Requests already running when metrics are enabled are not
+   * measured.
+   *
+   * @param enabled True to collect metrics.
+   */
+  public void setEnabled(boolean enabled) {
+    if (enabled && !this.enabled) {
+      reset();
+    }
+    this.enabled = enabled;
+  }
+
+  /**
+   * Adds a listener for completed requests.  Listeners are only called while
+   * metrics are enabled.
+   *
+   * @param listener The listener to add.
+   */
+  public void addListener(MetricsListener listener) {
+    listeners.add(listener);
+  }
+
+  public void removeListener(MetricsListener listener) {
+    listeners.remove(listener);
+  }
+
+}
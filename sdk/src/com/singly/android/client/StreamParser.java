@@ -0,0 +1,35 @@
+package com.singly.android.client;
+
+import java.io.IOException;
+
+import org.codehaus.jackson.JsonParser;
+
+/**
+ * Parses the JSON response of a Singly API call into a model object token by
+ * token, straight from the response stream, without building a tree of
+ * JsonNode objects first.  Suited to large responses, such as blocks of
+ * /friends/all, where only some of the fields are needed.
+ *
+ * Parsers are called in a background thread, never in the main UI thread, so
+ * they must not touch any views.  The parser doesn't need to be closed, the
+ * caller closes the response stream, but closing it, or reading it to the end
+ * of input, is safe.  The finished object is passed to the
+ * {@link TypedResponseHandler} in the main UI thread.
+ *
+ * @see ResponseParser
+ */
+public interface StreamParser<T> {
+
+  /**
+   * Parses the response.
+   *
+   * @param parser A parser over the response body, before its first token.
+   *
+   * @return The parsed model object.
+   *
+   * @throws IOException If the body could not be read or is not valid JSON.
+   */
+  public T parse(JsonParser parser)
+    throws IOException;
+
+}
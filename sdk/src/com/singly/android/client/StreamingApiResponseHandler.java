@@ -0,0 +1,72 @@
+package com.singly.android.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.codehaus.jackson.JsonParser;
+
+import com.singly.android.util.JSON;
+
+/**
+ * A callback handler that receives the body of a Singly API response as a
+ * stream instead of a String.
+ *
+ * The {@link #onStream(InputStream, String)} method is called in a background
+ * thread while the response is still being read from the network, so large
+ * responses never have to be held in memory as a whole.  The body can be fed
+ * straight into a Jackson JsonParser using {@link #createJsonParser(InputStream)}.
+ *
+ * Once onStream returns, {@link #onSuccess()} is called in the main UI thread.
+ * If the request fails, or onStream throws, {@link #onFailure(Throwable, String)}
+ * is called in the main UI thread instead.
+ */
+public abstract class StreamingApiResponseHandler {
+
+  /**
+   * Reads the response body.  Called in a background thread.  The stream is
+   * closed by the caller once this method returns, so it doesn't need to be
+   * closed here, but it may be.  A JsonParser over the body closes it when it
+   * reaches the end of input or is closed itself, which is safe.  Any part of
+   * the body left unread when this method returns is read by the caller so
+   * the whole response can be cached.
+   *
+   * @param body The response body.
+   * @param charset The character set of the body.
+   *
+   * @throws IOException If the body could not be read.
+   */
+  public abstract void onStream(InputStream body, String charset)
+    throws IOException;
+
+  /**
+   * Called in the main UI thread once the body has been read.
+   */
+  public void onSuccess() {
+
+  }
+
+  /**
+   * Called in the main UI thread if the request or reading the body failed.
+   *
+   * @param error The failure error.
+   * @param message The error response body or message.
+   */
+  public void onFailure(Throwable error, String message) {
+
+  }
+
+  /**
+   * Creates a JsonParser that reads tokens directly from the response body.
+   *
+   * @param body The response body.
+   *
+   * @return A JsonParser over the body.
+   *
+   * @throws IOException If the parser could not be created.
+   */
+  protected JsonParser createJsonParser(InputStream body)
+    throws IOException {
+    return JSON.createParser(body);
+  }
+
+}
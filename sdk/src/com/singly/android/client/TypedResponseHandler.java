@@ -0,0 +1,18 @@
+package com.singly.android.client;
+
+/**
+ * A callback handler for a Singly API call whose response has already been
+ * parsed into a model object by a {@link ResponseParser}.  Both methods are
+ * called in the main UI thread.
+ */
+public class TypedResponseHandler<T> {
+
+  public void onSuccess(T result) {
+
+  }
+
+  public void onFailure(Throwable error, String message) {
+
+  }
+
+}
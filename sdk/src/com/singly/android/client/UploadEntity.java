@@ -0,0 +1,63 @@
+package com.singly.android.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.apache.http.entity.AbstractHttpEntity;
+
+/**
+ * A raw request body streamed from an {@link UploadSource} through a fixed
+ * size buffer.  Sent with a Content-Length when the source length is known,
+ * otherwise with chunked transfer encoding.  Progress is reported to an
+ * {@link UploadProgressListener} as the body is written.
+ */
+public class UploadEntity
+  extends AbstractHttpEntity {
+
+  private UploadSource source;
+  private UploadProgressListener progressListener;
+
+  public UploadEntity(UploadSource source, String contentType) {
+    this.source = source;
+    setContentType(contentType);
+    setChunked(source.getLength() < 0);
+  }
+
+  public void setProgressListener(UploadProgressListener progressListener) {
+    this.progressListener = progressListener;
+  }
+
+  @Override
+  public long getContentLength() {
+    return source.getLength();
+  }
+
+  @Override
+  public boolean isRepeatable() {
+    return source.isRepeatable();
+  }
+
+  @Override
+  public boolean isStreaming() {
+    return !source.isRepeatable();
+  }
+
+  @Override
+  public InputStream getContent()
+    throws IOException {
+    return source.open();
+  }
+
+  @Override
+  public void writeTo(OutputStream out)
+    throws IOException {
+
+    UploadProgress progress = new UploadProgress(progressListener,
+      getContentLength());
+    progress.copy(source.open(), out);
+    out.flush();
+    progress.finish();
+  }
+
+}
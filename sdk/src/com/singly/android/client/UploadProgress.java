@@ -0,0 +1,76 @@
+package com.singly.android.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Copies upload sources to the request through a fixed size buffer and
+ * reports progress to a listener, at most once for every percent or 64KB
+ * written.
+ */
+class UploadProgress {
+
+  static final int BUFFER_SIZE = 8 * 1024;
+  private static final long MIN_STEP = 64 * 1024;
+
+  private UploadProgressListener listener;
+  private long total;
+  private long written = 0;
+  private long reported = 0;
+  private long step;
+
+  UploadProgress(UploadProgressListener listener, long total) {
+    this.listener = listener;
+    this.total = total;
+    this.step = total > 0 ? Math.min(MIN_STEP, Math.max(1, total / 100))
+      : MIN_STEP;
+  }
+
+  /**
+   * Writes the stream to the output, closing the stream when done.
+   */
+  void copy(InputStream in, OutputStream out)
+    throws IOException {
+
+    byte[] buffer = new byte[BUFFER_SIZE];
+    try {
+      int read;
+      while ((read = in.read(buffer)) != -1) {
+        out.write(buffer, 0, read);
+        add(read);
+      }
+    }
+    finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Writes the bytes to the output.
+   */
+  void write(byte[] bytes, OutputStream out)
+    throws IOException {
+    out.write(bytes);
+    add(bytes.length);
+  }
+
+  private void add(long count) {
+    written += count;
+    if (listener != null && written - reported >= step) {
+      reported = written;
+      listener.onProgress(written, total);
+    }
+  }
+
+  /**
+   * Reports the final count if it wasn't reported already.
+   */
+  void finish() {
+    if (listener != null && reported != written) {
+      reported = written;
+      listener.onProgress(written, total);
+    }
+  }
+
+}
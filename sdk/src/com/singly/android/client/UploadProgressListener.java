@@ -0,0 +1,16 @@
+package com.singly.android.client;
+
+/**
+ * Receives progress of an upload.  Called in the main UI thread.
+ */
+public interface UploadProgressListener {
+
+  /**
+   * Called as the request body is written.
+   *
+   * @param bytesWritten The number of bytes written so far.
+   * @param totalBytes The total size of the body, or -1 if it is not known.
+   */
+  public void onProgress(long bytesWritten, long totalBytes);
+
+}
@@ -0,0 +1,200 @@
+package com.singly.android.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.net.Uri;
+
+/**
+ * The source of an upload, a File, an InputStream, a content Uri or a byte
+ * array.  Sources are opened only when the request body is written and are
+ * read through a small fixed buffer, so the upload is never held in memory as
+ * a whole.
+ */
+public abstract class UploadSource {
+
+  /**
+   * Opens the source for reading.
+   *
+   * @return The stream of the source content.
+   *
+   * @throws IOException If the source can't be opened.
+   */
+  public abstract InputStream open()
+    throws IOException;
+
+  /**
+   * Returns the size of the source in bytes, or -1 if it is not known.
+   *
+   * @return The size of the source.
+   */
+  public abstract long getLength();
+
+  /**
+   * Returns the filename sent with the source in a multipart request.
+   *
+   * @return The filename, can be null.
+   */
+  public abstract String getFilename();
+
+  /**
+   * Returns true if the source can be opened more than once.
+   *
+   * @return True if the source is repeatable.
+   */
+  public boolean isRepeatable() {
+    return true;
+  }
+
+  /**
+   * Creates a source that reads a file.
+   *
+   * @param file The file to upload.
+   *
+   * @return The upload source.
+   */
+  public static UploadSource fromFile(final File file) {
+
+    return new UploadSource() {
+
+      @Override
+      public InputStream open()
+        throws IOException {
+        return new FileInputStream(file);
+      }
+
+      @Override
+      public long getLength() {
+        return file.length();
+      }
+
+      @Override
+      public String getFilename() {
+        return file.getName();
+      }
+    };
+  }
+
+  /**
+   * Creates a source that reads a stream.  The stream can only be read once
+   * so the upload is never retried.
+   *
+   * @param in The stream to upload.
+   * @param length The number of bytes in the stream, or -1 if not known.  An
+   * unknown length is sent with chunked transfer encoding.
+   * @param filename The filename to send, can be null.
+   *
+   * @return The upload source.
+   */
+  public static UploadSource fromStream(final InputStream in,
+    final long length, final String filename) {
+
+    return new UploadSource() {
+
+      @Override
+      public InputStream open() {
+        return in;
+      }
+
+      @Override
+      public long getLength() {
+        return length;
+      }
+
+      @Override
+      public String getFilename() {
+        return filename;
+      }
+
+      @Override
+      public boolean isRepeatable() {
+        return false;
+      }
+    };
+  }
+
+  /**
+   * Creates a source that reads a content Uri, such as a photo from the
+   * gallery, through the ContentResolver.
+   *
+   * @param context The current android context.
+   * @param uri The content Uri to upload.
+   *
+   * @return The upload source.
+   */
+  public static UploadSource fromUri(Context context, final Uri uri) {
+
+    final ContentResolver resolver = context.getApplicationContext()
+      .getContentResolver();
+
+    // the length is known if the provider can give a file descriptor
+    long uriLength = -1;
+    try {
+      AssetFileDescriptor fd = resolver.openAssetFileDescriptor(uri, "r");
+      if (fd != null) {
+        uriLength = fd.getLength();
+        fd.close();
+      }
+    }
+    catch (IOException e) {
+      // length stays unknown, the body is sent chunked
+    }
+    final long length = uriLength >= 0 ? uriLength : -1;
+
+    return new UploadSource() {
+
+      @Override
+      public InputStream open()
+        throws IOException {
+        return resolver.openInputStream(uri);
+      }
+
+      @Override
+      public long getLength() {
+        return length;
+      }
+
+      @Override
+      public String getFilename() {
+        return uri.getLastPathSegment();
+      }
+    };
+  }
+
+  /**
+   * Creates a source that reads a byte array.
+   *
+   * @param bytes The bytes to upload.
+   * @param filename The filename to send, can be null.
+   *
+   * @return The upload source.
+   */
+  public static UploadSource fromBytes(final byte[] bytes,
+    final String filename) {
+
+    return new UploadSource() {
+
+      @Override
+      public InputStream open() {
+        return new ByteArrayInputStream(bytes);
+      }
+
+      @Override
+      public long getLength() {
+        return bytes.length;
+      }
+
+      @Override
+      public String getFilename() {
+        return filename;
+      }
+    };
+  }
+
+}
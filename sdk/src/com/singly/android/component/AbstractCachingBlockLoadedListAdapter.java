@@ -62,6 +62,13 @@ public abstract class AbstractCachingBlockLoadedListAdapter<T>
    * are also optimizations for moving halfway through a block before attempting 
    * to load other blocks.
    * 
+   * The block for the position is always loaded first and is flagged as
+   * visible, the preloaded blocks are not.  If the block for the position is
+   * already loading, as a preload, {@link #prioritizeBlock(int, int, int)} is
+   * called so it can be moved ahead of the other preloads.  Blocks still
+   * loading that are no longer near the position, for example after a fling,
+   * are cancelled with {@link #cancelBlock(int)}.
+   * 
    * @param position The position in the list to load a block for.
    */
   protected void loadBlocks(int position) {
@@ -99,6 +106,10 @@ public abstract class AbstractCachingBlockLoadedListAdapter<T>
         }
       }
 
+      // drop loads for blocks that are now too far from the position
+      cancelBlocksOutside(posBlockId - blocksToPreload, posBlockId
+        + blocksToPreload);
+
       // load any new blocks
       for (int i = 0; i < blocksToLoad.length; i++) {
 
@@ -110,20 +121,27 @@ public abstract class AbstractCachingBlockLoadedListAdapter<T>
 
         // if not loading then prepare for loading in a guarded manner
         boolean loadBlock = false;
+        boolean loading = false;
         synchronized (this) {
-          if (blockCache.get(curBlockId) == null
-            && !blocksLoading.contains(curBlockId)) {
-            blocksLoading.add(curBlockId);
-            loadBlock = true;
+          if (blockCache.get(curBlockId) == null) {
+            loading = blocksLoading.contains(curBlockId);
+            if (!loading) {
+              blocksLoading.add(curBlockId);
+              loadBlock = true;
+            }
           }
         }
 
         // if we should load this block, meaning not loaded and not currently in
-        // a loading state
+        // a loading state, the first block is the one for the position
+        int offset = (curBlockId * blockSize);
+        int limit = blockSize;
+        boolean visible = (i == 0);
         if (loadBlock) {
-          int offset = (curBlockId * blockSize);
-          int limit = blockSize;
-          loadBlock(curBlockId, offset, limit);
+          loadBlock(curBlockId, offset, limit, visible);
+        }
+        else if (loading && visible) {
+          prioritizeBlock(curBlockId, offset, limit);
         }
       }
     }
@@ -140,6 +158,74 @@ public abstract class AbstractCachingBlockLoadedListAdapter<T>
    */
   protected abstract void loadBlock(int blockId, int offset, int limit);
 
+  /**
+   * Load a single block, knowing whether it is the block for the position
+   * being displayed or a preload.  Subclasses that can prioritize their
+   * requests should override this method, by default it calls
+   * {@link #loadBlock(int, int, int)}.
+   * 
+   * @param blockId The block id to load.
+   * @param offset The offset of rows to load.
+   * @param limit The number of rows to load.
+   * @param visible True if the block holds the position being displayed.
+   */
+  protected void loadBlock(int blockId, int offset, int limit, boolean visible) {
+    loadBlock(blockId, offset, limit);
+  }
+
+  /**
+   * Called when the block for the position being displayed is already
+   * loading, most likely as a preload.  Subclasses that can prioritize their
+   * requests should override this method to move the load ahead of other
+   * preloads, by default it does nothing.
+   * 
+   * @param blockId The block id that is loading.
+   * @param offset The offset of rows being loaded.
+   * @param limit The number of rows being loaded.
+   */
+  protected void prioritizeBlock(int blockId, int offset, int limit) {
+
+  }
+
+  /**
+   * Cancels the load of a single block.  Subclasses that can cancel their
+   * requests should override this method, by default nothing is cancelled.
+   * 
+   * @param blockId The block id to cancel.
+   * 
+   * @return True if the load was cancelled and the block can be loaded again
+   * later, false if the load is still running.
+   */
+  protected boolean cancelBlock(int blockId) {
+    return false;
+  }
+
+  /**
+   * Cancels loading blocks whose ids are outside the range.
+   */
+  private void cancelBlocksOutside(int firstBlockId, int lastBlockId) {
+
+    Integer[] loading;
+    synchronized (this) {
+      loading = blocksLoading.toArray(new Integer[blocksLoading.size()]);
+    }
+
+    for (Integer blockId : loading) {
+      if ((blockId < firstBlockId || blockId > lastBlockId)
+        && cancelBlock(blockId)) {
+        blocksLoading.remove(blockId);
+      }
+    }
+  }
+
+  /**
+   * Cancels every block that is loading, usually when the list is going
+   * away.
+   */
+  public void cancelLoading() {
+    cancelBlocksOutside(Integer.MAX_VALUE, Integer.MIN_VALUE);
+  }
+
   /**
    * Completes the loading and caching process.  This method must be called by
    * subclasses implementing the {@link #loadBlock(int, int, int)} method.
@@ -160,6 +246,23 @@ public abstract class AbstractCachingBlockLoadedListAdapter<T>
     notifyDataSetChanged();
   }
 
+  /**
+   * Ends the loading process for a block that failed to load.  Subclasses
+   * should call this method when a block load fails so the block is no longer
+   * in a loading state and is loaded again the next time it is needed.
+   * 
+   * @param blockId The block id that failed.
+   */
+  protected void failBlock(int blockId) {
+
+    // guard removing from loading state, reset the checkpoint so the next
+    // call to loadBlocks tries again
+    synchronized (this) {
+      blocksLoading.remove(blockId);
+      lastCheckpoint = 0;
+    }
+  }
+
   /**
    * Returns the block id and block position for the current position.
    * 
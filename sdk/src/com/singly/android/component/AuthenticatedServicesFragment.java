@@ -1,5 +1,6 @@
 package com.singly.android.component;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
@@ -12,6 +13,7 @@ import java.util.Set;
 
 import org.apache.commons.lang.StringUtils;
 import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.JsonParser;
 
 import android.app.Activity;
 import android.app.AlertDialog;
@@ -31,8 +33,12 @@ import android.widget.LinearLayout;
 import android.widget.ListView;
 
 import com.singly.android.client.AsyncApiResponseHandler;
+import com.singly.android.client.AuthenticationListener;
+import com.singly.android.client.ResponseParser;
 import com.singly.android.client.SinglyClient;
 import com.singly.android.client.SinglyClient.Authentication;
+import com.singly.android.client.StreamParser;
+import com.singly.android.client.TypedResponseHandler;
 import com.singly.android.sdk.R;
 import com.singly.android.util.ImageCacheListener;
 import com.singly.android.util.ImageInfo;
@@ -72,6 +78,10 @@ import com.singly.android.util.RemoteImageCache;
 public class AuthenticatedServicesFragment
   extends Fragment {
 
+  // only the id and error of each profile are read from /profiles
+  private static final JSON.Projection PROFILE_FIELDS = JSON.projection(
+    "*.id", "*.error");
+
   protected SinglyClient singlyClient;
   protected LinearLayout authServicesLayout;
   protected ListView authListView;
@@ -92,6 +102,21 @@ public class AuthenticatedServicesFragment
   private Map<String, String> serviceIds = new HashMap<String, String>();
   private Set<String> authServices = new HashSet<String>();
 
+  // refreshes the checked services when the user logs in or out
+  private AuthenticationListener authListener = new AuthenticationListener() {
+
+    @Override
+    public void onAuthenticationChanged(Authentication authentication) {
+
+      serviceIds.clear();
+      authServices.clear();
+      servicesAdapter.notifyDataSetChanged();
+      if (authentication.accessToken != null) {
+        updateAuthenticatedServices();
+      }
+    }
+  };
+
   private class ItemClickListener
     implements OnItemClickListener {
 
@@ -154,14 +179,9 @@ public class AuthenticatedServicesFragment
               String serviceUserId = serviceIds.get(serviceId);
               postParams.put("delete", serviceUserId + "@" + serviceId);
 
-              // add the client access token
-              Authentication auth = singlyClient.getAuthentication(activity);
-              if (StringUtils.isNotBlank(auth.accessToken)) {
-                postParams.put("access_token", auth.accessToken);
-              }
-
               // this calls a profile delete, success means the user is no
-              // longer authenticated with the service
+              // longer authenticated with the service, the client adds the
+              // access token
               singlyClient.doPostApiRequest(activity, "/profiles", null,
                 postParams, new AsyncApiResponseHandler() {
 
@@ -206,54 +226,28 @@ public class AuthenticatedServicesFragment
       return;
     }
 
-    // get the access token and pass it in as a query parameter
+    // verify the profiles, the client adds the access token
     Map<String, String> qparams = new LinkedHashMap<String, String>();
     qparams.put("verify", "true");
 
-    // get the access token
-    Authentication auth = singlyClient.getAuthentication(activity);
-    if (StringUtils.isNotBlank(auth.accessToken)) {
-      qparams.put("access_token", auth.accessToken);
-    }
-
-    // get all the services the user is authenticated against
+    // get all the services the user is authenticated against, the profiles
+    // are parsed in the background
     singlyClient.doGetApiRequest(activity, "/profiles", qparams,
-      new AsyncApiResponseHandler() {
+      new StreamParser<Map<String, String>>() {
 
         @Override
-        public void onSuccess(String response) {
-
-          // get the set of services from the response and populate the service
-          // to user id mapping
-          JsonNode root = JSON.parse(response);
-          Map<String, JsonNode> profileNodes = JSON.getFields(root);
-          for (Map.Entry<String, JsonNode> entry : profileNodes.entrySet()) {
-
-            String profileName = entry.getKey();
-            JsonNode profileArrayNode = entry.getValue();
-
-            // ignore the id field which is the singly account id
-            if (!profileName.equals("id")) {
-
-              // the JSON is an array with a singly node containing the profile
-              if (profileArrayNode.isArray()) {
-
-                JsonNode profileNode = profileArrayNode.get(0);
-                
-                // check if the auth token for the profile is no longer valid
-                // if not valid ignore the service
-                JsonNode errorNode = JSON.getJsonNode(profileNode, "error");
-                if (errorNode != null) {
-                  continue;
-                }
+        public Map<String, String> parse(JsonParser parser)
+          throws IOException {
+          return parseProfiles(JSON.project(parser, PROFILE_FIELDS));
+        }
+      }).addHandler(new TypedResponseHandler<Map<String, String>>() {
 
-                // add the profile name and id
-                String profileId = JSON.getString(profileNode, "id");
-                serviceIds.put(profileName, profileId);
-                authServices.add(profileName);
-              }
-            }
-          }
+        @Override
+        public void onSuccess(Map<String, String> profileIds) {
+
+          // populate the service to user id mapping and authenticated services
+          serviceIds.putAll(profileIds);
+          authServices.addAll(profileIds.keySet());
 
           // notify the list view that the data has changed, update view
           servicesAdapter.notifyDataSetChanged();
@@ -263,7 +257,136 @@ public class AuthenticatedServicesFragment
         public void onFailure(Throwable error, String message) {
 
         }
-      });
+      }).setTag(this);
+  }
+
+  /**
+   * Parses the /profiles response into a mapping of service name to the
+   * user's id on that service.  Profiles whose auth token is no longer valid
+   * are left out.  Runs in a background thread.
+   */
+  private static Map<String, String> parseProfiles(JsonNode root) {
+
+    Map<String, String> profileIds = new HashMap<String, String>();
+    Map<String, JsonNode> profileNodes = JSON.getFields(root);
+    for (Map.Entry<String, JsonNode> entry : profileNodes.entrySet()) {
+
+      String profileName = entry.getKey();
+      JsonNode profileArrayNode = entry.getValue();
+
+      // ignore the id field which is the singly account id
+      if (!profileName.equals("id")) {
+
+        // the JSON is an array with a singly node containing the profile
+        if (profileArrayNode.isArray()) {
+
+          JsonNode profileNode = profileArrayNode.get(0);
+
+          // check if the auth token for the profile is no longer valid
+          // if not valid ignore the service
+          JsonNode errorNode = JSON.getJsonNode(profileNode, "error");
+          if (errorNode != null) {
+            continue;
+          }
+
+          // add the profile name and id
+          String profileId = JSON.getString(profileNode, "id");
+          profileIds.put(profileName, profileId);
+        }
+      }
+    }
+
+    return profileIds;
+  }
+
+  /**
+   * Parses the /services response into a list of services sorted by name.
+   * Only the included services are returned if any are set.  Runs in a
+   * background thread.
+   */
+  private List<SinglyService> parseServices(JsonNode rootNode,
+    Set<String> included) {
+
+    // new list of services
+    List<SinglyService> curServices = new ArrayList<SinglyService>();
+    boolean onlyIncluded = !included.isEmpty();
+
+    Map<String, JsonNode> serviceNodes = JSON.getFields(rootNode);
+
+    // loop through the service name to objects
+    for (Map.Entry<String, JsonNode> entry : serviceNodes.entrySet()) {
+
+      // parse and add the service to the services list
+      JsonNode serviceNode = entry.getValue();
+      SinglyService singlyService = new SinglyService();
+      singlyService.id = entry.getKey();
+      singlyService.name = StringUtils.capitalize(JSON.getString(serviceNode,
+        "name"));
+
+      // if we have an include set only use services in the set
+      if (onlyIncluded && !included.contains(singlyService.id)) {
+        continue;
+      }
+
+      // create a map of the icons and their sizes
+      Map<String, String> icons = new HashMap<String, String>();
+      List<JsonNode> iconNodes = JSON.getJsonNodes(serviceNode, "icons");
+      for (JsonNode iconNode : iconNodes) {
+        int height = JSON.getInt(iconNode, "height");
+        int width = JSON.getInt(iconNode, "width");
+        String source = JSON.getString(iconNode, "source");
+        String key = height + "x" + width;
+        icons.put(key, source);
+      }
+      singlyService.icons = icons;
+
+      // if possible retrieve a previously downloaded icon, if not then
+      // download and store it in an async manner
+      ImageInfo imageInfo = new ImageInfo();
+      String id = StringUtils.lowerCase(singlyService.id + "_icon_32x32");
+      imageInfo.id = id;
+      imageInfo.imageUrl = singlyService.icons.get("32x32");
+      imageInfo.width = 32;
+      imageInfo.height = 32;
+      imageInfo.sample = false;
+
+      singlyService.imageInfo = imageInfo;
+
+      // callback that updates the singly image in a singly row if that
+      // row is visible when the image is finished downloading.
+      imageInfo.listener = new ImageCacheListener() {
+
+        @Override
+        public void onSuccess(ImageInfo imageInfo, Bitmap bitmap) {
+
+          int startRow = authListView.getFirstVisiblePosition();
+          int endRow = authListView.getLastVisiblePosition();
+          for (int i = startRow; i <= endRow; i++) {
+            SinglyService curService = services.get(i);
+            if (curService.imageInfo == imageInfo) {
+              View rowView = authListView.getChildAt(i - startRow);
+              ImageView imageView = (ImageView)rowView
+                .findViewById(R.id.iconView1);
+              imageView.setImageBitmap(bitmap);
+              break;
+            }
+          }
+        }
+      };
+
+      curServices.add(singlyService);
+    }
+
+    // sort the services by name
+    Collections.sort(curServices, new Comparator<SinglyService>() {
+
+      @Override
+      public int compare(SinglyService lhs, SinglyService rhs) {
+        return lhs.name.compareTo(rhs.name);
+      }
+    });
+
+    return curServices;
   }
 
   @Override
@@ -297,6 +420,7 @@ public class AuthenticatedServicesFragment
     servicesAdapter = new AuthenticatedServicesAdapter(activity, services,
       authServices, remoteImageCache);
     authListView.setAdapter(servicesAdapter);
+    singlyClient.getAuthenticationState(activity).addListener(authListener);
     return authServicesLayout;
   }
 
@@ -305,92 +429,20 @@ public class AuthenticatedServicesFragment
 
     super.onStart();
 
-    // do a call to singly to get all the available services
+    // do a call to singly to get all the available services, the services
+    // are parsed in the background
+    final Set<String> included = new HashSet<String>(includedServices);
     singlyClient.doGetApiRequest(activity, "/services", null,
-      new AsyncApiResponseHandler() {
+      new ResponseParser<List<SinglyService>>() {
 
         @Override
-        public void onSuccess(String response) {
-
-          // new list of services
-          List<SinglyService> curServices = new ArrayList<SinglyService>();
-          boolean onlyIncluded = !includedServices.isEmpty();
-
-          JsonNode rootNode = JSON.parse(response);
-          Map<String, JsonNode> serviceNodes = JSON.getFields(rootNode);
-
-          // loop through the service name to objects
-          for (Map.Entry<String, JsonNode> entry : serviceNodes.entrySet()) {
-
-            // parse and add the service to the services list
-            JsonNode serviceNode = entry.getValue();
-            SinglyService singlyService = new SinglyService();
-            singlyService.id = entry.getKey();
-            singlyService.name = StringUtils.capitalize(JSON.getString(
-              serviceNode, "name"));
-
-            // if we have an include set only use services in the set
-            if (onlyIncluded && !includedServices.contains(singlyService.id)) {
-              continue;
-            }
-
-            // create a map of the icons and their sizes
-            Map<String, String> icons = new HashMap<String, String>();
-            List<JsonNode> iconNodes = JSON.getJsonNodes(serviceNode, "icons");
-            for (JsonNode iconNode : iconNodes) {
-              int height = JSON.getInt(iconNode, "height");
-              int width = JSON.getInt(iconNode, "width");
-              String source = JSON.getString(iconNode, "source");
-              String key = height + "x" + width;
-              icons.put(key, source);
-            }
-            singlyService.icons = icons;
-
-            // if possible retrieve a previously downloaded icon, if not then
-            // download and store it in an async manner
-            ImageInfo imageInfo = new ImageInfo();
-            String id = StringUtils.lowerCase(singlyService.id + "_icon_32x32");
-            imageInfo.id = id;
-            imageInfo.imageUrl = singlyService.icons.get("32x32");
-            imageInfo.width = 32;
-            imageInfo.height = 32;
-            imageInfo.sample = false;
-
-            singlyService.imageInfo = imageInfo;
-
-            // callback that updates the singly image in a singly row if that
-            // row is visible when the image is finished downloading.
-            imageInfo.listener = new ImageCacheListener() {
-
-              @Override
-              public void onSuccess(ImageInfo imageInfo, Bitmap bitmap) {
-
-                int startRow = authListView.getFirstVisiblePosition();
-                int endRow = authListView.getLastVisiblePosition();
-                for (int i = startRow; i <= endRow; i++) {
-                  SinglyService curService = services.get(i);
-                  if (curService.imageInfo == imageInfo) {
-                    View rowView = authListView.getChildAt(i - startRow);
-                    ImageView imageView = (ImageView)rowView
-                      .findViewById(R.id.iconView1);
-                    imageView.setImageBitmap(bitmap);
-                    break;
-                  }
-                }
-              }
-            };
-
-            curServices.add(singlyService);
-          }
-
-          // sort the services by name
-          Collections.sort(curServices, new Comparator<SinglyService>() {
+        public List<SinglyService> parse(JsonNode root) {
+          return parseServices(root, included);
+        }
+      }).addHandler(new TypedResponseHandler<List<SinglyService>>() {
 
-            @Override
-            public int compare(SinglyService lhs, SinglyService rhs) {
-              return lhs.name.compareTo(rhs.name);
-            }
-          });
+        @Override
+        public void onSuccess(List<SinglyService> curServices) {
 
           // clear and update the services list
           services.clear();
@@ -398,7 +450,6 @@ public class AuthenticatedServicesFragment
 
           // display the changes
           servicesAdapter.notifyDataSetChanged();
-          updateAuthenticatedServices();
         }
 
         @Override
@@ -406,12 +457,18 @@ public class AuthenticatedServicesFragment
           Log.e(AuthenticatedServicesFragment.class.getSimpleName(),
             "Error getting list of authenticated services", error);
         }
-      });
+      }).setTag(this);
+
+    // the authenticated services don't depend on the services list, get them
+    // at the same time, the checkboxes update whichever arrives last
+    updateAuthenticatedServices();
   }
 
   @Override
   public void onDestroyView() {
     super.onDestroyView();
+    singlyClient.getAuthenticationState(activity).removeListener(authListener);
+    singlyClient.cancelRequests(this);
     remoteImageCache.shutdown();
   }
 
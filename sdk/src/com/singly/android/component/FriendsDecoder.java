@@ -0,0 +1,255 @@
+package com.singly.android.component;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang.StringUtils;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+
+/**
+ * Decodes /friends/all responses into {@link Friend} objects token by token,
+ * straight from the response stream, for use in a
+ * {@link com.singly.android.client.StreamParser}.
+ *
+ * No JsonNode tree is built for the response.  Only the fields a Friend
+ * holds are read, any other fields, and the values of fields of an
+ * unexpected type, are skipped without being materialized.
+ */
+public class FriendsDecoder {
+
+  /**
+   * A decoded block of friends.
+   */
+  public static class Block {
+
+    /**
+     * The table of contents, upper cased letter to the offset of its first
+     * friend, null if it wasn't requested.
+     */
+    public Map<String, Integer> tableOfContents;
+    public List<Friend> friends = new ArrayList<Friend>();
+  }
+
+  /**
+   * Decodes a block of friends.  When the block was requested with the toc
+   * parameter the first entry of the response is the table of contents.
+   *
+   * @param parser A parser over the response, before its first token.
+   * @param withToc True if the response starts with the table of contents.
+   *
+   * @return The block of friends, empty if the response isn't an array.
+   *
+   * @throws IOException If the response could not be read or parsed.
+   */
+  public static Block decodeBlock(JsonParser parser, boolean withToc)
+    throws IOException {
+
+    Block block = new Block();
+    if (!startArray(parser)) {
+      return block;
+    }
+
+    boolean tocParsed = !withToc;
+    JsonToken token;
+    while ((token = parser.nextToken()) != JsonToken.END_ARRAY
+      && token != null) {
+
+      if (!tocParsed) {
+        block.tableOfContents = decodeTableOfContentsEntry(parser);
+        tocParsed = true;
+      }
+      else {
+        block.friends.add(decodeFriend(parser));
+      }
+    }
+    return block;
+  }
+
+  /**
+   * Decodes only the table of contents of a response requested with the toc
+   * parameter, the rest of the response is left unread.
+   *
+   * @param parser A parser over the response, before its first token.
+   *
+   * @return The table of contents, upper cased letter to the offset of its
+   * first friend, null if the response is empty or isn't an array.
+   *
+   * @throws IOException If the response could not be read or parsed.
+   */
+  public static Map<String, Integer> decodeTableOfContents(JsonParser parser)
+    throws IOException {
+
+    if (!startArray(parser)) {
+      return null;
+    }
+    JsonToken token = parser.nextToken();
+    if (token == null || token == JsonToken.END_ARRAY) {
+      return null;
+    }
+    return decodeTableOfContentsEntry(parser);
+  }
+
+  /**
+   * Decodes a single friend.  The parser is on the start of the friend
+   * object and is left on its end.
+   *
+   * @param parser The parser, on the start of the friend.
+   *
+   * @return The friend, with no fields set if the value isn't an object.
+   *
+   * @throws IOException If the response could not be read or parsed.
+   */
+  public static Friend decodeFriend(JsonParser parser)
+    throws IOException {
+
+    Friend friend = new Friend();
+    friend.services = new LinkedHashMap<String, Friend.Service>();
+    if (parser.getCurrentToken() != JsonToken.START_OBJECT) {
+      parser.skipChildren();
+      return friend;
+    }
+
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+
+      String field = parser.getCurrentName();
+      JsonToken token = parser.nextToken();
+      if (token == JsonToken.VALUE_STRING) {
+        setField(friend, field, parser.getText());
+      }
+      else if (token == JsonToken.START_OBJECT && "services".equals(field)) {
+        decodeServices(parser, friend.services);
+      }
+      else {
+        parser.skipChildren();
+      }
+    }
+    return friend;
+  }
+
+  /**
+   * Moves onto the start of the response array, skipping the response if it
+   * is anything else.
+   */
+  private static boolean startArray(JsonParser parser)
+    throws IOException {
+
+    JsonToken token = parser.nextToken();
+    if (token != JsonToken.START_ARRAY) {
+      parser.skipChildren();
+      return false;
+    }
+    return true;
+  }
+
+  private static void setField(Friend friend, String field, String value) {
+
+    if ("name".equals(field)) {
+      friend.name = value;
+    }
+    else if ("thumbnail_url".equals(field)) {
+      friend.imageUrl = value;
+    }
+    else if ("handle".equals(field)) {
+      friend.handle = value;
+    }
+    else if ("description".equals(field)) {
+      friend.description = value;
+    }
+    else if ("email".equals(field)) {
+      friend.email = value;
+    }
+    else if ("phone".equals(field)) {
+      friend.phone = value;
+    }
+  }
+
+  /**
+   * Decodes the services of a friend, service name to the friend's id, entry
+   * and url on that service.
+   */
+  private static void decodeServices(JsonParser parser,
+    Map<String, Friend.Service> services)
+    throws IOException {
+
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+
+      String name = parser.getCurrentName();
+      Friend.Service service = new Friend.Service();
+      if (parser.nextToken() == JsonToken.START_OBJECT) {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+          String field = parser.getCurrentName();
+          if (parser.nextToken() != JsonToken.VALUE_STRING) {
+            parser.skipChildren();
+          }
+          else if ("id".equals(field)) {
+            service.id = parser.getText();
+          }
+          else if ("entry".equals(field)) {
+            service.entry = parser.getText();
+          }
+          else if ("url".equals(field)) {
+            service.url = parser.getText();
+          }
+        }
+      }
+      else {
+        parser.skipChildren();
+      }
+      services.put(name, service);
+    }
+  }
+
+  /**
+   * Decodes the table of contents entry, letter to an object holding the
+   * offset of its first friend, skipping the meta field.  The parser is on the
+   * start of the entry and is left on its end.
+   */
+  private static Map<String, Integer> decodeTableOfContentsEntry(
+    JsonParser parser)
+    throws IOException {
+
+    Map<String, Integer> toc = new HashMap<String, Integer>();
+    if (parser.getCurrentToken() != JsonToken.START_OBJECT) {
+      parser.skipChildren();
+      return toc;
+    }
+
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+
+      String letter = parser.getCurrentName();
+      JsonToken token = parser.nextToken();
+      if ("meta".equals(letter)) {
+        parser.skipChildren();
+        continue;
+      }
+
+      // an entry that isn't an object starts at 0, as with JSON.getInt
+      int offset = 0;
+      if (token == JsonToken.START_OBJECT) {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+          String field = parser.getCurrentName();
+          JsonToken valueToken = parser.nextToken();
+          if ("offset".equals(field)
+            && (valueToken == JsonToken.VALUE_NUMBER_INT
+            || valueToken == JsonToken.VALUE_NUMBER_FLOAT)) {
+            offset = parser.getIntValue();
+          }
+          else {
+            parser.skipChildren();
+          }
+        }
+      }
+      else {
+        parser.skipChildren();
+      }
+      toc.put(StringUtils.upperCase(letter), offset);
+    }
+    return toc;
+  }
+
+}
@@ -1,18 +1,19 @@
 package com.singly.android.component;
 
-import java.util.ArrayList;
+import java.io.IOException;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.lang.StringUtils;
-import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.JsonParser;
 
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -21,13 +22,14 @@ import android.widget.ListView;
 import android.widget.ProgressBar;
 import android.widget.TextView;
 
-import com.singly.android.client.AsyncApiResponseHandler;
+import com.singly.android.client.RequestHandle;
+import com.singly.android.client.RequestPriority;
 import com.singly.android.client.SinglyClient;
-import com.singly.android.client.SinglyClient.Authentication;
+import com.singly.android.client.StreamParser;
+import com.singly.android.client.TypedResponseHandler;
 import com.singly.android.sdk.R;
 import com.singly.android.util.ImageCacheListener;
 import com.singly.android.util.ImageInfo;
-import com.singly.android.util.JSON;
 import com.singly.android.util.RemoteImageCache;
 
 /**
@@ -40,7 +42,6 @@ public class FriendsListAdapter
   private LayoutInflater inflater;
   private Context context;
   private SinglyClient singlyClient;
-  private String accessToken;
   private Bitmap defaultImage;
   private Map<Integer, String> sectionPositions;
 
@@ -48,91 +49,139 @@ public class FriendsListAdapter
   private boolean displayImages = true;
   private int defaultImageResource = R.drawable.friend_noimage;
   private RemoteImageCache remoteImageCache;
+  private Map<Integer, RequestHandle> blockRequests = new ConcurrentHashMap<Integer, RequestHandle>();
+
+  private static class FriendsBlock {
+    Map<Integer, String> sectionPositions;
+    List<Friend> friends;
+  }
 
   private static class ViewHolder {
     TextView sectionHeader;
     ProgressBar progress;
     TextView name;
     ImageView image;
+    String imageId;
   }
 
-  @Override
-  protected void loadBlock(final int blockId, final int offset, final int limit) {
+  /**
+   * Creates the query parameters for a block of friends.
+   */
+  private Map<String, String> getBlockParams(int offset, int limit,
+    boolean withToc) {
 
-    // get the access token and query parameters
+    // the access token is added by the singly client
     Map<String, String> qparams = new HashMap<String, String>();
-    qparams.put("access_token", accessToken);
     qparams.put("offset", String.valueOf(offset));
     qparams.put("limit", String.valueOf(limit));
 
     // we only need the toc on the first call
-    qparams.put("toc", sectionPositions == null ? "true" : "false");
+    qparams.put("toc", withToc ? "true" : "false");
+    return qparams;
+  }
+
+  @Override
+  protected void loadBlock(int blockId, int offset, int limit) {
+    loadBlock(blockId, offset, limit, true);
+  }
+
+  @Override
+  protected void prioritizeBlock(int blockId, int offset, int limit) {
+
+    // the block is queued as a preload but is now on screen, we don't know if
+    // it was requested with the toc so try both
+    singlyClient.prioritizeGetApiRequest("/friends/all",
+      getBlockParams(offset, limit, false), RequestPriority.VISIBLE);
+    singlyClient.prioritizeGetApiRequest("/friends/all",
+      getBlockParams(offset, limit, true), RequestPriority.VISIBLE);
+  }
+
+  @Override
+  protected void loadBlock(final int blockId, final int offset,
+    final int limit, boolean visible) {
+
+    final boolean withToc = sectionPositions == null;
+    Map<String, String> qparams = getBlockParams(offset, limit, withToc);
+    RequestPriority priority = visible ? RequestPriority.VISIBLE
+      : RequestPriority.PREFETCH;
 
-    // make a call to the api to get the block
-    singlyClient.doGetApiRequest(context, "/friends/all", qparams,
-      new AsyncApiResponseHandler() {
+    // make a call to the api to get the block, parsed in the background,
+    // blocks on screen are requested ahead of preloaded blocks
+    RequestHandle handle = singlyClient.doGetApiRequest(context,
+      "/friends/all", qparams, priority,
+      new StreamParser<FriendsBlock>() {
 
         @Override
-        public void onSuccess(String response) {
-
-          List<Friend> blockOfFriends = new ArrayList<Friend>();
-          JsonNode root = JSON.parse(response);
-
-          for (JsonNode node : root) {
-
-            if (sectionPositions == null) {
-
-              // create the section headers from the table of contents
-              sectionPositions = Collections
-                .synchronizedMap(new HashMap<Integer, String>());
-              Map<String, JsonNode> tocFields = JSON.getFields(node);
-              for (Map.Entry<String, JsonNode> tocField : tocFields.entrySet()) {
-                String tocKey = tocField.getKey();
-                JsonNode tocNode = tocField.getValue();
-                if (!StringUtils.equals(tocKey, "meta")) {
-                  sectionPositions.put(JSON.getInt(tocNode, "offset"),
-                    StringUtils.upperCase(tocKey));
-                }
-              }
-            }
-            else {
-
-              // parse the friend
-              Friend friend = new Friend();
-              friend.name = JSON.getString(node, "name");
-              friend.imageUrl = JSON.getString(node, "thumbnail_url");
-              friend.handle = JSON.getString(node, "handle");
-              friend.description = JSON.getString(node, "description");
-              friend.email = JSON.getString(node, "email");
-              friend.phone = JSON.getString(node, "phone");
-
-              // parse the friend services
-              JsonNode servicesN = JSON.getJsonNode(node, "services");
-              Map<String, JsonNode> serviceFields = JSON.getFields(servicesN);
-              Map<String, Friend.Service> services = new LinkedHashMap<String, Friend.Service>();
-              for (Map.Entry<String, JsonNode> entry : serviceFields.entrySet()) {
-                Friend.Service service = new Friend.Service();
-                service.id = JSON.getString(node, "id");
-                service.entry = JSON.getString(node, "entry");
-                service.url = JSON.getString(node, "url");
-                services.put(entry.getKey(), service);
-              }
-              friend.services = services;
-
-              // add friend to the block
-              blockOfFriends.add(friend);
-            }
+        public FriendsBlock parse(JsonParser parser)
+          throws IOException {
+          return parseBlock(parser, withToc);
+        }
+      }, new TypedResponseHandler<FriendsBlock>() {
+
+        @Override
+        public void onSuccess(FriendsBlock block) {
+
+          blockRequests.remove(blockId);
+
+          // only the first block carries the section headers
+          if (sectionPositions == null && block.sectionPositions != null) {
+            sectionPositions = block.sectionPositions;
           }
 
           // cache the block
-          finishAndCacheBlock(blockId, blockOfFriends);
+          finishAndCacheBlock(blockId, block.friends);
         }
 
         @Override
         public void onFailure(Throwable error, String message) {
-          error.printStackTrace();
+
+          // transient failures were already retried, let the block be loaded
+          // again the next time it is needed
+          blockRequests.remove(blockId);
+          failBlock(blockId);
+          Log.w(FriendsListAdapter.class.getSimpleName(),
+            "Error loading friends block " + blockId, error);
         }
       });
+
+    // tagged with the adapter so all of its requests can be cancelled
+    blockRequests.put(blockId, handle.setTag(this));
+  }
+
+  @Override
+  protected boolean cancelBlock(int blockId) {
+    RequestHandle handle = blockRequests.remove(blockId);
+    return handle != null && handle.cancel();
+  }
+
+  @Override
+  public void cancelLoading() {
+    super.cancelLoading();
+    singlyClient.cancelRequests(this);
+  }
+
+  /**
+   * Parses a block of friends, and the table of contents if it was requested,
+   * straight from the response stream.  Runs in a background thread.
+   */
+  private static FriendsBlock parseBlock(JsonParser parser, boolean withToc)
+    throws IOException {
+
+    FriendsDecoder.Block decoded = FriendsDecoder.decodeBlock(parser, withToc);
+    FriendsBlock block = new FriendsBlock();
+    block.friends = decoded.friends;
+
+    // create the section headers from the table of contents
+    if (decoded.tableOfContents != null) {
+      block.sectionPositions = Collections
+        .synchronizedMap(new HashMap<Integer, String>());
+      for (Map.Entry<String, Integer> tocEntry : decoded.tableOfContents
+        .entrySet()) {
+        block.sectionPositions.put(tocEntry.getValue(), tocEntry.getKey());
+      }
+    }
+
+    return block;
   }
 
   /**
@@ -154,10 +203,8 @@ public class FriendsListAdapter
     this.inflater = (LayoutInflater)context
       .getSystemService(Context.LAYOUT_INFLATER_SERVICE);
 
-    // get the singly client and access token
+    // get the singly client
     this.singlyClient = SinglyClient.getInstance();
-    Authentication auth = singlyClient.getAuthentication(context);
-    this.accessToken = auth.accessToken;
   }
 
   @Override
@@ -269,6 +316,13 @@ public class FriendsListAdapter
 
         };
 
+        // the row was showing an image for a row now scrolled away, stop
+        // downloading it
+        if (viewHolder.imageId != null && !viewHolder.imageId.equals(id)) {
+          remoteImageCache.cancel(viewHolder.imageId);
+        }
+        viewHolder.imageId = id;
+
         // get the friend image or the default
         Bitmap friendImage = remoteImageCache.getImage(imageInfo);
         if (friendImage == null) {
@@ -1,9 +1,8 @@
 package com.singly.android.component;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.io.IOException;
 
-import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.JsonParser;
 
 import android.app.Activity;
 import android.os.Bundle;
@@ -17,9 +16,9 @@ import android.widget.AdapterView.OnItemClickListener;
 import android.widget.LinearLayout;
 import android.widget.ListView;
 
-import com.singly.android.client.AsyncApiResponseHandler;
 import com.singly.android.client.SinglyClient;
-import com.singly.android.client.SinglyClient.Authentication;
+import com.singly.android.client.StreamParser;
+import com.singly.android.client.TypedResponseHandler;
 import com.singly.android.sdk.R;
 import com.singly.android.util.JSON;
 import com.singly.android.util.RemoteImageCache;
@@ -63,6 +62,9 @@ import com.singly.android.util.RemoteImageCache;
 public class FriendsListFragment
   extends Fragment {
 
+  // only the total number of friends is read from /friends
+  private static final JSON.Projection FRIENDS_FIELDS = JSON.projection("all");
+
   protected Activity activity;
   protected LinearLayout friendsLayout;
   protected ListView friendsListView;
@@ -103,21 +105,23 @@ public class FriendsListFragment
     // get the singly client
     this.singlyClient = SinglyClient.getInstance();
 
-    // get the access token and query parameters
-    Map<String, String> qparams = new HashMap<String, String>();
-    Authentication auth = singlyClient.getAuthentication(activity);
-    qparams.put("access_token", auth.accessToken);
+    // get total number of rows, the access token is added by the client,
+    // only the total is read from the response stream in the background
+    singlyClient.doGetApiRequest(activity, "/friends", null,
+      new StreamParser<Integer>() {
 
-    // get total number of rows
-    singlyClient.doGetApiRequest(activity, "/friends", qparams,
-      new AsyncApiResponseHandler() {
+        @Override
+        public Integer parse(JsonParser parser)
+          throws IOException {
+          return JSON.getInt(JSON.project(parser, FRIENDS_FIELDS), "all");
+        }
+      }, new TypedResponseHandler<Integer>() {
 
         @Override
-        public void onSuccess(String response) {
+        public void onSuccess(Integer total) {
 
-          // get the number of friends from the friends API
-          JsonNode root = JSON.parse(response);
-          rows = JSON.getInt(root, "all");
+          // the number of friends from the friends API
+          rows = total;
 
           // create the friends adapter and set into the view
           friendsListAdapter = new FriendsListAdapter(activity, rows,
@@ -155,7 +159,7 @@ public class FriendsListFragment
           Log.e(FriendsListFragment.class.getSimpleName(),
             "Error getting friends", error);
         }
-      });
+      }).setTag(this);
 
     return friendsLayout;
   }
@@ -163,6 +167,10 @@ public class FriendsListFragment
   @Override
   public void onDestroyView() {
     super.onDestroyView();
+    singlyClient.cancelRequests(this);
+    if (friendsListAdapter != null) {
+      friendsListAdapter.cancelLoading();
+    }
     if (remoteImageCache != null) {
       remoteImageCache.shutdown();
     }
@@ -1,30 +1,215 @@
 package com.singly.android.util;
 
-import java.io.StringReader;
-import java.io.StringWriter;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.commons.lang.StringUtils;
-import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.JsonFactory;
 import org.codehaus.jackson.JsonNode;
 import org.codehaus.jackson.JsonParser;
-import org.codehaus.jackson.map.MappingJsonFactory;
+import org.codehaus.jackson.JsonToken;
 import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.map.ObjectReader;
+import org.codehaus.jackson.map.ObjectWriter;
 import org.codehaus.jackson.node.ArrayNode;
 import org.codehaus.jackson.node.BooleanNode;
 import org.codehaus.jackson.node.DoubleNode;
+import org.codehaus.jackson.node.JsonNodeFactory;
+import org.codehaus.jackson.node.NullNode;
 import org.codehaus.jackson.node.NumericNode;
+import org.codehaus.jackson.node.ObjectNode;
 import org.codehaus.jackson.node.TextNode;
 
 /**
  * Utility methods for parsing JSON strings and getting values.
+ * 
+ * Every method shares a single ObjectMapper, and the JsonFactory it parses
+ * with, so the serializer and deserializer caches and type introspection are
+ * built once instead of on every call.  The mapper is never reconfigured
+ * after it is created, which makes it, and the readers and writers built
+ * from it, safe to use from any thread.
  */
 public class JSON {
 
+  // the one mapper and its factory for parsers over strings and streams
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+  private static final JsonFactory FACTORY = MAPPER.getJsonFactory();
+
+  // readers and writers built once and reused, immutable and thread safe
+  private static final ObjectReader TREE_READER = MAPPER.reader(JsonNode.class);
+  private static final ObjectReader MAP_READER = MAPPER.reader(Map.class);
+  private static final ObjectWriter WRITER = MAPPER.writer();
+  private static final ConcurrentMap<Class<?>, ObjectReader> READERS = new ConcurrentHashMap<Class<?>, ObjectReader>();
+
+  /**
+   * A set of field paths to keep when parsing a document, created with
+   * {@link JSON#projection(String...)}.  Paths are field names separated by
+   * dots, such as "data.name".  A * matches any field name, so "*.id" keeps
+   * the id field of every top level object.  Arrays are passed through, the
+   * elements of an array are matched against the same path as the array.
+   * 
+   * A projection is immutable once created and can be shared across threads.
+   */
+  public static class Projection {
+
+    // a path ends here and the whole value is kept
+    private boolean whole = false;
+    private Map<String, Projection> fields = new HashMap<String, Projection>();
+    private Projection anyField;
+
+    private Projection() {
+    }
+
+    private void add(String[] path, int index) {
+
+      if (index == path.length) {
+        whole = true;
+        return;
+      }
+
+      Projection child;
+      if (path[index].equals("*")) {
+        if (anyField == null) {
+          anyField = new Projection();
+        }
+        child = anyField;
+      }
+      else {
+        child = fields.get(path[index]);
+        if (child == null) {
+          child = new Projection();
+          fields.put(path[index], child);
+        }
+      }
+      child.add(path, index + 1);
+    }
+
+    /**
+     * Copies the paths of another projection into this one.
+     */
+    private void merge(Projection other) {
+
+      whole |= other.whole;
+      for (Map.Entry<String, Projection> entry : other.fields.entrySet()) {
+        Projection child = fields.get(entry.getKey());
+        if (child == null) {
+          child = new Projection();
+          fields.put(entry.getKey(), child);
+        }
+        child.merge(entry.getValue());
+      }
+      if (other.anyField != null) {
+        if (anyField == null) {
+          anyField = new Projection();
+        }
+        anyField.merge(other.anyField);
+      }
+    }
+
+    /**
+     * Merges the * paths into every named field, so each field is matched by
+     * a single projection.
+     */
+    private void resolve() {
+
+      for (Projection child : fields.values()) {
+        if (anyField != null) {
+          child.merge(anyField);
+        }
+        child.resolve();
+      }
+      if (anyField != null) {
+        anyField.resolve();
+      }
+    }
+
+    private Projection getField(String field) {
+      Projection child = fields.get(field);
+      return child != null ? child : anyField;
+    }
+  }
+
+  /**
+   * Creates a parser that reads JSON tokens directly from a stream.  The
+   * encoding is detected from the first bytes of the stream.
+   * 
+   * @param in The JSON stream to parse.
+   * 
+   * @return A JsonParser over the stream.
+   * 
+   * @throws IOException If the parser could not be created.
+   */
+  public static JsonParser createParser(InputStream in)
+    throws IOException {
+    return FACTORY.createJsonParser(in);
+  }
+
+  /**
+   * Returns the shared reader for a type, built the first time the type is
+   * read.  Readers are immutable and can be used from any thread.
+   * 
+   * @param valueType The type to read.
+   * 
+   * @return The reader for the type.
+   */
+  public static ObjectReader getReader(Class<?> valueType) {
+
+    ObjectReader reader = READERS.get(valueType);
+    if (reader == null) {
+      reader = MAPPER.reader(valueType);
+      ObjectReader existing = READERS.putIfAbsent(valueType, reader);
+      if (existing != null) {
+        reader = existing;
+      }
+    }
+    return reader;
+  }
+
+  /**
+   * Returns the shared writer.  Writers are immutable and can be used from
+   * any thread.
+   * 
+   * @return The shared writer.
+   */
+  public static ObjectWriter getWriter() {
+    return WRITER;
+  }
+
+  /**
+   * Loads and initializes the Jackson classes used to parse responses, by
+   * parsing a small document with every kind of value, so the first real
+   * response doesn't pay for class loading.  Can be called from a background
+   * thread at startup.
+   */
+  public static void warmUp() {
+
+    String json = "{\"s\":\"a\",\"i\":1,\"l\":12345678901,\"d\":1.5,"
+      + "\"b\":true,\"n\":null,\"a\":[1,\"b\",{}]}";
+    try {
+      JsonNode root = createParser(new ByteArrayInputStream(json.getBytes(
+        "UTF-8"))).readValueAsTree();
+      getString(root, "s");
+      getLong(root, "l");
+      getDouble(root, "d");
+      getBoolean(root, "b");
+      getJsonNodes(root, "a");
+    }
+    catch (IOException e) {
+      // the document is valid, nothing to do
+    }
+    parse(json);
+  }
+
   /**
    * Returns true if the string look like a valid JSON string, starting and
    * ending with either squiggly or square brackets.
@@ -51,11 +236,50 @@ public class JSON {
    */
   public static JsonNode parse(String json) {
 
-    ObjectMapper mapper = new ObjectMapper();
-    JsonNode root = null;
     try {
-      root = mapper.readValue(new StringReader(json), JsonNode.class);
-      return root;
+      return TREE_READER.readValue(json);
+    }
+    catch (Exception e) {
+      return null;
+    }
+  }
+
+  /**
+   * Parses JSON bytes into a tree of JsonNode objects.  The bytes are
+   * tokenized directly, the encoding, UTF-8, UTF-16 or UTF-32, is detected
+   * from the first bytes, so the body of a response never has to be decoded
+   * into a String first.
+   * 
+   * @param bytes The buffer holding the JSON bytes.
+   * @param offset The offset of the JSON in the buffer.
+   * @param length The number of JSON bytes.
+   * 
+   * @return The root of a tree of JsonNode objects.
+   */
+  public static JsonNode parse(byte[] bytes, int offset, int length) {
+
+    try {
+      return TREE_READER.readValue(bytes, offset, length);
+    }
+    catch (Exception e) {
+      return null;
+    }
+  }
+
+  /**
+   * Parses a JSON stream into a tree of JsonNode objects, reading the bytes
+   * through the parser's own recycled buffers.  The encoding is detected from
+   * the first bytes of the stream.  The stream is closed once it is parsed,
+   * which returns the buffers for reuse.
+   * 
+   * @param in The JSON stream to parse.
+   * 
+   * @return The root of a tree of JsonNode objects.
+   */
+  public static JsonNode parse(InputStream in) {
+
+    try {
+      return TREE_READER.readValue(in);
     }
     catch (Exception e) {
       return null;
@@ -72,48 +296,150 @@ public class JSON {
    */
   public static Map<String, Object> parseToMap(String json) {
 
-    ObjectMapper mapper = new ObjectMapper();
-    Map root = null;
     try {
-      root = mapper.readValue(new StringReader(json), Map.class);
+      return MAP_READER.readValue(json);
     }
     catch (Exception e) {
       return null;
     }
-    return root;
   }
 
   public static String serializeToJson(Object object) {
 
     try {
+      return WRITER.writeValueAsString(object);
+    }
+    catch (Exception e) {
+      return null;
+    }
+  }
 
-      StringWriter sw = new StringWriter();
-      ObjectMapper mapper = new ObjectMapper();
-      MappingJsonFactory jsonFactory = new MappingJsonFactory();
-      JsonGenerator jsonGenerator = jsonFactory.createJsonGenerator(sw);
-      mapper.writeValue(jsonGenerator, object);
-      sw.close();
+  public static Object deserializeFromJson(String json, Class valueType) {
 
-      return sw.toString();
+    try {
+      return getReader(valueType).readValue(json);
     }
     catch (Exception e) {
       return null;
     }
   }
 
-  public static Object deserializeFromJson(String json, Class valueType) {
+  /**
+   * Creates a projection of the given field paths, to parse only those fields
+   * of a document.  Projections should be created once and reused.
+   * 
+   * @param paths The field paths to keep, such as "all" or "*.id".
+   * 
+   * @return The projection of the paths.
+   * 
+   * @see Projection
+   */
+  public static Projection projection(String... paths) {
+
+    Projection projection = new Projection();
+    for (String path : paths) {
+      projection.add(StringUtils.split(path, '.'), 0);
+    }
+    projection.resolve();
+    return projection;
+  }
+
+  /**
+   * Parses only the projected fields of the JSON string into a tree of
+   * JsonNode objects.  Any other fields are skipped token by token, without
+   * being built into nodes.
+   * 
+   * @param json The JSON string to parse.
+   * @param projection The fields to keep.
+   * 
+   * @return The root of a tree holding only the projected fields.
+   */
+  public static JsonNode parse(String json, Projection projection) {
 
     try {
-      ObjectMapper mapper = new ObjectMapper();
-      MappingJsonFactory jsonFactory = new MappingJsonFactory();
-      JsonParser jsonParser = jsonFactory.createJsonParser(json);
-      return mapper.readValue(jsonParser, valueType);
+      return project(FACTORY.createJsonParser(json), projection);
     }
     catch (Exception e) {
       return null;
     }
   }
 
+  /**
+   * Reads only the projected fields of the next value of a parser into a tree
+   * of JsonNode objects, such as from a
+   * {@link com.singly.android.client.StreamParser}.  Any other fields are
+   * skipped token by token, without being built into nodes.  Objects on a
+   * projected path are kept even if none of their fields are, values of
+   * arrays that aren't kept become nulls so the positions of the others
+   * don't change.
+   * 
+   * @param parser The parser, before or on the first token of the value.
+   * @param projection The fields to keep.
+   * 
+   * @return The root of a tree holding only the projected fields, null if
+   * there is no value.
+   * 
+   * @throws IOException If the value could not be read or parsed.
+   */
+  public static JsonNode project(JsonParser parser, Projection projection)
+    throws IOException {
+
+    if (parser.getCurrentToken() == null && parser.nextToken() == null) {
+      return null;
+    }
+    JsonNode root = projectValue(parser, projection);
+    return root != null ? root : NullNode.getInstance();
+  }
+
+  /**
+   * Reads the projected fields of the value the parser is on, leaving the
+   * parser on its last token.  Returns null if nothing of the value is kept.
+   */
+  private static JsonNode projectValue(JsonParser parser,
+    Projection projection)
+    throws IOException {
+
+    // the reader returns null, not a null node, for a null value
+    if (projection.whole) {
+      JsonNode value = TREE_READER.readValue(parser);
+      return value != null ? value : NullNode.getInstance();
+    }
+
+    JsonToken token = parser.getCurrentToken();
+    if (token == JsonToken.START_OBJECT) {
+
+      ObjectNode node = JsonNodeFactory.instance.objectNode();
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+
+        String field = parser.getCurrentName();
+        Projection child = projection.getField(field);
+        parser.nextToken();
+        if (child == null) {
+          parser.skipChildren();
+          continue;
+        }
+        JsonNode value = projectValue(parser, child);
+        if (value != null) {
+          node.put(field, value);
+        }
+      }
+      return node;
+    }
+    else if (token == JsonToken.START_ARRAY) {
+
+      ArrayNode node = JsonNodeFactory.instance.arrayNode();
+      while ((token = parser.nextToken()) != JsonToken.END_ARRAY
+        && token != null) {
+        JsonNode value = projectValue(parser, projection);
+        node.add(value != null ? value : NullNode.getInstance());
+      }
+      return node;
+    }
+
+    // a path that goes past a scalar value doesn't match it
+    return null;
+  }
+
   public static JsonNode getJsonNode(JsonNode parent, String field) {
 
     boolean parentNull = parent != null && !parent.isNull();
@@ -212,6 +538,65 @@ public class JSON {
     return boolVals;
   }
 
+  public static boolean[] getBooleanArray(JsonNode parent, String field) {
+    return getBooleanArray(getJsonNode(parent, field));
+  }
+
+  /**
+   * Returns the booleans of a node, or of an array node, as a boolean array
+   * without boxing each value.
+   * 
+   * @param node The node to get the values of.
+   * 
+   * @return The values, an empty array if there are none.
+   */
+  public static boolean[] getBooleanArray(JsonNode node) {
+
+    BitSet bits = new BitSet();
+    int count = getBooleans(node, bits);
+    boolean[] values = new boolean[count];
+    for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1)) {
+      values[i] = true;
+    }
+    return values;
+  }
+
+  public static int getBooleans(JsonNode parent, String field, BitSet values) {
+    return getBooleans(getJsonNode(parent, field), values);
+  }
+
+  /**
+   * Fills a caller provided bit set with the booleans of a node, or of an
+   * array node, one bit per value, so the bit set can be reused across calls.
+   * The bit set is cleared first.
+   * 
+   * @param node The node to get the values of.
+   * @param values The bit set to fill, from bit 0.
+   * 
+   * @return The number of values, bits past it are false.
+   */
+  public static int getBooleans(JsonNode node, BitSet values) {
+
+    values.clear();
+    int count = 0;
+    if (node != null && !node.isNull()) {
+      if (node instanceof BooleanNode) {
+        values.set(0, node.getBooleanValue());
+        count = 1;
+      }
+      else if (node instanceof ArrayNode) {
+        for (int i = 0; i < node.size(); i++) {
+          JsonNode curNode = node.get(i);
+          if (curNode instanceof BooleanNode) {
+            values.set(count, curNode.getBooleanValue());
+            count++;
+          }
+        }
+      }
+    }
+    return count;
+  }
+
   public static int getInt(JsonNode parent, String field) {
     return getInt(parent, field, 0);
   }
@@ -248,6 +633,69 @@ public class JSON {
     return intVals;
   }
 
+  public static int[] getIntArray(JsonNode parent, String field) {
+    return getIntArray(getJsonNode(parent, field));
+  }
+
+  /**
+   * Returns the numbers of a node, or of an array node, as a int array without
+   * boxing each value.
+   * 
+   * @param node The node to get the values of.
+   * 
+   * @return The values, an empty array if there are none.
+   */
+  public static int[] getIntArray(JsonNode node) {
+
+    int[] values = new int[getMaxValues(node)];
+    int count = getInts(node, values);
+    if (count < values.length) {
+      int[] trimmed = new int[count];
+      System.arraycopy(values, 0, trimmed, 0, count);
+      return trimmed;
+    }
+    return values;
+  }
+
+  public static int getInts(JsonNode parent, String field, int[] values) {
+    return getInts(getJsonNode(parent, field), values);
+  }
+
+  /**
+   * Fills a caller provided array with the numbers of a node, or of an array
+   * node, so the array can be reused across calls without any garbage.
+   * 
+   * @param node The node to get the values of.
+   * @param values The array to fill, from index 0.
+   * 
+   * @return The number of values the node has, if more than the length of the
+   * array only the first values fit.
+   */
+  public static int getInts(JsonNode node, int[] values) {
+
+    int count = 0;
+    if (node != null && !node.isNull()) {
+      if (node instanceof NumericNode) {
+        if (values.length > 0) {
+          values[0] = node.getIntValue();
+        }
+        count = 1;
+      }
+      else if (node instanceof ArrayNode) {
+        for (int i = 0; i < node.size(); i++) {
+          JsonNode curNode = node.get(i);
+          if (curNode instanceof NumericNode) {
+            if (count < values.length) {
+              values[count] = curNode.getIntValue();
+            }
+            count++;
+          }
+        }
+      }
+    }
+    return count;
+  }
+
   public static long getLong(JsonNode parent, String field) {
     return getLong(parent, field, 0L);
   }
@@ -284,6 +732,69 @@ public class JSON {
     return longVals;
   }
 
+  public static long[] getLongArray(JsonNode parent, String field) {
+    return getLongArray(getJsonNode(parent, field));
+  }
+
+  /**
+   * Returns the numbers of a node, or of an array node, as a long array without
+   * boxing each value.
+   * 
+   * @param node The node to get the values of.
+   * 
+   * @return The values, an empty array if there are none.
+   */
+  public static long[] getLongArray(JsonNode node) {
+
+    long[] values = new long[getMaxValues(node)];
+    int count = getLongs(node, values);
+    if (count < values.length) {
+      long[] trimmed = new long[count];
+      System.arraycopy(values, 0, trimmed, 0, count);
+      return trimmed;
+    }
+    return values;
+  }
+
+  public static int getLongs(JsonNode parent, String field, long[] values) {
+    return getLongs(getJsonNode(parent, field), values);
+  }
+
+  /**
+   * Fills a caller provided array with the numbers of a node, or of an array
+   * node, so the array can be reused across calls without any garbage.
+   * 
+   * @param node The node to get the values of.
+   * @param values The array to fill, from index 0.
+   * 
+   * @return The number of values the node has, if more than the length of the
+   * array only the first values fit.
+   */
+  public static int getLongs(JsonNode node, long[] values) {
+
+    int count = 0;
+    if (node != null && !node.isNull()) {
+      if (node instanceof NumericNode) {
+        if (values.length > 0) {
+          values[0] = node.getLongValue();
+        }
+        count = 1;
+      }
+      else if (node instanceof ArrayNode) {
+        for (int i = 0; i < node.size(); i++) {
+          JsonNode curNode = node.get(i);
+          if (curNode instanceof NumericNode) {
+            if (count < values.length) {
+              values[count] = curNode.getLongValue();
+            }
+            count++;
+          }
+        }
+      }
+    }
+    return count;
+  }
+
   public static double getDouble(JsonNode parent, String field) {
     return getDouble(parent, field, 0.0d);
   }
@@ -321,6 +832,80 @@ public class JSON {
     return doubleVals;
   }
 
+  public static double[] getDoubleArray(JsonNode parent, String field) {
+    return getDoubleArray(getJsonNode(parent, field));
+  }
+
+  /**
+   * Returns the decimal numbers of a node, or of an array node, as a double
+   * array without boxing each value.
+   * 
+   * @param node The node to get the values of.
+   * 
+   * @return The values, an empty array if there are none.
+   */
+  public static double[] getDoubleArray(JsonNode node) {
+
+    double[] values = new double[getMaxValues(node)];
+    int count = getDoubles(node, values);
+    if (count < values.length) {
+      double[] trimmed = new double[count];
+      System.arraycopy(values, 0, trimmed, 0, count);
+      return trimmed;
+    }
+    return values;
+  }
+
+  public static int getDoubles(JsonNode parent, String field, double[] values) {
+    return getDoubles(getJsonNode(parent, field), values);
+  }
+
+  /**
+   * Fills a caller provided array with the decimal numbers of a node, or of an
+   * array node, so the array can be reused across calls without any garbage.
+   * 
+   * @param node The node to get the values of.
+   * @param values The array to fill, from index 0.
+   * 
+   * @return The number of values the node has, if more than the length of the
+   * array only the first values fit.
+   */
+  public static int getDoubles(JsonNode node, double[] values) {
+
+    int count = 0;
+    if (node != null && !node.isNull()) {
+      if (node instanceof DoubleNode) {
+        if (values.length > 0) {
+          values[0] = node.getDoubleValue();
+        }
+        count = 1;
+      }
+      else if (node instanceof ArrayNode) {
+        for (int i = 0; i < node.size(); i++) {
+          JsonNode curNode = node.get(i);
+          if (curNode instanceof DoubleNode) {
+            if (count < values.length) {
+              values[count] = curNode.getDoubleValue();
+            }
+            count++;
+          }
+        }
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Returns the most values a node can hold, the size of an array node or one
+   * for any other node.
+   */
+  private static int getMaxValues(JsonNode node) {
+    if (node == null || node.isNull()) {
+      return 0;
+    }
+    return node instanceof ArrayNode ? node.size() : 1;
+  }
+
   public static List<String> getFieldnames(JsonNode parent) {
 
     List<String> fieldnames = new ArrayList<String>();
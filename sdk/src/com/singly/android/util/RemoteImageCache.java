@@ -5,13 +5,23 @@ import java.io.File;
 import java.io.IOException;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Set;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.commons.io.FileUtils;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.StatusLine;
+import org.apache.http.client.HttpResponseException;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.util.EntityUtils;
 
 import android.content.Context;
 import android.graphics.Bitmap;
@@ -20,8 +30,11 @@ import android.os.Handler;
 import android.os.Looper;
 import android.support.v4.util.LruCache;
 
-import com.loopj.android.http.AsyncHttpClient;
-import com.loopj.android.http.BinaryHttpResponseHandler;
+import com.singly.android.client.HttpEngine;
+import com.singly.android.client.RateLimiter;
+import com.singly.android.client.RequestMetrics;
+import com.singly.android.client.SinglyClient;
+import com.singly.android.client.SinglyMetrics;
 
 /**
  * A class that downloads and caches remote images to the local filesystem.
@@ -43,6 +56,9 @@ import com.loopj.android.http.BinaryHttpResponseHandler;
  * if the image is remote, has already been cached locally, or is in memory.
  * There are options for specifying max concurrent downloads and max number of
  * images to cache in memory.
+ * 
+ * Downloads for images that are no longer needed, such as thumbnails for rows
+ * that have scrolled away, can be cancelled with {@link #cancel(String)}.
  */
 public class RemoteImageCache {
 
@@ -59,10 +75,31 @@ public class RemoteImageCache {
   private LruCache<String, Bitmap> imageCache;
   private Set<String> bad = Collections.synchronizedSet(new HashSet<String>());
   private Set<String> down = Collections.synchronizedSet(new HashSet<String>());
+  private ConcurrentMap<String, HttpGet> downloads = new ConcurrentHashMap<String, HttpGet>();
 
-  private AsyncHttpClient httpClient = new AsyncHttpClient();
+  private HttpEngine httpEngine = SinglyClient.getInstance().getHttpEngine();
+  private SinglyMetrics metrics = SinglyClient.getInstance().getMetrics();
   private Handler handler = new Handler(Looper.getMainLooper());
 
+  /**
+   * Reads the image bytes from the response, error statuses are thrown.
+   */
+  private static final ResponseHandler<byte[]> IMAGE_READER = new ResponseHandler<byte[]>() {
+
+    @Override
+    public byte[] handleResponse(HttpResponse response)
+      throws IOException {
+
+      StatusLine status = response.getStatusLine();
+      if (status.getStatusCode() >= 300) {
+        throw new HttpResponseException(status.getStatusCode(),
+          status.getReasonPhrase());
+      }
+      HttpEntity entity = response.getEntity();
+      return entity != null ? EntityUtils.toByteArray(entity) : null;
+    }
+  };
+
   /**
    * Downloader thread that reads from a queue and downloads remote images to
    * local storage.  Runs continuously while the 
@@ -90,11 +127,24 @@ public class RemoteImageCache {
           continue;
         }
         
-        // acquire the semaphore to start downloading
+        // the time waiting for a token and a download slot is queue time
+        final RequestMetrics requestMetrics = metrics.begin(
+          SinglyMetrics.IMAGES, "GET");
+
+        // wait for an images rate limiter token then acquire the semaphore to
+        // start downloading, excess downloads wait in the queue
         try {
+          httpEngine.getRateLimiter().acquire(RateLimiter.IMAGES);
           throttle.acquire();
         }
         catch (InterruptedException ie) {
+          down.remove(nextImage.id);
+          continue;
+        }
+
+        // cancelled while waiting for a download slot
+        if (!down.contains(nextImage.id)) {
+          throttle.release();
           continue;
         }
 
@@ -102,95 +152,156 @@ public class RemoteImageCache {
         final ImageInfo imageInfo = nextImage;
         final File imageFile = new File(storageDir, imageInfo.id + ".img");
 
-        httpClient.get(imageInfo.imageUrl, null,
-          new BinaryHttpResponseHandler() {
+        httpEngine.submit(new Runnable() {
 
-            @Override
-            public void onSuccess(byte[] bytes) {
+          @Override
+          public void run() {
 
-              // image downloaded, release semaphore, let the next one go
-              throttle.release();
+            // keep the request so the download can be aborted
+            HttpGet get = new HttpGet(imageInfo.imageUrl);
+            downloads.put(imageInfo.id, get);
 
-              byte[] imageBytes = null;
-              Bitmap bitmap = null;
+            byte[] bytes = null;
+            try {
+              if (requestMetrics != null) {
+                requestMetrics.markStarted();
+              }
+              bytes = httpEngine.execute(get, IMAGE_READER, requestMetrics);
+            }
+            catch (Exception e) {
+              if (get.isAborted()) {
+                onCancelled(imageInfo);
+              }
+              else {
+                metrics.finish(requestMetrics, e);
+                onFailure(imageInfo, e);
+              }
+              return;
+            }
+            finally {
+              downloads.remove(imageInfo.id, get);
+            }
+            onSuccess(imageInfo, imageFile, bytes, requestMetrics);
+          }
+        });
+      }
+    }
+  }
 
-              try {
+  /**
+   * Samples, stores and caches a downloaded image then runs the success
+   * callback in the main UI thread.  The time to decode and sample the image
+   * is recorded as its parse time.
+   */
+  private void onSuccess(final ImageInfo imageInfo, File imageFile,
+    byte[] bytes, RequestMetrics requestMetrics) {
 
-                // if we are sampling, then sample the image and turn it into a
-                // Bitmap, if not just turn it into a Bitmap
-                if (imageInfo.sample) {
+    // image downloaded, release semaphore, let the next one go
+    throttle.release();
 
-                  bitmap = BitmapUtils.decodeAndScaleImage(bytes,
-                    imageInfo.width, imageInfo.height);
-                  ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                  bitmap.compress(imageInfo.format, imageInfo.quality, baos);
-                  imageBytes = baos.toByteArray();
-                }
-                else {
+    byte[] imageBytes = null;
+    Bitmap bitmap = null;
+    Exception decodeError = null;
+    long start = System.nanoTime();
 
-                  imageBytes = bytes;
-                  bitmap = BitmapFactory.decodeByteArray(imageBytes, 0,
-                    imageBytes.length);
-                }
+    try {
 
-                // write the Bitmap bytes to local storage
-                if (bitmap != null && imageBytes != null) {
-                  FileUtils.writeByteArrayToFile(imageFile, imageBytes);
-                  imageCache.put(imageInfo.id, bitmap);
-                }
-              }
-              catch (Exception e) {
-                // error converting bytes to image
-              }
-              finally {                
-                // remove image from the downloading state
-                down.remove(imageInfo.id);
-              }
+      // if we are sampling, then sample the image and turn it into a
+      // Bitmap, if not just turn it into a Bitmap
+      if (imageInfo.sample) {
 
-              // create a handler to ensure the callback listener runs in the
-              // main UI thread, pass in the Bitmap and the original image info
-              final Bitmap image = bitmap;
-              handler.post(new Runnable() {
-
-                @Override
-                public void run() {
-                  
-                  // run the ImageCacheListner callback for success
-                  if (imageInfo.listener != null) {
-                    imageInfo.listener.onSuccess(imageInfo, image);
-                  }
-                }
-              });
-            }
+        bitmap = BitmapUtils.decodeAndScaleImage(bytes,
+          imageInfo.width, imageInfo.height);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        bitmap.compress(imageInfo.format, imageInfo.quality, baos);
+        imageBytes = baos.toByteArray();
+      }
+      else {
 
-            @Override
-            public void onFailure(final Throwable error, byte[] bytes) {
-
-              // image download failed, release semaphore, let the next one go
-              throttle.release();
-              
-              // remove from the downloading state, add to bad images so we 
-              // won't try to download again
-              bad.add(imageInfo.id);
-              down.remove(imageInfo.id);
-              
-              // create a handler to ensure the callback listener runs in the
-              // main UI thread, pass in the error and the original image info
-              handler.post(new Runnable() {
-
-                @Override
-                public void run() {
-                  
-                  // run the ImageCacheListner callback for failure
-                  if (imageInfo.listener != null) {
-                    imageInfo.listener.onFailure(error, imageInfo);
-                  }
-                }
-              });
-            }
-          });
+        imageBytes = bytes;
+        bitmap = BitmapFactory.decodeByteArray(imageBytes, 0,
+          imageBytes.length);
+      }
+
+      if (requestMetrics != null) {
+        requestMetrics.parseNanos = System.nanoTime() - start;
+      }
+
+      // write the Bitmap bytes to local storage
+      if (bitmap != null && imageBytes != null) {
+        FileUtils.writeByteArrayToFile(imageFile, imageBytes);
+        imageCache.put(imageInfo.id, bitmap);
       }
     }
+    catch (Exception e) {
+      // error converting bytes to image
+      decodeError = e;
+    }
+    finally {                
+      // remove image from the downloading state
+      down.remove(imageInfo.id);
+    }
+    metrics.finish(requestMetrics, decodeError);
+
+    // create a handler to ensure the callback listener runs in the
+    // main UI thread, pass in the Bitmap and the original image info
+    final Bitmap image = bitmap;
+    handler.post(new Runnable() {
+
+      @Override
+      public void run() {
+        
+        // run the ImageCacheListner callback for success
+        if (imageInfo.listener != null) {
+          imageInfo.listener.onSuccess(imageInfo, image);
+        }
+      }
+    });
+  }
+
+  /**
+   * Marks a failed image download as bad if it can never succeed then runs
+   * the failure callback in the main UI thread.
+   */
+  private void onFailure(final ImageInfo imageInfo, final Throwable error) {
+
+    // image download failed, release semaphore, let the next one go
+    throttle.release();
+    
+    // remove from the downloading state, only images the server says don't
+    // exist, a 4xx, are added to bad images so we won't try to download them
+    // again, transient failures were already retried and are tried again the
+    // next time the image is asked for
+    if (error instanceof HttpResponseException) {
+      int statusCode = ((HttpResponseException)error).getStatusCode();
+      if (statusCode >= 400 && statusCode < 500) {
+        bad.add(imageInfo.id);
+      }
+    }
+    down.remove(imageInfo.id);
+    
+    // create a handler to ensure the callback listener runs in the
+    // main UI thread, pass in the error and the original image info
+    handler.post(new Runnable() {
+
+      @Override
+      public void run() {
+        
+        // run the ImageCacheListner callback for failure
+        if (imageInfo.listener != null) {
+          imageInfo.listener.onFailure(error, imageInfo);
+        }
+      }
+    });
+  }
+
+  /**
+   * Frees the download slot of a cancelled download.  No callback is run and
+   * the image is not marked as bad, it is downloaded again if asked for.
+   */
+  private void onCancelled(ImageInfo imageInfo) {
+    throttle.release();
+    down.remove(imageInfo.id);
   }
 
   /**
@@ -285,15 +396,48 @@ public class RemoteImageCache {
     return null;
   }
 
+  /**
+   * Cancels the download of an image.  An image still on the download queue
+   * is removed from it, an image downloading has its download aborted.  No
+   * callback is run for a cancelled image.  Cached images are not affected.
+   * 
+   * @param id The id of the image.
+   */
+  public void cancel(String id) {
+
+    // remove from the queue and the downloading state
+    Iterator<ImageInfo> queued = queue.iterator();
+    while (queued.hasNext()) {
+      if (queued.next().id.equals(id)) {
+        queued.remove();
+      }
+    }
+    down.remove(id);
+
+    // abort the download if it is running
+    HttpGet get = downloads.remove(id);
+    if (get != null) {
+      get.abort();
+    }
+  }
+
   /**
    * Shutdown the image cache, evicts all in memory Bitmaps, stops downloader
    * from running any future downloads.  Anything on the download queue or 
-   * anything added to the download queue after shutdown is called is lost.
+   * anything added to the download queue after shutdown is called is lost,
+   * and any running downloads are aborted.
    */
   public void shutdown() {
     
     active.set(false);
     imageCache.evictAll();
+
+    // drop queued downloads and abort running ones
+    queue.clear();
+    for (HttpGet get : downloads.values()) {
+      get.abort();
+    }
+    downloads.clear();
     
     try {
       ImageInfo poisonPill = new ImageInfo();
@@ -21,6 +21,20 @@ public class SinglyUtils {
   private static final String SINGLY_SCHEME = "https";
   private static final String SINGLY_HOST = "api.singly.com";
 
+  // the api location, can be pointed elsewhere such as a local stub server
+  private static String apiScheme = SINGLY_SCHEME;
+  private static String apiHost = SINGLY_HOST;
+  private static int apiPort = -1;
+  private static volatile String apiBaseURL = null;
+
+  /**
+   * Returns a new, unpooled AsyncHttpClient with the Singly SDK headers.
+   * 
+   * @deprecated Each client creates its own thread pool and connections.  Use
+   * the shared engine from {@link com.singly.android.client.SinglyClient#getHttpEngine()}
+   * instead.
+   */
+  @Deprecated
   public static AsyncHttpClient getHttpClient() {
     AsyncHttpClient httpClient = new AsyncHttpClient();
     httpClient.addHeader("X-Singly-SDK", SDK);
@@ -29,11 +43,46 @@ public class SinglyUtils {
   }
 
   public static String getSinglyScheme() {
-    return SINGLY_SCHEME;
+    return apiScheme;
   }
 
   public static String getSinglyHost() {
-    return SINGLY_HOST;
+    return apiHost;
+  }
+
+  public static int getSinglyPort() {
+    return apiPort;
+  }
+
+  /**
+   * Points all Singly API urls at a different location, for example a local
+   * stub server when testing.  Authentication pages are not affected.
+   * 
+   * @param scheme The url scheme, http or https.
+   * @param host The hostname.
+   * @param port The port or -1 for the default port of the scheme.
+   */
+  public static void setSinglyApi(String scheme, String host, int port) {
+    apiScheme = scheme;
+    apiHost = host;
+    apiPort = port;
+    apiBaseURL = null;
+  }
+
+  /**
+   * Returns the scheme, host and port of the Singly API as a url with no
+   * path, for example https://api.singly.com.  Built once and reused.
+   * 
+   * @return The base url of the Singly API.
+   */
+  public static String getSinglyBaseURL() {
+    String baseURL = apiBaseURL;
+    if (baseURL == null) {
+      baseURL = apiScheme + "://" + apiHost
+        + (apiPort != -1 ? ":" + apiPort : "");
+      apiBaseURL = baseURL;
+    }
+    return baseURL;
   }
 
   /**
@@ -50,7 +99,7 @@ public class SinglyUtils {
 
     // create the formatted UTF-8 url
     try {
-      return URLUtils.createURL(SINGLY_SCHEME, SINGLY_HOST, path, null);
+      return URLUtils.createURL(apiScheme, apiHost, apiPort, path, null);
     }
     catch (URISyntaxException e) {
       return null;
@@ -74,7 +123,8 @@ public class SinglyUtils {
 
     // create the formatted UTF-8 url
     try {
-      return URLUtils.createURL(SINGLY_SCHEME, SINGLY_HOST, path, parameters);
+      return URLUtils.createURL(apiScheme, apiHost, apiPort, path,
+        parameters);
     }
     catch (URISyntaxException e) {
       return null;
@@ -41,6 +41,27 @@ public class URLUtils {
   public static String createURL(String scheme, String host, String path,
     Map<String, String> parameters)
     throws URISyntaxException {
+    return createURL(scheme, host, -1, path, parameters);
+  }
+
+  /**
+   * Creates a url using the scheme, host, port, path, and the query parameters
+   * specified.
+   * 
+   * The url is assumed to be in UTF-8 format.  The query parameters are
+   * not required.
+   * 
+   * @param scheme The url scheme.
+   * @param host The url hostname.
+   * @param port The url port, -1 for the default port of the scheme.
+   * @param path The url path.
+   * @param qparams The optional url query parameters.
+   * 
+   * @return A formatted, UTF-8 url string.
+   */
+  public static String createURL(String scheme, String host, int port,
+    String path, Map<String, String> parameters)
+    throws URISyntaxException {
 
     // query parameters are optional
     String query = null;
@@ -49,7 +70,7 @@ public class URLUtils {
     }
 
     // create the formatted UTF-8 url
-    URI uri = URIUtils.createURI(scheme, host, -1, path, query, null);
+    URI uri = URIUtils.createURI(scheme, host, port, path, query, null);
 
     return uri.toASCIIString();
   }